@@ -0,0 +1,96 @@
+package roadgraph;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder side of SearchEvents.  Needs Java 11 or later to
+ * compile and run, so it is kept out of src, which stays at Java 8;
+ * SearchEvents only loads it when it was built and JFR is present.
+ */
+class JfrSearchEvents extends SearchEvents {
+	private static final EventType TYPE = EventType.getEventType(RouteQuery.class);
+
+	@Override
+	boolean isEnabled()
+	{
+		return TYPE.isEnabled();
+	}
+
+	@Override
+	void commit(String engine, int source, int target, boolean found, SearchStats stats)
+	{
+		RouteQuery event = new RouteQuery();
+		if (!event.shouldCommit()) {
+			return;
+		}
+		event.engine = engine;
+		event.source = source;
+		event.target = target;
+		event.found = found;
+		event.settled = stats.settled;
+		event.relaxations = stats.relaxations;
+		event.queuePeak = stats.queuePeak;
+		event.stalePops = stats.stalePops;
+		event.setupTime = stats.setupNanos;
+		event.searchTime = stats.searchNanos;
+		event.pathTime = stats.pathNanos;
+		event.allocated = stats.allocatedBytes;
+		event.commit();
+	}
+
+	@Name("roadgraph.RouteQuery")
+	@Label("Route Query")
+	@Category("Routing")
+	@Description("One shortest path query")
+	@StackTrace(false)
+	static class RouteQuery extends Event {
+		@Label("Engine")
+		String engine;
+
+		@Label("Source")
+		int source;
+
+		@Label("Target")
+		int target;
+
+		@Label("Found")
+		boolean found;
+
+		@Label("Settled Vertices")
+		int settled;
+
+		@Label("Edge Relaxations")
+		int relaxations;
+
+		@Label("Queue Peak")
+		int queuePeak;
+
+		@Label("Stale Pops")
+		int stalePops;
+
+		@Label("Setup Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long setupTime;
+
+		@Label("Search Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long searchTime;
+
+		@Label("Path Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long pathTime;
+
+		@Label("Allocated")
+		@Description("Bytes allocated by the query, or -1 if allocation tracking is off")
+		@DataAmount
+		long allocated;
+	}
+}
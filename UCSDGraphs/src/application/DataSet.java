@@ -3,6 +3,7 @@ package application;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.DoubleConsumer;
 
 import geography.GeographicPoint;
 import util.GraphLoader;
@@ -15,6 +16,11 @@ import util.GraphLoader;
  *
  */
 public class DataSet {
+	// about what a loaded intersection and road take on the heap, with
+	// their road shapes, measured on the maps in data/maps
+	private static final long BYTES_PER_INTERSECTION = 400;
+	private static final long BYTES_PER_ROAD = 500;
+
 	String filePath;
 	roadgraph.MapGraph graph;
 	Set<GeographicPoint> intersections;
@@ -55,11 +61,46 @@ public class DataSet {
     public HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  getRoads() { return this.roads; }
 
     public void initializeGraph() {
-        graph = new roadgraph.MapGraph();
-        roads = new HashMap<geography.GeographicPoint, HashSet<geography.RoadSegment>>();
-        intersections = new HashSet<GeographicPoint>();
+        initializeGraph(done -> {});
+    }
+
+    /** Load the graph from the file, replacing any loaded before.  Until
+     * it is done the data set stays as it was.
+     * @param progress Told the fraction done, from 0 to 1
+     */
+    public void initializeGraph(DoubleConsumer progress) {
+        roadgraph.MapGraph newGraph = new roadgraph.MapGraph();
+        HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>> newRoads =
+                new HashMap<geography.GeographicPoint, HashSet<geography.RoadSegment>>();
+        Set<GeographicPoint> newIntersections = new HashSet<GeographicPoint>();
         //TODO: change to use intersections for points in graph.
-    	GraphLoader.loadRoadMap(filePath, graph, roads, intersections);
+    	GraphLoader.loadRoadMap(filePath, newGraph, newRoads, newIntersections, progress);
+        graph = newGraph;
+        roads = newRoads;
+        intersections = newIntersections;
+    }
+
+    /** @return true if the graph has been loaded and not unloaded since */
+    public boolean isLoaded() {
+        return graph != null;
+    }
+
+    /** Drop the graph and roads to free the memory; they are loaded again
+     * by the next initializeGraph */
+    public void unload() {
+        graph = null;
+        roads = null;
+        intersections = null;
+    }
+
+    /** @return About how much memory the loaded graph and roads take, in
+     *   bytes, or 0 if they are not loaded */
+    public long getMemoryEstimate() {
+        roadgraph.MapGraph g = graph;
+        if (g == null) {
+            return 0;
+        }
+        return g.getNumVertices() * BYTES_PER_INTERSECTION + g.getNumEdges() * BYTES_PER_ROAD;
     }
 
 	public String getFilePath() {
@@ -40,6 +40,7 @@ import java.util.List;
 
 import application.controllers.FetchController;
 import application.controllers.RouteController;
+import application.services.DataSetService;
 import application.services.GeneralService;
 import application.services.RouteService;
 import gmapsfx.GoogleMapView;
@@ -149,7 +150,7 @@ implements MapComponentInitializedListener {
 			// initialize controllers
 			new RouteController(rs, routeButton, hideRouteButton, resetButton, startButton, destinationButton, group, searchOptions, visualizationButton,
 					startLabel, endLabel, pointLabel, manager, markerManager);
-			new FetchController(gs, rs, tf, fetchButton, cb, displayButton);
+			new FetchController(gs, rs, new DataSetService(), tf, fetchButton, cb, displayButton);
 		});
 
 		// add components to border pane
@@ -7,10 +7,18 @@
 package application;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
+import geography.ClusterIndex;
+
+import gmapsfx.javascript.IJavascriptRuntime;
+import gmapsfx.javascript.JavascriptRuntime;
+import gmapsfx.javascript.event.MapStateEventType;
 import gmapsfx.javascript.event.UIEventType;
 import gmapsfx.javascript.object.Animation;
 import gmapsfx.javascript.object.GoogleMap;
@@ -35,6 +43,7 @@ public class MarkerManager {
     protected static String SELECTED_URL = "http://maps.google.com/mapfiles/kml/paddle/ltblu-circle.png";
     protected static String markerURL = "http://maps.google.com/mapfiles/kml/paddle/blu-diamond-lv.png";
 	protected static String visURL = "http://maps.google.com/mapfiles/kml/paddle/red-diamond-lv.png";
+    protected static String clusterURL = "http://maps.google.com/mapfiles/kml/paddle/blu-circle.png";
     private Marker startMarker;
     private Marker destinationMarker;
     private Marker selectedMarker;
@@ -45,6 +54,18 @@ public class MarkerManager {
     private Button vButton;
     private boolean selectMode = true;
 
+    // Only what is in view is on the map: intersections are grouped into
+    // clusters, and a marker is made for an intersection the first time
+    // it is in view at a zoom where it stands alone.
+    private ClusterIndex clusters;
+    private Set<geography.GeographicPoint> shownPoints = new HashSet<geography.GeographicPoint>();
+    // every cluster marker made, by cell, and the ones on the map
+    private HashMap<Long, Marker> clusterMarkers = new HashMap<Long, Marker>();
+    private Set<Long> shownClusters = new HashSet<Long>();
+    // true while a route is shown, when only its ends are on the map
+    private boolean intermediateHidden;
+    private boolean idleHandlerAdded;
+
     public MarkerManager() {
     	markerMap = new HashMap<geography.GeographicPoint, Marker>();
     	this.map = null;
@@ -108,7 +129,7 @@ public class MarkerManager {
             changeIcon(startMarker, markerURL);
 //            startMarker.setZIndex(DEFAULT_Z);
     	}
-        startMarker = markerMap.get(point);
+        startMarker = showMarker(point);
 //        startMarker.setZIndex(STRTDEST_Z);
         changeIcon(startMarker, startURL);
     }
@@ -117,7 +138,7 @@ public class MarkerManager {
     		destinationMarker.setIcon(markerURL);
 //            destinationMarker.setZIndex(DEFAULT_Z);
     	}
-        destinationMarker = markerMap.get(point);
+        destinationMarker = showMarker(point);
 //        destinationMarker.setZIndex(STRTDEST_Z);
         changeIcon(destinationMarker, destinationURL);
     }
@@ -132,24 +153,37 @@ public class MarkerManager {
      * TODO -- Might need to create all new markers and add them??
      */
     public void restoreMarkers() {
-    	Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
-        while(it.hasNext()) {
-            Marker marker = markerMap.get(it.next());
-            // destination marker needs to be added because it is added in javascript
-            if(marker != startMarker) {
-                marker.setVisible(false);
-                marker.setVisible(true);
+        intermediateHidden = false;
+        IJavascriptRuntime runtime = JavascriptRuntime.getInstance();
+        runtime.beginBatch();
+        try {
+            Iterator<geography.GeographicPoint> it = shownPoints.iterator();
+            while(it.hasNext()) {
+                Marker marker = markerMap.get(it.next());
+                // destination marker needs to be added because it is added in javascript
+                if(marker != startMarker) {
+                    marker.setVisible(false);
+                    marker.setVisible(true);
+                }
             }
+        } finally {
+            runtime.flushBatch();
         }
+        updateMarkers();
         selectManager.resetSelect();
     }
 
     public void refreshMarkers() {
-
-    	Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
-        while(it.hasNext()) {
-        	Marker marker = markerMap.get(it.next());
-        	marker.setVisible(true);
+        IJavascriptRuntime runtime = JavascriptRuntime.getInstance();
+        runtime.beginBatch();
+        try {
+            Iterator<geography.GeographicPoint> it = shownPoints.iterator();
+            while(it.hasNext()) {
+                Marker marker = markerMap.get(it.next());
+                marker.setVisible(true);
+            }
+        } finally {
+            runtime.flushBatch();
         }
     }
     public void clearMarkers() {
@@ -157,10 +191,32 @@ public class MarkerManager {
         	rv.clearMarkers();
         	rv = null;
         }
-    	Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
-    	while(it.hasNext()) {
-    		markerMap.get(it.next()).setVisible(false);
-    	}
+        removeAllMarkers();
+    }
+
+    // Take every intersection and cluster marker off the map and forget them
+    private void removeAllMarkers() {
+        IJavascriptRuntime runtime = JavascriptRuntime.getInstance();
+        runtime.beginBatch();
+        try {
+            Iterator<geography.GeographicPoint> it = shownPoints.iterator();
+            while(it.hasNext()) {
+                map.removeMarker(markerMap.get(it.next()));
+            }
+            for (Long cell : shownClusters) {
+                map.removeMarker(clusterMarkers.get(cell));
+            }
+        } finally {
+            runtime.flushBatch();
+        }
+        shownPoints.clear();
+        shownClusters.clear();
+        clusterMarkers.clear();
+        markerMap.clear();
+        startMarker = null;
+        destinationMarker = null;
+        selectedMarker = null;
+        clusters = null;
     }
 
     public void setSelectMode(boolean value) {
@@ -184,14 +240,8 @@ public class MarkerManager {
     }
 
     public void hideIntermediateMarkers() {
-        Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
-        while(it.hasNext()) {
-            Marker marker = markerMap.get(it.next());
-            if(marker != startMarker && marker != destinationMarker) {
-                marker.setVisible(false);
-            }
-//        	map.addMarker(marker);
-        }
+        intermediateHidden = true;
+        updateMarkers();
     }
 
     public void hideDestinationMarker() {
@@ -210,26 +260,145 @@ public class MarkerManager {
     }
     public void displayDataSet() {
         markerPositions = new ArrayList<geography.GeographicPoint>();
-        dataSet.initializeGraph();
+        if (!dataSet.isLoaded()) {
+            dataSet.initializeGraph();
+        }
+        removeAllMarkers();
+        intermediateHidden = false;
     	Iterator<geography.GeographicPoint>it = dataSet.getIntersections().iterator();
-        bounds = new LatLongBounds();
+        // work out the bounds here rather than in the map
+        double south = 90, north = -90, west = 180, east = -180;
         while(it.hasNext()) {
         	geography.GeographicPoint point = it.next();
-            LatLong ll = new LatLong(point.getX(), point.getY());
-        	MarkerOptions markerOptions = createDefaultOptions(ll);
-            bounds.extend(ll);
-        	Marker marker = new Marker(markerOptions);
-            registerEvents(marker, point);
-        	map.addMarker(marker);
-        	putMarker(point, marker);
+            south = Math.min(south, point.getX());
+            north = Math.max(north, point.getX());
+            west = Math.min(west, point.getY());
+            east = Math.max(east, point.getY());
         	markerPositions.add(point);
-//            marker.setZIndex(DEFAULT_Z);
         }
+        clusters = new ClusterIndex(markerPositions);
+        if (markerPositions.isEmpty()) {
+            return;
+        }
+        if (!idleHandlerAdded) {
+            // after every pan and zoom
+            map.addStateEventHandler(MapStateEventType.idle, () -> updateMarkers());
+            idleHandlerAdded = true;
+        }
+        bounds = new LatLongBounds(new LatLong(south, west), new LatLong(north, east));
         map.fitBounds(bounds);
+        updateMarkers();
         // System.out.println("End of display Intersections");
 
     }
 
+    /**
+     * Bring the markers on the map up to date with the view: add the
+     * clusters and intersections that have come into view and remove the
+     * ones that have left it, in one batch.  The start, destination and
+     * selected markers always stay.
+     */
+    private void updateMarkers() {
+        if (clusters == null || map == null) {
+            return;
+        }
+        LatLongBounds view = map.getBounds();
+        if (view == null) {
+            return;
+        }
+        LatLong sw = view.getSouthWest();
+        LatLong ne = view.getNorthEast();
+        double west = sw.getLongitude();
+        double east = ne.getLongitude();
+        if (west > east) {
+            // the view crosses the date line
+            west = -180;
+            east = 180;
+        }
+        List<ClusterIndex.Cluster> wanted = intermediateHidden
+                ? Collections.<ClusterIndex.Cluster>emptyList()
+                : clusters.query(sw.getLatitude(), west, ne.getLatitude(), east, map.getZoom());
+        Set<geography.GeographicPoint> points = new HashSet<geography.GeographicPoint>();
+        Set<Long> cells = new HashSet<Long>();
+        for (ClusterIndex.Cluster c : wanted) {
+            if (c.getPoint() != null) {
+                points.add(c.getPoint());
+            }
+            else {
+                cells.add(c.getKey());
+            }
+        }
+
+        IJavascriptRuntime runtime = JavascriptRuntime.getInstance();
+        runtime.beginBatch();
+        try {
+            Iterator<geography.GeographicPoint> it = shownPoints.iterator();
+            while (it.hasNext()) {
+                geography.GeographicPoint point = it.next();
+                Marker marker = markerMap.get(point);
+                if (!points.contains(point) && marker != startMarker
+                        && marker != destinationMarker && marker != selectedMarker) {
+                    map.removeMarker(marker);
+                    it.remove();
+                }
+            }
+            Iterator<Long> cellIt = shownClusters.iterator();
+            while (cellIt.hasNext()) {
+                Long cell = cellIt.next();
+                if (!cells.contains(cell)) {
+                    map.removeMarker(clusterMarkers.get(cell));
+                    cellIt.remove();
+                }
+            }
+            for (ClusterIndex.Cluster c : wanted) {
+                if (c.getPoint() != null) {
+                    showMarker(c.getPoint());
+                }
+                else if (shownClusters.add(c.getKey())) {
+                    map.addMarker(clusterMarker(c));
+                }
+            }
+        } finally {
+            runtime.flushBatch();
+        }
+    }
+
+    // The marker of an intersection, made if need be, put on the map
+    private Marker showMarker(geography.GeographicPoint point) {
+        Marker marker = markerMap.get(point);
+        if (marker == null) {
+            marker = new Marker(createDefaultOptions(new LatLong(point.getX(), point.getY())));
+            registerEvents(marker, point);
+            putMarker(point, marker);
+        }
+        if (shownPoints.add(point)) {
+            map.addMarker(marker);
+        }
+        return marker;
+    }
+
+    // The marker of a cluster, made if need be; clicking it zooms in on it
+    private Marker clusterMarker(ClusterIndex.Cluster cluster) {
+        Marker marker = clusterMarkers.get(cluster.getKey());
+        if (marker == null) {
+            LatLong center = new LatLong(cluster.getLatitude(), cluster.getLongitude());
+            MarkerOptions options = new MarkerOptions();
+            options.icon(clusterURL)
+                   .position(center)
+                   .label(String.valueOf(cluster.getCount()))
+                   .title(cluster.getCount() + " intersections")
+                   .visible(true);
+            marker = new Marker(options);
+            int zoom = Math.min(cluster.getZoom() + 2, ClusterIndex.MAX_CLUSTER_ZOOM + 1);
+            map.addUIEventHandler(marker, UIEventType.click, (JSObject o) -> {
+                map.setCenter(center);
+                map.setZoom(zoom);
+            });
+            clusterMarkers.put(cluster.getKey(), marker);
+        }
+        return marker;
+    }
+
 
     private void registerEvents(Marker marker, geography.GeographicPoint point) {
         /*map.addUIEventHandler(marker, UIEventType.mouseover, (JSObject o) -> {
@@ -1,91 +1,103 @@
 /** Class to aid with route visualization for search
- *  
+ *
+ * The intersections a search visits are offered from the routing thread
+ * and reach the map in frames (see util.FramePublisher), each drawn as a
+ * set of dots on a canvas by addSearchDots in html/visual.js, so the
+ * search can be watched as it spreads.  A frame is only asked for once
+ * the last one has been drawn; if the map falls behind, the points are
+ * thinned rather than queued, so a big search neither stalls the map
+ * nor holds every point in memory.
+ *
  * @author UCSD MOOC development team
  *
  */
 
 package application;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import gmapsfx.javascript.IJavascriptRuntime;
-import gmapsfx.javascript.JavascriptArray;
 import gmapsfx.javascript.JavascriptRuntime;
-import gmapsfx.javascript.object.GoogleMap;
-import gmapsfx.javascript.object.LatLong;
-import gmapsfx.javascript.object.LatLongBounds;
-import gmapsfx.javascript.object.Marker;
-import gmapsfx.javascript.object.MarkerOptions;
-import javafx.concurrent.Task;
-import javafx.scene.control.Button;
-import netscape.javascript.JSObject;
-
-public class RouteVisualization {
-	List<geography.GeographicPoint> points;
-    ArrayList<Marker> markerList;
+import javafx.application.Platform;
+import util.FramePublisher;
+
+public class RouteVisualization implements FramePublisher.Subscriber<geography.GeographicPoint> {
+    // one frame about every screen refresh, of at most FRAME_CAPACITY points
+    private static final long FRAME_MILLIS = 16;
+    private static final int FRAME_CAPACITY = 4096;
+
 	MarkerManager manager;
-	JavascriptArray markers;
     IJavascriptRuntime runtime;
-
+    private final FramePublisher<geography.GeographicPoint> publisher;
+    private FramePublisher.Subscription subscription;
+    private boolean cleared;
 
 
 
 	public RouteVisualization(MarkerManager manager) {
-        points = new ArrayList<geography.GeographicPoint>();
-        markerList = new ArrayList<Marker>();
 		this.manager = manager;
-
+    	runtime = JavascriptRuntime.getInstance();
+    	runtime.execute(runtime.getFunction("startSearchDots", manager.getMap()));
+        publisher = new FramePublisher<geography.GeographicPoint>(FRAME_MILLIS, FRAME_CAPACITY,
+                Platform::runLater);
+        publisher.subscribe(this);
 	}
 
+    /** Add an intersection the search has visited; may be called from
+     * any one thread */
     public void acceptPoint(geography.GeographicPoint point) {
-    	points.add(point);
+    	publisher.offer(point);
+    }
 
-        // System.out.println("accepted point : " + point);
+    /** Say the search has finished, so the last points are drawn */
+    public void finish() {
+        publisher.close();
     }
 
+    @Override
+    public void onSubscribe(FramePublisher.Subscription subscription) {
+        this.subscription = subscription;
+        if (cleared) {
+            subscription.cancel();
+        }
+        else {
+            subscription.request(1);
+        }
+    }
 
+    @Override
+    public void onNext(FramePublisher.Frame<geography.GeographicPoint> frame) {
+        if (cleared) {
+            return;
+        }
+        double[] coords = new double[2 * frame.getItems().size()];
+        int i = 0;
+        for (geography.GeographicPoint point : frame.getItems()) {
+            coords[i++] = point.getX();
+            coords[i++] = point.getY();
+        }
+        // one call, so it goes across the bridge on its own
+        runtime.queueFunction(null, "addSearchDots", coords);
+        subscription.request(1);
+    }
 
-    public void startVisualization() {
+    @Override
+    public void onComplete() {
+    }
 
-    	LatLongBounds bounds = new LatLongBounds();
-    	List<LatLong> latLongs = new ArrayList<LatLong>();
-    	JavascriptArray jsArray = new JavascriptArray();
+    public void startVisualization() {
     	manager.hideIntermediateMarkers();
-        manager.hideDestinationMarker();
-//    	manager.disableRouteButtons(true);
-
-    	// create JavascriptArray of points
-    	for(geography.GeographicPoint point : points) {
-    		LatLong ll = new LatLong(point.getX(), point.getY());
-    		MarkerOptions options = MarkerManager.createDefaultOptions(ll);
-    		Marker newMarker = new Marker(options);
-            jsArray.push(newMarker);
-            markerList.add(newMarker);
-            bounds.extend(ll);
-    	}
-
-    	// fit map bounds to visualization
-    	manager.getMap().fitBounds(bounds);
-
-        // get javascript runtime and execute animation
-    	runtime = JavascriptRuntime.getInstance();
-    	String command = runtime.getFunction("visualizeSearch", manager.getMap(), jsArray);
-    	// System.out.println(command);
 
-    	runtime.execute(command);
+        // draw the dots again in order, then tell how many were visited
+    	runtime.execute(runtime.getFunction("replaySearchDots", publisher.getOffered()));
 
-//    	MapApp.showInfoAlert("Nodes visited :"  , latLongs.size() +" nodes were visited in the search");
     	manager.disableVisButton(true);
-//        manager.disableRouteButtons(false);
-
-
     }
 
     public void clearMarkers() {
-    	for(Marker marker : markerList) {
-    		marker.setVisible(false);
-    	}
+        cleared = true;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    	runtime.execute("clearSearchDots()");
     }
 
 
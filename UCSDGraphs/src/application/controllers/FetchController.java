@@ -3,11 +3,14 @@ package application.controllers;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.sun.javafx.geom.Rectangle;
 
 import application.DataSet;
 import application.MapApp;
+import application.services.DataSetService;
 import application.services.GeneralService;
 import application.services.RouteService;
 import gmapsfx.javascript.object.GoogleMap;
@@ -30,6 +33,7 @@ public class FetchController {
     private static final int ROW_COUNT = 5;
     private GeneralService generalService;
     private RouteService routeService;
+    private DataSetService dataSetService;
     private Node container;
     private Button fetchButton;
     private Button displayButton;
@@ -42,10 +46,12 @@ public class FetchController {
     private String persistPath = "data/maps/mapfiles.list";
 
 
-    public FetchController(GeneralService generalService, RouteService routeService, TextField writeFile,
+    public FetchController(GeneralService generalService, RouteService routeService,
+    					   DataSetService dataSetService, TextField writeFile,
     					   Button fetchButton, ComboBox<DataSet> cb, Button displayButton) {
         this.generalService = generalService;
         this.routeService = routeService;
+        this.dataSetService = dataSetService;
         this.fetchButton = fetchButton;
         this.displayButton = displayButton;
         this.writeFile = writeFile;
@@ -60,13 +66,17 @@ public class FetchController {
     private void loadDataSets() {
     	try {
 			BufferedReader reader = new BufferedReader(new FileReader(persistPath));
+            List<DataSet> dataSets = new ArrayList<DataSet>();
             String line = reader.readLine();
             while(line != null) {
-            	dataChoices.getItems().add(new DataSet(GeneralService.getDataSetDirectory() + line));
+            	dataSets.add(new DataSet(GeneralService.getDataSetDirectory() + line));
                 line = reader.readLine();
             }
 
             reader.close();
+            dataChoices.getItems().addAll(dataSets);
+            // load them in the background, so choosing one is quick
+            dataSetService.prefetch(dataSets);
 		} catch (IOException e) {
             // System.out.println("No existing map files found.");
 			e.printStackTrace();
@@ -161,6 +171,7 @@ public class FetchController {
      * Registers event to fetch data
      */
     private void setupDisplayButton() {
+    	String displayText = displayButton.getText();
     	displayButton.setOnAction( e -> {
             // System.out.println("In setup display button");
             DataSet dataSet = dataChoices.getValue();
@@ -174,11 +185,27 @@ public class FetchController {
     			alert.showAndWait();
             }
             else if(!dataSet.isDisplayed()) {
-            	// TODO -- only time I need route service ....redo?
-                if(routeService.isRouteDisplayed()) {
-                	routeService.hideRoute();
-                }
-        		generalService.displayIntersections(dataSet);
+            	// load it in the background, if it is not loaded already,
+            	// showing how far it has got on the button
+            	displayButton.setDisable(true);
+            	dataSetService.load(dataSet,
+            			done -> {
+            		if (done < 0) {
+            			displayButton.setText(displayText);
+            			displayButton.setDisable(false);
+            		}
+            		else {
+            			displayButton.setText("Loading: " + Math.round(100 * done) + "%");
+            		}
+            	}, loaded -> {
+            		displayButton.setText(displayText);
+            		displayButton.setDisable(false);
+                	// TODO -- only time I need route service ....redo?
+                    if(routeService.isRouteDisplayed()) {
+                    	routeService.hideRoute();
+                    }
+            		generalService.displayIntersections(loaded);
+            	});
 
             }
             else {
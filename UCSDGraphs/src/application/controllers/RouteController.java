@@ -87,6 +87,11 @@ public class RouteController {
 
 
 	private void setupDisplayButtons() {
+		// searches run in the background; show how far one has got
+		String displayText = displayButton.getText();
+		routeService.setProgressListener(count -> {
+			displayButton.setText((count < 0) ? displayText : "Searching: " + count);
+		});
 		displayButton.setOnAction(e -> {
             if(startLabel.getItem() != null && endLabel.getItem() != null) {
         			routeService.displayRoute(startLabel.getItem(), endLabel.getItem(), selectedToggle);
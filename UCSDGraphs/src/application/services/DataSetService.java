@@ -0,0 +1,206 @@
+package application.services;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+import application.DataSet;
+import application.MapApp;
+import javafx.concurrent.Task;
+
+/**
+ * Loads data sets off the JavaFX thread and keeps the ones used lately.
+ *
+ * Loading a map file builds its graph and road shapes on a loader thread,
+ * reporting progress as it goes, so the map stays responsive.  Loaded
+ * data sets are kept in least-recently-used order while their estimated
+ * size (DataSet.getMemoryEstimate) fits in a memory budget; past that the
+ * ones used longest ago are unloaded, except the one displayed.  Data
+ * sets can also be prefetched: loaded one at a time in the background,
+ * but only into room left in the budget, so they never push out data
+ * sets that have been used.
+ *
+ * Every method must be called on the JavaFX thread, and every callback
+ * is made on it.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class DataSetService {
+	// a quarter of the heap, unless told otherwise
+	private static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+	private final long budget;
+	private final ExecutorService loader = Executors.newFixedThreadPool(2, r -> {
+		Thread t = new Thread(r, "data set loader");
+		t.setDaemon(true);
+		return t;
+	});
+	// loaded data sets, least recently used first, with their sizes
+	private final LinkedHashMap<DataSet, Long> cache = new LinkedHashMap<DataSet, Long>(16, 0.75f, true);
+	private long cachedBytes;
+	private final Map<DataSet, Task<DataSet>> loading = new HashMap<DataSet, Task<DataSet>>();
+	// data sets being loaded that a caller is waiting for
+	private final Set<DataSet> wanted = new HashSet<DataSet>();
+	private final ArrayDeque<DataSet> prefetchQueue = new ArrayDeque<DataSet>();
+	private Task<DataSet> prefetching;
+
+	public DataSetService() {
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param budget The most memory, in bytes, the data sets kept should
+	 *   take (by their estimates); the one displayed is kept regardless
+	 */
+	public DataSetService(long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("DataSetService: negative budget " + budget);
+		}
+		this.budget = budget;
+	}
+
+	/**
+	 * Make sure a data set is loaded, loading it in the background if it
+	 * is not
+	 * @param dataSet The data set
+	 * @param progress Told the fraction loaded, from 0 to 1, while loading,
+	 *   and -1 if loading fails
+	 * @param done Given the data set once it is loaded; at once if it
+	 *   already is
+	 */
+	public void load(DataSet dataSet, DoubleConsumer progress, Consumer<DataSet> done) {
+		if (dataSet.isLoaded()) {
+			touch(dataSet);
+			done.accept(dataSet);
+			return;
+		}
+		prefetchQueue.remove(dataSet);
+		Task<DataSet> task = loading.get(dataSet);
+		if (task == null) {
+			task = startLoading(dataSet);
+		}
+		wanted.add(dataSet);
+		Task<DataSet> running = task;
+		progress.accept(Math.max(0, running.getProgress()));
+		running.progressProperty().addListener((obs, oldValue, newValue) -> {
+			if (running.isRunning()) {
+				progress.accept(Math.max(0, newValue.doubleValue()));
+			}
+		});
+		running.stateProperty().addListener((obs, oldState, newState) -> {
+			switch (newState) {
+			case SUCCEEDED:
+				touch(dataSet);
+				done.accept(dataSet);
+				break;
+			case FAILED:
+				progress.accept(-1);
+				MapApp.showErrorAlert("Loading Error : ", "Could not load " + dataSet.getFilePath()
+						+ " : " + running.getException());
+				break;
+			default:
+				break;
+			}
+		});
+	}
+
+	/**
+	 * Load data sets in the background, one at a time in the order given,
+	 * while there is room for them in the memory budget
+	 * @param dataSets The data sets
+	 */
+	public void prefetch(Collection<DataSet> dataSets) {
+		for (DataSet dataSet : dataSets) {
+			if (!dataSet.isLoaded() && !loading.containsKey(dataSet) && !prefetchQueue.contains(dataSet)) {
+				prefetchQueue.add(dataSet);
+			}
+		}
+		prefetchNext();
+	}
+
+	/** @return The estimated memory taken by the data sets kept, in bytes */
+	public long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	// Prefetch the next data set in the queue, if there is room
+	private void prefetchNext() {
+		if (prefetching != null || prefetchQueue.isEmpty() || cachedBytes >= budget) {
+			return;
+		}
+		DataSet dataSet = prefetchQueue.poll();
+		prefetching = startLoading(dataSet);
+		prefetching.stateProperty().addListener((obs, oldState, newState) -> {
+			if (newState == Task.State.SUCCEEDED || newState == Task.State.FAILED) {
+				prefetching = null;
+				prefetchNext();
+			}
+		});
+	}
+
+	private Task<DataSet> startLoading(DataSet dataSet) {
+		Task<DataSet> task = new Task<DataSet>() {
+			@Override
+			protected DataSet call() {
+				dataSet.initializeGraph(done -> updateProgress(done, 1));
+				return dataSet;
+			}
+		};
+		loading.put(dataSet, task);
+		// added before any caller's listener, so the data set is in the
+		// cache by the time they hear of it
+		task.stateProperty().addListener((obs, oldState, newState) -> {
+			if (newState == Task.State.SUCCEEDED) {
+				loading.remove(dataSet);
+				cached(dataSet, !wanted.remove(dataSet));
+			}
+			else if (newState == Task.State.FAILED) {
+				loading.remove(dataSet);
+				wanted.remove(dataSet);
+			}
+		});
+		loader.execute(task);
+		return task;
+	}
+
+	// A data set has been loaded: keep it and keep to the budget
+	private void cached(DataSet dataSet, boolean prefetched) {
+		long bytes = dataSet.getMemoryEstimate();
+		if (prefetched && cachedBytes + bytes > budget) {
+			// no room after all; a prefetch never pushes anything out
+			dataSet.unload();
+			prefetchQueue.clear();
+			return;
+		}
+		Long old = cache.put(dataSet, bytes);
+		cachedBytes += bytes - ((old == null) ? 0 : old);
+		Iterator<Map.Entry<DataSet, Long>> it = cache.entrySet().iterator();
+		while (cachedBytes > budget && it.hasNext()) {
+			Map.Entry<DataSet, Long> eldest = it.next();
+			DataSet d = eldest.getKey();
+			if (d != dataSet && !d.isDisplayed()) {
+				d.unload();
+				cachedBytes -= eldest.getValue();
+				it.remove();
+			}
+		}
+	}
+
+	// Mark a data set as the most recently used
+	private void touch(DataSet dataSet) {
+		if (cache.get(dataSet) == null && dataSet.isLoaded()) {
+			// loaded some other way
+			cached(dataSet, false);
+		}
+	}
+}
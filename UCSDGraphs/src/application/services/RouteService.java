@@ -5,9 +5,13 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 
 import application.DataSet;
@@ -19,14 +23,17 @@ import application.controllers.RouteController;
 import java.util.Iterator;
 
 import geography.GeographicPoint;
-import geography.RoadSegment;
 import gmapsfx.GoogleMapView;
+import gmapsfx.javascript.IJavascriptRuntime;
+import gmapsfx.javascript.JavascriptRuntime;
 import gmapsfx.javascript.object.GoogleMap;
 import gmapsfx.javascript.object.LatLong;
 import gmapsfx.javascript.object.LatLongBounds;
-import gmapsfx.javascript.object.MVCArray;
 import gmapsfx.shapes.Polyline;
+import javafx.application.Platform;
 import javafx.scene.control.Button;
+import roadgraph.MapGraph;
+import roadgraph.SearchCancelledException;
 
 public class RouteService {
 	private GoogleMap map;
@@ -35,11 +42,33 @@ public class RouteService {
     private MarkerManager markerManager;
     private Polyline routeLine;
     private RouteVisualization rv;
+    // the intersections of the route shown, and the zoom it is drawn for
+    private List<geography.GeographicPoint> routePath;
+    private int routeZoom;
+
+    // Searches run on their own thread so the map stays responsive.  Each
+    // request gets a number; a search gives up as soon as a newer request
+    // (or hiding the route) has taken the number on.
+    private static final long PROGRESS_NANOS = 100000000L;	// 10 updates a second
+    private final ExecutorService routingExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "routing");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong latestRequest = new AtomicLong();
+    private Future<?> pendingRoute;
+    private IntConsumer progressListener = n -> {};
 
 	public RouteService(GoogleMapView mapComponent, MarkerManager manager) {
 		this.map = mapComponent.getMap();
         this.markerManager = manager;
 
+        // draw the route again, with the detail for the new zoom
+        map.zoomProperty().addListener((obs, oldZoom, newZoom) -> {
+            if (routeLine != null && routePath != null && newZoom.intValue() != routeZoom) {
+                drawRouteLine();
+            }
+        });
 	}
     // COULD SEPARATE INTO ROUTE SERVICES IF CONTROLLER
 	// GETS BIG
@@ -51,21 +80,24 @@ public class RouteService {
 	 * Displays route on Google Map
 	 * @return returns false if route fails to display
 	 */
-	private boolean displayRoute(List<LatLong> route) {
+	private boolean displayRoute(List<geography.GeographicPoint> route) {
 
         if(routeLine != null) {
         	removeRouteLine();
         }
-		routeLine = new Polyline();
-		MVCArray path = new MVCArray();
-		LatLongBounds bounds = new LatLongBounds();
-		for(LatLong point : route)  {
-			path.push(point);
-            bounds = bounds.extend(point);
-		}
-		routeLine.setPath(path);
-
-		map.addMapShape(routeLine);
+        routePath = route;
+        // the bounds of the whole route, worked out here rather than
+        // one call into the map per point
+        double[] coords = markerManager.getDataSet().getGraph().getRouteCoordinates(route);
+        double south = coords[0], north = coords[0], west = coords[1], east = coords[1];
+        for (int i = 2; i < coords.length; i += 2) {
+            south = Math.min(south, coords[i]);
+            north = Math.max(north, coords[i]);
+            west = Math.min(west, coords[i + 1]);
+            east = Math.max(east, coords[i + 1]);
+        }
+		LatLongBounds bounds = new LatLongBounds(new LatLong(south, west), new LatLong(north, east));
+		drawRouteLine();
 
 		//System.out.println(bounds.getNorthEast());
 		//EXCEPTION getBounds() messed up??
@@ -78,7 +110,52 @@ public class RouteService {
 		return true;
 	}
 
+    // (Re)draw the route line with the detail for the map's zoom, in one
+    // call to the map: the points go as one array to setLatLngPath in
+    // html/visual.js rather than a LatLong and a push each
+    private void drawRouteLine() {
+        routeZoom = Math.max(0, Math.min(map.getZoom(), geography.GeometryStore.MAX_ZOOM));
+        double[] coords = markerManager.getDataSet().getGraph().getRouteCoordinates(routePath, routeZoom);
+        IJavascriptRuntime runtime = JavascriptRuntime.getInstance();
+        runtime.beginBatch();
+        try {
+            if (routeLine != null) {
+                map.removeMapShape(routeLine);
+            }
+            routeLine = new Polyline();
+            runtime.queueFunction(null, "setLatLngPath", routeLine, coords);
+            map.addMapShape(routeLine);
+        } finally {
+            runtime.flushBatch();
+        }
+    }
+
+    /**
+     * Set what to tell about a search in progress
+     * @param listener Called on the JavaFX thread, at most 10 times a
+     *   second, with the number of intersections searched so far, and
+     *   with -1 when the search has finished or been cancelled
+     */
+    public void setProgressListener(IntConsumer listener) {
+        progressListener = listener;
+    }
+
+    // Stop the search in progress, if any
+    private void cancelRoute() {
+        latestRequest.incrementAndGet();
+        if (pendingRoute != null) {
+            pendingRoute.cancel(true);
+            pendingRoute = null;
+            progressListener.accept(-1);
+            // the dots of the search given up
+            if (markerManager.getVisualization() != null) {
+                markerManager.clearVisualization();
+            }
+        }
+    }
+
     public void hideRoute() {
+        cancelRoute();
     	if(routeLine != null) {
         	map.removeMapShape(routeLine);
         	if(markerManager.getVisualization() != null) {
@@ -87,16 +164,24 @@ public class RouteService {
             markerManager.restoreMarkers();
         	markerManager.disableVisButton(true);
             routeLine = null;
+            routePath = null;
     	}
     }
 
     public void reset() {
+        cancelRoute();
         removeRouteLine();
     }
 
     public boolean isRouteDisplayed() {
     	return routeLine != null;
     }
+    /**
+     * Find a route on the routing thread and show it when it is found.
+     * Asking again before then cancels the first search.
+     * @return false if a route is already shown or the search type is
+     *   unknown, true if the search has been started
+     */
     public boolean displayRoute(geography.GeographicPoint start, geography.GeographicPoint end, int toggle) {
         if(routeLine == null) {
         	if(markerManager.getVisualization() != null) {
@@ -105,34 +190,16 @@ public class RouteService {
 
         	if(toggle == RouteController.DIJ || toggle == RouteController.A_STAR ||
         			toggle == RouteController.BFS) {
+        		// a newer request replaces the one in progress
+        		cancelRoute();
+        		long request = latestRequest.get();
+        		MapGraph graph = markerManager.getDataSet().getGraph();
+        		// the search is drawn as it goes
         		markerManager.initVisualization();
-            	Consumer<geography.GeographicPoint> nodeAccepter = markerManager.getVisualization()::acceptPoint;
-            	List<geography.GeographicPoint> path = null;
-            	if (toggle == RouteController.BFS) {
-            		path = markerManager.getDataSet().getGraph().bfs(start, end, nodeAccepter);
-            	}
-            	else if (toggle == RouteController.DIJ) {
-            		path = markerManager.getDataSet().getGraph().dijkstra(start, end, nodeAccepter);
-            	}
-            	else if (toggle == RouteController.A_STAR) {
-            		path = markerManager.getDataSet().getGraph().aStarSearch(start, end, nodeAccepter);
-            	}
-
-            	if(path == null) {
-                    // System.out.println("In displayRoute : PATH NOT FOUND");
-                    MapApp.showInfoAlert("Routing Error : ", "No path found");
-                	return false;
-                }
-                // TODO -- debug road segments
-            	List<LatLong> mapPath = constructMapPath(path);
-                //List<LatLong> mapPath = new ArrayList<LatLong>();
-                //for(geography.GeographicPoint point : path) {
-                //    mapPath.add(new LatLong(point.getX(), point.getY()));
-                //}
-
-
-                markerManager.setSelectMode(false);
-                return displayRoute(mapPath);
+        		RouteVisualization visualization = markerManager.getVisualization();
+        		pendingRoute = routingExecutor.submit(
+        				() -> search(request, graph, start, end, toggle, visualization));
+        		return true;
     		}
 
     		return false;
@@ -143,60 +210,78 @@ public class RouteService {
 
 
 
-    /**
-     * Construct path including road regments
-     * @param path - path with only intersections
-     * @return list of LatLongs corresponding the path of route
-     */
-    private List<LatLong> constructMapPath(List<geography.GeographicPoint> path) {
-    	List<LatLong> retVal = new ArrayList<LatLong>();
-        List<geography.GeographicPoint> segmentList = null;
-    	geography.GeographicPoint curr;
-    	geography.GeographicPoint next;
-
-    	geography.RoadSegment chosenSegment = null;;
-
-        for(int i = 0; i < path.size() - 1; i++) {
-            double minLength = Double.MAX_VALUE;
-        	curr = path.get(i);
-        	next = path.get(i+1);
-
-        	if(markerManager.getDataSet().getRoads().containsKey(curr)) {
-        		HashSet<geography.RoadSegment> segments = markerManager.getDataSet().getRoads().get(curr);
-        		Iterator<geography.RoadSegment> it = segments.iterator();
-
-        		// get segments which are
-            	geography.RoadSegment currSegment;
-                while(it.hasNext()) {
-                    //System.out.println("new segment");
-                	currSegment = it.next();
-                	if(currSegment.getOtherPoint(curr).equals(next)) {
-                        //System.out.println("1st check passed : other point correct");
-                		if(currSegment.getLength() < minLength) {
-                            //System.out.println("2nd check passed : length less");
-                			chosenSegment = currSegment;
-                		}
-                	}
-                }
-
-                if(chosenSegment != null) {
-                    segmentList = chosenSegment.getPoints(curr, next);
-                    for(geography.GeographicPoint point : segmentList) {
-                        retVal.add(new LatLong(point.getX(), point.getY()));
+    // Run a search on the routing thread, streaming the points searched to
+    // the visualization, and hand the result to the JavaFX thread
+    private void search(long request, MapGraph graph, geography.GeographicPoint start,
+            geography.GeographicPoint end, int toggle, RouteVisualization visualization) {
+        int[] searched = {0};
+        long[] lastProgress = {System.nanoTime()};
+        Consumer<geography.GeographicPoint> nodeAccepter = point -> {
+            if (latestRequest.get() != request || Thread.currentThread().isInterrupted()) {
+                throw new SearchCancelledException();
+            }
+            visualization.acceptPoint(point);
+            searched[0]++;
+            long now = System.nanoTime();
+            if (now - lastProgress[0] >= PROGRESS_NANOS) {
+                lastProgress[0] = now;
+                int count = searched[0];
+                Platform.runLater(() -> {
+                    if (latestRequest.get() == request) {
+                        progressListener.accept(count);
                     }
+                });
+            }
+        };
+        List<geography.GeographicPoint> path;
+        try {
+            if (toggle == RouteController.BFS) {
+                path = graph.bfs(start, end, nodeAccepter);
+            }
+            else if (toggle == RouteController.DIJ) {
+                path = graph.dijkstra(start, end, nodeAccepter);
+            }
+            else {
+                path = graph.aStarSearch(start, end, nodeAccepter);
+            }
+        }
+        catch (SearchCancelledException e) {
+            return;
+        }
+        catch (Throwable e) {
+            // Errors too (e.g. StackOverflowError on a long route): the
+            // Future would swallow them and leave the progress spinning
+            Platform.runLater(() -> {
+                if (latestRequest.get() == request) {
+                    pendingRoute = null;
+                    progressListener.accept(-1);
+                    MapApp.showErrorAlert("Routing Error : ", e.toString());
                 }
-                else {
-                	System.err.println("ERROR in constructMapPath : chosenSegment was null");
-                }
-        		// find
-
-        	}
+            });
+            return;
         }
-
-        // System.out.println("NOW there are " + retVal.size() + " points");
-    	return retVal;
+        visualization.finish();
+        Platform.runLater(() -> routeFound(request, path));
     }
 
+    // Show the result of a search, unless another request has come since
+    private void routeFound(long request, List<geography.GeographicPoint> path) {
+        if (latestRequest.get() != request) {
+            return;
+        }
+        pendingRoute = null;
+        progressListener.accept(-1);
+        if (routeLine != null) {
+            return;
+        }
+        if(path == null) {
+            // System.out.println("In displayRoute : PATH NOT FOUND");
+            MapApp.showInfoAlert("Routing Error : ", "No path found");
+            return;
+        }
+        markerManager.setSelectMode(false);
+        displayRoute(path);
+    }
 
 	private void removeRouteLine() {
         if(routeLine != null) {
@@ -0,0 +1,20 @@
+package benchmark;
+
+/**
+ * One operation to be timed by a BenchmarkRunner.
+ *
+ * The runner calls run() over and over and divides the elapsed time by
+ * the number of calls.  Whatever run() returns is kept by the runner, so
+ * the JIT cannot decide the work is unused and skip it.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public interface Benchmark {
+
+	/** Do one operation
+	 * @return The result of the operation, or anything derived from it
+	 * @throws Exception if the operation fails; the benchmark is abandoned
+	 */
+	Object run() throws Exception;
+}
@@ -0,0 +1,361 @@
+package benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+
+/**
+ * A small benchmark harness in the style of JMH.
+ *
+ * Each benchmark runs for a number of warm-up iterations (so the JIT has
+ * compiled it) and then for a number of measured iterations of a fixed
+ * length.  For each it reports the mean time per operation with its
+ * standard deviation over the iterations, the bytes allocated per
+ * operation and the allocation rate (from the per-thread allocation
+ * counter, like JMH's GC profiler), and the collections during the
+ * measurement.  Results can be written as CSV or JSON so runs can be
+ * compared to find regressions.
+ *
+ * Search code prints as it goes, so System.out is silenced while a
+ * benchmark runs; the results go to the stream given to the runner.
+ *
+ * Command line options understood by configure:
+ *   -wi N    warm-up iterations (default 3)
+ *   -i N     measured iterations (default 5)
+ *   -t MS    length of an iteration in milliseconds (default 500)
+ *   -f REGEX only run benchmarks whose name contains a match
+ *   -o FILE  write the results to FILE, as JSON if it ends in .json,
+ *            otherwise as CSV
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class BenchmarkRunner {
+	private int warmupIterations = 3;
+	private int measurementIterations = 5;
+	private long iterationMillis = 500;
+	private Pattern filter;
+	private String outputFile;
+
+	private final PrintStream out;
+	private final List<Entry> benchmarks = new ArrayList<Entry>();
+	private final List<Result> results = new ArrayList<Result>();
+	// results of the operations, kept so the work cannot be optimized away
+	private Object sink;
+
+	/** Create a runner
+	 * @param out Where to print progress and results
+	 */
+	public BenchmarkRunner(PrintStream out)
+	{
+		this.out = out;
+	}
+
+	/** Set the options from the command line (see the class comment)
+	 * @param args The command line arguments
+	 * @throws IllegalArgumentException if an option is not understood
+	 */
+	public void configure(String[] args)
+	{
+		for (int i = 0; i < args.length; i++) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[++i];
+			switch (args[i - 1]) {
+			case "-wi":
+				warmupIterations = Integer.parseInt(value);
+				break;
+			case "-i":
+				measurementIterations = Integer.parseInt(value);
+				break;
+			case "-t":
+				iterationMillis = Long.parseLong(value);
+				break;
+			case "-f":
+				filter = Pattern.compile(value);
+				break;
+			case "-o":
+				outputFile = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+			}
+		}
+	}
+
+	/** Add a benchmark
+	 * @param name The name, e.g. "search.dijkstra"
+	 * @param params What it was run on, e.g. "map=san_diego"
+	 * @param benchmark The operation to time
+	 */
+	public void add(String name, String params, Benchmark benchmark)
+	{
+		benchmarks.add(new Entry(name, params, benchmark));
+	}
+
+	/** @param name A benchmark name
+	 * @return true if the filter selects the benchmark; use it to skip
+	 *   expensive setup for benchmarks that will not run */
+	public boolean isSelected(String name)
+	{
+		return filter == null || filter.matcher(name).find();
+	}
+
+	/** Run every selected benchmark, print the results, and write them to
+	 * the output file if one was given
+	 * @return The results
+	 * @throws IOException if the output file cannot be written
+	 */
+	public List<Result> runAll() throws IOException
+	{
+		out.printf("%-24s %-36s %12s %10s %12s %10s %5s%n", "benchmark", "params",
+				"us/op", "error", "bytes/op", "MB/s", "gcs");
+		for (Entry e : benchmarks) {
+			if (!isSelected(e.name)) {
+				continue;
+			}
+			Result r = run(e);
+			results.add(r);
+			out.printf(Locale.ROOT, "%-24s %-36s %12.3f %10.3f %12.0f %10.1f %5d%n", r.name, r.params,
+					r.meanMicros, r.errorMicros, r.bytesPerOp, r.allocRate, r.gcCount);
+		}
+		if (outputFile != null) {
+			Writer writer = new FileWriter(outputFile);
+			try {
+				if (outputFile.endsWith(".json")) {
+					writeJson(writer);
+				}
+				else {
+					writeCsv(writer);
+				}
+			}
+			finally {
+				writer.close();
+			}
+			out.println("Results written to " + outputFile);
+		}
+		return Collections.unmodifiableList(results);
+	}
+
+	/** Write the results as CSV, one line per benchmark
+	 * @param writer Where to write
+	 */
+	public void writeCsv(Writer writer)
+	{
+		PrintWriter pw = new PrintWriter(writer);
+		pw.println("benchmark,params,iterations,ops,us_per_op,error_us,bytes_per_op,alloc_mb_per_s,gc_count,gc_ms");
+		for (Result r : results) {
+			pw.printf(Locale.ROOT, "%s,%s,%d,%d,%.4f,%.4f,%.1f,%.2f,%d,%d%n", r.name, r.params,
+					r.iterations, r.operations, r.meanMicros, r.errorMicros, r.bytesPerOp,
+					r.allocRate, r.gcCount, r.gcMillis);
+		}
+		pw.flush();
+	}
+
+	/** Write the results as a JSON array, one object per benchmark
+	 * @param writer Where to write
+	 */
+	public void writeJson(Writer writer)
+	{
+		JsonArrayBuilder array = Json.createArrayBuilder();
+		for (Result r : results) {
+			array.add(Json.createObjectBuilder()
+					.add("benchmark", r.name)
+					.add("params", r.params)
+					.add("iterations", r.iterations)
+					.add("ops", r.operations)
+					.add("usPerOp", r.meanMicros)
+					.add("errorUs", r.errorMicros)
+					.add("bytesPerOp", number(r.bytesPerOp))
+					.add("allocMBPerSec", number(r.allocRate))
+					.add("gcCount", r.gcCount)
+					.add("gcMillis", r.gcMillis));
+		}
+		JsonWriter json = Json.createWriter(writer);
+		json.writeArray(array.build());
+		json.close();
+	}
+
+	// JSON has no NaN, so unknown values are written as null
+	private static JsonValue number(double value)
+	{
+		return Double.isNaN(value) ? JsonValue.NULL
+				: Json.createArrayBuilder().add(value).build().get(0);
+	}
+
+	private Result run(Entry e)
+	{
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {}
+
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		}));
+		try {
+			for (int i = 0; i < warmupIterations; i++) {
+				iteration(e.benchmark);
+			}
+			long gcCount = gcCount();
+			long gcMillis = gcMillis();
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			double[] perOp = new double[measurementIterations];
+			long operations = 0;
+			for (int i = 0; i < measurementIterations; i++) {
+				long[] timed = iteration(e.benchmark);
+				operations += timed[0];
+				perOp[i] = timed[1] / 1e3 / timed[0];
+			}
+			long elapsed = System.nanoTime() - start;
+			allocated = allocatedBytes() - allocated;
+
+			double mean = 0;
+			for (double p : perOp) {
+				mean += p;
+			}
+			mean /= perOp.length;
+			double variance = 0;
+			for (double p : perOp) {
+				variance += (p - mean) * (p - mean);
+			}
+			double error = (perOp.length > 1) ? Math.sqrt(variance / (perOp.length - 1)) : 0;
+			double bytesPerOp = (allocated < 0) ? Double.NaN : (double) allocated / operations;
+			double rate = (allocated < 0) ? Double.NaN : allocated / 1e6 / (elapsed / 1e9);
+			return new Result(e.name, e.params, measurementIterations, operations, mean, error,
+					bytesPerOp, rate, gcCount() - gcCount, gcMillis() - gcMillis);
+		}
+		catch (Exception ex) {
+			throw new IllegalStateException("Benchmark " + e.name + " failed", ex);
+		}
+		finally {
+			System.setOut(console);
+		}
+	}
+
+	// Run the benchmark for one iteration; returns {operations, nanoseconds}
+	private long[] iteration(Benchmark benchmark) throws Exception
+	{
+		long limit = iterationMillis * 1000000L;
+		long ops = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink = benchmark.run();
+			ops++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < limit);
+		return new long[] {ops, elapsed};
+	}
+
+	// Bytes allocated by this thread so far, or -1 if the JVM cannot tell
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static long gcCount()
+	{
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis()
+	{
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
+	private static class Entry {
+		final String name;
+		final String params;
+		final Benchmark benchmark;
+
+		Entry(String name, String params, Benchmark benchmark)
+		{
+			this.name = name;
+			this.params = params;
+			this.benchmark = benchmark;
+		}
+	}
+
+	/**
+	 * The measurements of one benchmark.
+	 */
+	public static class Result {
+		private final String name;
+		private final String params;
+		private final int iterations;
+		private final long operations;
+		private final double meanMicros;
+		private final double errorMicros;
+		private final double bytesPerOp;
+		private final double allocRate;
+		private final long gcCount;
+		private final long gcMillis;
+
+		Result(String name, String params, int iterations, long operations, double meanMicros,
+				double errorMicros, double bytesPerOp, double allocRate, long gcCount, long gcMillis)
+		{
+			this.name = name;
+			this.params = params;
+			this.iterations = iterations;
+			this.operations = operations;
+			this.meanMicros = meanMicros;
+			this.errorMicros = errorMicros;
+			this.bytesPerOp = bytesPerOp;
+			this.allocRate = allocRate;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+
+		/** @return The benchmark name */
+		public String getName() { return name; }
+
+		/** @return What the benchmark was run on */
+		public String getParams() { return params; }
+
+		/** @return The mean time per operation in microseconds */
+		public double getMeanMicros() { return meanMicros; }
+
+		/** @return The standard deviation of the per-iteration means */
+		public double getErrorMicros() { return errorMicros; }
+
+		/** @return The bytes allocated per operation, or NaN if unknown */
+		public double getBytesPerOp() { return bytesPerOp; }
+
+		/** @return The allocation rate in MB/s, or NaN if unknown */
+		public double getAllocRate() { return allocRate; }
+
+		/** @return The number of collections while measuring */
+		public long getGcCount() { return gcCount; }
+	}
+}
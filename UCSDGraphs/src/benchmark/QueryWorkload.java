@@ -0,0 +1,335 @@
+package benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import roadgraph.CompactGraph;
+import roadgraph.MapGraph;
+
+/**
+ * A fixed list of routing queries (origin/destination pairs), drawn from
+ * the intersections of a map with a seed so the same workload can be
+ * rebuilt or saved and replayed against different routing code.
+ *
+ * Three ways of drawing the pairs are supported:
+ *   UNIFORM     both ends uniformly at random
+ *   STRATIFIED  equal numbers of queries with a straight-line length of
+ *               under 1 km, 1-2 km, 2-4 km, 4-8 km and over 8 km, so
+ *               long queries are not swamped by short ones; bands the
+ *               map is too small for are made up with uniform pairs
+ *   HUB         ends drawn with probability proportional to the square
+ *               of the number of roads at the intersection, so busy
+ *               junctions come up far more often, as in real traffic
+ *
+ * The query file is binary: the magic number "QWKL", a version, the
+ * mode, the seed, the number of queries and whether the coordinates are
+ * packed, then the four coordinates of each query.  Map coordinates
+ * have at most seven decimals, so they are normally packed into ints of
+ * 1e-7 degrees (16 bytes a query) and read back exactly; otherwise
+ * they are written as doubles.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class QueryWorkload {
+	/** How the queries are drawn */
+	public enum Mode { UNIFORM, STRATIFIED, HUB }
+
+	private static final int MAGIC = 0x51574b4c;	// "QWKL"
+	private static final int VERSION = 1;
+	private static final double FIXED_POINT = 1e7;
+	// upper ends of the STRATIFIED bands, in km
+	private static final double[] BANDS = {1, 2, 4, 8, Double.POSITIVE_INFINITY};
+	// give up on a band after this many tries per query wanted
+	private static final int TRIES_PER_QUERY = 200;
+
+	private final Mode mode;
+	private final long seed;
+	private final GeographicPoint[] origins;
+	private final GeographicPoint[] destinations;
+
+	private QueryWorkload(Mode mode, long seed, GeographicPoint[] origins,
+			GeographicPoint[] destinations)
+	{
+		this.mode = mode;
+		this.seed = seed;
+		this.origins = origins;
+		this.destinations = destinations;
+	}
+
+	/** Draw a workload from a map
+	 * @param map The map to draw intersections from
+	 * @param mode How to draw the queries
+	 * @param count The number of queries
+	 * @param seed The random seed; the same map, mode, count and seed
+	 *   always give the same queries
+	 * @return The workload
+	 * @throws IllegalArgumentException if the map has fewer than two
+	 *   intersections (in HUB mode, two with roads) or count is negative
+	 */
+	public static QueryWorkload generate(MapGraph map, Mode mode, int count, long seed)
+	{
+		if (map.getNumVertices() < 2) {
+			throw new IllegalArgumentException("Need at least two intersections to draw queries");
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException("Negative query count " + count);
+		}
+		// the map's own order depends on hashing, so sort the
+		// intersections to make the draw depend only on the seed
+		GeographicPoint[] points = map.getVertices().toArray(new GeographicPoint[0]);
+		Arrays.sort(points, Comparator.comparingDouble(GeographicPoint::getX)
+				.thenComparingDouble(GeographicPoint::getY));
+		Random random = new Random(seed);
+		GeographicPoint[] origins = new GeographicPoint[count];
+		GeographicPoint[] destinations = new GeographicPoint[count];
+
+		switch (mode) {
+		case UNIFORM:
+			for (int i = 0; i < count; i++) {
+				drawPair(points, null, random, origins, destinations, i);
+			}
+			break;
+		case STRATIFIED:
+			drawStratified(points, random, origins, destinations);
+			break;
+		case HUB:
+			double[] cumulative = hubWeights(map, points);
+			for (int i = 0; i < count; i++) {
+				drawPair(points, cumulative, random, origins, destinations, i);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown mode " + mode);
+		}
+		return new QueryWorkload(mode, seed, origins, destinations);
+	}
+
+	// Draw a pair of different points, uniformly or by cumulative weight
+	private static void drawPair(GeographicPoint[] points, double[] cumulative, Random random,
+			GeographicPoint[] origins, GeographicPoint[] destinations, int i)
+	{
+		int s = draw(points.length, cumulative, random);
+		int t;
+		do {
+			t = draw(points.length, cumulative, random);
+		} while (t == s);
+		origins[i] = points[s];
+		destinations[i] = points[t];
+	}
+
+	private static int draw(int n, double[] cumulative, Random random)
+	{
+		if (cumulative == null) {
+			return random.nextInt(n);
+		}
+		double x = random.nextDouble() * cumulative[n - 1];
+		int i = Arrays.binarySearch(cumulative, x);
+		// binarySearch gives -(insertion point) - 1 when x is not found
+		i = (i < 0) ? -i - 1 : i + 1;
+		return Math.min(i, n - 1);
+	}
+
+	private static void drawStratified(GeographicPoint[] points, Random random,
+			GeographicPoint[] origins, GeographicPoint[] destinations)
+	{
+		int count = origins.length;
+		int[] quota = new int[BANDS.length];
+		for (int b = 0; b < BANDS.length; b++) {
+			quota[b] = count / BANDS.length + ((b < count % BANDS.length) ? 1 : 0);
+		}
+		GeographicPoint[] pair = new GeographicPoint[1];
+		GeographicPoint[] other = new GeographicPoint[1];
+		int filled = 0;
+		long tries = (long) TRIES_PER_QUERY * count;
+		while (filled < count && tries-- > 0) {
+			drawPair(points, null, random, pair, other, 0);
+			int band = band(pair[0].distance(other[0]));
+			if (quota[band] > 0) {
+				quota[band]--;
+				origins[filled] = pair[0];
+				destinations[filled] = other[0];
+				filled++;
+			}
+		}
+		// bands the map is too small for
+		while (filled < count) {
+			drawPair(points, null, random, origins, destinations, filled++);
+		}
+	}
+
+	private static int band(double km)
+	{
+		int b = 0;
+		while (km >= BANDS[b]) {
+			b++;
+		}
+		return b;
+	}
+
+	// Cumulative degree^2 weights of the sorted points; drawPair needs
+	// two points it can draw, or it never finds a second end
+	private static double[] hubWeights(MapGraph map, GeographicPoint[] points)
+	{
+		CompactGraph graph = new CompactGraph(map);
+		int[] degree = new int[graph.getNumVertices()];
+		for (int u = 0; u < degree.length; u++) {
+			for (int e = graph.firstEdge(u); e < graph.firstEdge(u + 1); e++) {
+				degree[u]++;
+				degree[graph.getEdgeTarget(e)]++;
+			}
+		}
+		double[] cumulative = new double[points.length];
+		double total = 0;
+		int weighted = 0;
+		for (int i = 0; i < points.length; i++) {
+			double d = degree[graph.getId(points[i])];
+			total += d * d;
+			cumulative[i] = total;
+			if (d > 0) {
+				weighted++;
+			}
+		}
+		if (weighted < 2) {
+			throw new IllegalArgumentException("HUB mode needs at least two intersections with roads, not "
+					+ weighted);
+		}
+		return cumulative;
+	}
+
+	/** Read a query file
+	 * @param file The file written by write
+	 * @return The workload
+	 * @throws IOException if the file cannot be read or is not a query file
+	 */
+	public static QueryWorkload read(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a query file");
+			}
+			int modeNumber = in.readByte();
+			if (modeNumber < 0 || modeNumber >= Mode.values().length) {
+				throw new IOException(file + ": unknown mode " + modeNumber);
+			}
+			Mode mode = Mode.values()[modeNumber];
+			long seed = in.readLong();
+			int count = in.readInt();
+			boolean packed = in.readBoolean();
+			GeographicPoint[] origins = new GeographicPoint[count];
+			GeographicPoint[] destinations = new GeographicPoint[count];
+			for (int i = 0; i < count; i++) {
+				origins[i] = readPoint(in, packed);
+				destinations[i] = readPoint(in, packed);
+			}
+			return new QueryWorkload(mode, seed, origins, destinations);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static GeographicPoint readPoint(DataInputStream in, boolean packed) throws IOException
+	{
+		if (packed) {
+			int lat = in.readInt();
+			int lon = in.readInt();
+			return new GeographicPoint(lat / FIXED_POINT, lon / FIXED_POINT);
+		}
+		double lat = in.readDouble();
+		double lon = in.readDouble();
+		return new GeographicPoint(lat, lon);
+	}
+
+	/** Write the queries to a file
+	 * @param file The file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file) throws IOException
+	{
+		boolean packed = true;
+		for (int i = 0; i < size() && packed; i++) {
+			packed = packs(origins[i]) && packs(destinations[i]);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(mode.ordinal());
+			out.writeLong(seed);
+			out.writeInt(size());
+			out.writeBoolean(packed);
+			for (int i = 0; i < size(); i++) {
+				writePoint(out, origins[i], packed);
+				writePoint(out, destinations[i], packed);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	// Does the point survive being packed into 1e-7 degree ints?
+	private static boolean packs(GeographicPoint p)
+	{
+		double lat = Math.round(p.getX() * FIXED_POINT);
+		double lon = Math.round(p.getY() * FIXED_POINT);
+		return lat / FIXED_POINT == p.getX() && lon / FIXED_POINT == p.getY();
+	}
+
+	private static void writePoint(DataOutputStream out, GeographicPoint p, boolean packed)
+			throws IOException
+	{
+		if (packed) {
+			out.writeInt((int) Math.round(p.getX() * FIXED_POINT));
+			out.writeInt((int) Math.round(p.getY() * FIXED_POINT));
+		}
+		else {
+			out.writeDouble(p.getX());
+			out.writeDouble(p.getY());
+		}
+	}
+
+	/** @return The number of queries */
+	public int size()
+	{
+		return origins.length;
+	}
+
+	/** @param i A query number
+	 * @return Where the query starts */
+	public GeographicPoint getOrigin(int i)
+	{
+		return origins[i];
+	}
+
+	/** @param i A query number
+	 * @return Where the query ends */
+	public GeographicPoint getDestination(int i)
+	{
+		return destinations[i];
+	}
+
+	/** @return How the queries were drawn */
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	/** @return The seed the queries were drawn with */
+	public long getSeed()
+	{
+		return seed;
+	}
+}
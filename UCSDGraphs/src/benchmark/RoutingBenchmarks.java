@@ -0,0 +1,150 @@
+package benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import basicgraph.Graph;
+import basicgraph.GraphAdjList;
+import basicgraph.GraphAdjMatrix;
+import geography.GeographicPoint;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+
+/**
+ * The benchmark suite: loading every map in data/maps, breadth first
+ * search, Dijkstra and A* over a fixed set of random queries per map,
+ * degreeSequence and getDistance2 on both basic graph implementations,
+ * and loading the airline routes.
+ *
+ * Queries are drawn with a fixed seed, so every run times the same
+ * work.  Run from the project directory, for example
+ *   java benchmark.RoutingBenchmarks -f search -o results.json
+ * See BenchmarkRunner for the options.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class RoutingBenchmarks {
+	private static final String MAP_DIR = "data/maps";
+	private static final String[] SEARCH_MAPS = {"ucsd", "san_diego", "hollywood_large", "new_york"};
+	private static final String ROUTES_FILE = "data/airports/routesUA.dat";
+	private static final int QUERIES = 100;
+	private static final long SEED = 42;
+
+	public static void main(String[] args) throws Exception
+	{
+		BenchmarkRunner runner = new BenchmarkRunner(System.out);
+		runner.configure(args);
+
+		addLoadBenchmarks(runner);
+		for (String name : SEARCH_MAPS) {
+			addSearchBenchmarks(runner, name);
+		}
+		for (String name : new String[] {"ucsd", "san_diego"}) {
+			addBasicGraphBenchmarks(runner, name, new GraphAdjList());
+			addBasicGraphBenchmarks(runner, name, new GraphAdjMatrix());
+		}
+		runner.add("load.routes", "file=routesUA.dat",
+				() -> {
+					Graph graph = new GraphAdjList();
+					GraphLoader.loadRoutes(ROUTES_FILE, graph);
+					return graph;
+				});
+
+		runner.runAll();
+	}
+
+	private static void addLoadBenchmarks(BenchmarkRunner runner)
+	{
+		File[] files = new File(MAP_DIR).listFiles();
+		if (files == null) {
+			throw new IllegalStateException("No map directory " + MAP_DIR
+					+ "; run from the project directory");
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			if (!file.getName().endsWith(".map")) {
+				continue;
+			}
+			final String path = file.getPath();
+			runner.add("load.roadMap", "map=" + file.getName().replace(".map", ""),
+					() -> {
+						MapGraph map = new MapGraph();
+						GraphLoader.loadRoadMap(path, map);
+						return map;
+					});
+		}
+	}
+
+	private static void addSearchBenchmarks(BenchmarkRunner runner, String name)
+	{
+		if (!anySelected(runner, "search.bfs", "search.dijkstra", "search.aStar")) {
+			return;
+		}
+		final MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(MAP_DIR + "/" + name + ".map", map);
+		final GeographicPoint[][] queries = randomQueries(map);
+		String params = "map=" + name + ",queries=" + QUERIES;
+
+		// each operation is the next query, round robin
+		final int[] next = new int[1];
+		runner.add("search.bfs", params, () -> {
+			GeographicPoint[] q = queries[next[0]++ % QUERIES];
+			return map.bfs(q[0], q[1]);
+		});
+		runner.add("search.dijkstra", params, () -> {
+			GeographicPoint[] q = queries[next[0]++ % QUERIES];
+			return map.dijkstra(q[0], q[1]);
+		});
+		runner.add("search.aStar", params, () -> {
+			GeographicPoint[] q = queries[next[0]++ % QUERIES];
+			return map.aStarSearch(q[0], q[1]);
+		});
+	}
+
+	private static void addBasicGraphBenchmarks(BenchmarkRunner runner, String name,
+			final Graph graph)
+	{
+		if (!anySelected(runner, "graph.degreeSequence", "graph.getDistance2")) {
+			return;
+		}
+		GraphLoader.loadRoadMap(MAP_DIR + "/" + name + ".map", graph);
+		String params = "map=" + name + ",impl=" + graph.getClass().getSimpleName();
+		runner.add("graph.degreeSequence", params, () -> graph.degreeSequence());
+		final int[] next = new int[1];
+		runner.add("graph.getDistance2", params,
+				() -> graph.getDistance2(next[0]++ % graph.getNumVertices()));
+	}
+
+	// Whether the filter selects any of a group's benchmarks, so the
+	// group's map is only loaded when one of them will run
+	private static boolean anySelected(BenchmarkRunner runner, String... names)
+	{
+		for (String name : names) {
+			if (runner.isSelected(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Reproducible (start, goal) pairs of intersections
+	private static GeographicPoint[][] randomQueries(MapGraph map)
+	{
+		List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(map.getVertices());
+		// sort so the draw does not depend on HashSet order
+		vertices.sort((a, b) -> a.getX() != b.getX() ? Double.compare(a.getX(), b.getX())
+				: Double.compare(a.getY(), b.getY()));
+		Random random = new Random(SEED);
+		GeographicPoint[][] queries = new GeographicPoint[QUERIES][];
+		for (int i = 0; i < QUERIES; i++) {
+			queries[i] = new GeographicPoint[] {
+					vertices.get(random.nextInt(vertices.size())),
+					vertices.get(random.nextInt(vertices.size()))};
+		}
+		return queries;
+	}
+}
@@ -0,0 +1,26 @@
+package benchmark;
+
+import geography.GeographicPoint;
+
+/**
+ * Something that can answer routing queries, for replaying a
+ * QueryWorkload.  See RoutingEngines for the routing code in this
+ * project wrapped up as engines.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public interface RoutingEngine {
+	/** @return A short name for reports, e.g. "compact.dijkstra" */
+	String getName();
+
+	/** Answer one query.  Must be safe to call from several threads at
+	 * once.
+	 * @param from The start intersection
+	 * @param to The goal intersection
+	 * @return The number of vertices the search settled, or -1 if the
+	 *   engine does not search (or cannot tell)
+	 * @throws Exception if the query fails
+	 */
+	int route(GeographicPoint from, GeographicPoint to) throws Exception;
+}
@@ -0,0 +1,183 @@
+package benchmark;
+
+import java.util.function.Supplier;
+
+import geography.GeographicPoint;
+import roadgraph.CompactGraph;
+import roadgraph.CompactSearch;
+import roadgraph.Heuristic;
+import roadgraph.Heuristics;
+import roadgraph.HubLabels;
+import roadgraph.MapGraph;
+import roadgraph.OverlayMetric;
+import roadgraph.OverlaySearch;
+import util.GraphLoader;
+
+/**
+ * The routing code of this project wrapped up as RoutingEngines.
+ *
+ * Searches that keep state between calls (MapGraph keeps distances in
+ * its nodes, CompactSearch and OverlaySearch reuse their arrays) get
+ * one copy per thread.  MapGraph prints as it searches; replay with
+ * System.out silenced (WorkloadReplay does) or the printing is what
+ * gets timed.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class RoutingEngines {
+	private RoutingEngines() {}
+
+	/** MapGraph.dijkstra, with each thread loading its own copy of a map
+	 * @param mapFile The map to load
+	 * @return The engine; it counts the nodes the search visits
+	 */
+	public static RoutingEngine mapDijkstra(String mapFile)
+	{
+		return new MapEngine("map.dijkstra", mapFile, false);
+	}
+
+	/** MapGraph.aStarSearch, with each thread loading its own copy of a map
+	 * @param mapFile The map to load
+	 * @return The engine; it counts the nodes the search visits
+	 */
+	public static RoutingEngine mapAStar(String mapFile)
+	{
+		return new MapEngine("map.aStar", mapFile, true);
+	}
+
+	/** Dijkstra over a CompactGraph
+	 * @param graph The graph, shared by all threads
+	 * @return The engine
+	 */
+	public static RoutingEngine compactDijkstra(final CompactGraph graph)
+	{
+		final ThreadLocal<CompactSearch> searches =
+				ThreadLocal.withInitial(() -> new CompactSearch(graph));
+		return new RoutingEngine() {
+			@Override
+			public String getName() { return "compact.dijkstra"; }
+
+			@Override
+			public int route(GeographicPoint from, GeographicPoint to)
+			{
+				CompactSearch search = searches.get();
+				search.shortestPath(id(graph, from), id(graph, to));
+				return search.getSettledCount();
+			}
+		};
+	}
+
+	/** A* over a CompactGraph with the planar heuristic
+	 * @param graph The graph, shared by all threads
+	 * @return The engine
+	 */
+	public static RoutingEngine compactAStar(final CompactGraph graph)
+	{
+		final Heuristic heuristic = Heuristics.planar(graph);
+		final ThreadLocal<CompactSearch> searches =
+				ThreadLocal.withInitial(() -> new CompactSearch(graph));
+		return new RoutingEngine() {
+			@Override
+			public String getName() { return "compact.aStar"; }
+
+			@Override
+			public int route(GeographicPoint from, GeographicPoint to)
+			{
+				CompactSearch search = searches.get();
+				search.shortestPath(id(graph, from), id(graph, to), heuristic);
+				return search.getSettledCount();
+			}
+		};
+	}
+
+	/** Distance queries with hub labels.  Labels are read-only, so all
+	 * threads share them.
+	 * @param labels The labels
+	 * @return The engine; it does not search, so reports no settled count
+	 */
+	public static RoutingEngine hubLabels(final HubLabels labels)
+	{
+		return new RoutingEngine() {
+			@Override
+			public String getName() { return "hubLabels"; }
+
+			@Override
+			public int route(GeographicPoint from, GeographicPoint to)
+			{
+				labels.distance(from, to);
+				return -1;
+			}
+		};
+	}
+
+	/** Shortest paths over a customized overlay graph
+	 * @param metric The customized metric, shared by all threads
+	 * @return The engine; OverlaySearch does not count settled vertices
+	 */
+	public static RoutingEngine overlay(final OverlayMetric metric)
+	{
+		final CompactGraph graph = metric.getOverlay().getGraph();
+		final ThreadLocal<OverlaySearch> searches =
+				ThreadLocal.withInitial(() -> new OverlaySearch(metric));
+		return new RoutingEngine() {
+			@Override
+			public String getName() { return "overlay"; }
+
+			@Override
+			public int route(GeographicPoint from, GeographicPoint to)
+			{
+				searches.get().shortestPath(id(graph, from), id(graph, to));
+				return -1;
+			}
+		};
+	}
+
+	// The vertex at a location
+	private static int id(CompactGraph graph, GeographicPoint location)
+	{
+		int v = graph.getId(location);
+		if (v < 0) {
+			throw new IllegalArgumentException(location + " is not an intersection of the map");
+		}
+		return v;
+	}
+
+	private static class MapEngine implements RoutingEngine {
+		private final String name;
+		private final boolean aStar;
+		private final ThreadLocal<MapGraph> maps;
+
+		MapEngine(String name, final String mapFile, boolean aStar)
+		{
+			this.name = name;
+			this.aStar = aStar;
+			Supplier<MapGraph> load = () -> {
+				MapGraph map = new MapGraph();
+				GraphLoader.loadRoadMap(mapFile, map);
+				return map;
+			};
+			maps = ThreadLocal.withInitial(load);
+		}
+
+		@Override
+		public String getName()
+		{
+			return name;
+		}
+
+		@Override
+		public int route(GeographicPoint from, GeographicPoint to)
+		{
+			final int[] visited = new int[1];
+			MapGraph map = maps.get();
+			if (aStar) {
+				map.aStarSearch(from, to, p -> visited[0]++);
+			}
+			else {
+				map.dijkstra(from, to, p -> visited[0]++);
+			}
+			return visited[0];
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package benchmark;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import roadgraph.CompactGraph;
+import roadgraph.HubLabels;
+import roadgraph.MapGraph;
+import roadgraph.OverlayGraph;
+import roadgraph.Partition;
+import util.GraphLoader;
+import util.Histogram;
+
+/**
+ * Replays a QueryWorkload against a RoutingEngine on a number of
+ * threads and reports the throughput, the latency percentiles and how
+ * many vertices the searches settled.
+ *
+ * The workers take queries from a shared counter, so a slow query holds
+ * up only its own thread.  The whole workload is run once untimed first,
+ * so the JIT has compiled the search and each thread has set up its
+ * search state before anything is measured.
+ *
+ * From the project directory:
+ *   java benchmark.WorkloadReplay generate MAP MODE COUNT SEED QUERYFILE
+ *   java benchmark.WorkloadReplay replay MAP QUERYFILE [ENGINE|all] [THREADS]
+ * where MODE is uniform, stratified or hub and ENGINE is one of
+ * map.dijkstra, map.aStar, compact.dijkstra, compact.aStar, hubLabels or
+ * overlay (default all of them).
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class WorkloadReplay {
+	private static final String[] ENGINES = {"map.dijkstra", "map.aStar", "compact.dijkstra",
+			"compact.aStar", "hubLabels", "overlay"};
+
+	private WorkloadReplay() {}
+
+	/** Run every query of a workload, once to warm up and once measured
+	 * @param workload The queries
+	 * @param engine The engine to answer them
+	 * @param threads The number of worker threads
+	 * @return The measurements
+	 * @throws IllegalStateException if a worker is interrupted
+	 */
+	public static Report replay(QueryWorkload workload, RoutingEngine engine, int threads)
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			run(pool, threads, workload, engine, new Report(engine.getName(), threads));
+			Report report = new Report(engine.getName(), threads);
+			long start = System.nanoTime();
+			run(pool, threads, workload, engine, report);
+			report.elapsedNanos = System.nanoTime() - start;
+			return report;
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void run(ExecutorService pool, int threads, final QueryWorkload workload,
+			final RoutingEngine engine, final Report report)
+	{
+		final AtomicInteger next = new AtomicInteger();
+		Callable<Void> worker = () -> {
+			int i;
+			while ((i = next.getAndIncrement()) < workload.size()) {
+				long start = System.nanoTime();
+				int settled;
+				try {
+					settled = engine.route(workload.getOrigin(i), workload.getDestination(i));
+				}
+				catch (Exception e) {
+					report.failures.increment();
+					continue;
+				}
+				report.latency.record(System.nanoTime() - start);
+				if (settled >= 0) {
+					report.settled.record(settled);
+				}
+			}
+			return null;
+		};
+		List<Future<Void>> workers = new ArrayList<Future<Void>>();
+		for (int t = 0; t < Math.max(1, threads); t++) {
+			workers.add(pool.submit(worker));
+		}
+		try {
+			for (Future<Void> f : workers) {
+				f.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Replay interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Replay failed", e.getCause());
+		}
+	}
+
+	/**
+	 * The measurements of one replay.
+	 */
+	public static class Report {
+		private final String engine;
+		private final int threads;
+		private final Histogram latency = new Histogram();
+		private final Histogram settled = new Histogram();
+		private final LongAdder failures = new LongAdder();
+		private long elapsedNanos;
+
+		Report(String engine, int threads)
+		{
+			this.engine = engine;
+			this.threads = threads;
+		}
+
+		/** @return The query latencies, in nanoseconds */
+		public Histogram getLatency() { return latency; }
+
+		/** @return The vertices settled per query, for engines that count */
+		public Histogram getSettled() { return settled; }
+
+		/** @return The number of queries that threw an exception */
+		public long getFailures() { return failures.sum(); }
+
+		/** @return The queries answered per second, over all threads */
+		public double getThroughput()
+		{
+			return latency.getCount() / (elapsedNanos / 1e9);
+		}
+
+		/** Print the report
+		 * @param out Where to print
+		 */
+		public void print(PrintStream out)
+		{
+			out.printf(Locale.ROOT, "%s on %d thread%s: %d queries in %.1f ms, %.0f queries/s, %d failed%n",
+					engine, threads, (threads == 1) ? "" : "s", latency.getCount(),
+					elapsedNanos / 1e6, getThroughput(), getFailures());
+			out.printf(Locale.ROOT, "  latency (us): mean %.1f, p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+					latency.getMean() / 1e3, latency.getValueAtPercentile(50) / 1e3,
+					latency.getValueAtPercentile(99) / 1e3,
+					latency.getValueAtPercentile(99.9) / 1e3, latency.getMax() / 1e3);
+			if (settled.getCount() > 0) {
+				out.printf(Locale.ROOT, "  settled: mean %.1f, p50 %d, p99 %d, max %d%n",
+						settled.getMean(), settled.getValueAtPercentile(50),
+						settled.getValueAtPercentile(99), settled.getMax());
+				settled.printDistribution(out, "  settled vertices per query");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length >= 6 && args[0].equals("generate")) {
+			MapGraph map = new MapGraph();
+			GraphLoader.loadRoadMap(args[1], map);
+			QueryWorkload workload = QueryWorkload.generate(map,
+					QueryWorkload.Mode.valueOf(args[2].toUpperCase(Locale.ROOT)),
+					Integer.parseInt(args[3]), Long.parseLong(args[4]));
+			File file = new File(args[5]);
+			workload.write(file);
+			System.out.println("Wrote " + workload.size() + " " + workload.getMode()
+					+ " queries to " + file + " (" + file.length() + " bytes)");
+		}
+		else if (args.length >= 3 && args[0].equals("replay")) {
+			String mapFile = args[1];
+			QueryWorkload workload = QueryWorkload.read(new File(args[2]));
+			String which = (args.length > 3) ? args[3] : "all";
+			int threads = (args.length > 4) ? Integer.parseInt(args[4])
+					: Runtime.getRuntime().availableProcessors();
+			System.out.println(workload.size() + " " + workload.getMode() + " queries (seed "
+					+ workload.getSeed() + ") on " + mapFile);
+			for (String name : ENGINES) {
+				if (which.equals("all") || which.equals(name)) {
+					RoutingEngine engine = createEngine(name, mapFile, threads);
+					PrintStream console = System.out;
+					System.setOut(new PrintStream(new OutputStream() {
+						@Override
+						public void write(int b) {}
+
+						@Override
+						public void write(byte[] b, int off, int len) {}
+					}));
+					Report report;
+					try {
+						report = replay(workload, engine, threads);
+					}
+					finally {
+						System.setOut(console);
+					}
+					report.print(System.out);
+				}
+			}
+		}
+		else {
+			System.out.println("Usage: WorkloadReplay generate MAP uniform|stratified|hub COUNT SEED QUERYFILE");
+			System.out.println("       WorkloadReplay replay MAP QUERYFILE [ENGINE|all] [THREADS]");
+		}
+	}
+
+	private static RoutingEngine createEngine(String name, String mapFile, int threads)
+	{
+		if (name.startsWith("map.")) {
+			return name.equals("map.aStar") ? RoutingEngines.mapAStar(mapFile)
+					: RoutingEngines.mapDijkstra(mapFile);
+		}
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(mapFile, map);
+		CompactGraph graph = new CompactGraph(map);
+		switch (name) {
+		case "compact.dijkstra":
+			return RoutingEngines.compactDijkstra(graph);
+		case "compact.aStar":
+			return RoutingEngines.compactAStar(graph);
+		case "hubLabels":
+			return RoutingEngines.hubLabels(HubLabels.build(graph));
+		case "overlay":
+			OverlayGraph overlay = new OverlayGraph(graph, new Partition(graph, new int[] {16, 64, 256}));
+			double[] lengths = new double[graph.getNumEdges()];
+			for (int e = 0; e < lengths.length; e++) {
+				lengths[e] = graph.getEdgeLength(e);
+			}
+			return RoutingEngines.overlay(overlay.customize(lengths, threads));
+		default:
+			throw new IllegalArgumentException("Unknown engine " + name);
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import geography.GeographicPoint;
+import geography.PolylineEncoder;
+import roadgraph.CompactGraph;
+import roadgraph.CompactSearch;
+import roadgraph.Heuristic;
+import roadgraph.Heuristics;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+
+/**
+ * Routes every line of a CSV file of queries on a pool of worker
+ * threads, writing one result line per query in the order of the input.
+ *
+ * Each input line is "fromLat,fromLon,toLat,toLon"; blank lines, lines
+ * starting with # and a first query line that is not numbers (a header)
+ * are skipped.  Points are snapped to the nearest intersection.  Each output
+ * line is "line,distance_km,settled[,polyline]", where line is the line
+ * number in the input, the distance is empty if there is no route, and
+ * the optional path is in the encoded polyline format.  A line that
+ * cannot be read gives "line,error,message".
+ *
+ * The input is read a line at a time and at most WINDOW queries per
+ * thread are in flight at once: the reader waits for a free slot before
+ * handing out the next query.  Finished results wait in a ring of slots
+ * until every earlier result has been written, so memory does not grow
+ * with the size of the input however the queries finish.
+ *
+ * Usage, from the project directory:
+ *   java cli.BatchRouter -m GRAPH [-i IN.csv] [-o OUT.csv] [-t THREADS]
+ *                        [-a dijkstra|astar] [-p]
+ *   java cli.BatchRouter -m MAP.map -c GRAPH.bin
+ * GRAPH is a .map file or a graph compiled with -c, which loads much
+ * faster.  Input and output default to stdin and stdout; -p adds the
+ * paths; -c compiles the map and exits.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class BatchRouter {
+	// queries in flight per worker thread
+	private static final int WINDOW = 64;
+
+	private final CompactGraph graph;
+	private final Heuristic heuristic;
+	private final ThreadLocal<CompactSearch> searches;
+	private final boolean withPaths;
+
+	// results waiting to be written, by sequence number modulo their length
+	private String[] ring;
+	private long nextToWrite;
+	private Writer out;
+	private Semaphore slots;
+	private IOException writeError;
+	// the first Error a worker threw, passed on to the caller of run
+	private Error workerError;
+
+	/** Create a router
+	 * @param graph The road graph
+	 * @param aStar true for A*, false for Dijkstra
+	 * @param withPaths true to write the path of each route
+	 */
+	public BatchRouter(final CompactGraph graph, boolean aStar, boolean withPaths)
+	{
+		this.graph = graph;
+		this.heuristic = aStar ? Heuristics.planar(graph) : null;
+		this.searches = ThreadLocal.withInitial(() -> new CompactSearch(graph));
+		this.withPaths = withPaths;
+	}
+
+	/** Route every query read from in and write the results to out
+	 * @param in The queries
+	 * @param out Where to write the results; flushed, not closed
+	 * @param threads The number of worker threads
+	 * @return The number of queries routed
+	 * @throws IOException if reading or writing fails
+	 * @throws Error the first Error (e.g. OutOfMemoryError) a worker threw;
+	 *   no results are written after it
+	 */
+	public long run(BufferedReader in, Writer out, int threads) throws IOException
+	{
+		threads = Math.max(1, threads);
+		int window = threads * WINDOW;
+		this.out = out;
+		ring = new String[window];
+		nextToWrite = 0;
+		slots = new Semaphore(window);
+		writeError = null;
+		workerError = null;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long sequence = 0;
+		int lineNumber = 0;
+		// no query line yet, so the next one may be a header
+		boolean first = true;
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+					continue;
+				}
+				boolean header = first && !Character.isDigit(trimmed.charAt(0))
+						&& trimmed.charAt(0) != '-' && trimmed.charAt(0) != '.';
+				first = false;
+				if (header) {
+					continue;
+				}
+				slots.acquireUninterruptibly();
+				checkFailures();
+				final long seq = sequence++;
+				final int number = lineNumber;
+				final String query = trimmed;
+				pool.execute(() -> {
+					String result = null;
+					try {
+						result = route(number, query);
+					}
+					catch (RuntimeException e) {
+						result = number + ",error," + String.valueOf(e).replace(',', ';');
+					}
+					catch (Error e) {
+						fail(e);
+						throw e;
+					}
+					finally {
+						// a failed query must still fill its slot, or the
+						// reader waits for it forever
+						finish(seq, (result != null) ? result : number + ",error,failed");
+					}
+				});
+			}
+			// wait for everything to be written
+			slots.acquireUninterruptibly(window);
+			slots.release(window);
+			checkFailures();
+		}
+		finally {
+			pool.shutdown();
+		}
+		out.flush();
+		return sequence;
+	}
+
+	// Route one input line, giving its output line
+	private String route(int number, String query)
+	{
+		String[] fields = query.split(",");
+		double[] c = new double[4];
+		try {
+			if (fields.length < 4) {
+				throw new IllegalArgumentException("expected fromLat,fromLon,toLat,toLon");
+			}
+			for (int i = 0; i < 4; i++) {
+				c[i] = Double.parseDouble(fields[i].trim());
+			}
+		}
+		catch (IllegalArgumentException e) {
+			return number + ",error," + e.getMessage().replace(',', ';');
+		}
+		int from = graph.nearestVertex(new GeographicPoint(c[0], c[1]));
+		int to = graph.nearestVertex(new GeographicPoint(c[2], c[3]));
+		CompactSearch search = searches.get();
+		int[] path = (heuristic == null) ? search.shortestPath(from, to)
+				: search.shortestPath(from, to, heuristic);
+		StringBuilder result = new StringBuilder().append(number).append(',');
+		if (path != null) {
+			result.append(String.format(Locale.ROOT, "%.6f", search.getDistance(to)));
+		}
+		result.append(',').append(search.getSettledCount());
+		if (withPaths) {
+			result.append(',');
+			if (path != null) {
+				result.append(PolylineEncoder.encode(graph.toLocations(path)));
+			}
+		}
+		return result.toString();
+	}
+
+	// Put a result in the ring and write every result that is now next
+	// in line, freeing their slots for the reader
+	private void finish(long seq, String result)
+	{
+		synchronized (this) {
+			ring[(int) (seq % ring.length)] = result;
+			int freed = 0;
+			String next;
+			while ((next = ring[(int) (nextToWrite % ring.length)]) != null) {
+				ring[(int) (nextToWrite % ring.length)] = null;
+				nextToWrite++;
+				freed++;
+				// after a failure run is giving up, so nothing more is written
+				if (writeError == null && workerError == null) {
+					try {
+						out.write(next);
+						out.write('\n');
+					}
+					catch (IOException e) {
+						writeError = e;
+					}
+				}
+			}
+			slots.release(freed);
+		}
+	}
+
+	private synchronized void fail(Error e)
+	{
+		if (workerError == null) {
+			workerError = e;
+		}
+	}
+
+	private synchronized void checkFailures() throws IOException
+	{
+		if (workerError != null) {
+			throw workerError;
+		}
+		if (writeError != null) {
+			throw writeError;
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String graphFile = null;
+		String inFile = null;
+		String outFile = null;
+		String compileTo = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean aStar = true;
+		boolean withPaths = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-m":
+				graphFile = args[++i];
+				break;
+			case "-i":
+				inFile = args[++i];
+				break;
+			case "-o":
+				outFile = args[++i];
+				break;
+			case "-t":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-a":
+				aStar = args[++i].equalsIgnoreCase("astar");
+				break;
+			case "-p":
+				withPaths = true;
+				break;
+			case "-c":
+				compileTo = args[++i];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (graphFile == null) {
+			System.err.println("Usage: BatchRouter -m GRAPH [-i IN.csv] [-o OUT.csv] [-t THREADS] "
+					+ "[-a dijkstra|astar] [-p]");
+			System.err.println("       BatchRouter -m MAP.map -c GRAPH.bin");
+			return;
+		}
+
+		long start = System.nanoTime();
+		CompactGraph graph = loadGraph(graphFile);
+		System.err.printf(Locale.ROOT, "Loaded %s (%d vertices, %d edges) in %.1f ms%n", graphFile,
+				graph.getNumVertices(), graph.getNumEdges(), (System.nanoTime() - start) / 1e6);
+		if (compileTo != null) {
+			graph.save(new File(compileTo));
+			System.err.println("Compiled graph written to " + compileTo);
+			return;
+		}
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				(inFile == null) ? System.in : new FileInputStream(inFile), StandardCharsets.UTF_8));
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				(outFile == null) ? System.out : new FileOutputStream(outFile), StandardCharsets.UTF_8),
+				1 << 16);
+		try {
+			start = System.nanoTime();
+			long routed = new BatchRouter(graph, aStar, withPaths).run(in, out, threads);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.err.printf(Locale.ROOT, "Routed %d queries on %d threads in %.2f s (%.0f per second)%n",
+					routed, threads, seconds, routed / seconds);
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	// A .map file is read into a MapGraph; anything else is a compiled graph
+	private static CompactGraph loadGraph(String file) throws IOException
+	{
+		if (file.endsWith(".map")) {
+			MapGraph map = new MapGraph();
+			GraphLoader.loadRoadMap(file, map);
+			return new CompactGraph(map);
+		}
+		return CompactGraph.load(new File(file));
+	}
+}
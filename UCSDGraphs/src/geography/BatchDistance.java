@@ -0,0 +1,168 @@
+package geography;
+
+import java.util.Random;
+
+/**
+ * Distance kernels over many points at once, held in a PointBuffer.
+ *
+ * distances and pathLength use exactly the same arithmetic as
+ * GeographicPoint.distance, so they give the same results to the last
+ * bit; they are faster only because nothing is allocated or computed
+ * twice (each latitude's cosine is computed once, not once per pair).
+ *
+ * nearest does not need the distances themselves, only their order.
+ * The closest point on a sphere is the one whose unit vector has the
+ * largest dot product with the query's, so the scan is three multiplies
+ * and two adds per point, with no trigonometry.  The loop is written
+ * over plain double[] arrays so the JIT can unroll and vectorize it.
+ *
+ * (The JDK Vector API would make the vectorization explicit, but it is
+ * an incubator module of JDK 16 and later and this project builds for
+ * Java 8, so the kernels stay scalar.)
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class BatchDistance {
+	// radius of the earth in km, as in GeographicPoint
+	private static final int R = 6373;
+
+	private BatchDistance() {}
+
+	/** Find the distance from one point to every point in a buffer
+	 * @param latitude The latitude of the point, in degrees
+	 * @param longitude The longitude of the point, in degrees
+	 * @param points The points to measure to
+	 * @param result Filled with the distance to each point in km; must
+	 *   have room for points.size() values
+	 */
+	public static void distances(double latitude, double longitude, PointBuffer points,
+			double[] result)
+	{
+		double cos1 = Math.cos(Math.toRadians(latitude));
+		double[] lat = points.lat;
+		double[] lon = points.lon;
+		double[] cosLat = points.cosLat;
+		for (int i = 0; i < points.size; i++) {
+			result[i] = haversine(latitude, longitude, cos1, lat[i], lon[i], cosLat[i]);
+		}
+	}
+
+	/** Find the length of the polyline through the points, in order
+	 * @param points The points
+	 * @return The sum of the distances between consecutive points in km
+	 */
+	public static double pathLength(PointBuffer points)
+	{
+		double[] lat = points.lat;
+		double[] lon = points.lon;
+		double[] cosLat = points.cosLat;
+		double length = 0.0;
+		for (int i = 1; i < points.size; i++) {
+			length += haversine(lat[i-1], lon[i-1], cosLat[i-1], lat[i], lon[i], cosLat[i]);
+		}
+		return length;
+	}
+
+	/** Find the point in a buffer closest to a location
+	 * @param latitude The latitude of the location, in degrees
+	 * @param longitude The longitude of the location, in degrees
+	 * @param points The points to search
+	 * @return The number of the closest point, or -1 if the buffer is empty
+	 */
+	public static int nearest(double latitude, double longitude, PointBuffer points)
+	{
+		points.computeUnitVectors();
+		double latRad = Math.toRadians(latitude);
+		double lonRad = Math.toRadians(longitude);
+		double qx = Math.cos(latRad) * Math.cos(lonRad);
+		double qy = Math.cos(latRad) * Math.sin(lonRad);
+		double qz = Math.sin(latRad);
+		double[] x = points.x;
+		double[] y = points.y;
+		double[] z = points.z;
+		int best = -1;
+		double bestDot = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < points.size; i++) {
+			double dot = qx * x[i] + qy * y[i] + qz * z[i];
+			if (dot > bestDot) {
+				bestDot = dot;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	// The same steps as GeographicPoint.getDist, with the cosines given
+	private static double haversine(double lat1, double lon1, double cos1,
+			double lat2, double lon2, double cos2)
+	{
+		double deltaLat = Math.toRadians(lat2-lat1);
+		double deltaLon = Math.toRadians(lon2-lon1);
+		double sinLat = Math.sin(deltaLat/2);
+		double sinLon = Math.sin(deltaLon/2);
+		double a = sinLat * sinLat + cos1 * cos2 * sinLon * sinLon;
+		double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+		return R * c;
+	}
+
+	/** Check the kernels against GeographicPoint.distance and time both.
+	 * @param args Not used
+	 */
+	public static void main(String[] args)
+	{
+		int n = 100000;
+		Random random = new Random(1);
+		GeographicPoint[] pts = new GeographicPoint[n];
+		PointBuffer buffer = new PointBuffer(n);
+		for (int i = 0; i < n; i++) {
+			// a city-sized area around San Diego
+			pts[i] = new GeographicPoint(32.6 + 0.3 * random.nextDouble(),
+					-117.3 + 0.3 * random.nextDouble());
+			buffer.add(pts[i]);
+		}
+		GeographicPoint q = new GeographicPoint(32.75, -117.15);
+		double[] batch = new double[n];
+		double[] single = new double[n];
+
+		int rounds = 20;
+		long bestSingle = Long.MAX_VALUE;
+		long bestBatch = Long.MAX_VALUE;
+		long bestNearest = Long.MAX_VALUE;
+		int nearest = -1;
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				single[i] = q.distance(pts[i]);
+			}
+			bestSingle = Math.min(bestSingle, System.nanoTime() - start);
+			start = System.nanoTime();
+			distances(q.getX(), q.getY(), buffer, batch);
+			bestBatch = Math.min(bestBatch, System.nanoTime() - start);
+			start = System.nanoTime();
+			nearest = nearest(q.getX(), q.getY(), buffer);
+			bestNearest = Math.min(bestNearest, System.nanoTime() - start);
+		}
+		int differ = 0;
+		int closest = 0;
+		for (int i = 0; i < n; i++) {
+			if (batch[i] != single[i]) {
+				differ++;
+			}
+			if (single[i] < single[closest]) {
+				closest = i;
+			}
+		}
+		System.out.printf("GeographicPoint.distance: %.1f ns per point%n", (double) bestSingle / n);
+		System.out.printf("distances:                %.1f ns per point, %d of %d differ%n",
+				(double) bestBatch / n, differ, n);
+		System.out.printf("nearest:                  %.1f ns per point, %s%n",
+				(double) bestNearest / n, nearest == closest ? "same point" : "DIFFERENT point");
+
+		double length = 0;
+		for (int i = 1; i < n; i++) {
+			length += pts[i-1].distance(pts[i]);
+		}
+		System.out.println("pathLength " + (pathLength(buffer) == length ? "matches" : "DIFFERS"));
+	}
+}
@@ -0,0 +1,219 @@
+package geography;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Groups map points into clusters for display, so a map showing
+ * thousands of intersections only has to draw the few dozen clusters
+ * or points that are in view.
+ *
+ * For each zoom the world is cut into square cells about CELL_PIXELS
+ * across on the screen.  The points in a cell form one cluster, drawn
+ * at their centroid; a cell holding a single point gives that point.
+ * Above MAX_CLUSTER_ZOOM every point is given on its own.  The cells of
+ * a zoom are worked out the first time it is asked for and kept in
+ * sorted arrays, so a query only looks at the cells in view.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class ClusterIndex {
+	/** The size of a cell on the screen, in pixels */
+	public static final int CELL_PIXELS = 64;
+	/** Above this zoom points are never clustered */
+	public static final int MAX_CLUSTER_ZOOM = 16;
+
+	private final GeographicPoint[] points;
+	// cells are squares on the screen, so shorter in latitude away from
+	// the equator (Mercator)
+	private final double latScale;
+	private final Grid[] grids = new Grid[MAX_CLUSTER_ZOOM + 1];
+
+	/** Index a set of points
+	 * @param points The points
+	 */
+	public ClusterIndex(Collection<GeographicPoint> points)
+	{
+		this.points = points.toArray(new GeographicPoint[0]);
+		double meanLat = 0;
+		for (GeographicPoint p : this.points) {
+			meanLat += p.getX();
+		}
+		meanLat = (this.points.length == 0) ? 0 : meanLat / this.points.length;
+		latScale = Math.cos(Math.toRadians(meanLat));
+	}
+
+	/** @return The number of points indexed */
+	public int size()
+	{
+		return points.length;
+	}
+
+	/** Get what to draw in part of the map
+	 * @param south The southern edge of the view
+	 * @param west The western edge of the view
+	 * @param north The northern edge of the view
+	 * @param east The eastern edge of the view
+	 * @param zoom The map zoom
+	 * @return The clusters and single points in the view; above
+	 *   MAX_CLUSTER_ZOOM, only the points inside it
+	 */
+	public List<Cluster> query(double south, double west, double north, double east, int zoom)
+	{
+		Grid grid = grid(Math.max(0, Math.min(zoom, MAX_CLUSTER_ZOOM)));
+		boolean single = zoom > MAX_CLUSTER_ZOOM;
+		List<Cluster> result = new ArrayList<Cluster>();
+		if (grid.keys.length == 0) {
+			return result;
+		}
+		// only the rows that have points
+		int rowFrom = Math.max(grid.row(south), (int) (grid.keys[0] >>> 32));
+		int rowTo = Math.min(grid.row(north), (int) (grid.keys[grid.keys.length - 1] >>> 32));
+		int colFrom = grid.col(west);
+		int colTo = grid.col(east);
+		for (int row = rowFrom; row <= rowTo; row++) {
+			int i = Arrays.binarySearch(grid.keys, key(row, colFrom));
+			i = (i < 0) ? -i - 1 : i;
+			for (; i < grid.keys.length && grid.keys[i] <= key(row, colTo); i++) {
+				int count = grid.starts[i + 1] - grid.starts[i];
+				if (count == 1 || single) {
+					for (int j = grid.starts[i]; j < grid.starts[i + 1]; j++) {
+						GeographicPoint p = points[grid.order[j]];
+						if (!single || (p.getX() >= south && p.getX() <= north
+								&& p.getY() >= west && p.getY() <= east)) {
+							result.add(new Cluster(grid.zoom, grid.keys[i], p.getX(), p.getY(), 1, p));
+						}
+					}
+				}
+				else {
+					result.add(new Cluster(grid.zoom, grid.keys[i], grid.latitudes[i],
+							grid.longitudes[i], count, null));
+				}
+			}
+		}
+		return result;
+	}
+
+	private Grid grid(int zoom)
+	{
+		if (grids[zoom] == null) {
+			grids[zoom] = new Grid(zoom);
+		}
+		return grids[zoom];
+	}
+
+	private static long key(int row, int col)
+	{
+		return ((long) row << 32) | col;
+	}
+
+	// The non-empty cells of one zoom, sorted by row then column
+	private class Grid {
+		final int zoom;
+		final double cellLon;
+		final double cellLat;
+		long[] keys;
+		// the points of cell i are order[starts[i]] .. order[starts[i+1]-1]
+		int[] starts;
+		int[] order;
+		double[] latitudes;
+		double[] longitudes;
+
+		Grid(int zoom)
+		{
+			this.zoom = zoom;
+			cellLon = CELL_PIXELS * 360.0 / (256L << zoom);
+			cellLat = cellLon * latScale;
+			int n = points.length;
+			// sort (cell, point) pairs by cell
+			long[][] pairs = new long[n][];
+			for (int i = 0; i < n; i++) {
+				pairs[i] = new long[] {key(row(points[i].getX()), col(points[i].getY())), i};
+			}
+			Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+			order = new int[n];
+			long[] cellKeys = new long[n];
+			int[] cellStarts = new int[n + 1];
+			int cells = 0;
+			for (int i = 0; i < n; i++) {
+				order[i] = (int) pairs[i][1];
+				if (i == 0 || pairs[i][0] != pairs[i - 1][0]) {
+					cellKeys[cells] = pairs[i][0];
+					cellStarts[cells++] = i;
+				}
+			}
+			cellStarts[cells] = n;
+			keys = Arrays.copyOf(cellKeys, cells);
+			starts = Arrays.copyOf(cellStarts, cells + 1);
+			latitudes = new double[cells];
+			longitudes = new double[cells];
+			for (int c = 0; c < cells; c++) {
+				for (int j = starts[c]; j < starts[c + 1]; j++) {
+					latitudes[c] += points[order[j]].getX();
+					longitudes[c] += points[order[j]].getY();
+				}
+				latitudes[c] /= starts[c + 1] - starts[c];
+				longitudes[c] /= starts[c + 1] - starts[c];
+			}
+		}
+
+		int row(double latitude)
+		{
+			return (int) Math.floor((Math.max(-90, Math.min(90, latitude)) + 90) / cellLat);
+		}
+
+		int col(double longitude)
+		{
+			return (int) Math.floor((Math.max(-180, Math.min(180, longitude)) + 180) / cellLon);
+		}
+	}
+
+	/**
+	 * A cluster of points, or a single point, to draw.
+	 */
+	public static class Cluster {
+		private final int zoom;
+		private final long cell;
+		private final double latitude;
+		private final double longitude;
+		private final int count;
+		private final GeographicPoint point;
+
+		Cluster(int zoom, long cell, double latitude, double longitude, int count,
+				GeographicPoint point)
+		{
+			this.zoom = zoom;
+			this.cell = cell;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.count = count;
+			this.point = point;
+		}
+
+		/** @return The latitude of the centroid of the points */
+		public double getLatitude() { return latitude; }
+
+		/** @return The longitude of the centroid of the points */
+		public double getLongitude() { return longitude; }
+
+		/** @return The number of points in the cluster */
+		public int getCount() { return count; }
+
+		/** @return The point, if the cluster is a single point, or null */
+		public GeographicPoint getPoint() { return point; }
+
+		/** @return The zoom the cluster was made for */
+		public int getZoom() { return zoom; }
+
+		/** @return A number identifying the cluster's cell among all the
+		 *   cells of all zooms, for keeping track of what is drawn */
+		public long getKey()
+		{
+			// rows and columns take under 29 bits up to MAX_CLUSTER_ZOOM
+			return ((long) zoom << 58) | ((cell >>> 32) << 29) | (cell & 0x1fffffff);
+		}
+	}
+}
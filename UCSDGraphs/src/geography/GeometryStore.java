@@ -0,0 +1,377 @@
+package geography;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The shapes of many roads packed into one byte array.
+ *
+ * Each shape is a run of points from one end of a road to the other,
+ * including both ends, and is known by the number add returned for it.
+ * Coordinates are kept in fixed point, in units of 1e-7 degrees (the
+ * precision of the map files, about 1 cm), and each point is stored as
+ * the difference from the point before it, as a zigzag varint.  Points
+ * along a road are close together, so most points take 2 to 4 bytes
+ * instead of the 16 of two doubles plus the object around them.
+ *
+ * A two-way road is stored once: the shape number with REVERSED set
+ * reads the same points from the other end.
+ *
+ * Points are only turned back into GeographicPoints when a view from
+ * getPoints is read; copyTo decodes straight into a coordinate array.
+ *
+ * Each point also has a zoom level, worked out when the shape is added
+ * with the Douglas-Peucker algorithm: the lowest map zoom at which
+ * leaving the point out would move the line by a pixel or more.  The
+ * ends of a shape are level 0.  Copying a shape for a zoom keeps only
+ * the points at or below it, which gives the simplified line for that
+ * zoom without any work at drawing time.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class GeometryStore {
+	/** Set in a shape number to read the shape from its end to its start */
+	public static final int REVERSED = 1 << 30;
+
+	/** The highest map zoom; every point is kept at this zoom */
+	public static final int MAX_ZOOM = 21;
+
+	private static final double FIXED_POINT = 1e7;
+	// the degrees of longitude across one pixel at each zoom (256 pixel
+	// tiles, 2^zoom tiles around the world)
+	private static final double[] PIXEL_DEGREES = new double[MAX_ZOOM + 1];
+	static {
+		for (int z = 0; z <= MAX_ZOOM; z++) {
+			PIXEL_DEGREES[z] = 360.0 / (256 << z);
+		}
+	}
+
+	// the encoded points of all the shapes
+	private byte[] data;
+	private int length;
+	// shape i is bytes byteOffsets[i] .. byteOffsets[i+1]-1 and
+	// points pointOffsets[i] .. pointOffsets[i+1]-1
+	private int[] byteOffsets;
+	private int[] pointOffsets;
+	// the zoom level of each point
+	private byte[] levels;
+	private int count;
+
+	/** Create an empty store */
+	public GeometryStore()
+	{
+		this(1024, 64);
+	}
+
+	/** Create an empty store with room for some shapes
+	 * @param bytes The number of bytes to start with
+	 * @param shapes The number of shapes to start with
+	 */
+	public GeometryStore(int bytes, int shapes)
+	{
+		data = new byte[Math.max(bytes, 16)];
+		byteOffsets = new int[shapes + 1];
+		pointOffsets = new int[shapes + 1];
+		levels = new byte[Math.max(bytes / 4, 4)];
+	}
+
+	/** Add a shape
+	 * @param start The first point
+	 * @param between The points in between, in order
+	 * @param end The last point
+	 * @return The number of the shape
+	 */
+	public int add(GeographicPoint start, List<GeographicPoint> between, GeographicPoint end)
+	{
+		if (count + 2 > byteOffsets.length) {
+			byteOffsets = Arrays.copyOf(byteOffsets, byteOffsets.length * 2);
+			pointOffsets = Arrays.copyOf(pointOffsets, pointOffsets.length * 2);
+		}
+		int[] last = new int[2];
+		put(start, last);
+		for (GeographicPoint p : between) {
+			put(p, last);
+		}
+		put(end, last);
+		count++;
+		byteOffsets[count] = length;
+		pointOffsets[count] = pointOffsets[count - 1] + between.size() + 2;
+		if (pointOffsets[count] > levels.length) {
+			levels = Arrays.copyOf(levels, Math.max(pointOffsets[count], levels.length * 2));
+		}
+		setLevels(start, between, end, pointOffsets[count - 1]);
+		return count - 1;
+	}
+
+	// Work out the zoom level of each point of a shape with Douglas-Peucker,
+	// storing them from levels[at]
+	private void setLevels(GeographicPoint start, List<GeographicPoint> between,
+			GeographicPoint end, int at)
+	{
+		int n = between.size() + 2;
+		levels[at] = 0;
+		levels[at + n - 1] = 0;
+		if (n == 2) {
+			return;
+		}
+		// flat coordinates in degrees of latitude, close enough over a road
+		double scale = Math.cos(Math.toRadians(start.getX()));
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			GeographicPoint p = (i == 0) ? start : (i == n - 1) ? end : between.get(i - 1);
+			x[i] = p.getY() * scale;
+			y[i] = p.getX();
+		}
+		// each range to split, with the largest deviation of the range
+		// that contains it, so a point is never coarser than its parent
+		int[] stack = new int[2 * n];
+		double[] parent = new double[n];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+		parent[0] = Double.POSITIVE_INFINITY;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			if (last - first < 2) {
+				continue;
+			}
+			int farthest = first + 1;
+			double most = -1;
+			for (int i = first + 1; i < last; i++) {
+				double d = deviation(x, y, first, last, i);
+				if (d > most) {
+					most = d;
+					farthest = i;
+				}
+			}
+			double significance = Math.min(most, parent[first]);
+			levels[at + farthest] = (byte) levelFor(significance, scale);
+			parent[first] = significance;
+			parent[farthest] = significance;
+			stack[top++] = first;
+			stack[top++] = farthest;
+			stack[top++] = farthest;
+			stack[top++] = last;
+		}
+	}
+
+	// The distance of point i from the line through first and last
+	private static double deviation(double[] x, double[] y, int first, int last, int i)
+	{
+		double dx = x[last] - x[first];
+		double dy = y[last] - y[first];
+		double len2 = dx * dx + dy * dy;
+		if (len2 == 0) {
+			return Math.hypot(x[i] - x[first], y[i] - y[first]);
+		}
+		double t = ((x[i] - x[first]) * dx + (y[i] - y[first]) * dy) / len2;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(x[i] - x[first] - t * dx, y[i] - y[first] - t * dy);
+	}
+
+	// The lowest zoom at which a deviation is at least a pixel; a pixel
+	// in these flat coordinates is scaled by the cosine of the latitude
+	private static int levelFor(double deviation, double scale)
+	{
+		for (int z = 0; z < MAX_ZOOM; z++) {
+			if (deviation >= PIXEL_DEGREES[z] * scale) {
+				return z;
+			}
+		}
+		return MAX_ZOOM;
+	}
+
+	// Append a point as the difference from the last one
+	private void put(GeographicPoint p, int[] last)
+	{
+		// two varints of at most 5 bytes each
+		if (length + 10 > data.length) {
+			data = Arrays.copyOf(data, data.length * 2);
+		}
+		int lat = toFixed(p.getX());
+		int lon = toFixed(p.getY());
+		putVarint(lat - last[0]);
+		putVarint(lon - last[1]);
+		last[0] = lat;
+		last[1] = lon;
+	}
+
+	private void putVarint(int delta)
+	{
+		// zigzag, so small negative differences are small too
+		int v = (delta << 1) ^ (delta >> 31);
+		while ((v & ~0x7f) != 0) {
+			data[length++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		data[length++] = (byte) v;
+	}
+
+	private static int toFixed(double degrees)
+	{
+		return (int) Math.round(degrees * FIXED_POINT);
+	}
+
+	/** Does a shape hold the given points in the opposite order?  Used to
+	 * store the two directions of a road once.
+	 * @param shape A shape number
+	 * @param start The first point of the other direction
+	 * @param between The points in between, in order
+	 * @param end The last point of the other direction
+	 * @return true if reading the shape reversed gives the same points,
+	 *   to the precision of the store
+	 */
+	public boolean isReverseOf(int shape, GeographicPoint start, List<GeographicPoint> between,
+			GeographicPoint end)
+	{
+		int n = getNumPoints(shape);
+		if (n != between.size() + 2) {
+			return false;
+		}
+		double[] coords = new double[2 * n];
+		copyTo(shape ^ REVERSED, false, coords, 0);
+		for (int i = 0; i < n; i++) {
+			GeographicPoint p = (i == 0) ? start : (i == n - 1) ? end : between.get(i - 1);
+			if (toFixed(coords[2 * i]) != toFixed(p.getX())
+					|| toFixed(coords[2 * i + 1]) != toFixed(p.getY())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return The number of shapes */
+	public int size()
+	{
+		return count;
+	}
+
+	/** @param shape A shape number
+	 * @return The number of points in the shape, including both ends */
+	public int getNumPoints(int shape)
+	{
+		int i = shape & ~REVERSED;
+		return pointOffsets[i + 1] - pointOffsets[i];
+	}
+
+	/** Get the points of a shape.  The view decodes the shape once, when
+	 * it is made, and makes a GeographicPoint each time it is read.
+	 * @param shape A shape number, with REVERSED set to read it backwards
+	 * @return The points, from start to end
+	 */
+	public List<GeographicPoint> getPoints(int shape)
+	{
+		double[] coords = new double[2 * getNumPoints(shape)];
+		copyTo(shape, false, coords, 0);
+		return new PointView(coords);
+	}
+
+	/** Copy the coordinates of a shape into an array as (latitude,
+	 * longitude) pairs
+	 * @param shape A shape number, with REVERSED set to copy it backwards
+	 * @param skipStart true to leave out the first point, when it is the
+	 *   last point of the shape copied before
+	 * @param dest The array to copy into; it must have room
+	 * @param pos Where to start in dest
+	 * @return The position in dest after the last coordinate copied
+	 */
+	public int copyTo(int shape, boolean skipStart, double[] dest, int pos)
+	{
+		return copyTo(shape, MAX_ZOOM, skipStart, dest, pos);
+	}
+
+	/** Copy the coordinates of a shape, simplified for a map zoom, into
+	 * an array as (latitude, longitude) pairs
+	 * @param shape A shape number, with REVERSED set to copy it backwards
+	 * @param zoom The map zoom; only points at or below it are copied
+	 * @param skipStart true to leave out the first point, when it is the
+	 *   last point of the shape copied before
+	 * @param dest The array to copy into; it must have room for the
+	 *   whole shape
+	 * @param pos Where to start in dest
+	 * @return The position in dest after the last coordinate copied
+	 */
+	public int copyTo(int shape, int zoom, boolean skipStart, double[] dest, int pos)
+	{
+		// decode over the point being skipped: it is the same point
+		int base = skipStart ? pos - 2 : pos;
+		int i = shape & ~REVERSED;
+		int at = byteOffsets[i];
+		int end = byteOffsets[i + 1];
+		int point = pointOffsets[i];
+		int lat = 0;
+		int lon = 0;
+		int out = base;
+		boolean odd = false;
+		while (at < end) {
+			int v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[at++];
+				v |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			int delta = (v >>> 1) ^ -(v & 1);
+			// latitude and longitude alternate
+			if (!odd) {
+				lat += delta;
+			}
+			else {
+				lon += delta;
+				if (levels[point++] <= zoom) {
+					dest[out++] = lat / FIXED_POINT;
+					dest[out++] = lon / FIXED_POINT;
+				}
+			}
+			odd = !odd;
+		}
+		if ((shape & REVERSED) != 0) {
+			for (int a = base, z = out - 2; a < z; a += 2, z -= 2) {
+				double t = dest[a];
+				dest[a] = dest[z];
+				dest[z] = t;
+				t = dest[a + 1];
+				dest[a + 1] = dest[z + 1];
+				dest[z + 1] = t;
+			}
+		}
+		return out;
+	}
+
+	/** @return The bytes used by the packed shapes */
+	public long getSizeInBytes()
+	{
+		return data.length + levels.length + 4L * byteOffsets.length + 4L * pointOffsets.length;
+	}
+
+	// The points of a decoded shape
+	private static class PointView extends AbstractList<GeographicPoint> implements RandomAccess {
+		private final double[] coords;
+
+		PointView(double[] coords)
+		{
+			this.coords = coords;
+		}
+
+		@Override
+		public GeographicPoint get(int index)
+		{
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			}
+			return new GeographicPoint(coords[2 * index], coords[2 * index + 1]);
+		}
+
+		@Override
+		public int size()
+		{
+			return coords.length / 2;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package geography;
+
+import java.util.Arrays;
+
+/**
+ * Positions along a Hilbert curve, for putting points that are close
+ * on the map close together in memory.
+ *
+ * The bounding box of the points is divided into a 2^16 by 2^16 grid
+ * and the cells are numbered in the order the curve visits them.  The
+ * curve never jumps, so points with nearby numbers are nearby on the
+ * map, and most points near each other on the map get nearby numbers.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class HilbertCurve {
+	private static final int BITS = 16;
+
+	private HilbertCurve() {}
+
+	/** Get the position of a grid cell along the curve
+	 * @param x The column, from 0 to 2^bits - 1
+	 * @param y The row, from 0 to 2^bits - 1
+	 * @param bits The number of bits per coordinate, at most 31
+	 * @return The position along the curve, from 0 to 4^bits - 1
+	 */
+	public static long index(int x, int y, int bits)
+	{
+		long d = 0;
+		int n = 1 << bits;
+		for (int s = n >>> 1; s > 0; s >>>= 1) {
+			int rx = ((x & s) != 0) ? 1 : 0;
+			int ry = ((y & s) != 0) ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant so the curve inside it has the right shape
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/** Sort points along the curve
+	 * @param latitudes The latitude of each point
+	 * @param longitudes The longitude of each point
+	 * @return The point numbers, in the order the curve visits them
+	 */
+	public static int[] sortOrder(double[] latitudes, double[] longitudes)
+	{
+		int n = latitudes.length;
+		if (n == 0) {
+			return new int[0];
+		}
+		double minLat = latitudes[0];
+		double maxLat = latitudes[0];
+		double minLon = longitudes[0];
+		double maxLon = longitudes[0];
+		for (int i = 1; i < n; i++) {
+			minLat = Math.min(minLat, latitudes[i]);
+			maxLat = Math.max(maxLat, latitudes[i]);
+			minLon = Math.min(minLon, longitudes[i]);
+			maxLon = Math.max(maxLon, longitudes[i]);
+		}
+		double cells = (1 << BITS) - 1;
+		double latScale = (maxLat > minLat) ? cells / (maxLat - minLat) : 0;
+		double lonScale = (maxLon > minLon) ? cells / (maxLon - minLon) : 0;
+
+		// sort (curve position, point) pairs packed into one long: the
+		// position takes 32 bits, leaving 31 for the point number
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			int x = (int) ((longitudes[i] - minLon) * lonScale);
+			int y = (int) ((latitudes[i] - minLat) * latScale);
+			keys[i] = (index(x, y, BITS) << 31) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = (int) (keys[i] & 0x7fffffff);
+		}
+		return order;
+	}
+}
@@ -0,0 +1,125 @@
+package geography;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A growable list of points kept as parallel primitive arrays
+ * (structure of arrays) for the batch distance kernels in BatchDistance.
+ *
+ * Besides the coordinates, the buffer keeps what the kernels would
+ * otherwise recompute for every pair: the cosine of each latitude, and
+ * (made on first use) each point as a unit vector in 3D.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class PointBuffer {
+	double[] lat;
+	double[] lon;
+	double[] cosLat;
+	// unit vectors, valid for the first unitCount points
+	double[] x;
+	double[] y;
+	double[] z;
+	int unitCount;
+	int size;
+
+	/** Create an empty buffer
+	 * @param capacity The number of points to make room for
+	 */
+	public PointBuffer(int capacity)
+	{
+		capacity = Math.max(capacity, 4);
+		lat = new double[capacity];
+		lon = new double[capacity];
+		cosLat = new double[capacity];
+	}
+
+	/** Create a buffer holding the given points, in order
+	 * @param points The points
+	 */
+	public PointBuffer(Collection<GeographicPoint> points)
+	{
+		this(points.size());
+		for (GeographicPoint p : points) {
+			add(p);
+		}
+	}
+
+	/** Add a point at the end
+	 * @param latitude The latitude in degrees
+	 * @param longitude The longitude in degrees
+	 */
+	public void add(double latitude, double longitude)
+	{
+		if (size == lat.length) {
+			int capacity = size * 2;
+			lat = Arrays.copyOf(lat, capacity);
+			lon = Arrays.copyOf(lon, capacity);
+			cosLat = Arrays.copyOf(cosLat, capacity);
+		}
+		lat[size] = latitude;
+		lon[size] = longitude;
+		cosLat[size] = Math.cos(Math.toRadians(latitude));
+		size++;
+	}
+
+	/** Add a point at the end
+	 * @param point The point
+	 */
+	public void add(GeographicPoint point)
+	{
+		add(point.getX(), point.getY());
+	}
+
+	/** Remove all the points */
+	public void clear()
+	{
+		size = 0;
+		unitCount = 0;
+	}
+
+	/** @return The number of points */
+	public int size()
+	{
+		return size;
+	}
+
+	/** @param i The point number
+	 * @return The latitude of the point in degrees */
+	public double getLatitude(int i)
+	{
+		return lat[i];
+	}
+
+	/** @param i The point number
+	 * @return The longitude of the point in degrees */
+	public double getLongitude(int i)
+	{
+		return lon[i];
+	}
+
+	/** Compute the unit vectors used by BatchDistance.nearest.  nearest
+	 * does this itself when needed, which changes the buffer, so call it
+	 * first if a buffer is to be shared between threads.
+	 */
+	public void computeUnitVectors()
+	{
+		if (unitCount == size) {
+			return;
+		}
+		if (x == null || x.length < size) {
+			x = (x == null) ? new double[lat.length] : Arrays.copyOf(x, lat.length);
+			y = (y == null) ? new double[lat.length] : Arrays.copyOf(y, lat.length);
+			z = (z == null) ? new double[lat.length] : Arrays.copyOf(z, lat.length);
+		}
+		for (int i = unitCount; i < size; i++) {
+			double lonRad = Math.toRadians(lon[i]);
+			x[i] = cosLat[i] * Math.cos(lonRad);
+			y[i] = cosLat[i] * Math.sin(lonRad);
+			z[i] = Math.sin(Math.toRadians(lat[i]));
+		}
+		unitCount = size;
+	}
+}
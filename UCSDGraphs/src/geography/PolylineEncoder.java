@@ -0,0 +1,96 @@
+package geography;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes paths in the encoded polyline format used by Google Maps
+ * (and OSRM, Leaflet plugins and most routing APIs).
+ *
+ * Each coordinate is rounded to a whole number of 1e-5 degrees (about a
+ * metre), each point is stored as its difference from the one before,
+ * and each difference is written five bits at a time as printable
+ * ASCII characters, so a path costs a few characters per point instead
+ * of two printed doubles.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class PolylineEncoder {
+	private static final double PRECISION = 1e5;
+
+	private PolylineEncoder() {}
+
+	/** Encode a path
+	 * @param path The points on the path
+	 * @return The encoded polyline
+	 */
+	public static String encode(List<GeographicPoint> path)
+	{
+		StringBuilder out = new StringBuilder(path.size() * 6);
+		long lastLat = 0;
+		long lastLon = 0;
+		for (GeographicPoint p : path) {
+			long lat = Math.round(p.getX() * PRECISION);
+			long lon = Math.round(p.getY() * PRECISION);
+			encodeValue(lat - lastLat, out);
+			encodeValue(lon - lastLon, out);
+			lastLat = lat;
+			lastLon = lon;
+		}
+		return out.toString();
+	}
+
+	/** Decode a polyline
+	 * @param encoded The encoded polyline
+	 * @return The points, rounded to 1e-5 degrees
+	 * @throws IllegalArgumentException if the text is not a polyline
+	 */
+	public static List<GeographicPoint> decode(String encoded)
+	{
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+		int[] position = {0};
+		long lat = 0;
+		long lon = 0;
+		while (position[0] < encoded.length()) {
+			lat += decodeValue(encoded, position);
+			lon += decodeValue(encoded, position);
+			path.add(new GeographicPoint(lat / PRECISION, lon / PRECISION));
+		}
+		return path;
+	}
+
+	// Zig-zag the sign into the lowest bit, then write 5 bits per
+	// character, lowest first, with 0x20 set on all but the last
+	private static void encodeValue(long value, StringBuilder out)
+	{
+		long v = (value < 0) ? ~(value << 1) : (value << 1);
+		while (v >= 0x20) {
+			out.append((char) ((0x20 | (v & 0x1f)) + 63));
+			v >>>= 5;
+		}
+		out.append((char) (v + 63));
+	}
+
+	private static long decodeValue(String encoded, int[] position)
+	{
+		long result = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (position[0] >= encoded.length()) {
+				throw new IllegalArgumentException("Polyline ends in the middle of a value");
+			}
+			b = encoded.charAt(position[0]++) - 63;
+			if (b < 0 || b > 0x3f) {
+				throw new IllegalArgumentException("Bad polyline character at " + (position[0] - 1));
+			}
+			if (shift > 60) {
+				throw new IllegalArgumentException("Polyline value too long at " + (position[0] - 1));
+			}
+			result |= (long) (b & 0x1f) << shift;
+			shift += 5;
+		} while (b >= 0x20);
+		return ((result & 1) != 0) ? ~(result >> 1) : (result >> 1);
+	}
+}
@@ -1,12 +1,14 @@
 package geography;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /** 
  * A segment of the road that includes the intersection end points
  * as well as all the minor points that make up the intermediate geometry.
+ * 
+ * The geometry lives in a GeometryStore, shared with the other segments
+ * of the map; the segment only keeps its end points and the number of
+ * its shape, and the points are decoded when getPoints is called.
  * @author Christine
  *
  */
@@ -16,7 +18,9 @@ public class RoadSegment {
 	private GeographicPoint point1;
 	private GeographicPoint point2;
 	
-	private List<GeographicPoint> geometryPoints;
+	// the points from point1 to point2, including both
+	private GeometryStore store;
+	private int shape;
 	
 	private String roadName;
 	private String roadType;
@@ -27,10 +31,30 @@ public class RoadSegment {
 	public RoadSegment(GeographicPoint pt1, GeographicPoint pt2, 
 						List<GeographicPoint> geometry, String roadName,
 						String roadType, double length)
+	{
+		this(pt1, pt2, new GeometryStore(4 * geometry.size() + 20, 1), 0,
+				roadName, roadType, length);
+		store.add(pt1, geometry, pt2);
+	}
+	
+	/** Create a segment whose geometry is already in a store
+	 * @param pt1 One end
+	 * @param pt2 The other end
+	 * @param store The store holding the geometry
+	 * @param shape The number of the shape from pt1 to pt2 in the store,
+	 *   with GeometryStore.REVERSED set if it is stored from pt2 to pt1
+	 * @param roadName The name of the road
+	 * @param roadType The type of the road
+	 * @param length The length in km
+	 */
+	public RoadSegment(GeographicPoint pt1, GeographicPoint pt2,
+						GeometryStore store, int shape, String roadName,
+						String roadType, double length)
 	{
 		point1 = pt1;
 		point2 = pt2;
-		geometryPoints = new ArrayList<GeographicPoint>(geometry);
+		this.store = store;
+		this.shape = shape;
 		this.roadName = roadName;
 		this.roadType = roadType;
 		this.length = length;
@@ -46,24 +70,16 @@ public class RoadSegment {
 	public List<GeographicPoint> getPoints(GeographicPoint start, 
 											GeographicPoint end)
 	{
-		List<GeographicPoint> allPoints = new ArrayList<GeographicPoint>();
 		if (point1.equals(start) && point2.equals(end)) {
-			allPoints.add(start);
-			allPoints.addAll(geometryPoints);
-			allPoints.add(end);
+			return store.getPoints(shape);
 		}
 		else if (point2.equals(start) && point1.equals(end)) {
-			allPoints.add(end);
-			allPoints.addAll(geometryPoints);
-			allPoints.add(start);
-			Collections.reverse(allPoints);
+			return store.getPoints(shape ^ GeometryStore.REVERSED);
 		}
 		else {
 			throw new IllegalArgumentException("Start and end points do not "
 					+ "match end points of segment");
 		}
-		
-		return allPoints;
 	}
 	
 	/** Two road segments are equal if they have the same start and end points
@@ -98,7 +114,8 @@ public class RoadSegment {
 	{
 		String toReturn = this.roadName + ", " +this.roadType;
 		toReturn += " [" + point1;
-		for (GeographicPoint p : this.geometryPoints) {
+		List<GeographicPoint> points = store.getPoints(shape);
+		for (GeographicPoint p : points.subList(1, points.size() - 1)) {
 			toReturn += "; " + p;
 		}
 		toReturn += "; " + point2 + "]";
@@ -109,6 +126,21 @@ public class RoadSegment {
 	// get the length of the road segment
 	public double getLength() { return this.length; }
 	
+	// get the name of the road
+	public String getRoadName() { return this.roadName; }
+	
+	// get the type of the road
+	public String getRoadType() { return this.roadType; }
+	
+	// get the end the segment was made from
+	public GeographicPoint getStart() { return this.point1; }
+	
+	// get the end the segment was made to
+	public GeographicPoint getEnd() { return this.point2; }
+	
+	// get the number of the segment's shape in its GeometryStore
+	public int getShape() { return this.shape; }
+	
 	
 	// given one end, return the other.
 	public geography.GeographicPoint getOtherPoint(geography.GeographicPoint point) {
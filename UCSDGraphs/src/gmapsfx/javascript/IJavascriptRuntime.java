@@ -93,4 +93,47 @@ public interface IJavascriptRuntime {
      */
     String getArrayFunction(String function, Object[] ary);
 
+    /**
+     * Starts queueing operations instead of running each one across the
+     * bridge. Objects created and functions called through the queue
+     * methods are sent together, as one JSON payload, by flushBatch() or by
+     * the next call to execute(). Batches nest: only the flushBatch() that
+     * matches the outermost beginBatch() sends, so every beginBatch() needs
+     * its flushBatch(), in a finally block if anything between can throw.
+     */
+    void beginBatch();
+
+    /**
+     * @return true if operations are being queued
+     */
+    boolean isBatching();
+
+    /**
+     * Queues the creation of a new object, which will be held in a
+     * JavaScript variable of the given name.
+     *
+     * @param variable The name of the variable to hold the new object
+     * @param javascriptObjectType The type of JavaScript object to create
+     * @param args The args of the constructor
+     */
+    void queueConstructor(String variable, String javascriptObjectType, Object... args);
+
+    /**
+     * Queues a function call.
+     *
+     * @param variable The variable to invoke the function on, or null for
+     * a global function
+     * @param function The function to invoke
+     * @param args Arguments the function requires
+     */
+    void queueFunction(String variable, String function, Object... args);
+
+    /**
+     * Ends a batch. If it is the outermost one, sends the queued operations
+     * and stops queueing.
+     *
+     * @throws IllegalStateException if no batch has begun
+     */
+    void flushBatch();
+
 }
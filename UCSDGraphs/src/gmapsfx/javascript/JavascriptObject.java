@@ -67,12 +67,20 @@ public class JavascriptObject {
     }
 
     /**
+     * While the runtime is batching, the object is only queued; it is
+     * created when the batch is sent, and the underlying JSObject is looked
+     * up the first time it is needed.
+     *
      * @param type The type of underlying Javascript object to create.
      * @param args Any arguments required to create the object.
      */
     protected JavascriptObject(String type, Object... args) {
         runtime = JavascriptRuntime.getInstance();
         variableName = getNextVariableName();
+        if (runtime.isBatching()) {
+            runtime.queueConstructor(variableName, type, args);
+            return;
+        }
         runtime.execute("var " + variableName + " = " + runtime.getConstructor(type, args));
         jsObject = runtime.execute(variableName);
         peerRegistry.put(jsObject, this);
@@ -113,6 +121,11 @@ public class JavascriptObject {
      * @return The underlying Javascript object
      */
     protected JSObject getJSObject() {
+        if (jsObject == null) {
+            // created in a batch
+            jsObject = runtime.execute(variableName);
+            peerRegistry.put(jsObject, this);
+        }
         return jsObject;
     }
 
@@ -143,7 +156,11 @@ public class JavascriptObject {
      * @param propertyValue The property value.
      */
     protected void setProperty(String propertyName, Object propertyValue) {
-        jsObject.setMember(propertyName, propertyValue);
+        if (runtime.isBatching()) {
+            runtime.queueFunction(null, "batchSet", this, propertyName, propertyValue);
+            return;
+        }
+        getJSObject().setMember(propertyName, propertyValue);
     }
 
     /**
@@ -154,7 +171,11 @@ public class JavascriptObject {
      * @param propertyValue The value of the property.
      */
     protected void setProperty(String propertyName, JavascriptObject propertyValue) {
-        jsObject.setMember(propertyName, propertyValue.getJSObject());
+        if (runtime.isBatching()) {
+            runtime.queueFunction(null, "batchSet", this, propertyName, propertyValue);
+            return;
+        }
+        getJSObject().setMember(propertyName, propertyValue.getJSObject());
     }
 
     /**
@@ -167,7 +188,11 @@ public class JavascriptObject {
      * @param propertyValue The value of the property.
      */
     protected void setProperty(String propertyName, JavascriptEnum propertyValue) {
-        jsObject.setMember(propertyName, propertyValue.getEnumValue());
+        if (runtime.isBatching()) {
+            runtime.queueFunction(null, "batchSet", this, propertyName, propertyValue);
+            return;
+        }
+        getJSObject().setMember(propertyName, propertyValue.getEnumValue());
     }
 
 
@@ -178,7 +203,7 @@ public class JavascriptObject {
      * @return The value of the property
      */
     protected Object getProperty(String key) {
-        return checkUndefined(jsObject.getMember(key));
+        return checkUndefined(getJSObject().getMember(key));
     }
 
     /**
@@ -206,7 +231,7 @@ public class JavascriptObject {
      * @return The return value of the function call.
      */
     protected Object invokeJavascript(String function) {
-        return checkUndefined(jsObject.call(function));
+        return checkUndefined(getJSObject().call(function));
     }
 
     /**
@@ -228,7 +253,22 @@ public class JavascriptObject {
                 jsArgs[i] = args[i];
             }
         }
-        return checkUndefined(jsObject.call(function, (Object[]) jsArgs));
+        return checkUndefined(getJSObject().call(function, (Object[]) jsArgs));
+    }
+
+    /**
+     * Invokes a JavaScript function that returns nothing, queueing it if the
+     * runtime is batching.
+     *
+     * @param function The function to invoke
+     * @param args The arguments to pass to the function
+     */
+    protected void queueJavascript(String function, Object... args) {
+        if (runtime.isBatching()) {
+            runtime.queueFunction(variableName, function, args);
+        } else {
+            invokeJavascript(function, args);
+        }
     }
 
     /**
@@ -274,7 +314,7 @@ public class JavascriptObject {
 
 
     protected boolean isMemberDefined(String member) {
-        Object res = jsObject.getMember(member);
+        Object res = getJSObject().getMember(member);
         return (res instanceof String && ! ((String) res).equals("undefined"));
 
     }
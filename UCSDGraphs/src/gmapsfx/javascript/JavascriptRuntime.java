@@ -15,6 +15,9 @@
  */
 package gmapsfx.javascript;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
 import netscape.javascript.JSObject;
 
 /**
@@ -30,6 +33,13 @@ public class JavascriptRuntime implements IJavascriptRuntime {
 
     public static IWebEngine engine;
 
+    // The operations queued since beginBatch(), as the start of a JSON array,
+    // or null when not batching
+    private StringBuilder batch;
+    private int batchSize;
+    // beginBatch() calls not yet matched by flushBatch()
+    private int batchDepth;
+
     /**
      * Gets a singleton instance of this class, creating one if it doesn't yet
      * exist.
@@ -60,6 +70,8 @@ public class JavascriptRuntime implements IJavascriptRuntime {
      */
     @Override
     public JSObject execute(String command) {
+        // anything queued has to happen first
+        sendBatch();
         Object returnValue = engine.executeScript(command);
         if (returnValue instanceof JSObject) {
             return (JSObject) returnValue;
@@ -163,6 +175,191 @@ public class JavascriptRuntime implements IJavascriptRuntime {
         return sb.toString();
     }
 
+    /**
+     * Starts queueing operations. The page must define runBatch(), as
+     * html/visual.js does, to run them.
+     */
+    @Override
+    public void beginBatch() {
+        if (batchDepth++ == 0) {
+            batch = new StringBuilder("[");
+            batchSize = 0;
+        }
+    }
+
+    @Override
+    public boolean isBatching() {
+        return batch != null;
+    }
+
+    /**
+     * Queues the creation of a new object. Arguments that are
+     * JavascriptObjects must have been created through the runtime, so they
+     * have a variable in the JavaScript environment.
+     *
+     * @param variable The name of the variable to hold the new object
+     * @param javascriptObjectType The type of JavaScript object to create
+     * @param args The args of the constructor
+     */
+    @Override
+    public void queueConstructor(String variable, String javascriptObjectType, Object... args) {
+        queue("new", variable, javascriptObjectType, args);
+    }
+
+    /**
+     * Queues a function call. Arguments that are JavascriptObjects must
+     * have been created through the runtime, so they have a variable in the
+     * JavaScript environment.
+     *
+     * @param variable The variable to invoke the function on, or null for
+     * a global function
+     * @param function The function to invoke
+     * @param args Arguments the function requires
+     */
+    @Override
+    public void queueFunction(String variable, String function, Object... args) {
+        queue("call", variable, function, args);
+    }
+
+    @Override
+    public void flushBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("flushBatch() without beginBatch()");
+        }
+        if (--batchDepth > 0) {
+            return;
+        }
+        try {
+            sendBatch();
+        } finally {
+            batch = null;
+        }
+    }
+
+    // Add an operation, [kind, variable, name, [args]], to the batch; runs
+    // it at once when not batching
+    private void queue(String kind, String variable, String name, Object[] args) {
+        beginBatch();
+        try {
+            append(kind, variable, name, args);
+        } finally {
+            flushBatch();
+        }
+    }
+
+    private void append(String kind, String variable, String name, Object[] args) {
+        if (batchSize > 0) {
+            batch.append(',');
+        }
+        batch.append('[');
+        appendJson(batch, kind);
+        batch.append(',');
+        appendJson(batch, variable);
+        batch.append(',');
+        appendJson(batch, name);
+        batch.append(',');
+        appendJson(batch, (args == null) ? new Object[0] : args);
+        batch.append(']');
+        batchSize++;
+    }
+
+    // Run the queued operations in one call across the bridge
+    private void sendBatch() {
+        if (batch == null || batchSize == 0) {
+            return;
+        }
+        String json = batch.append(']').toString();
+        batch.setLength(0);
+        batch.append('[');
+        batchSize = 0;
+        // the JSON goes in a JavaScript string, to be decoded by JSON.parse
+        engine.executeScript("runBatch('" + json.replace("\\", "\\\\").replace("'", "\\'") + "')");
+    }
+
+    /**
+     * Appends an argument as JSON: JavascriptObjects become {"$": variable}
+     * and JavascriptEnums {"@": "type.name"}, which runBatch() turns back
+     * into the objects; arrays, collections and maps are written out in full.
+     * NaN and infinite numbers, which JSON cannot hold, become null.
+     *
+     * @param sb Where to append
+     * @param arg The argument
+     */
+    protected void appendJson(StringBuilder sb, Object arg) {
+        if (arg == null) {
+            sb.append("null");
+        } else if (arg instanceof JavascriptObject) {
+            sb.append("{\"$\":");
+            appendJson(sb, ((JavascriptObject) arg).getVariableName());
+            sb.append('}');
+        } else if (arg instanceof JavascriptEnum) {
+            JavascriptEnum e = (JavascriptEnum) arg;
+            sb.append("{\"@\":");
+            appendJson(sb, e.getType() + "." + e.getName());
+            sb.append('}');
+        } else if (arg instanceof Boolean) {
+            sb.append(arg);
+        } else if (arg instanceof Number) {
+            double d = ((Number) arg).doubleValue();
+            sb.append(Double.isNaN(d) || Double.isInfinite(d) ? "null" : arg.toString());
+        } else if (arg instanceof double[]) {
+            double[] ary = (double[]) arg;
+            sb.append('[');
+            for (int i = 0; i < ary.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                double d = ary[i];
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    sb.append("null");
+                } else {
+                    sb.append(d);
+                }
+            }
+            sb.append(']');
+        } else if (arg instanceof Object[] || arg instanceof Collection) {
+            Iterable<?> items = (arg instanceof Object[])
+                    ? Arrays.asList((Object[]) arg) : (Collection<?>) arg;
+            sb.append('[');
+            boolean first = true;
+            for (Object item : items) {
+                if (!first) {
+                    sb.append(',');
+                }
+                appendJson(sb, item);
+                first = false;
+            }
+            sb.append(']');
+        } else if (arg instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) arg).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                appendJson(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                appendJson(sb, entry.getValue());
+                first = false;
+            }
+            sb.append('}');
+        } else {
+            String s = arg.toString();
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+    }
+
     /**
      * Takes the specified object and converts the argument to a String.
      *
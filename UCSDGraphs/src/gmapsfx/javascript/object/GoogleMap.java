@@ -245,6 +245,11 @@ public class GoogleMap extends JavascriptObject {
      */
     public void addUIEventHandler(JavascriptObject obj, UIEventType type, UIEventHandler h) {
         String key = registerEventHandler(h);
+        if (runtime.isBatching()) {
+            // addUIListener() in html/visual.js does the same as the script below
+            runtime.queueFunction(null, "addUIListener", obj, type.name(), key);
+            return;
+        }
         String mcall = "google.maps.event.addListener(" + obj.getVariableName() + ", '" + type.name() + "', "
                 + "function(event) {document.jsHandlers.handleUIEvent('" + key + "', event);});";//.latLng
         //System.out.println("addUIEventHandler mcall: " + mcall);
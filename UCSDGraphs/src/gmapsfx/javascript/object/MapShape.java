@@ -41,7 +41,7 @@ public abstract class MapShape extends JavascriptObject {
      * @param map The map to add this Polygon to.
      */
     protected void setMap(GoogleMap map) {
-        invokeJavascript("setMap", map);
+        queueJavascript("setMap", map);
     }
     
     // LatLngBounds Gets the LatLngBounds of this Circle.
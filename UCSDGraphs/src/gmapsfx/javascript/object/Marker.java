@@ -58,7 +58,7 @@ public class Marker extends JavascriptObject {
      * @param icon The Marker's new icon
      */
     public void setIcon( String icon ) {
-        invokeJavascript("setIcon", icon);
+        queueJavascript("setIcon", icon);
         getMarkerOptions().icon = icon;
     }
     /**
@@ -67,7 +67,7 @@ public class Marker extends JavascriptObject {
      * @param map The map to add this Marker to.
      */
     protected void setMap( GoogleMap map ) {
-        invokeJavascript("setMap", map);
+        queueJavascript("setMap", map);
     }
 
 
@@ -92,7 +92,7 @@ public class Marker extends JavascriptObject {
 	}
 
 	public void setVisible(boolean visible) {
-		invokeJavascript("setVisible", visible);
+		queueJavascript("setVisible", visible);
 	}
 
 	public boolean getVisible() {
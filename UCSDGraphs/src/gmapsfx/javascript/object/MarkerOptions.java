@@ -61,6 +61,11 @@ public class MarkerOptions extends JavascriptObject {
         return this;
     }
     
+    public MarkerOptions label( String label ) {
+        setProperty("label", label);
+        return this;
+    }
+    
     public MarkerOptions animation( Animation animation ) {
         setProperty("animation", animation);
         return this;
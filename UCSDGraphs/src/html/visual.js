@@ -30,4 +30,202 @@ function displayAlert(length, delay) {
 	////window.setTimeout(function() {
 		alert(length + " nodes visited in search.");
 	//}, delay);
-}
\ No newline at end of file
+}
+
+// Run a batch of operations queued by the Java JavascriptRuntime, sent as
+// one JSON array so thousands of markers or points cross the bridge in a
+// single call.  Each operation is [kind, variable, name, args]:
+//   ["new", v, type, args]      window[v] = new type(args...)
+//   ["call", v, function, args] window[v].function(args...), or the global
+//                               function when v is null
+// In the args {"$": v} stands for the object in window[v] and
+// {"@": "a.b.c"} for the value at that path, e.g. an enum value.
+function runBatch(json) {
+	var ops = JSON.parse(json);
+	for (var i = 0; i < ops.length; ++i) {
+		var op = ops[i];
+		var args = batchValue(op[3]);
+		if (op[0] === "new") {
+			var type = batchLookup(op[2]);
+			window[op[1]] = new (Function.prototype.bind.apply(type, [null].concat(args)))();
+		}
+		else {
+			var target = (op[1] === null) ? window : window[op[1]];
+			target[op[2]].apply(target, args);
+		}
+	}
+	return ops.length;
+}
+
+function batchLookup(path) {
+	var parts = path.split(".");
+	var value = window;
+	for (var i = 0; i < parts.length; ++i) {
+		value = value[parts[i]];
+	}
+	return value;
+}
+
+function batchValue(value) {
+	if (value === null || typeof value !== "object") {
+		return value;
+	}
+	if (value instanceof Array) {
+		var items = [];
+		for (var i = 0; i < value.length; ++i) {
+			items.push(batchValue(value[i]));
+		}
+		return items;
+	}
+	if (value.$ !== undefined) {
+		return window[value.$];
+	}
+	if (value["@"] !== undefined) {
+		return batchLookup(value["@"]);
+	}
+	var object = {};
+	for (var key in value) {
+		object[key] = batchValue(value[key]);
+	}
+	return object;
+}
+
+// Set a property of an object, for JavascriptObject.setProperty in a batch
+function batchSet(object, name, value) {
+	object[name] = value;
+}
+
+// The listener GoogleMap.addUIEventHandler adds outside a batch
+function addUIListener(object, type, key) {
+	google.maps.event.addListener(object, type, function(event) {
+		document.jsHandlers.handleUIEvent(key, event);
+	});
+}
+
+// Set the path of a polyline from packed (latitude, longitude) pairs
+function setLatLngPath(line, coords) {
+	var path = [];
+	for (var i = 0; i + 1 < coords.length; i += 2) {
+		path.push(new google.maps.LatLng(coords[i], coords[i + 1]));
+	}
+	line.setPath(path);
+}
+
+// The intersections a search has visited, drawn as dots on a canvas over
+// the map as they arrive in frames from the Java RouteVisualization; far
+// lighter than a marker each.  The dots are kept as packed (latitude,
+// longitude) pairs so the canvas can be drawn again when the map moves.
+var searchDots = null;
+var dotColor = "rgba(200, 30, 30, 0.7)";
+var dotRadius = 2;
+
+function startSearchDots(mapParam) {
+	clearSearchDots();
+	var overlay = new google.maps.OverlayView();
+	overlay.coords = [];
+	overlay.shown = 0;
+	overlay.onAdd = function() {
+		this.canvas = document.createElement("canvas");
+		this.canvas.style.position = "absolute";
+		this.canvas.style.pointerEvents = "none";
+		this.getPanes().overlayLayer.appendChild(this.canvas);
+	};
+	overlay.draw = function() {
+		drawSearchDots(this, 0, this.shown);
+	};
+	overlay.onRemove = function() {
+		this.canvas.parentNode.removeChild(this.canvas);
+		this.canvas = null;
+	};
+	overlay.setMap(mapParam);
+	searchDots = overlay;
+}
+
+// Add a frame of dots, given as packed (latitude, longitude) pairs
+function addSearchDots(coords) {
+	if (searchDots === null) {
+		return;
+	}
+	var from = searchDots.coords.length;
+	for (var i = 0; i < coords.length; ++i) {
+		searchDots.coords.push(coords[i]);
+	}
+	if (searchDots.shown === from) {
+		searchDots.shown = searchDots.coords.length;
+		drawSearchDots(searchDots, from, searchDots.shown);
+	}
+}
+
+// Draw the dots in coords[from, to); from 0 the canvas is first moved to
+// cover the map in view and cleared
+function drawSearchDots(overlay, from, to) {
+	var projection = overlay.getProjection();
+	var bounds = overlay.getMap().getBounds();
+	if (!overlay.canvas || !projection || !bounds) {
+		return;
+	}
+	var canvas = overlay.canvas;
+	var corner = projection.fromLatLngToDivPixel(new google.maps.LatLng(
+			bounds.getNorthEast().lat(), bounds.getSouthWest().lng()));
+	if (from === 0) {
+		var div = overlay.getMap().getDiv();
+		canvas.style.left = corner.x + "px";
+		canvas.style.top = corner.y + "px";
+		canvas.width = div.offsetWidth;
+		canvas.height = div.offsetHeight;
+		overlay.corner = corner;
+	}
+	else if (!overlay.corner || overlay.corner.x !== corner.x || overlay.corner.y !== corner.y) {
+		// the map has moved since the last full draw
+		drawSearchDots(overlay, 0, to);
+		return;
+	}
+	var context = canvas.getContext("2d");
+	context.fillStyle = dotColor;
+	for (var i = from; i + 1 < to; i += 2) {
+		var p = projection.fromLatLngToDivPixel(
+				new google.maps.LatLng(overlay.coords[i], overlay.coords[i + 1]));
+		context.fillRect(p.x - corner.x - dotRadius, p.y - corner.y - dotRadius,
+				2 * dotRadius, 2 * dotRadius);
+	}
+}
+
+// Draw the dots again in the order they were visited, a few each frame,
+// over the whole area searched, then say how many nodes were visited
+function replaySearchDots(visited) {
+	if (searchDots === null || searchDots.coords.length === 0) {
+		displayAlert(visited, 0);
+		return;
+	}
+	var coords = searchDots.coords;
+	var bounds = new google.maps.LatLngBounds();
+	for (var i = 0; i + 1 < coords.length; i += 2) {
+		bounds.extend(new google.maps.LatLng(coords[i], coords[i + 1]));
+	}
+	searchDots.getMap().fitBounds(bounds);
+	var overlay = searchDots;
+	// about two seconds, however many dots
+	var step = 2 * Math.max(1, Math.ceil(coords.length / 2 / 120));
+	overlay.shown = 0;
+	drawSearchDots(overlay, 0, 0);
+	var timer = window.setInterval(function() {
+		if (overlay !== searchDots) {
+			window.clearInterval(timer);
+			return;
+		}
+		var from = overlay.shown;
+		overlay.shown = Math.min(coords.length, from + step);
+		drawSearchDots(overlay, from, overlay.shown);
+		if (overlay.shown === coords.length) {
+			window.clearInterval(timer);
+			displayAlert(visited, 0);
+		}
+	}, 16);
+}
+
+function clearSearchDots() {
+	if (searchDots !== null) {
+		searchDots.setMap(null);
+		searchDots = null;
+	}
+}
@@ -1,13 +1,15 @@
 package mapmaker;
 
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import javax.json.*;
 
 public class DataFetcher {
-    private final String[] HIGHWAYS = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential", "motorway_link", "trunk_link", "primary_link", "secondary_link", "tertiary_link", "living_street"};
+    // the kinds of road fetched, also used by OsmImporter
+    static final String[] HIGHWAYS = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential", "motorway_link", "trunk_link", "primary_link", "secondary_link", "tertiary_link", "living_street"};
 
     private String query;
     public DataFetcher(float[] bounds) {
@@ -15,19 +17,8 @@ public class DataFetcher {
     }
 
     public JsonObject getData() {
-        HttpURLConnection conn = null;
         try {
-            URL url = new URL("http://overpass-api.de/api/interpreter");
-            conn = (HttpURLConnection)url.openConnection();
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
-            
-            DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
-            wr.writeBytes(this.query);
-            wr.close();
-
-            InputStream is = conn.getInputStream();
+            InputStream is = openStream();
             JsonReader rdr = Json.createReader(is);
         
             return rdr.readObject();
@@ -37,6 +28,25 @@ public class DataFetcher {
         }
     }
 
+    /**
+     * Send the query and open the response, to be read as it arrives
+     * @return The Overpass JSON response
+     * @throws IOException if the request fails
+     */
+    public InputStream openStream() throws IOException {
+        URL url = new URL("http://overpass-api.de/api/interpreter");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
+
+        DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
+        wr.writeBytes(this.query);
+        wr.close();
+
+        return conn.getInputStream();
+    }
+
     public String constructQuery(float[] boundsArray) {
         String q = "[out:json];(";
         String bounds = "(";
@@ -1,60 +1,240 @@
 package mapmaker;
 
-import java.io.PrintWriter;
-import java.util.HashMap;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import javax.json.*;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
+/**
+ * Makes a .map file of the roads in an area from OpenStreetMap data
+ * fetched from the Overpass API.
+ *
+ * The response is read as a stream of JSON parser events, so the memory
+ * used grows with the number of nodes, not with the size of the response.
+ * Node coordinates go into a NodeTable as they arrive.  Each way is
+ * written out as soon as it has been read: one line per segment, twice
+ * unless it is one way.  Overpass sends all the nodes before the ways,
+ * but if a way does come before one of its nodes it is kept back and
+ * written at the end.
+ */
 public class MapMaker {
     float[] bounds;
-    HashMap<Integer, Location> nodes = new HashMap<Integer, Location>();
+    private DataFetcher fetcher;
+    NodeTable nodes = new NodeTable();
+    // the nodes of the way being read
+    private long[] wayNodes = new long[256];
+    // ways read before some of their nodes
+    private List<Way> pending = new ArrayList<Way>();
 
     public MapMaker(float[] bounds) {
+        this(bounds, new DataFetcher(bounds));
+    }
+
+    /**
+     * @param bounds [south, west, north, east]
+     * @param fetcher Where to get the OSM data from
+     */
+    public MapMaker(float[] bounds, DataFetcher fetcher) {
         this.bounds = bounds;
+        this.fetcher = fetcher;
     }
 
     public boolean parseData(String filename) {
-        DataFetcher fetcher = new DataFetcher(bounds);
-        JsonObject data = fetcher.getData();
-
-        JsonArray elements = data.getJsonArray("elements");
-
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("node")) {
-                nodes.put(elem.getInt("id"), new Location(elem.getJsonNumber("lat").doubleValue(), elem.getJsonNumber("lon").doubleValue()));
-            }
+        InputStream in;
+        try {
+            in = fetcher.openStream();
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
         }
 
-        PrintWriter outfile;
+        Writer outfile = null;
         try {
-            outfile = new PrintWriter(filename);
-        } catch (Exception e) {
+            outfile = new BufferedWriter(new FileWriter(filename));
+            JsonParser parser = Json.createParser(in);
+            readResponse(parser, outfile);
+            parser.close();
+            for (Way way : pending) {
+                writeWay(way.nodes, way.nodes.length, way.street, way.type, way.oneway, false, outfile);
+            }
+            pending.clear();
+            outfile.close();
+            return true;
+        } catch (IOException | JsonException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            try {
+                in.close();
+                if (outfile != null) {
+                    outfile.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
+    }
 
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("way")) {
-                String street = elem.getJsonObject("tags").getString("name", "");
-                String type = elem.getJsonObject("tags").getString("highway", "");
-                String oneway = elem.getJsonObject("tags").getString("oneway", "no");
-                List<JsonNumber> nodelist = elem.getJsonArray("nodes").getValuesAs(JsonNumber.class);
-                for (int i = 0; i < nodelist.size() - 1; i++) {
-                    Location start = nodes.get(nodelist.get(i).intValue());
-                    Location end = nodes.get(nodelist.get(i + 1).intValue());
-                    if (start.outsideBounds(bounds) || end.outsideBounds(bounds)) {
-                        continue;
+    // Find the "elements" array at the top level and read it
+    private void readResponse(JsonParser parser, Writer out) throws IOException {
+        if (!parser.hasNext() || parser.next() != Event.START_OBJECT) {
+            throw new JsonException("Overpass response is not a JSON object");
+        }
+        Event event;
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String key = parser.getString();
+            event = parser.next();
+            if (key.equals("elements") && event == Event.START_ARRAY) {
+                while ((event = parser.next()) != Event.END_ARRAY) {
+                    if (event == Event.START_OBJECT) {
+                        readElement(parser, out);
+                    } else {
+                        skip(parser, event);
                     }
+                }
+            } else {
+                skip(parser, event);
+            }
+        }
+    }
 
-                    outfile.println("" + start + end + "\"" + street + "\" " + type);
-                    if (oneway.equals("no")) {
-                        outfile.println("" + end + start + "\"" + street + "\" " + type);
+    // Read one element, from just after its START_OBJECT to its END_OBJECT
+    private void readElement(JsonParser parser, Writer out) throws IOException {
+        String elementType = "";
+        long id = 0;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        int nodeCount = 0;
+        String street = "";
+        String type = "";
+        String oneway = "no";
+
+        Event event;
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String key = parser.getString();
+            event = parser.next();
+            if (key.equals("type") && event == Event.VALUE_STRING) {
+                elementType = parser.getString();
+            } else if (key.equals("id") && event == Event.VALUE_NUMBER) {
+                id = parser.getLong();
+            } else if (key.equals("lat") && event == Event.VALUE_NUMBER) {
+                lat = parser.getBigDecimal().doubleValue();
+            } else if (key.equals("lon") && event == Event.VALUE_NUMBER) {
+                lon = parser.getBigDecimal().doubleValue();
+            } else if (key.equals("nodes") && event == Event.START_ARRAY) {
+                while ((event = parser.next()) != Event.END_ARRAY) {
+                    if (event != Event.VALUE_NUMBER) {
+                        skip(parser, event);
+                        continue;
+                    }
+                    if (nodeCount == wayNodes.length) {
+                        wayNodes = Arrays.copyOf(wayNodes, 2 * nodeCount);
+                    }
+                    wayNodes[nodeCount++] = parser.getLong();
+                }
+            } else if (key.equals("tags") && event == Event.START_OBJECT) {
+                while ((event = parser.next()) != Event.END_OBJECT) {
+                    String tag = parser.getString();
+                    event = parser.next();
+                    if (event != Event.VALUE_STRING) {
+                        skip(parser, event);
+                    } else if (tag.equals("name")) {
+                        street = parser.getString();
+                    } else if (tag.equals("highway")) {
+                        type = parser.getString();
+                    } else if (tag.equals("oneway")) {
+                        oneway = parser.getString();
                     }
                 }
+            } else {
+                skip(parser, event);
+            }
+        }
+
+        if (elementType.equals("node")) {
+            nodes.put(id, lat, lon);
+        } else if (elementType.equals("way")) {
+            writeWay(wayNodes, nodeCount, street, type, oneway, true, out);
+        }
+    }
+
+    // Skip a value, given the event it starts with
+    private static void skip(JsonParser parser, Event event) {
+        int depth = (event == Event.START_OBJECT || event == Event.START_ARRAY) ? 1 : 0;
+        while (depth > 0) {
+            event = parser.next();
+            if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+                depth++;
+            } else if (event == Event.END_OBJECT || event == Event.END_ARRAY) {
+                depth--;
+            }
+        }
+    }
+
+    // Write the segments of a way that are inside the bounds.  If some of
+    // its nodes have not been read yet and defer is set, keep it back
+    // instead; otherwise segments missing a node are left out.
+    private void writeWay(long[] wayNodes, int count, String street, String type, String oneway,
+                          boolean defer, Writer out) throws IOException {
+        if (defer) {
+            for (int i = 0; i < count; i++) {
+                if (nodes.find(wayNodes[i]) < 0) {
+                    pending.add(new Way(Arrays.copyOf(wayNodes, count), street, type, oneway));
+                    return;
+                }
+            }
+        }
+        for (int i = 0; i < count - 1; i++) {
+            int start = nodes.find(wayNodes[i]);
+            int end = nodes.find(wayNodes[i + 1]);
+            if (start < 0 || end < 0 || outsideBounds(start) || outsideBounds(end)) {
+                continue;
+            }
+
+            writeSegment(out, start, end, street, type);
+            if (isTwoWay(oneway)) {
+                writeSegment(out, end, start, street, type);
             }
         }
-        outfile.close();
-        return true;
+    }
+
+    private void writeSegment(Writer out, int start, int end, String street, String type)
+            throws IOException {
+        out.write(segmentLine(nodes.getLat(start), nodes.getLon(start),
+                              nodes.getLat(end), nodes.getLon(end), street, type));
+        out.write(System.lineSeparator());
+    }
+
+    /**
+     * @param oneway The value of a way's oneway tag, "no" if it has none
+     * @return true if the way is written in both directions
+     */
+    static boolean isTwoWay(String oneway) {
+        return oneway.equals("no");
+    }
+
+    /**
+     * @return A line of a .map file, without the line separator
+     */
+    static String segmentLine(double lat1, double lon1, double lat2, double lon2,
+                              String street, String type) {
+        return lat1 + " " + lon1 + " " + lat2 + " " + lon2 + " \"" + street + "\" " + type;
+    }
+
+    /**
+     * bounds are [south, west, north, east]
+     */
+    private boolean outsideBounds(int slot) {
+        double lat = nodes.getLat(slot);
+        double lon = nodes.getLon(slot);
+        return (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
     }
 
     public static void main(String[] args) {
@@ -77,26 +257,19 @@ public class MapMaker {
         MapMaker map = new MapMaker(bound_arr);
         map.parseData("ucsd.map");
     }
-}
-
-class Location {
-    private double lat;
-    private double lon;
-
-    public Location(double lat, double lon) {
-        this.lat = lat;
-        this.lon = lon;
-    }
 
-    public String toString() {
-        return "" + lat + " " + lon + " ";
-    }
+    // A way kept back until all its nodes have been read
+    private static class Way {
+        final long[] nodes;
+        final String street;
+        final String type;
+        final String oneway;
 
-    /**
-     * @param bounds [south, west, north, east]
-     */
-    public boolean outsideBounds(float[] bounds) {
-        return (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
+        Way(long[] nodes, String street, String type, String oneway) {
+            this.nodes = nodes;
+            this.street = street;
+            this.type = type;
+            this.oneway = oneway;
+        }
     }
-        
 }
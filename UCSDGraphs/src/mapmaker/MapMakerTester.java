@@ -0,0 +1,33 @@
+package mapmaker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Makes a map from a recorded Overpass response, served by a
+ * RecordedFetcher instead of the server, and checks it against the map
+ * it should give.  The response has node ids past 2^31, a one way road,
+ * a road leaving the bounds, an unnamed road and a way sent before its
+ * nodes.
+ */
+public class MapMakerTester {
+	public static void main (String[] args) throws IOException {
+		float[] bounds = {32.88f, -117.235f, 32.885f, -117.23f};
+		String made = "data/testdata/overpass_sample_made.map";
+
+		System.out.print("Making the map from the recorded response...");
+		MapMaker maker = new MapMaker(bounds,
+				new RecordedFetcher(bounds, "data/testdata/overpass_sample.json"));
+		boolean written = maker.parseData(made);
+		System.out.println(written ? "DONE." : "FAILED.");
+
+		List<String> expected = Files.readAllLines(Paths.get("data/testdata/overpass_sample.map"));
+		List<String> actual = Files.readAllLines(Paths.get(made));
+		System.out.println("Nodes read: " + maker.nodes.size()); // should be 6
+		System.out.println("Segments written: " + actual.size()); // should be 9
+		System.out.println(actual.equals(expected) ? "Map matches." : "Map differs:\n" + actual);
+		Files.delete(Paths.get(made));
+	}
+}
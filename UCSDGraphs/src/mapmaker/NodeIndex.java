@@ -0,0 +1,162 @@
+package mapmaker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The coordinates of OSM nodes by id, kept in a temporary file so a
+ * whole metro area's nodes (tens of millions) need not fit in the heap.
+ *
+ * Nodes are added in increasing order of id, as they come in a sorted
+ * extract, as records of the id and the coordinates in 1e-7 degrees
+ * (16 bytes each).  Once finished, the file is memory-mapped and a node
+ * is found by a binary search of every SAMPLE-th id, kept in memory,
+ * then of the block of records it points to.  Lookups only read, so any
+ * number of threads can make them at once.
+ */
+class NodeIndex {
+    private static final int RECORD = 16;
+    private static final int SAMPLE = 256;
+    // records per mapped piece of the file: 2^26, or 1 GB
+    private static final int PIECE_SHIFT = 26;
+
+    private final File file;
+    private DataOutputStream out;
+    private long size;
+    private long lastId = Long.MIN_VALUE;
+    private long[] samples = new long[1024];
+
+    private MappedByteBuffer[] pieces;
+
+    /**
+     * @param directory Where to put the temporary file, or null for the
+     *   system's temporary directory
+     * @throws IOException if the file cannot be made
+     */
+    NodeIndex(File directory) throws IOException {
+        file = File.createTempFile("nodes", ".idx", directory);
+        file.deleteOnExit();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * Add a node
+     * @param id The node id, more than any added before
+     * @param lat Its latitude in 1e-7 degrees
+     * @param lon Its longitude in 1e-7 degrees
+     * @throws IOException if the node is out of order or cannot be written
+     */
+    void add(long id, int lat, int lon) throws IOException {
+        if (id <= lastId) {
+            throw new IOException("Nodes are not sorted by id (" + id + " after " + lastId
+                                  + "); sort the extract first, e.g. with osmium sort");
+        }
+        if (size % SAMPLE == 0) {
+            int s = (int) (size / SAMPLE);
+            if (s == samples.length) {
+                samples = Arrays.copyOf(samples, 2 * s);
+            }
+            samples[s] = id;
+        }
+        out.writeLong(id);
+        out.writeInt(lat);
+        out.writeInt(lon);
+        lastId = id;
+        size++;
+    }
+
+    /**
+     * Stop adding nodes and map the file for lookups
+     * @throws IOException if the file cannot be mapped
+     */
+    void finish() throws IOException {
+        out.close();
+        out = null;
+        samples = Arrays.copyOf(samples, (int) ((size + SAMPLE - 1) / SAMPLE));
+        int count = (int) ((size + (1L << PIECE_SHIFT) - 1) >> PIECE_SHIFT);
+        pieces = new MappedByteBuffer[count];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < count; i++) {
+                long from = ((long) i << PIECE_SHIFT) * RECORD;
+                long length = Math.min((1L << PIECE_SHIFT) * RECORD, size * RECORD - from);
+                pieces[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param id A node id
+     * @return The number of the node's record, or -1 if it was not added
+     */
+    long find(long id) {
+        int s = Arrays.binarySearch(samples, id);
+        if (s >= 0) {
+            return (long) s * SAMPLE;
+        }
+        s = -s - 2;
+        if (s < 0) {
+            return -1;
+        }
+        long low = (long) s * SAMPLE + 1;
+        long high = Math.min(size, low - 1 + SAMPLE) - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midId = idOf(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** @return The latitude, in 1e-7 degrees, of a record */
+    int getLat(long record) {
+        return piece(record).getInt(offset(record) + 8);
+    }
+
+    /** @return The longitude, in 1e-7 degrees, of a record */
+    int getLon(long record) {
+        return piece(record).getInt(offset(record) + 12);
+    }
+
+    /** @return The number of nodes */
+    long size() {
+        return size;
+    }
+
+    /** Delete the file; the index cannot be used after */
+    void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        pieces = null;
+        file.delete();
+    }
+
+    private long idOf(long record) {
+        return piece(record).getLong(offset(record));
+    }
+
+    private MappedByteBuffer piece(long record) {
+        return pieces[(int) (record >> PIECE_SHIFT)];
+    }
+
+    private static int offset(long record) {
+        return (int) (record & ((1L << PIECE_SHIFT) - 1)) * RECORD;
+    }
+}
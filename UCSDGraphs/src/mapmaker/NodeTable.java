@@ -0,0 +1,99 @@
+package mapmaker;
+
+import java.util.Arrays;
+
+/**
+ * The coordinates of OSM nodes by id, in flat arrays with open
+ * addressing, so a node takes 24 bytes instead of a boxed key, a
+ * Location and a map entry.  OSM ids pass 2^31, so the keys are longs.
+ */
+class NodeTable {
+    // marks a free slot; not a valid OSM id
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] ids;
+    // latitude and longitude of the node in slot i at 2i and 2i+1
+    private double[] coords;
+    private int size;
+    private int shift;
+
+    NodeTable() {
+        allocate(1024);
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        Arrays.fill(ids, FREE);
+        coords = new double[2 * capacity];
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        size = 0;
+    }
+
+    /**
+     * Set the coordinates of a node
+     * @param id The node id
+     * @param lat Its latitude
+     * @param lon Its longitude
+     */
+    void put(long id, double lat, double lon) {
+        if (id == FREE) {
+            throw new IllegalArgumentException("Invalid node id " + id);
+        }
+        // keep the table at most half full
+        if (2 * (size + 1) > ids.length) {
+            grow();
+        }
+        int i = slot(id);
+        if (ids[i] == FREE) {
+            ids[i] = id;
+            size++;
+        }
+        coords[2 * i] = lat;
+        coords[2 * i + 1] = lon;
+    }
+
+    /**
+     * @param id A node id
+     * @return The slot holding the node, or -1 if it has not been put
+     */
+    int find(long id) {
+        int i = slot(id);
+        return (ids[i] == id) ? i : -1;
+    }
+
+    /** @return The latitude of the node in a slot */
+    double getLat(int slot) {
+        return coords[2 * slot];
+    }
+
+    /** @return The longitude of the node in a slot */
+    double getLon(int slot) {
+        return coords[2 * slot + 1];
+    }
+
+    /** @return The number of nodes */
+    int size() {
+        return size;
+    }
+
+    // The slot holding the id, or the free one it would go in
+    private int slot(long id) {
+        int mask = ids.length - 1;
+        int i = (int) ((id * 0x9E3779B97F4A7C15L) >>> shift);
+        while (ids[i] != FREE && ids[i] != id) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        long[] oldIds = ids;
+        double[] oldCoords = coords;
+        allocate(2 * oldIds.length);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != FREE) {
+                put(oldIds[i], oldCoords[2 * i], oldCoords[2 * i + 1]);
+            }
+        }
+    }
+}
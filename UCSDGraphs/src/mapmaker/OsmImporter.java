@@ -0,0 +1,539 @@
+package mapmaker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import roadgraph.CompactGraph;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+
+/**
+ * Makes a map from a local OpenStreetMap extract (OSM XML, optionally
+ * gzipped, or PBF) rather than from the Overpass API, so it can cover a
+ * whole metro area.  The roads kept and the way they are written are the
+ * same as MapMaker's: ways whose highway tag is one of DataFetcher's
+ * HIGHWAYS, every segment written in both directions unless the way is
+ * one way, and, if bounds are given, only segments inside them.
+ *
+ * The extract is read in two passes.  The first puts every node into a
+ * NodeIndex, a sorted file on disk, so the heap only holds a sample of
+ * the ids.  The second reads the ways and looks their nodes up in the
+ * index.  For a PBF file both passes decode blocks on a pool of threads
+ * (the first notes which blocks have ways, so the second only reads
+ * those), and the results are used in the order of the file.  OSM XML
+ * can only be parsed on one thread, and since a sorted extract has all
+ * its nodes before its ways the second pass carries on from where the
+ * first stops; the ways are looked up on the pool in batches.  Either
+ * way the extract must be sorted by type then id, as extracts from
+ * osmium and the common download sites are.
+ *
+ * The output is a .map file if its name ends in .map, and otherwise a
+ * compiled graph, the same as cli.BatchRouter -c makes, built directly
+ * from the segments without writing a .map file first.
+ *
+ * Usage, from the project directory:
+ *   java mapmaker.OsmImporter [-t THREADS] [-b SOUTH WEST NORTH EAST]
+ *                             EXTRACT.osm[.gz]|EXTRACT.osm.pbf OUT
+ */
+public class OsmImporter {
+    // ways looked up per task, and tasks in flight per thread
+    private static final int WAY_BATCH = 4096;
+    private static final int WINDOW = 4;
+    private static final Set<String> ROADS = new HashSet<String>(Arrays.asList(DataFetcher.HIGHWAYS));
+
+    private final float[] bounds;
+    private final int threads;
+    private NodeIndex index;
+    private long segments;
+
+    /**
+     * @param bounds [south, west, north, east] to only keep segments
+     *   inside them, or null to keep them all
+     * @param threads The number of threads to decode and look up with
+     */
+    public OsmImporter(float[] bounds, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, not " + threads);
+        }
+        this.bounds = bounds;
+        this.threads = threads;
+    }
+
+    /**
+     * Make a map from an extract
+     * @param extract The OSM XML or PBF file
+     * @param output The .map file or compiled graph to write
+     * @throws IOException if the extract cannot be read or is not sorted,
+     *   or the output cannot be written
+     */
+    public void importFile(File extract, File output) throws IOException {
+        SegmentSink sink = output.getName().endsWith(".map") ? new MapFileSink(output) : new GraphSink(output);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm import");
+            t.setDaemon(true);
+            return t;
+        });
+        index = new NodeIndex(null);
+        segments = 0;
+        try {
+            if (extract.getName().endsWith(".pbf")) {
+                importPbf(extract, sink, pool);
+            } else {
+                importXml(extract, sink, pool);
+            }
+            sink.finish();
+        } finally {
+            pool.shutdownNow();
+            sink.close();
+            index.close();
+        }
+    }
+
+    /** @return The number of nodes read by the last import */
+    public long getNodeCount() {
+        return index.size();
+    }
+
+    /** @return The number of (one way) segments written by the last import */
+    public long getSegmentCount() {
+        return segments;
+    }
+
+    private void importPbf(File extract, SegmentSink sink, ExecutorService pool) throws IOException {
+        PbfReader reader = new PbfReader(extract);
+        try {
+            // nodes, noting which blocks have ways
+            List<Long> wayBlocks = new ArrayList<Long>();
+            Pipeline<NodeBatch> nodes = new Pipeline<NodeBatch>(pool, batch -> {
+                batch.addTo(index);
+                if (batch.hasWays) {
+                    wayBlocks.add(batch.offset);
+                }
+            });
+            for (PbfReader.Blob blob = reader.nextBlob(); blob != null; blob = reader.nextBlob()) {
+                if (blob.type.equals("OSMHeader")) {
+                    PbfReader.checkHeader(PbfReader.inflate(blob));
+                } else if (blob.type.equals("OSMData")) {
+                    PbfReader.Blob data = blob;
+                    nodes.submit(() -> {
+                        NodeBatch batch = new NodeBatch(data.offset);
+                        batch.hasWays = PbfReader.readBlock(PbfReader.inflate(data), batch, null);
+                        return batch;
+                    });
+                }
+            }
+            nodes.finish();
+            index.finish();
+
+            // then the ways, from the blocks that have them
+            Pipeline<Segments> ways = new Pipeline<Segments>(pool, sink);
+            for (long offset : wayBlocks) {
+                reader.seek(offset);
+                PbfReader.Blob data = reader.nextBlob();
+                ways.submit(() -> {
+                    WayBatch batch = new WayBatch();
+                    PbfReader.readBlock(PbfReader.inflate(data), null, batch);
+                    return lookUp(batch);
+                });
+            }
+            ways.finish();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void importXml(File extract, SegmentSink sink, ExecutorService pool) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(extract), 1 << 16);
+        if (extract.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        try {
+            XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            Pipeline<Segments> ways = new Pipeline<Segments>(pool, sink);
+            WayBatch batch = new WayBatch();
+            boolean nodesDone = false;
+            while (xml.hasNext()) {
+                if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String element = xml.getLocalName();
+                if (element.equals("node")) {
+                    if (nodesDone) {
+                        throw new IOException("A node comes after the ways; sort the extract first,"
+                                              + " e.g. with osmium sort");
+                    }
+                    String lat = xml.getAttributeValue(null, "lat");
+                    String lon = xml.getAttributeValue(null, "lon");
+                    // deleted nodes (visible="false") have no coordinates,
+                    // and no way in the extract can use them
+                    if (lat != null && lon != null) {
+                        index.add(Long.parseLong(required(xml, "id")), toE7(lat), toE7(lon));
+                    }
+                } else if (element.equals("way") || element.equals("relation")) {
+                    if (!nodesDone) {
+                        index.finish();
+                        nodesDone = true;
+                    }
+                    if (element.equals("way")) {
+                        readWay(xml, batch);
+                        if (batch.size() == WAY_BATCH) {
+                            WayBatch full = batch;
+                            ways.submit(() -> lookUp(full));
+                            batch = new WayBatch();
+                        }
+                    }
+                }
+            }
+            xml.close();
+            if (!nodesDone) {
+                index.finish();
+            }
+            WayBatch last = batch;
+            ways.submit(() -> lookUp(last));
+            ways.finish();
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Cannot read " + extract + ": " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Read a way element's node references and tags, up to its end
+    private static void readWay(XMLStreamReader xml, WayBatch batch) throws XMLStreamException {
+        List<Long> refs = new ArrayList<Long>();
+        String street = "";
+        String type = null;
+        String oneway = "no";
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (xml.getLocalName().equals("nd")) {
+                    refs.add(Long.parseLong(required(xml, "ref")));
+                } else if (xml.getLocalName().equals("tag")) {
+                    String key = required(xml, "k");
+                    String value = required(xml, "v");
+                    if (key.equals("highway")) {
+                        type = value;
+                    } else if (key.equals("name")) {
+                        street = value;
+                    } else if (key.equals("oneway")) {
+                        oneway = value;
+                    }
+                }
+            }
+        }
+        if (type != null) {
+            long[] ids = new long[refs.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = refs.get(i);
+            }
+            batch.add(ids, street, type, oneway);
+        }
+    }
+
+    // An attribute of the current element that the element cannot do without
+    private static String required(XMLStreamReader xml, String name) throws XMLStreamException {
+        String value = xml.getAttributeValue(null, name);
+        if (value == null) {
+            throw new XMLStreamException("<" + xml.getLocalName() + "> without " + name, xml.getLocation());
+        }
+        return value;
+    }
+
+    // Coordinates have at most 7 decimals, so they are exact in 1e-7 degrees
+    private static int toE7(String degrees) {
+        return (int) Math.round(Double.parseDouble(degrees) * 1e7);
+    }
+
+    // Find the segments of a batch of roads, on a pool thread
+    private Segments lookUp(WayBatch batch) {
+        Segments result = new Segments();
+        for (int w = 0; w < batch.size(); w++) {
+            long[] refs = batch.refs.get(w);
+            boolean twoWay = MapMaker.isTwoWay(batch.oneways.get(w));
+            for (int i = 0; i < refs.length - 1; i++) {
+                long start = index.find(refs[i]);
+                long end = index.find(refs[i + 1]);
+                if (start < 0 || end < 0) {
+                    continue;
+                }
+                double lat1 = index.getLat(start) / 1e7;
+                double lon1 = index.getLon(start) / 1e7;
+                double lat2 = index.getLat(end) / 1e7;
+                double lon2 = index.getLon(end) / 1e7;
+                if (outsideBounds(lat1, lon1) || outsideBounds(lat2, lon2)) {
+                    continue;
+                }
+                result.add(lat1, lon1, lat2, lon2, batch.streets.get(w), batch.types.get(w));
+                if (twoWay) {
+                    result.add(lat2, lon2, lat1, lon1, batch.streets.get(w), batch.types.get(w));
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean outsideBounds(double lat, double lon) {
+        return bounds != null
+               && (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
+    }
+
+    /** The nodes of a block, in the order of the file */
+    static class NodeBatch {
+        final long offset;
+        boolean hasWays;
+        private long[] ids = new long[8192];
+        private int[] lats = new int[8192];
+        private int[] lons = new int[8192];
+        private int size;
+
+        NodeBatch(long offset) {
+            this.offset = offset;
+        }
+
+        void add(long id, int lat, int lon) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                lats = Arrays.copyOf(lats, 2 * size);
+                lons = Arrays.copyOf(lons, 2 * size);
+            }
+            ids[size] = id;
+            lats[size] = lat;
+            lons[size] = lon;
+            size++;
+        }
+
+        void addTo(NodeIndex index) throws IOException {
+            for (int i = 0; i < size; i++) {
+                index.add(ids[i], lats[i], lons[i]);
+            }
+        }
+    }
+
+    /** The roads among a block or batch of ways: ways of a kind in HIGHWAYS */
+    static class WayBatch {
+        final List<long[]> refs = new ArrayList<long[]>();
+        final List<String> streets = new ArrayList<String>();
+        final List<String> types = new ArrayList<String>();
+        final List<String> oneways = new ArrayList<String>();
+
+        /**
+         * Add a way, if it is a road
+         * @param wayRefs The ids of its nodes
+         * @param street Its name, or "" if it has none
+         * @param type Its highway tag
+         * @param oneway Its oneway tag, or "no" if it has none
+         */
+        void add(long[] wayRefs, String street, String type, String oneway) {
+            if (!ROADS.contains(type)) {
+                return;
+            }
+            refs.add(wayRefs);
+            streets.add(street);
+            types.add(type);
+            oneways.add(oneway);
+        }
+
+        int size() {
+            return refs.size();
+        }
+    }
+
+    // One way segments, in order
+    private static class Segments {
+        double[] coords = new double[1024];
+        final List<String> streets = new ArrayList<String>();
+        final List<String> types = new ArrayList<String>();
+
+        void add(double lat1, double lon1, double lat2, double lon2, String street, String type) {
+            int i = 4 * streets.size();
+            if (i == coords.length) {
+                coords = Arrays.copyOf(coords, 2 * i);
+            }
+            coords[i] = lat1;
+            coords[i + 1] = lon1;
+            coords[i + 2] = lat2;
+            coords[i + 3] = lon2;
+            streets.add(street);
+            types.add(type);
+        }
+
+        int size() {
+            return streets.size();
+        }
+    }
+
+    // Takes the results of tasks in order
+    private interface Consumer<T> {
+        void accept(T result) throws IOException;
+    }
+
+    // Where the segments go
+    private abstract class SegmentSink implements Consumer<Segments> {
+        abstract void finish() throws IOException;
+
+        abstract void close() throws IOException;
+    }
+
+    private class MapFileSink extends SegmentSink {
+        private final Writer out;
+
+        MapFileSink(File file) throws IOException {
+            out = new BufferedWriter(new FileWriter(file), 1 << 16);
+        }
+
+        @Override
+        public void accept(Segments s) throws IOException {
+            for (int i = 0; i < s.size(); i++) {
+                out.write(MapMaker.segmentLine(s.coords[4 * i], s.coords[4 * i + 1], s.coords[4 * i + 2],
+                                               s.coords[4 * i + 3], s.streets.get(i), s.types.get(i)));
+                out.write(System.lineSeparator());
+            }
+            segments += s.size();
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private class GraphSink extends SegmentSink {
+        private final File file;
+        private final GraphLoader.RoadMapBuilder builder = new GraphLoader.RoadMapBuilder();
+
+        GraphSink(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void accept(Segments s) {
+            for (int i = 0; i < s.size(); i++) {
+                builder.addSegment(s.coords[4 * i], s.coords[4 * i + 1], s.coords[4 * i + 2],
+                                   s.coords[4 * i + 3], s.streets.get(i), s.types.get(i));
+            }
+            segments += s.size();
+        }
+
+        @Override
+        void finish() throws IOException {
+            MapGraph map = new MapGraph();
+            builder.build(map);
+            new CompactGraph(map).save(file);
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+    // Runs tasks on the pool and hands their results to a consumer in the
+    // order they were submitted, with at most WINDOW tasks per thread in
+    // flight, so memory stays bounded however far the reading gets ahead
+    private class Pipeline<T> {
+        private final ExecutorService pool;
+        private final Consumer<T> consumer;
+        private final ArrayDeque<Future<T>> inFlight = new ArrayDeque<Future<T>>();
+
+        Pipeline(ExecutorService pool, Consumer<T> consumer) {
+            this.pool = pool;
+            this.consumer = consumer;
+        }
+
+        void submit(Callable<T> task) throws IOException {
+            if (inFlight.size() >= WINDOW * threads) {
+                takeOne();
+            }
+            inFlight.add(pool.submit(task));
+        }
+
+        void finish() throws IOException {
+            while (!inFlight.isEmpty()) {
+                takeOne();
+            }
+        }
+
+        private void takeOne() throws IOException {
+            T result;
+            try {
+                result = inFlight.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+            consumer.accept(result);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        float[] bounds = null;
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-t") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-b") && i + 4 < args.length) {
+                bounds = new float[4];
+                for (int j = 0; j < 4; j++) {
+                    bounds[j] = Float.parseFloat(args[++i]);
+                }
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.size() != 2) {
+            System.err.println("Usage: OsmImporter [-t THREADS] [-b SOUTH WEST NORTH EAST] "
+                               + "EXTRACT.osm[.gz]|EXTRACT.osm.pbf OUT.map|OUT.bin");
+            return;
+        }
+
+        long start = System.nanoTime();
+        OsmImporter importer = new OsmImporter(bounds, threads);
+        importer.importFile(new File(files.get(0)), new File(files.get(1)));
+        System.err.printf(Locale.ROOT, "Read %d nodes and wrote %d segments to %s in %.1f s%n",
+                          importer.getNodeCount(), importer.getSegmentCount(), files.get(1),
+                          (System.nanoTime() - start) / 1e9);
+    }
+}
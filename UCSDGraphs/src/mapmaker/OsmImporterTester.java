@@ -0,0 +1,105 @@
+package mapmaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import roadgraph.CompactGraph;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+
+/**
+ * Imports a small sorted extract, as OSM XML and as PBF, and checks the
+ * maps against the one MapMaker makes from the Overpass response for the
+ * same area.  The extract has node ids past 2^31, a deleted node, a
+ * node with tags, a one way road, a road leaving the bounds, an unnamed
+ * road, a footway (not a road MapMaker asks for) and a relation; the PBF
+ * has dense nodes in a compressed block and plain nodes in a raw one.
+ *
+ * Then checks NodeIndex lookups at the edges of its in-memory samples,
+ * for ids it does not have, and in an empty index.
+ */
+public class OsmImporterTester {
+	public static void main (String[] args) throws IOException {
+		float[] bounds = {32.88f, -117.235f, 32.885f, -117.23f};
+		File expected = new File("data/testdata/osm_sample_made.map");
+		File made = new File("data/testdata/osm_sample_imported.map");
+
+		System.out.print("Making the map from the Overpass response...");
+		MapMaker maker = new MapMaker(bounds,
+				new RecordedFetcher(bounds, "data/testdata/osm_sample.json"));
+		System.out.println(maker.parseData(expected.getPath()) ? "DONE." : "FAILED.");
+		List<String> lines = Files.readAllLines(expected.toPath());
+		System.out.println("Segments: " + lines.size()); // should be 9
+
+		for (String extract : new String[] {"data/testdata/osm_sample.osm", "data/testdata/osm_sample.osm.pbf"}) {
+			for (int threads : new int[] {1, 4}) {
+				OsmImporter importer = new OsmImporter(bounds, threads);
+				importer.importFile(new File(extract), made);
+				List<String> actual = Files.readAllLines(made.toPath());
+				System.out.println(extract + ", " + threads + " threads: " + importer.getNodeCount()
+						+ " nodes, " + (actual.equals(lines) ? "map matches." : "map differs:\n" + actual));
+			}
+		}
+
+		// the compiled graph is the one made from the map file
+		File compiled = new File("data/testdata/osm_sample_imported.bin");
+		new OsmImporter(bounds, 2).importFile(new File("data/testdata/osm_sample.osm.pbf"), compiled);
+		CompactGraph graph = CompactGraph.load(compiled);
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(expected.getPath(), map);
+		System.out.println("Compiled graph: " + graph.getNumVertices() + " vertices, "
+				+ graph.getNumEdges() + " edges"); // should be 5, 9
+		System.out.println(graph.getNumVertices() == map.getNumVertices()
+				&& graph.getNumEdges() == map.getNumEdges() ? "Graph matches." : "Graph differs.");
+		Files.delete(expected.toPath());
+		Files.delete(made.toPath());
+		Files.delete(compiled.toPath());
+
+		testNodeIndex();
+	}
+
+	private static void testNodeIndex() throws IOException {
+		// ids 10, 20, ...: three full samples of 256 and part of a fourth
+		int count = 800;
+		NodeIndex index = new NodeIndex(null);
+		for (int i = 0; i < count; i++) {
+			index.add(10L * (i + 1), i, -i);
+		}
+		boolean outOfOrder = false;
+		try {
+			index.add(5, 0, 0);
+		} catch (IOException e) {
+			outOfOrder = true;
+		}
+		index.finish();
+
+		int wrong = 0;
+		for (int i : new int[] {0, 1, 254, 255, 256, 257, 511, 512, 513, 767, 768, 769, count - 1}) {
+			long record = index.find(10L * (i + 1));
+			if (record != i || index.getLat(record) != i || index.getLon(record) != -i) {
+				System.out.println("Node " + 10L * (i + 1) + " found at " + record + ", not " + i);
+				wrong++;
+			}
+		}
+		for (long id : new long[] {Long.MIN_VALUE, 0, 9, 11, 2565, 2570 - 1, 2571, 10L * count + 1, Long.MAX_VALUE}) {
+			if (index.find(id) != -1) {
+				System.out.println("Node " + id + " found but never added");
+				wrong++;
+			}
+		}
+		System.out.println("Nodes indexed: " + index.size()); // should be 800
+		System.out.println("Out of order node refused: " + outOfOrder); // should be true
+		index.close();
+
+		NodeIndex empty = new NodeIndex(null);
+		empty.finish();
+		if (empty.size() != 0 || empty.find(10) != -1) {
+			System.out.println("Empty index finds a node");
+			wrong++;
+		}
+		empty.close();
+		System.out.println(wrong == 0 ? "Index lookups correct." : wrong + " lookups wrong.");
+	}
+}
@@ -0,0 +1,420 @@
+package mapmaker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the blocks of an OSM PBF file (see the OSM wiki, "PBF Format").
+ *
+ * The file is a sequence of blobs, each a header and a block of up to
+ * 8000 or so elements, compressed on its own.  nextBlob only reads the
+ * bytes, so the caller can inflate and decode blocks on other threads
+ * with inflate and readBlock.  Raw and zlib blobs are supported, which
+ * is what osmium and the common extract sites write; LZMA, LZ4 and ZSTD
+ * blobs are refused.
+ */
+class PbfReader {
+    // the largest blob header and blob the format allows
+    private static final int MAX_HEADER = 64 * 1024;
+    private static final int MAX_BLOB = 32 * 1024 * 1024;
+    // what a file may require of a reader that this one can do
+    private static final List<String> FEATURES = Arrays.asList("OsmSchema-V0.6", "DenseNodes");
+
+    /** A blob as read from the file, not yet inflated */
+    static class Blob {
+        final String type;
+        final long offset;
+        final byte[] data;
+        final int rawSize;
+        final boolean compressed;
+
+        Blob(String type, long offset, byte[] data, int rawSize, boolean compressed) {
+            this.type = type;
+            this.offset = offset;
+            this.data = data;
+            this.rawSize = rawSize;
+            this.compressed = compressed;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private DataInputStream in;
+    private long offset;
+
+    PbfReader(File pbf) throws IOException {
+        file = new RandomAccessFile(pbf, "r");
+        seek(0);
+    }
+
+    /**
+     * Move to a blob, by its offset from an earlier nextBlob
+     * @param blobOffset The offset
+     * @throws IOException if the file cannot be read
+     */
+    void seek(long blobOffset) throws IOException {
+        file.getChannel().position(blobOffset);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel()), 1 << 16));
+        offset = blobOffset;
+    }
+
+    /**
+     * Read the next blob
+     * @return The blob, or null at the end of the file
+     * @throws IOException if the file cannot be read or is not a PBF file
+     */
+    Blob nextBlob() throws IOException {
+        long blobOffset = offset;
+        int headerSize;
+        try {
+            headerSize = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_HEADER) {
+            throw new IOException("Not an OSM PBF file (blob header of " + headerSize + " bytes)");
+        }
+        byte[] header = new byte[headerSize];
+        in.readFully(header);
+        String type = null;
+        int dataSize = -1;
+        ProtoReader h = new ProtoReader(header);
+        for (int field = h.next(); field != 0; field = h.next()) {
+            if (field == 1) {
+                type = h.readString();
+            } else if (field == 3) {
+                dataSize = (int) h.readVarint();
+            } else {
+                h.skip();
+            }
+        }
+        if (type == null || dataSize < 0 || dataSize > MAX_BLOB) {
+            throw new IOException("Bad blob header at offset " + blobOffset);
+        }
+        byte[] blob = new byte[dataSize];
+        in.readFully(blob);
+        offset += 4 + headerSize + dataSize;
+
+        ProtoReader b = new ProtoReader(blob);
+        for (int field = b.next(); field != 0; field = b.next()) {
+            switch (field) {
+            case 1:
+                byte[] raw = b.readBytes();
+                return new Blob(type, blobOffset, raw, raw.length, false);
+            case 2:
+                rawSize(blobOffset, b);
+                break;
+            case 3:
+                return zlibBlob(type, blobOffset, blob);
+            case 4:
+            case 5:
+            case 6:
+            case 7:
+                throw new IOException("Blob at offset " + blobOffset
+                                      + " uses a compression other than zlib, which is not supported");
+            default:
+                b.skip();
+            }
+        }
+        throw new IOException("Empty blob at offset " + blobOffset);
+    }
+
+    // Read the blob again for its raw size and zlib data, whatever the
+    // order of the fields
+    private static Blob zlibBlob(String type, long blobOffset, byte[] blob) throws IOException {
+        int rawSize = -1;
+        byte[] data = null;
+        ProtoReader b = new ProtoReader(blob);
+        for (int field = b.next(); field != 0; field = b.next()) {
+            if (field == 2) {
+                rawSize = rawSize(blobOffset, b);
+            } else if (field == 3) {
+                data = b.readBytes();
+            } else {
+                b.skip();
+            }
+        }
+        if (rawSize < 0) {
+            throw new IOException("Blob at offset " + blobOffset + " has no raw size");
+        }
+        return new Blob(type, blobOffset, data, rawSize, true);
+    }
+
+    private static int rawSize(long blobOffset, ProtoReader b) throws IOException {
+        long size = b.readVarint();
+        if (size < 0 || size > MAX_BLOB) {
+            throw new IOException("Blob at offset " + blobOffset + " is too big");
+        }
+        return (int) size;
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * @param blob A blob
+     * @return Its contents, inflated
+     * @throws IOException if it does not inflate to its stated size
+     */
+    static byte[] inflate(Blob blob) throws IOException {
+        if (!blob.compressed) {
+            return blob.data;
+        }
+        byte[] raw = new byte[blob.rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.data);
+            int n = inflater.inflate(raw);
+            if (n != raw.length || !inflater.finished()) {
+                throw new IOException("Blob at offset " + blob.offset + " is corrupt");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Blob at offset " + blob.offset + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * Check that the features a file's header block requires can be read
+     * @param headerBlock The inflated OSMHeader blob
+     * @throws IOException if one cannot
+     */
+    static void checkHeader(byte[] headerBlock) throws IOException {
+        ProtoReader h = new ProtoReader(headerBlock);
+        for (int field = h.next(); field != 0; field = h.next()) {
+            if (field == 4) {
+                String feature = h.readString();
+                if (!FEATURES.contains(feature)) {
+                    throw new IOException("The file needs a feature that is not supported: " + feature);
+                }
+            } else {
+                h.skip();
+            }
+        }
+    }
+
+    /**
+     * Decode a data block
+     * @param block The inflated OSMData blob
+     * @param nodes Filled with the nodes, or null to skip them
+     * @param ways Filled with the roads, or null to skip the ways
+     * @return true if the block has ways
+     * @throws IOException if the block is malformed
+     */
+    static boolean readBlock(byte[] block, OsmImporter.NodeBatch nodes, OsmImporter.WayBatch ways)
+            throws IOException {
+        String[] strings = new String[0];
+        long granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        List<ProtoReader> groups = new ArrayList<ProtoReader>();
+        ProtoReader b = new ProtoReader(block);
+        for (int field = b.next(); field != 0; field = b.next()) {
+            switch (field) {
+            case 1:
+                strings = readStrings(b.readMessage());
+                break;
+            case 2:
+                groups.add(b.readMessage());
+                break;
+            case 17:
+                granularity = b.readVarint();
+                break;
+            case 19:
+                latOffset = b.readVarint();
+                break;
+            case 20:
+                lonOffset = b.readVarint();
+                break;
+            default:
+                b.skip();
+            }
+        }
+
+        boolean hasWays = false;
+        LongList list = new LongList();
+        for (ProtoReader g : groups) {
+            for (int field = g.next(); field != 0; field = g.next()) {
+                if (field == 1 && nodes != null) {
+                    readNode(g.readMessage(), granularity, latOffset, lonOffset, nodes);
+                } else if (field == 2 && nodes != null) {
+                    readDenseNodes(g.readMessage(), granularity, latOffset, lonOffset, nodes, list);
+                } else if (field == 3) {
+                    hasWays = true;
+                    if (ways != null) {
+                        readWay(g.readMessage(), strings, ways, list);
+                    } else {
+                        g.skip();
+                    }
+                } else {
+                    g.skip();
+                }
+            }
+        }
+        return hasWays;
+    }
+
+    private static String[] readStrings(ProtoReader table) throws IOException {
+        List<String> strings = new ArrayList<String>();
+        for (int field = table.next(); field != 0; field = table.next()) {
+            if (field == 1) {
+                strings.add(table.readString());
+            } else {
+                table.skip();
+            }
+        }
+        return strings.toArray(new String[strings.size()]);
+    }
+
+    private static void readNode(ProtoReader node, long granularity, long latOffset, long lonOffset,
+                                 OsmImporter.NodeBatch nodes) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        for (int field = node.next(); field != 0; field = node.next()) {
+            if (field == 1) {
+                id = node.readSigned();
+            } else if (field == 8) {
+                lat = node.readSigned();
+            } else if (field == 9) {
+                lon = node.readSigned();
+            } else {
+                node.skip();
+            }
+        }
+        nodes.add(id, toE7(latOffset + granularity * lat), toE7(lonOffset + granularity * lon));
+    }
+
+    private static void readDenseNodes(ProtoReader dense, long granularity, long latOffset, long lonOffset,
+                                       OsmImporter.NodeBatch nodes, LongList list) throws IOException {
+        long[] ids = null;
+        long[] lats = null;
+        long[] lons = null;
+        for (int field = dense.next(); field != 0; field = dense.next()) {
+            if (field == 1) {
+                ids = readDeltas(dense, list);
+            } else if (field == 8) {
+                lats = readDeltas(dense, list);
+            } else if (field == 9) {
+                lons = readDeltas(dense, list);
+            } else {
+                dense.skip();
+            }
+        }
+        if (ids == null) {
+            return;
+        }
+        if (lats == null || lons == null || lats.length != ids.length || lons.length != ids.length) {
+            throw new IOException("Dense nodes without coordinates for every node");
+        }
+        for (int i = 0; i < ids.length; i++) {
+            nodes.add(ids[i], toE7(latOffset + granularity * lats[i]), toE7(lonOffset + granularity * lons[i]));
+        }
+    }
+
+    private static void readWay(ProtoReader way, String[] strings, OsmImporter.WayBatch ways, LongList list)
+            throws IOException {
+        long[] keys = null;
+        long[] values = null;
+        long[] refs = null;
+        for (int field = way.next(); field != 0; field = way.next()) {
+            if (field == 2) {
+                keys = readPacked(way, list);
+            } else if (field == 3) {
+                values = readPacked(way, list);
+            } else if (field == 8) {
+                refs = readDeltas(way, list);
+            } else {
+                way.skip();
+            }
+        }
+        if (keys == null || values == null || refs == null || keys.length != values.length) {
+            return;
+        }
+        String street = "";
+        String type = null;
+        String oneway = "no";
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] < 0 || keys[i] >= strings.length || values[i] < 0 || values[i] >= strings.length) {
+                throw new IOException("Way tag not in the string table");
+            }
+            String key = strings[(int) keys[i]];
+            if (key.equals("highway")) {
+                type = strings[(int) values[i]];
+            } else if (key.equals("name")) {
+                street = strings[(int) values[i]];
+            } else if (key.equals("oneway")) {
+                oneway = strings[(int) values[i]];
+            }
+        }
+        if (type != null) {
+            ways.add(refs, street, type, oneway);
+        }
+    }
+
+    // A packed repeated uint32 field; every writer in use packs them
+    private static long[] readPacked(ProtoReader message, LongList list) throws IOException {
+        if (message.wireType() != ProtoReader.BYTES) {
+            throw new IOException("Expected a packed field");
+        }
+        list.clear();
+        ProtoReader packed = message.readMessage();
+        while (packed.hasMore()) {
+            list.add(packed.readVarint());
+        }
+        return list.toArray();
+    }
+
+    // A packed repeated sint64 field of deltas, summed
+    private static long[] readDeltas(ProtoReader message, LongList list) throws IOException {
+        if (message.wireType() != ProtoReader.BYTES) {
+            throw new IOException("Expected a packed field");
+        }
+        list.clear();
+        ProtoReader packed = message.readMessage();
+        long value = 0;
+        while (packed.hasMore()) {
+            value += packed.readSigned();
+            list.add(value);
+        }
+        return list.toArray();
+    }
+
+    // Nanodegrees to the 1e-7 degrees of OSM coordinates
+    private static int toE7(long nanodegrees) {
+        return (int) Math.round(nanodegrees / 100.0);
+    }
+
+    // A growable list of longs, reused while decoding a block
+    private static class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
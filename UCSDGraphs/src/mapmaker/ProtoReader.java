@@ -0,0 +1,137 @@
+package mapmaker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Just enough of the protocol buffer wire format to read OSM PBF files:
+ * fields are read one at a time from a byte array, and a length-delimited
+ * field can be read as a message of its own without copying.
+ */
+class ProtoReader {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int BYTES = 2;
+    static final int FIXED32 = 5;
+
+    private final byte[] buffer;
+    private int pos;
+    private final int limit;
+    private int wireType;
+
+    ProtoReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    ProtoReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Move to the next field
+     * @return Its number, or 0 at the end of the message
+     * @throws IOException if the message is malformed
+     */
+    int next() throws IOException {
+        if (pos >= limit) {
+            return 0;
+        }
+        long key = readVarint();
+        wireType = (int) (key & 7);
+        int field = (int) (key >>> 3);
+        if (field <= 0) {
+            throw new IOException("Bad protocol buffer field " + field);
+        }
+        return field;
+    }
+
+    /** @return The wire type of the field just moved to */
+    int wireType() {
+        return wireType;
+    }
+
+    long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new IOException("Truncated protocol buffer");
+            }
+            byte b = buffer[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** @return A zigzag-encoded signed varint (sint32, sint64) */
+    long readSigned() throws IOException {
+        long v = readVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** @return The field, a length-delimited one, as a message */
+    ProtoReader readMessage() throws IOException {
+        int length = readLength();
+        ProtoReader message = new ProtoReader(buffer, pos, length);
+        pos += length;
+        return message;
+    }
+
+    /** @return The field, a length-delimited one, as UTF-8 text */
+    String readString() throws IOException {
+        int length = readLength();
+        String s = new String(buffer, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+
+    /** @return A copy of the field, a length-delimited one */
+    byte[] readBytes() throws IOException {
+        int length = readLength();
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, pos, bytes, 0, length);
+        pos += length;
+        return bytes;
+    }
+
+    /** @return true while a message read with readMessage has data left */
+    boolean hasMore() {
+        return pos < limit;
+    }
+
+    /** Skip the field just moved to */
+    void skip() throws IOException {
+        switch (wireType) {
+        case VARINT:
+            readVarint();
+            break;
+        case FIXED64:
+            pos += 8;
+            break;
+        case BYTES:
+            int length = readLength();
+            pos += length;
+            break;
+        case FIXED32:
+            pos += 4;
+            break;
+        default:
+            throw new IOException("Unsupported protocol buffer wire type " + wireType);
+        }
+        if (pos > limit) {
+            throw new IOException("Truncated protocol buffer");
+        }
+    }
+
+    private int readLength() throws IOException {
+        long length = readVarint();
+        if (length < 0 || length > limit - pos) {
+            throw new IOException("Truncated protocol buffer");
+        }
+        return (int) length;
+    }
+}
@@ -0,0 +1,29 @@
+package mapmaker;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stand-in for DataFetcher that serves a recorded Overpass response
+ * from a file instead of asking the server, for testing MapMaker and
+ * for making a map again from a response saved earlier.
+ */
+public class RecordedFetcher extends DataFetcher {
+    private String responseFile;
+
+    /**
+     * @param bounds The bounds the response was fetched for
+     * @param responseFile The file holding the response
+     */
+    public RecordedFetcher(float[] bounds, String responseFile) {
+        super(bounds);
+        this.responseFile = responseFile;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(responseFile));
+    }
+}
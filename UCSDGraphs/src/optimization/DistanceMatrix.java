@@ -0,0 +1,77 @@
+package optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import roadgraph.CompactGraph;
+import roadgraph.CompactSearch;
+
+/**
+ * Builds the table of road distances between a set of vertices.
+ * Each row is one one-to-many Dijkstra search, and the rows are
+ * computed in parallel, one CompactSearch per worker thread.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class DistanceMatrix {
+
+	private DistanceMatrix() {}
+
+	/** Build the matrix of shortest path lengths (km) between vertices
+	 * @param graph The road graph
+	 * @param vertices The vertices to connect
+	 * @param threads The number of worker threads
+	 * @return matrix[i][j] is the distance from vertices[i] to vertices[j],
+	 *   or Double.POSITIVE_INFINITY if there is no path
+	 */
+	public static double[][] build(CompactGraph graph, int[] vertices, int threads)
+	{
+		return build(graph, null, vertices, threads);
+	}
+
+	/** Build the matrix of shortest path costs between vertices
+	 * @param graph The road graph
+	 * @param edgeWeights The cost of each edge, or null to use the lengths
+	 * @param vertices The vertices to connect
+	 * @param threads The number of worker threads
+	 * @return matrix[i][j] is the cost from vertices[i] to vertices[j],
+	 *   or Double.POSITIVE_INFINITY if there is no path
+	 */
+	public static double[][] build(CompactGraph graph, double[] edgeWeights,
+			int[] vertices, int threads)
+	{
+		int n = vertices.length;
+		double[][] matrix = new double[n][];
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		ThreadLocal<CompactSearch> searches =
+				ThreadLocal.withInitial(() -> new CompactSearch(graph, edgeWeights));
+		try {
+			List<Future<?>> rows = new ArrayList<Future<?>>(n);
+			for (int i = 0; i < n; i++) {
+				final int row = i;
+				rows.add(pool.submit(() -> {
+					matrix[row] = searches.get().oneToMany(vertices[row], vertices);
+				}));
+			}
+			for (Future<?> f : rows) {
+				f.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Distance matrix interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Distance matrix failed", e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+		return matrix;
+	}
+}
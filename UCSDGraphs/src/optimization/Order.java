@@ -0,0 +1,60 @@
+package optimization;
+
+import geography.GeographicPoint;
+
+/**
+ * A delivery (or pickup) for the vehicle routing solver: where it is,
+ * how much of a vehicle's capacity it uses, and the time window in
+ * which service has to start.
+ *
+ * Times are in seconds since midnight, like the speed profiles.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class Order {
+	private final GeographicPoint location;
+	private final int demand;
+	private final double earliest;
+	private final double latest;
+	private final double serviceTime;
+
+	/** Create a new order
+	 * @param location Where the order is delivered
+	 * @param demand The capacity it uses, e.g. number of parcels
+	 * @param earliest The earliest time service can start
+	 * @param latest The latest time service can start
+	 * @param serviceTime How long the stop takes, in seconds
+	 */
+	public Order(GeographicPoint location, int demand, double earliest,
+			double latest, double serviceTime)
+	{
+		if (location == null) {
+			throw new NullPointerException("Order: location cannot be null");
+		}
+		if (demand < 0 || serviceTime < 0 || latest < earliest) {
+			throw new IllegalArgumentException("Order: invalid demand, service time or time window");
+		}
+		this.location = location;
+		this.demand = demand;
+		this.earliest = earliest;
+		this.latest = latest;
+		this.serviceTime = serviceTime;
+	}
+
+	public GeographicPoint getLocation() { return location; }
+
+	public int getDemand() { return demand; }
+
+	public double getEarliest() { return earliest; }
+
+	public double getLatest() { return latest; }
+
+	public double getServiceTime() { return serviceTime; }
+
+	public String toString()
+	{
+		return "Order[" + location + ", demand " + demand + ", window "
+				+ earliest + "-" + latest + "]";
+	}
+}
@@ -0,0 +1,443 @@
+package optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import geography.GeographicPoint;
+import roadgraph.CompactGraph;
+import roadgraph.CompactSearch;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+
+/**
+ * Finds a short order in which to visit a set of stops (the travelling
+ * salesperson problem) on the road network.
+ *
+ * The stop to stop road distances are computed with parallel one-to-many
+ * searches.  Each worker thread then builds a tour with (randomized)
+ * nearest neighbour, improves it with 2-opt and Or-opt moves, and keeps
+ * perturbing and re-improving it until the time limit is reached.  The
+ * best tour found by any worker is returned, so a longer time limit can
+ * only give a better (or equal) answer.
+ *
+ * Road distances are not symmetric (one way streets), so every move is
+ * evaluated with the real cost of both directions.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class RouteOptimizer {
+	/** Cost used for a leg between two stops that are not connected */
+	static final double UNREACHABLE = 1e6;
+
+	private static final double EPSILON = 1e-9;
+	private static final long SEED = 2016;
+
+	private final CompactGraph graph;
+	private final int threads;
+
+	/** Create an optimizer that uses every available core
+	 * @param graph The road graph
+	 */
+	public RouteOptimizer(CompactGraph graph)
+	{
+		this(graph, Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Create an optimizer with a fixed number of worker threads
+	 * @param graph The road graph
+	 * @param threads The number of worker threads
+	 */
+	public RouteOptimizer(CompactGraph graph, int threads)
+	{
+		if (threads < 1) {
+			throw new IllegalArgumentException("RouteOptimizer: need at least one thread");
+		}
+		this.graph = graph;
+		this.threads = threads;
+	}
+
+	/** Find a short tour through the stops, starting at the first stop.
+	 * Stops that are not intersections are snapped to the closest one.
+	 *
+	 * @param stops The stops to visit; the first is the starting point
+	 * @param closed true to return to the first stop at the end, false for
+	 *   a path that may end at any stop
+	 * @param timeLimitMillis How long to spend improving the tour, once the
+	 *   distances are known
+	 * @return The best tour found
+	 */
+	public TourResult optimize(List<GeographicPoint> stops, boolean closed, long timeLimitMillis)
+	{
+		int n = stops.size();
+		if (n == 0) {
+			throw new IllegalArgumentException("RouteOptimizer: no stops to visit");
+		}
+		int[] vertices = new int[n];
+		for (int i = 0; i < n; i++) {
+			vertices[i] = graph.nearestVertex(stops.get(i));
+		}
+
+		double[][] distances = DistanceMatrix.build(graph, vertices, threads);
+		double[][] costs = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				costs[i][j] = (distances[i][j] == Double.POSITIVE_INFINITY)
+						? UNREACHABLE : distances[i][j];
+			}
+		}
+
+		long deadline = System.nanoTime() + timeLimitMillis * 1000000L;
+		int[] order = solve(costs, closed, deadline);
+
+		// total distance and the stitched road path
+		List<GeographicPoint> orderedStops = new ArrayList<GeographicPoint>(n);
+		for (int i : order) {
+			orderedStops.add(stops.get(i));
+		}
+		CompactSearch search = new CompactSearch(graph);
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+		path.add(graph.getLocation(vertices[order[0]]));
+		double total = 0;
+		int legs = closed ? n : n - 1;
+		for (int k = 0; k < legs && path != null; k++) {
+			int from = order[k];
+			int to = order[(k + 1) % n];
+			int[] leg = search.shortestPath(vertices[from], vertices[to]);
+			if (leg == null) {
+				path = null;
+				total = Double.POSITIVE_INFINITY;
+			}
+			else {
+				for (int i = 1; i < leg.length; i++) {
+					path.add(graph.getLocation(leg[i]));
+				}
+				total += distances[from][to];
+			}
+		}
+		return new TourResult(order, orderedStops, path, total, closed);
+	}
+
+	// Run one improvement search per thread, each from a different start,
+	// and return the best tour
+	private int[] solve(double[][] costs, boolean closed, long deadline)
+	{
+		int n = costs.length;
+		if (n <= 3) {
+			return bestSmallTour(costs, closed);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+			for (int i = 0; i < threads; i++) {
+				final Random random = new Random(SEED + i);
+				final boolean greedy = (i == 0);
+				results.add(pool.submit(() -> improve(costs, closed, deadline, random, greedy)));
+			}
+			int[] best = null;
+			double bestCost = Double.POSITIVE_INFINITY;
+			for (Future<int[]> f : results) {
+				int[] tour = f.get();
+				double c = tourCost(costs, tour, closed);
+				if (c < bestCost) {
+					best = tour;
+					bestCost = c;
+				}
+			}
+			return best;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Route optimization interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Route optimization failed", e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	// Try every order of up to three stops
+	private static int[] bestSmallTour(double[][] costs, boolean closed)
+	{
+		int n = costs.length;
+		if (n < 3) {
+			int[] tour = new int[n];
+			for (int i = 0; i < n; i++) {
+				tour[i] = i;
+			}
+			return tour;
+		}
+		int[] a = {0, 1, 2};
+		int[] b = {0, 2, 1};
+		return (tourCost(costs, a, closed) <= tourCost(costs, b, closed)) ? a : b;
+	}
+
+	// Iterated local search: improve a starting tour, then repeatedly
+	// perturb the best tour and improve it again until the deadline
+	private static int[] improve(double[][] costs, boolean closed, long deadline,
+			Random random, boolean greedy)
+	{
+		int[] best = nearestNeighbour(costs, random, greedy);
+		localSearch(costs, best, closed, deadline);
+		double bestCost = tourCost(costs, best, closed);
+
+		while (best.length >= 8 && System.nanoTime() < deadline) {
+			int[] candidate = doubleBridge(best, random);
+			localSearch(costs, candidate, closed, deadline);
+			double c = tourCost(costs, candidate, closed);
+			if (c < bestCost - EPSILON) {
+				best = candidate;
+				bestCost = c;
+			}
+		}
+		return best;
+	}
+
+	// Nearest neighbour construction from stop 0.  When not greedy, pick
+	// randomly among the three nearest unvisited stops.
+	static int[] nearestNeighbour(double[][] costs, Random random, boolean greedy)
+	{
+		int n = costs.length;
+		int[] tour = new int[n];
+		boolean[] used = new boolean[n];
+		used[0] = true;
+		int[] candidates = new int[3];
+		for (int k = 1; k < n; k++) {
+			int curr = tour[k - 1];
+			int found = 0;
+			for (int j = 0; j < n; j++) {
+				if (used[j]) {
+					continue;
+				}
+				// keep the (up to) three nearest, sorted by cost
+				int pos = Math.min(found, 2);
+				if (found < 3 || costs[curr][j] < costs[curr][candidates[2]]) {
+					candidates[pos] = j;
+					while (pos > 0 && costs[curr][candidates[pos]] < costs[curr][candidates[pos - 1]]) {
+						int tmp = candidates[pos];
+						candidates[pos] = candidates[pos - 1];
+						candidates[pos - 1] = tmp;
+						pos--;
+					}
+					found = Math.min(found + 1, 3);
+				}
+			}
+			int next = greedy ? candidates[0] : candidates[random.nextInt(found)];
+			tour[k] = next;
+			used[next] = true;
+		}
+		return tour;
+	}
+
+	// Apply 2-opt and Or-opt moves until neither improves the tour
+	static void localSearch(double[][] costs, int[] tour, boolean closed, long deadline)
+	{
+		boolean improved = true;
+		while (improved && System.nanoTime() < deadline) {
+			improved = twoOpt(costs, tour, closed);
+			improved |= orOpt(costs, tour, closed);
+		}
+	}
+
+	// One pass of 2-opt: reverse tour[i..j] whenever that shortens the tour.
+	// Prefix sums of the leg costs in both directions give the cost of a
+	// reversed section in constant time.
+	private static boolean twoOpt(double[][] costs, int[] tour, boolean closed)
+	{
+		int n = tour.length;
+		double[] forward = new double[n];
+		double[] backward = new double[n];
+		prefixSums(costs, tour, forward, backward);
+		boolean improved = false;
+
+		for (int i = 1; i < n - 1; i++) {
+			for (int j = i + 1; j < n; j++) {
+				int a = tour[i - 1];
+				int x = tour[i];
+				int y = tour[j];
+				int b = next(tour, j, closed);
+				double before = costs[a][x] + forward[j] - forward[i];
+				double after = costs[a][y] + backward[j] - backward[i];
+				if (b >= 0) {
+					before += costs[y][b];
+					after += costs[x][b];
+				}
+				if (after < before - EPSILON) {
+					reverse(tour, i, j);
+					prefixSums(costs, tour, forward, backward);
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	// One pass of Or-opt: move a run of one to three stops to a better place
+	private static boolean orOpt(double[][] costs, int[] tour, boolean closed)
+	{
+		int n = tour.length;
+		boolean improved = false;
+		for (int len = 1; len <= 3; len++) {
+			for (int s = 1; s + len - 1 < n; s++) {
+				int e = s + len - 1;
+				int p = tour[s - 1];
+				int q = next(tour, e, closed);
+				int first = tour[s];
+				int last = tour[e];
+				double removeGain = costs[p][first];
+				if (q >= 0) {
+					removeGain += costs[last][q] - costs[p][q];
+				}
+
+				int bestK = -1;
+				double bestDelta = -EPSILON;
+				for (int k = 0; k < n; k++) {
+					if (k >= s - 1 && k <= e) {
+						continue;
+					}
+					int a = tour[k];
+					int b = next(tour, k, closed);
+					double addCost = costs[a][first];
+					if (b >= 0) {
+						addCost += costs[last][b] - costs[a][b];
+					}
+					double delta = addCost - removeGain;
+					if (delta < bestDelta) {
+						bestDelta = delta;
+						bestK = k;
+					}
+				}
+				if (bestK >= 0) {
+					moveSegment(tour, s, e, bestK);
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	// The stop after position k, or -1 at the end of an open tour
+	private static int next(int[] tour, int k, boolean closed)
+	{
+		if (k + 1 < tour.length) {
+			return tour[k + 1];
+		}
+		return closed ? tour[0] : -1;
+	}
+
+	private static void prefixSums(double[][] costs, int[] tour, double[] forward, double[] backward)
+	{
+		forward[0] = 0;
+		backward[0] = 0;
+		for (int k = 1; k < tour.length; k++) {
+			forward[k] = forward[k - 1] + costs[tour[k - 1]][tour[k]];
+			backward[k] = backward[k - 1] + costs[tour[k]][tour[k - 1]];
+		}
+	}
+
+	private static void reverse(int[] tour, int i, int j)
+	{
+		while (i < j) {
+			int tmp = tour[i];
+			tour[i] = tour[j];
+			tour[j] = tmp;
+			i++;
+			j--;
+		}
+	}
+
+	// Move tour[s..e] so that it follows position k (k is outside s-1..e)
+	private static void moveSegment(int[] tour, int s, int e, int k)
+	{
+		int len = e - s + 1;
+		int[] segment = new int[len];
+		System.arraycopy(tour, s, segment, 0, len);
+		if (k > e) {
+			// shift tour[e+1..k] left, then put the segment after it
+			System.arraycopy(tour, e + 1, tour, s, k - e);
+			System.arraycopy(segment, 0, tour, k - len + 1, len);
+		}
+		else {
+			// shift tour[k+1..s-1] right, then put the segment at k+1
+			System.arraycopy(tour, k + 1, tour, k + 1 + len, s - k - 1);
+			System.arraycopy(segment, 0, tour, k + 1, len);
+		}
+	}
+
+	// Cut the tour into four parts A B C D (A starts with stop 0) and
+	// reconnect them as A C B D
+	private static int[] doubleBridge(int[] tour, Random random)
+	{
+		int n = tour.length;
+		int[] cuts = new int[3];
+		do {
+			cuts[0] = 1 + random.nextInt(n - 1);
+			cuts[1] = 1 + random.nextInt(n - 1);
+			cuts[2] = 1 + random.nextInt(n - 1);
+			Arrays.sort(cuts);
+		} while (cuts[0] == cuts[1] || cuts[1] == cuts[2]);
+
+		int[] result = new int[n];
+		int k = 0;
+		for (int i = 0; i < cuts[0]; i++) result[k++] = tour[i];
+		for (int i = cuts[1]; i < cuts[2]; i++) result[k++] = tour[i];
+		for (int i = cuts[0]; i < cuts[1]; i++) result[k++] = tour[i];
+		for (int i = cuts[2]; i < n; i++) result[k++] = tour[i];
+		return result;
+	}
+
+	static double tourCost(double[][] costs, int[] tour, boolean closed)
+	{
+		double total = 0;
+		for (int k = 1; k < tour.length; k++) {
+			total += costs[tour[k - 1]][tour[k]];
+		}
+		if (closed && tour.length > 1) {
+			total += costs[tour[tour.length - 1]][tour[0]];
+		}
+		return total;
+	}
+
+	public static void main(String[] args)
+	{
+		MapGraph map = new MapGraph();
+		System.out.print("Loading the map...");
+		GraphLoader.loadRoadMap("data/maps/san_diego.map", map);
+		System.out.println("DONE.");
+		CompactGraph graph = new CompactGraph(map);
+
+		// 50 random stops, the same ones every run.  Only keep stops that
+		// can be reached from the first one and can get back to it.
+		Random random = new Random(42);
+		CompactSearch search = new CompactSearch(graph);
+		int first = random.nextInt(graph.getNumVertices());
+		List<GeographicPoint> stops = new ArrayList<GeographicPoint>();
+		stops.add(graph.getLocation(first));
+		while (stops.size() < 50) {
+			int v = random.nextInt(graph.getNumVertices());
+			if (search.shortestPath(first, v) != null && search.shortestPath(v, first) != null) {
+				stops.add(graph.getLocation(v));
+			}
+		}
+
+		RouteOptimizer optimizer = new RouteOptimizer(graph);
+		for (long limit : new long[] {0, 100, 1000}) {
+			long start = System.currentTimeMillis();
+			TourResult closedTour = optimizer.optimize(stops, true, limit);
+			long elapsed = System.currentTimeMillis() - start;
+			System.out.println("Closed tour, " + limit + " ms limit: " + closedTour.getDistance()
+					+ " km (" + elapsed + " ms total)");
+		}
+		TourResult openTour = optimizer.optimize(stops, false, 1000);
+		System.out.println("Open tour: " + openTour.getDistance() + " km, "
+				+ openTour.getPath().size() + " intersections on the path");
+	}
+}
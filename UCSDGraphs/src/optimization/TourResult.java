@@ -0,0 +1,81 @@
+package optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * The result of a multi-stop route optimization: the order in which to
+ * visit the stops and the full road path that visits them.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class TourResult {
+	private final int[] order;
+	private final List<GeographicPoint> stops;
+	private final List<GeographicPoint> path;
+	private final double distance;
+	private final boolean closed;
+
+	TourResult(int[] order, List<GeographicPoint> stops, List<GeographicPoint> path,
+			double distance, boolean closed)
+	{
+		this.order = order;
+		this.stops = Collections.unmodifiableList(new ArrayList<GeographicPoint>(stops));
+		this.path = (path == null) ? null : Collections.unmodifiableList(path);
+		this.distance = distance;
+		this.closed = closed;
+	}
+
+	/** Get the visiting order as indexes into the list of stops that was
+	 * passed to the optimizer.  The first entry is always 0.
+	 * @return The visiting order
+	 */
+	public int[] getOrder()
+	{
+		return order.clone();
+	}
+
+	/** Get the stops in visiting order.  A closed tour does not repeat
+	 * the first stop at the end.
+	 * @return The ordered stops
+	 */
+	public List<GeographicPoint> getStops()
+	{
+		return stops;
+	}
+
+	/** Get the full path along the roads, from intersection to
+	 * intersection, visiting every stop in order.
+	 * @return The path, or null if some stop cannot be reached from
+	 *   the one before it
+	 */
+	public List<GeographicPoint> getPath()
+	{
+		return path;
+	}
+
+	/** Get the total road distance of the tour
+	 * @return The distance in km, or Double.POSITIVE_INFINITY if some stop
+	 *   cannot be reached
+	 */
+	public double getDistance()
+	{
+		return distance;
+	}
+
+	/** @return true if the tour returns to its first stop */
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	public String toString()
+	{
+		return "TourResult[" + order.length + " stops, " + distance + " km"
+				+ (closed ? ", closed]" : ", open]");
+	}
+}
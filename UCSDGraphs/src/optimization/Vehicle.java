@@ -0,0 +1,51 @@
+package optimization;
+
+import geography.GeographicPoint;
+
+/**
+ * A vehicle for the vehicle routing solver.  Each vehicle starts and
+ * ends its shift at its own depot, so a fleet spread over several
+ * depots is just a list of vehicles with different depots.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class Vehicle {
+	private final GeographicPoint depot;
+	private final int capacity;
+	private final double shiftStart;
+	private final double shiftEnd;
+
+	/** Create a new vehicle
+	 * @param depot Where the vehicle starts and ends
+	 * @param capacity The total demand it can carry
+	 * @param shiftStart When it can leave the depot, in seconds since midnight
+	 * @param shiftEnd When it has to be back at the depot
+	 */
+	public Vehicle(GeographicPoint depot, int capacity, double shiftStart, double shiftEnd)
+	{
+		if (depot == null) {
+			throw new NullPointerException("Vehicle: depot cannot be null");
+		}
+		if (capacity < 0 || shiftEnd < shiftStart) {
+			throw new IllegalArgumentException("Vehicle: invalid capacity or shift");
+		}
+		this.depot = depot;
+		this.capacity = capacity;
+		this.shiftStart = shiftStart;
+		this.shiftEnd = shiftEnd;
+	}
+
+	public GeographicPoint getDepot() { return depot; }
+
+	public int getCapacity() { return capacity; }
+
+	public double getShiftStart() { return shiftStart; }
+
+	public double getShiftEnd() { return shiftEnd; }
+
+	public String toString()
+	{
+		return "Vehicle[" + depot + ", capacity " + capacity + "]";
+	}
+}
@@ -0,0 +1,130 @@
+package optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import roadgraph.CompactGraph;
+import roadgraph.CompactSearch;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+
+/**
+ * Benchmark for the vehicle routing solver.
+ *
+ * For each map, builds a reproducible synthetic instance (depots and
+ * orders placed on intersections, random demands and time windows) and
+ * solves it with different numbers of threads and time limits.  Prints
+ * one line per run with the solution quality and the wall time, so the
+ * effect of more cores or more time can be compared directly.
+ *
+ * Run from the project directory:  java optimization.VrpBenchmark
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class VrpBenchmark {
+	private static final String[] MAPS = {"data/maps/san_diego.map", "data/maps/new_york.map"};
+	private static final int DEPOTS = 2;
+	private static final int VEHICLES_PER_DEPOT = 6;
+	private static final int ORDERS = 150;
+	private static final int CAPACITY = 40;
+	private static final long[] TIME_LIMITS = {250, 1000, 4000};
+
+	public static void main(String[] args)
+	{
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		System.out.println("map,threads,limit_ms,wall_ms,distance_km,unassigned,vehicles_used");
+		for (String file : MAPS) {
+			MapGraph map = new MapGraph();
+			GraphLoader.loadRoadMap(file, map);
+			CompactGraph graph = new CompactGraph(map);
+
+			List<Vehicle> vehicles = new ArrayList<Vehicle>();
+			List<Order> orders = new ArrayList<Order>();
+			makeInstance(graph, new Random(7), vehicles, orders);
+
+			for (int threads : threadCounts(maxThreads)) {
+				VrpSolver solver = new VrpSolver(graph, threads);
+				for (long limit : TIME_LIMITS) {
+					long start = System.nanoTime();
+					VrpSolution solution = solver.solve(vehicles, orders, limit);
+					long wall = (System.nanoTime() - start) / 1000000;
+					int used = 0;
+					for (List<Order> route : solution.getRoutes()) {
+						if (!route.isEmpty()) {
+							used++;
+						}
+					}
+					System.out.printf("%s,%d,%d,%d,%.3f,%d,%d%n", file, threads, limit, wall,
+							solution.getDistance(), solution.getUnassigned().size(), used);
+				}
+			}
+		}
+	}
+
+	// 1, 2, 4, ... and then the machine's own count, e.g. 1, 2, 4, 6
+	private static List<Integer> threadCounts(int maxThreads)
+	{
+		List<Integer> counts = new ArrayList<Integer>();
+		for (int threads = 1; threads < maxThreads; threads *= 2) {
+			counts.add(threads);
+		}
+		counts.add(maxThreads);
+		return counts;
+	}
+
+	// Place depots and orders on intersections that can reach, and be
+	// reached from, every depot, so every order is servable in principle
+	private static void makeInstance(CompactGraph graph, Random random,
+			List<Vehicle> vehicles, List<Order> orders)
+	{
+		CompactSearch search = new CompactSearch(graph);
+		int n = graph.getNumVertices();
+
+		// depots: vertices that reach at least half the graph
+		int[] depots = new int[DEPOTS];
+		for (int d = 0; d < DEPOTS; d++) {
+			int v;
+			do {
+				v = random.nextInt(n);
+			} while (reachable(search.distancesFrom(v)) < n / 2);
+			depots[d] = v;
+		}
+		double shiftStart = 7 * 3600;
+		double shiftEnd = 19 * 3600;
+		for (int d : depots) {
+			for (int i = 0; i < VEHICLES_PER_DEPOT; i++) {
+				vehicles.add(new Vehicle(graph.getLocation(d), CAPACITY, shiftStart, shiftEnd));
+			}
+		}
+
+		while (orders.size() < ORDERS) {
+			int v = random.nextInt(n);
+			boolean ok = true;
+			for (int d : depots) {
+				ok &= search.shortestPath(d, v) != null && search.shortestPath(v, d) != null;
+			}
+			if (!ok) {
+				continue;
+			}
+			GeographicPoint location = graph.getLocation(v);
+			int demand = 1 + random.nextInt(5);
+			// a two hour window starting between 8am and 4pm
+			double earliest = (8 + random.nextInt(9)) * 3600;
+			orders.add(new Order(location, demand, earliest, earliest + 2 * 3600, 300));
+		}
+	}
+
+	private static int reachable(double[] distances)
+	{
+		int count = 0;
+		for (double d : distances) {
+			if (d < Double.POSITIVE_INFINITY) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
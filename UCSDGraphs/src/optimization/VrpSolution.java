@@ -0,0 +1,69 @@
+package optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of the vehicle routing solver: the orders each vehicle
+ * serves, in order, and the orders that could not be assigned to any
+ * vehicle without breaking a capacity or time window.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class VrpSolution {
+	private final List<List<Order>> routes;
+	private final List<Order> unassigned;
+	private final double distance;
+
+	VrpSolution(List<List<Order>> routes, List<Order> unassigned, double distance)
+	{
+		List<List<Order>> copy = new ArrayList<List<Order>>(routes.size());
+		for (List<Order> route : routes) {
+			copy.add(Collections.unmodifiableList(new ArrayList<Order>(route)));
+		}
+		this.routes = Collections.unmodifiableList(copy);
+		this.unassigned = Collections.unmodifiableList(new ArrayList<Order>(unassigned));
+		this.distance = distance;
+	}
+
+	/** Get the orders served by one vehicle
+	 * @param vehicle The index of the vehicle in the list given to the solver
+	 * @return The orders in the order they are served
+	 */
+	public List<Order> getRoute(int vehicle)
+	{
+		return routes.get(vehicle);
+	}
+
+	/** @return The routes of all vehicles, indexed like the vehicle list */
+	public List<List<Order>> getRoutes()
+	{
+		return routes;
+	}
+
+	/** @return The orders that no vehicle could serve */
+	public List<Order> getUnassigned()
+	{
+		return unassigned;
+	}
+
+	/** @return The total road distance driven by all vehicles, in km */
+	public double getDistance()
+	{
+		return distance;
+	}
+
+	public String toString()
+	{
+		int used = 0;
+		for (List<Order> route : routes) {
+			if (!route.isEmpty()) {
+				used++;
+			}
+		}
+		return "VrpSolution[" + distance + " km, " + used + " vehicles used, "
+				+ unassigned.size() + " unassigned]";
+	}
+}
@@ -0,0 +1,446 @@
+package optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import roadgraph.CompactGraph;
+
+/**
+ * Assigns orders to a fleet of vehicles and orders each vehicle's stops
+ * (the vehicle routing problem) with vehicle capacities, time windows
+ * and any number of depots.
+ *
+ * Road distances between all depots and orders are computed once with
+ * parallel one-to-many searches; travel times assume a constant average
+ * speed.  Each worker thread then runs its own large neighbourhood
+ * search: remove a group of orders (random, or close together) and
+ * re-insert them at their cheapest feasible positions, keeping the
+ * result when it is not much worse than the current plan.  When the
+ * time limit is reached the best plan of any thread is returned.
+ *
+ * The objective is the total distance, plus a large penalty for every
+ * order that cannot be served.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class VrpSolver {
+	/** Cost of leaving an order unserved, in km */
+	static final double UNASSIGNED_PENALTY = 1000;
+
+	/** Default average driving speed in km/h */
+	public static final double DEFAULT_SPEED = 30;
+
+	// Accept a plan up to this fraction worse than the best one so far
+	private static final double ACCEPT_THRESHOLD = 0.01;
+	private static final double EPSILON = 1e-9;
+	private static final long SEED = 2016;
+
+	private final CompactGraph graph;
+	private final int threads;
+	private double speed;
+
+	/** Create a solver that uses every available core
+	 * @param graph The road graph
+	 */
+	public VrpSolver(CompactGraph graph)
+	{
+		this(graph, Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Create a solver with a fixed number of worker threads
+	 * @param graph The road graph
+	 * @param threads The number of worker threads
+	 */
+	public VrpSolver(CompactGraph graph, int threads)
+	{
+		if (threads < 1) {
+			throw new IllegalArgumentException("VrpSolver: need at least one thread");
+		}
+		this.graph = graph;
+		this.threads = threads;
+		this.speed = DEFAULT_SPEED;
+	}
+
+	/** Set the average speed used to turn distances into travel times
+	 * @param speed The speed in km/h
+	 */
+	public void setAverageSpeed(double speed)
+	{
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("VrpSolver: speed must be positive");
+		}
+		this.speed = speed;
+	}
+
+	/** Plan routes for the vehicles that serve as many orders as possible
+	 * with the least total distance.  Depots and orders that are not
+	 * intersections are snapped to the closest one.
+	 *
+	 * @param vehicles The fleet
+	 * @param orders The orders to serve
+	 * @param timeLimitMillis How long to search, once the distances are known
+	 * @return The best plan found
+	 */
+	public VrpSolution solve(List<Vehicle> vehicles, List<Order> orders, long timeLimitMillis)
+	{
+		if (vehicles.isEmpty()) {
+			throw new IllegalArgumentException("VrpSolver: no vehicles");
+		}
+		Instance instance = new Instance(vehicles, orders);
+		long deadline = System.nanoTime() + timeLimitMillis * 1000000L;
+
+		Plan best = null;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Plan>> results = new ArrayList<Future<Plan>>();
+			for (int i = 0; i < threads; i++) {
+				final Random random = new Random(SEED + i);
+				results.add(pool.submit(() -> search(instance, random, deadline)));
+			}
+			for (Future<Plan> f : results) {
+				Plan plan = f.get();
+				if (best == null || plan.cost() < best.cost()) {
+					best = plan;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Vehicle routing interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Vehicle routing failed", e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		List<List<Order>> routes = new ArrayList<List<Order>>();
+		double distance = 0;
+		for (int v = 0; v < vehicles.size(); v++) {
+			List<Order> route = new ArrayList<Order>();
+			for (int o : best.routes[v]) {
+				route.add(orders.get(o));
+			}
+			routes.add(route);
+			distance += best.routeDistance[v];
+		}
+		List<Order> unassigned = new ArrayList<Order>();
+		for (int o = 0; o < orders.size(); o++) {
+			if (!best.assigned[o]) {
+				unassigned.add(orders.get(o));
+			}
+		}
+		return new VrpSolution(routes, unassigned, distance);
+	}
+
+	// Large neighbourhood search from a greedy start
+	private static Plan search(Instance instance, Random random, long deadline)
+	{
+		Plan current = new Plan(instance);
+		int[] all = new int[instance.numOrders];
+		for (int o = 0; o < all.length; o++) {
+			all[o] = o;
+		}
+		shuffle(all, random);
+		insert(instance, current, all);
+		Plan best = current.copy();
+
+		while (System.nanoTime() < deadline && instance.numOrders > 1) {
+			Plan candidate = current.copy();
+			int[] removed = ruin(instance, candidate, random);
+			shuffle(removed, random);
+			insert(instance, candidate, removed);
+
+			double cost = candidate.cost();
+			if (cost < current.cost() || cost < best.cost() * (1 + ACCEPT_THRESHOLD)) {
+				current = candidate;
+			}
+			if (cost < best.cost() - EPSILON) {
+				best = candidate.copy();
+			}
+		}
+		return best;
+	}
+
+	// Remove a group of orders from the plan.  Returns them, together with
+	// any orders that were already unassigned, for re-insertion.
+	private static int[] ruin(Instance instance, Plan plan, Random random)
+	{
+		int[] assigned = new int[instance.numOrders];
+		int count = 0;
+		int[] unassigned = new int[instance.numOrders];
+		int free = 0;
+		for (int o = 0; o < instance.numOrders; o++) {
+			if (plan.assigned[o]) {
+				assigned[count++] = o;
+			}
+			else {
+				unassigned[free++] = o;
+			}
+		}
+		if (count == 0) {
+			return Arrays.copyOf(unassigned, free);
+		}
+
+		int maxRemove = Math.max(2, Math.min(40, count / 5));
+		int k = Math.min(count, 1 + random.nextInt(maxRemove));
+		int[] removed;
+		if (random.nextBoolean()) {
+			// random orders
+			shuffle(assigned, count, random);
+			removed = Arrays.copyOf(assigned, k);
+		}
+		else {
+			// orders close to a random seed order
+			int seed = assigned[random.nextInt(count)];
+			double[] fromSeed = instance.dist[instance.orderLoc[seed]];
+			Integer[] byDistance = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				byDistance[i] = assigned[i];
+			}
+			Arrays.sort(byDistance, (a, b) -> Double.compare(
+					fromSeed[instance.orderLoc[a]], fromSeed[instance.orderLoc[b]]));
+			removed = new int[k];
+			for (int i = 0; i < k; i++) {
+				removed[i] = byDistance[i];
+			}
+		}
+
+		boolean[] remove = new boolean[instance.numOrders];
+		for (int o : removed) {
+			remove[o] = true;
+			plan.assigned[o] = false;
+		}
+		for (int v = 0; v < instance.numVehicles; v++) {
+			int[] route = plan.routes[v];
+			int kept = 0;
+			int[] newRoute = new int[route.length];
+			for (int o : route) {
+				if (remove[o]) {
+					plan.load[v] -= instance.demand[o];
+				}
+				else {
+					newRoute[kept++] = o;
+				}
+			}
+			if (kept < route.length) {
+				plan.routes[v] = Arrays.copyOf(newRoute, kept);
+				// removing stops never breaks a time window, since the
+				// remaining stops can only be reached earlier
+				plan.routeDistance[v] = instance.evaluate(v, plan.routes[v], -1, -1);
+			}
+		}
+
+		int[] result = Arrays.copyOf(removed, k + free);
+		System.arraycopy(unassigned, 0, result, k, free);
+		return result;
+	}
+
+	// Insert each order at its cheapest feasible position in any route
+	private static void insert(Instance instance, Plan plan, int[] orders)
+	{
+		for (int o : orders) {
+			int bestVehicle = -1;
+			int bestPos = -1;
+			double bestDistance = 0;
+			double bestDelta = Double.POSITIVE_INFINITY;
+			for (int v = 0; v < instance.numVehicles; v++) {
+				if (plan.load[v] + instance.demand[o] > instance.capacity[v]) {
+					continue;
+				}
+				int[] route = plan.routes[v];
+				for (int pos = 0; pos <= route.length; pos++) {
+					double d = instance.evaluate(v, route, pos, o);
+					if (d >= 0 && d - plan.routeDistance[v] < bestDelta) {
+						bestDelta = d - plan.routeDistance[v];
+						bestDistance = d;
+						bestVehicle = v;
+						bestPos = pos;
+					}
+				}
+			}
+			if (bestVehicle >= 0) {
+				int[] route = plan.routes[bestVehicle];
+				int[] newRoute = new int[route.length + 1];
+				System.arraycopy(route, 0, newRoute, 0, bestPos);
+				newRoute[bestPos] = o;
+				System.arraycopy(route, bestPos, newRoute, bestPos + 1, route.length - bestPos);
+				plan.routes[bestVehicle] = newRoute;
+				plan.routeDistance[bestVehicle] = bestDistance;
+				plan.load[bestVehicle] += instance.demand[o];
+				plan.assigned[o] = true;
+			}
+		}
+	}
+
+	private static void shuffle(int[] a, Random random)
+	{
+		shuffle(a, a.length, random);
+	}
+
+	private static void shuffle(int[] a, int length, Random random)
+	{
+		for (int i = length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = a[i];
+			a[i] = a[j];
+			a[j] = tmp;
+		}
+	}
+
+	// The problem in primitive form, with the distance matrix between
+	// all depots and orders
+	private class Instance {
+		final int numVehicles;
+		final int numOrders;
+		final int[] vehicleLoc;
+		final int[] orderLoc;
+		final double[][] dist;
+		final double kmPerSecond;
+		final int[] demand;
+		final double[] earliest;
+		final double[] latest;
+		final double[] service;
+		final int[] capacity;
+		final double[] shiftStart;
+		final double[] shiftEnd;
+
+		Instance(List<Vehicle> vehicles, List<Order> orders)
+		{
+			numVehicles = vehicles.size();
+			numOrders = orders.size();
+			vehicleLoc = new int[numVehicles];
+			orderLoc = new int[numOrders];
+			capacity = new int[numVehicles];
+			shiftStart = new double[numVehicles];
+			shiftEnd = new double[numVehicles];
+			demand = new int[numOrders];
+			earliest = new double[numOrders];
+			latest = new double[numOrders];
+			service = new double[numOrders];
+			kmPerSecond = speed / 3600;
+
+			// one matrix location per distinct vertex
+			HashMap<Integer, Integer> locations = new HashMap<Integer, Integer>();
+			List<Integer> vertices = new ArrayList<Integer>();
+			for (int v = 0; v < numVehicles; v++) {
+				Vehicle vehicle = vehicles.get(v);
+				vehicleLoc[v] = location(graph.nearestVertex(vehicle.getDepot()), locations, vertices);
+				capacity[v] = vehicle.getCapacity();
+				shiftStart[v] = vehicle.getShiftStart();
+				shiftEnd[v] = vehicle.getShiftEnd();
+			}
+			for (int o = 0; o < numOrders; o++) {
+				Order order = orders.get(o);
+				orderLoc[o] = location(graph.nearestVertex(order.getLocation()), locations, vertices);
+				demand[o] = order.getDemand();
+				earliest[o] = order.getEarliest();
+				latest[o] = order.getLatest();
+				service[o] = order.getServiceTime();
+			}
+			int[] ids = new int[vertices.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = vertices.get(i);
+			}
+			dist = DistanceMatrix.build(graph, ids, threads);
+		}
+
+		private int location(int vertex, HashMap<Integer, Integer> locations, List<Integer> vertices)
+		{
+			Integer loc = locations.get(vertex);
+			if (loc == null) {
+				loc = vertices.size();
+				vertices.add(vertex);
+				locations.put(vertex, loc);
+			}
+			return loc;
+		}
+
+		// Drive a route (with order insert added at position pos, if insert
+		// is not -1) and return its distance, or -1 if a time window, the
+		// shift end or an unreachable leg makes it infeasible
+		double evaluate(int v, int[] route, int pos, int insert)
+		{
+			double time = shiftStart[v];
+			double total = 0;
+			int prev = vehicleLoc[v];
+			int length = route.length + (insert >= 0 ? 1 : 0);
+			for (int k = 0, i = 0; k < length; k++) {
+				int o = (insert >= 0 && k == pos) ? insert : route[i++];
+				double leg = dist[prev][orderLoc[o]];
+				if (leg == Double.POSITIVE_INFINITY) {
+					return -1;
+				}
+				time = Math.max(time + leg / kmPerSecond, earliest[o]);
+				if (time > latest[o]) {
+					return -1;
+				}
+				time += service[o];
+				total += leg;
+				prev = orderLoc[o];
+			}
+			double leg = dist[prev][vehicleLoc[v]];
+			if (leg == Double.POSITIVE_INFINITY || time + leg / kmPerSecond > shiftEnd[v]) {
+				return -1;
+			}
+			return total + leg;
+		}
+	}
+
+	// A solution under construction
+	private static class Plan {
+		final int[][] routes;
+		final double[] routeDistance;
+		final int[] load;
+		final boolean[] assigned;
+
+		Plan(Instance instance)
+		{
+			routes = new int[instance.numVehicles][0];
+			routeDistance = new double[instance.numVehicles];
+			load = new int[instance.numVehicles];
+			assigned = new boolean[instance.numOrders];
+			for (int v = 0; v < instance.numVehicles; v++) {
+				// an empty route has no distance unless the depot is unusable
+				routeDistance[v] = Math.max(0, instance.evaluate(v, routes[v], -1, -1));
+			}
+		}
+
+		private Plan(Plan other)
+		{
+			routes = other.routes.clone();
+			routeDistance = other.routeDistance.clone();
+			load = other.load.clone();
+			assigned = other.assigned.clone();
+		}
+
+		// Routes are never changed in place, so sharing them is safe
+		Plan copy()
+		{
+			return new Plan(this);
+		}
+
+		double cost()
+		{
+			double total = 0;
+			for (double d : routeDistance) {
+				total += d;
+			}
+			for (boolean a : assigned) {
+				if (!a) {
+					total += UNASSIGNED_PENALTY;
+				}
+			}
+			return total;
+		}
+	}
+}
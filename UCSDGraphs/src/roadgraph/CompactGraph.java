@@ -0,0 +1,401 @@
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import geography.BatchDistance;
+import geography.GeographicPoint;
+import geography.HilbertCurve;
+import geography.PointBuffer;
+
+/**
+ * A read-only snapshot of a MapGraph stored in primitive arrays.
+ *
+ * Vertices are numbered 0 .. n-1 and the outgoing edges of vertex v
+ * are the edges firstEdge(v) .. firstEdge(v+1)-1 (compressed sparse
+ * row form).  Since nothing in the snapshot changes after it is built,
+ * one CompactGraph can be shared by any number of threads, each doing
+ * its own searches with a CompactSearch.
+ *
+ * A snapshot can be saved to a binary file and loaded again, which is
+ * much faster than reading the .map file and building a MapGraph.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class CompactGraph {
+	private static final int MAGIC = 0x43475246;	// "CGRF"
+	private static final int VERSION = 1;
+
+	private final GeographicPoint[] locations;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] latRadians;
+	private final double[] lonRadians;
+	// the vertex locations again, for nearestVertex
+	private final PointBuffer points;
+	private final HashMap<GeographicPoint, Integer> ids;
+
+	private final int[] firstEdge;
+	private final int[] edgeTarget;
+	private final double[] edgeLength;
+	private final int[] edgeRoadType;
+	private final String[] roadTypes;
+
+	/** Build a snapshot of the given map, with the vertices numbered
+	 * along a Hilbert curve (see below).
+	 * @param map The map to copy
+	 */
+	public CompactGraph(MapGraph map)
+	{
+		this(map, true);
+	}
+
+	/** Build a snapshot of the given map.
+	 *
+	 * The map returns its vertices in hash order, so vertices that are
+	 * neighbours on the road are usually far apart in the arrays and a
+	 * search touches a new cache line for almost every edge.  Numbering
+	 * the vertices along a Hilbert curve instead puts most neighbours
+	 * within a few places of each other, so it is the default; hash
+	 * order is only useful to compare against.
+	 *
+	 * @param map The map to copy
+	 * @param spatialOrder true to number the vertices along a Hilbert
+	 *   curve, false to number them in the order the map returns them
+	 */
+	public CompactGraph(MapGraph map, boolean spatialOrder)
+	{
+		this(partsOf(map, spatialOrder));
+	}
+
+	private CompactGraph(Parts parts)
+	{
+		locations = parts.locations;
+		firstEdge = parts.firstEdge;
+		edgeTarget = parts.edgeTarget;
+		edgeLength = parts.edgeLength;
+		edgeRoadType = parts.edgeRoadType;
+		roadTypes = parts.roadTypes;
+
+		int n = locations.length;
+		latitudes = new double[n];
+		longitudes = new double[n];
+		latRadians = new double[n];
+		lonRadians = new double[n];
+		points = new PointBuffer(n);
+		ids = new HashMap<GeographicPoint, Integer>(n * 2);
+		for (int v = 0; v < n; v++) {
+			latitudes[v] = locations[v].getX();
+			longitudes[v] = locations[v].getY();
+			latRadians[v] = Math.toRadians(latitudes[v]);
+			lonRadians[v] = Math.toRadians(longitudes[v]);
+			points.add(latitudes[v], longitudes[v]);
+			ids.put(locations[v], v);
+		}
+		points.computeUnitVectors();
+	}
+
+	// Copy the vertices and edges of a map into arrays
+	private static Parts partsOf(MapGraph map, boolean spatialOrder)
+	{
+		int n = map.getNumVertices();
+		Parts parts = new Parts();
+		GeographicPoint[] locations = map.getVertices().toArray(new GeographicPoint[n]);
+		if (spatialOrder) {
+			double[] latitudes = new double[n];
+			double[] longitudes = new double[n];
+			for (int v = 0; v < n; v++) {
+				latitudes[v] = locations[v].getX();
+				longitudes[v] = locations[v].getY();
+			}
+			int[] order = HilbertCurve.sortOrder(latitudes, longitudes);
+			GeographicPoint[] byCurve = new GeographicPoint[n];
+			for (int v = 0; v < n; v++) {
+				byCurve[v] = locations[order[v]];
+			}
+			locations = byCurve;
+		}
+		parts.locations = locations;
+		HashMap<GeographicPoint, Integer> ids = new HashMap<GeographicPoint, Integer>(n * 2);
+		for (int v = 0; v < n; v++) {
+			ids.put(locations[v], v);
+		}
+
+		int m = map.getNumEdges();
+		parts.firstEdge = new int[n + 1];
+		parts.edgeTarget = new int[m];
+		parts.edgeLength = new double[m];
+		parts.edgeRoadType = new int[m];
+
+		HashMap<String, Integer> typeIndex = new HashMap<String, Integer>();
+		List<String> types = new ArrayList<String>();
+		int e = 0;
+		for (int v = 0; v < n; v++) {
+			parts.firstEdge[v] = e;
+			MapNode node = map.pointNodeMap.get(locations[v]);
+			for (MapEdge edge : node.getEdges()) {
+				parts.edgeTarget[e] = ids.get(edge.getEndNode().getLocation());
+				parts.edgeLength[e] = edge.getLength();
+				Integer t = typeIndex.get(edge.getRoadType());
+				if (t == null) {
+					t = types.size();
+					types.add(edge.getRoadType());
+					typeIndex.put(edge.getRoadType(), t);
+				}
+				parts.edgeRoadType[e] = t;
+				e++;
+			}
+		}
+		parts.firstEdge[n] = e;
+		parts.roadTypes = types.toArray(new String[types.size()]);
+		return parts;
+	}
+
+	/** Load a snapshot saved by save
+	 * @param file The file to read
+	 * @return The graph, with the same vertex and edge numbers as the one saved
+	 * @throws IOException if the file cannot be read or is not a saved graph
+	 */
+	public static CompactGraph load(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a saved CompactGraph");
+			}
+			int n = in.readInt();
+			int m = in.readInt();
+			int types = in.readInt();
+			if (n < 0 || m < 0 || types < 0) {
+				throw new IOException(file + " is corrupt");
+			}
+			Parts parts = new Parts();
+			parts.locations = new GeographicPoint[n];
+			for (int v = 0; v < n; v++) {
+				double lat = in.readDouble();
+				parts.locations[v] = new GeographicPoint(lat, in.readDouble());
+			}
+			parts.firstEdge = new int[n + 1];
+			for (int v = 0; v <= n; v++) {
+				parts.firstEdge[v] = in.readInt();
+				if (v > 0 && parts.firstEdge[v] < parts.firstEdge[v - 1]) {
+					throw new IOException(file + " is corrupt");
+				}
+			}
+			if (parts.firstEdge[0] != 0 || parts.firstEdge[n] != m) {
+				throw new IOException(file + " is corrupt");
+			}
+			parts.edgeTarget = new int[m];
+			parts.edgeLength = new double[m];
+			parts.edgeRoadType = new int[m];
+			for (int e = 0; e < m; e++) {
+				parts.edgeTarget[e] = in.readInt();
+				parts.edgeLength[e] = in.readDouble();
+				parts.edgeRoadType[e] = in.readInt();
+				if (parts.edgeTarget[e] < 0 || parts.edgeTarget[e] >= n
+						|| parts.edgeRoadType[e] < 0 || parts.edgeRoadType[e] >= types) {
+					throw new IOException(file + " is corrupt");
+				}
+			}
+			parts.roadTypes = new String[types];
+			for (int t = 0; t < types; t++) {
+				parts.roadTypes[t] = in.readUTF();
+			}
+			return new CompactGraph(parts);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/** Save the snapshot to a binary file, for load
+	 * @param file The file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(getNumVertices());
+			out.writeInt(getNumEdges());
+			out.writeInt(roadTypes.length);
+			for (int v = 0; v < getNumVertices(); v++) {
+				out.writeDouble(latitudes[v]);
+				out.writeDouble(longitudes[v]);
+			}
+			for (int f : firstEdge) {
+				out.writeInt(f);
+			}
+			for (int e = 0; e < getNumEdges(); e++) {
+				out.writeInt(edgeTarget[e]);
+				out.writeDouble(edgeLength[e]);
+				out.writeInt(edgeRoadType[e]);
+			}
+			for (String type : roadTypes) {
+				out.writeUTF(type);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/** Get the number of vertices
+	 * @return The number of vertices in the graph
+	 */
+	public int getNumVertices()
+	{
+		return locations.length;
+	}
+
+	/** Get the number of (directed) edges
+	 * @return The number of edges in the graph
+	 */
+	public int getNumEdges()
+	{
+		return edgeTarget.length;
+	}
+
+	/** Get the number of a vertex from its location
+	 * @param location The location of the intersection
+	 * @return The vertex number, or -1 if there is no vertex at that location
+	 */
+	public int getId(GeographicPoint location)
+	{
+		Integer id = ids.get(location);
+		return (id == null) ? -1 : id;
+	}
+
+	/** Get the location of a vertex
+	 * @param v The vertex number
+	 * @return The location of the intersection
+	 */
+	public GeographicPoint getLocation(int v)
+	{
+		return locations[v];
+	}
+
+	/** @param v The vertex number
+	 * @return The latitude of the vertex in degrees */
+	public double getLatitude(int v)
+	{
+		return latitudes[v];
+	}
+
+	/** @param v The vertex number
+	 * @return The longitude of the vertex in degrees */
+	public double getLongitude(int v)
+	{
+		return longitudes[v];
+	}
+
+	/** @param v The vertex number
+	 * @return The latitude of the vertex in radians */
+	public double getLatitudeRadians(int v)
+	{
+		return latRadians[v];
+	}
+
+	/** @param v The vertex number
+	 * @return The longitude of the vertex in radians */
+	public double getLongitudeRadians(int v)
+	{
+		return lonRadians[v];
+	}
+
+	/** Get the first outgoing edge of a vertex.  The outgoing edges of v
+	 * are firstEdge(v) up to (not including) firstEdge(v+1).
+	 * @param v The vertex number, from 0 to getNumVertices() inclusive
+	 * @return The number of the first edge out of v
+	 */
+	public int firstEdge(int v)
+	{
+		return firstEdge[v];
+	}
+
+	/** @param e The edge number
+	 * @return The vertex the edge leads to */
+	public int getEdgeTarget(int e)
+	{
+		return edgeTarget[e];
+	}
+
+	/** @param e The edge number
+	 * @return The length of the edge in km */
+	public double getEdgeLength(int e)
+	{
+		return edgeLength[e];
+	}
+
+	/** @param e The edge number
+	 * @return The road type of the edge, e.g. "residential" */
+	public String getEdgeRoadType(int e)
+	{
+		return roadTypes[edgeRoadType[e]];
+	}
+
+	/** Get the travel time of every edge for a departure at a given time
+	 * of day, for use as search weights
+	 * @param profiles The speed profile of each road type
+	 * @param departureTime The time of day, in seconds since midnight
+	 * @return The time to drive each edge in seconds, indexed by edge number
+	 */
+	public double[] getTravelTimes(SpeedProfiles profiles, double departureTime)
+	{
+		double[] times = new double[edgeTarget.length];
+		for (int e = 0; e < times.length; e++) {
+			SpeedProfile profile = profiles.getProfile(roadTypes[edgeRoadType[e]]);
+			times[e] = profile.getTravelTime(edgeLength[e], departureTime);
+		}
+		return times;
+	}
+
+	/** Find the vertex closest to a location, for snapping points that
+	 * are not exactly on an intersection.
+	 * @param location The location to snap
+	 * @return The number of the closest vertex, or -1 if the graph is empty
+	 */
+	public int nearestVertex(GeographicPoint location)
+	{
+		Integer id = ids.get(location);
+		if (id != null) {
+			return id;
+		}
+		return BatchDistance.nearest(location.getX(), location.getY(), points);
+	}
+
+	/** Convert a path of vertex numbers to locations
+	 * @param path The vertex numbers on the path
+	 * @return The locations of the vertices, in the same order
+	 */
+	public List<GeographicPoint> toLocations(int[] path)
+	{
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(path.length);
+		for (int v : path) {
+			points.add(locations[v]);
+		}
+		return points;
+	}
+
+	// The arrays a graph is made from, while they are being built
+	private static class Parts {
+		GeographicPoint[] locations;
+		int[] firstEdge;
+		int[] edgeTarget;
+		double[] edgeLength;
+		int[] edgeRoadType;
+		String[] roadTypes;
+	}
+}
@@ -0,0 +1,363 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * Dijkstra and A* searches over a CompactGraph.
+ *
+ * A CompactSearch holds the working arrays for a search (distances,
+ * parents, the queue) and reuses them between queries, so repeated
+ * searches do not allocate.  It is NOT thread safe: give each thread
+ * its own CompactSearch over the shared CompactGraph.
+ *
+ * Every search counts what it does (see SearchStats); route also times
+ * the query, returns the counts with the path and sends a Flight
+ * Recorder event when a recording asks for one.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class CompactSearch {
+	private final CompactGraph graph;
+	private final double[] weights;
+
+	private final double[] dist;
+	private final int[] parent;
+	// dist and parent are only valid for vertices whose stamp equals
+	// the current round, which saves clearing them for every search
+	private final int[] stamp;
+	private final boolean[] settled;
+	private final int[] targetStamp;
+	private int round;
+	private final NodeHeap toExplore;
+	private final SearchStats stats = new SearchStats();
+	// when the current search finished its setup, if it is being timed
+	private boolean timed;
+	private long searchStartNanos;
+
+	/** Create a search that uses the edge lengths (km) as costs
+	 * @param graph The graph to search
+	 */
+	public CompactSearch(CompactGraph graph)
+	{
+		this(graph, null);
+	}
+
+	/** Create a search with custom edge costs
+	 * @param graph The graph to search
+	 * @param edgeWeights The cost of each edge, indexed by edge number,
+	 *   or null to use the edge lengths.  Costs must not be negative.
+	 */
+	public CompactSearch(CompactGraph graph, double[] edgeWeights)
+	{
+		if (edgeWeights != null && edgeWeights.length != graph.getNumEdges()) {
+			throw new IllegalArgumentException("CompactSearch: need one weight per edge");
+		}
+		this.graph = graph;
+		this.weights = edgeWeights;
+		int n = graph.getNumVertices();
+		dist = new double[n];
+		parent = new int[n];
+		stamp = new int[n];
+		settled = new boolean[n];
+		targetStamp = new int[n];
+		round = 0;
+		toExplore = new NodeHeap();
+	}
+
+	/** @return The graph this search runs on */
+	public CompactGraph getGraph()
+	{
+		return graph;
+	}
+
+	/** Find the shortest path between two vertices
+	 * @param source The start vertex
+	 * @param target The goal vertex
+	 * @return The vertices on the path, including both ends, or null if
+	 *   the goal cannot be reached
+	 */
+	public int[] shortestPath(int source, int target)
+	{
+		search(source, new int[] {target});
+		return getPath(target);
+	}
+
+	/** Find the shortest path between two vertices with A*.  The
+	 * heuristic must be a lower bound in the units of this search's
+	 * costs (see Heuristics.scaled).  It need not be consistent: a vertex
+	 * whose distance improves after it was settled is searched again.
+	 * Afterwards only the distance and path to the target are meaningful.
+	 * @param source The start vertex
+	 * @param target The goal vertex
+	 * @param heuristic Estimates the remaining cost to the target
+	 * @return The vertices on the path, including both ends, or null if
+	 *   the goal cannot be reached
+	 */
+	public int[] shortestPath(int source, int target, Heuristic heuristic)
+	{
+		aStar(source, target, heuristic);
+		return getPath(target);
+	}
+
+	private void aStar(int source, int target, Heuristic heuristic)
+	{
+		startRound();
+		touch(source);
+		dist[source] = 0;
+		toExplore.add(source, heuristic.estimate(source, target));
+		if (timed) {
+			searchStartNanos = System.nanoTime();
+		}
+
+		while (!toExplore.isEmpty()) {
+			int u = toExplore.remove();
+			if (settled[u]) {
+				// stale entry
+				stats.stalePops++;
+				continue;
+			}
+			settled[u] = true;
+			stats.settled++;
+			if (u == target) {
+				break;
+			}
+			double d = dist[u];
+			int end = graph.firstEdge(u + 1);
+			stats.relaxations += end - graph.firstEdge(u);
+			for (int e = graph.firstEdge(u); e < end; e++) {
+				int v = graph.getEdgeTarget(e);
+				double nd = d + weight(e);
+				touch(v);
+				if (nd < dist[v]) {
+					dist[v] = nd;
+					parent[v] = u;
+					settled[v] = false;
+					toExplore.add(v, nd + heuristic.estimate(v, target));
+				}
+			}
+		}
+		stats.queuePeak = toExplore.getPeak();
+		toExplore.clear();
+	}
+
+	/** Find the shortest path between two vertices with Dijkstra, timing
+	 * each part of the query
+	 * @param source The start vertex
+	 * @param target The goal vertex
+	 * @return The path with its length and the search's stats
+	 */
+	public RouteResult route(int source, int target)
+	{
+		return route(source, target, null);
+	}
+
+	/** Find the shortest path between two vertices with A*, or Dijkstra
+	 * if there is no heuristic, timing each part of the query
+	 * @param source The start vertex
+	 * @param target The goal vertex
+	 * @param heuristic Estimates the remaining cost (see
+	 *   shortestPath(int, int, Heuristic)), or null for Dijkstra
+	 * @return The path with its cost and the search's stats
+	 */
+	public RouteResult route(int source, int target, Heuristic heuristic)
+	{
+		long allocated = SearchStats.allocatedByThread();
+		long start = System.nanoTime();
+		timed = true;
+		try {
+			if (heuristic == null) {
+				search(source, new int[] {target});
+			}
+			else {
+				aStar(source, target, heuristic);
+			}
+		}
+		finally {
+			timed = false;
+		}
+		long pathStart = System.nanoTime();
+		int[] path = getPath(target);
+		List<GeographicPoint> locations = (path == null) ? null : graph.toLocations(path);
+		stats.finish(start, searchStartNanos, pathStart, allocated);
+
+		SearchEvents events = SearchEvents.get();
+		if (events.isEnabled()) {
+			events.commit((heuristic == null) ? "CompactSearch.dijkstra" : "CompactSearch.aStar",
+					source, target, path != null, stats);
+		}
+		return new RouteResult(locations, getDistance(target), new SearchStats(stats));
+	}
+
+	/** Find the distances from one vertex to several others.  The search
+	 * stops as soon as every target has been reached.  Afterwards the
+	 * path to any target can be read with getPath(), and getLastStats()
+	 * has the search's timings (its path time is 0, as no path is made).
+	 * @param source The start vertex
+	 * @param targets The vertices to find the distances to
+	 * @return The distance to each target, in the same order, or
+	 *   Double.POSITIVE_INFINITY for targets that cannot be reached
+	 */
+	public double[] oneToMany(int source, int[] targets)
+	{
+		long allocated = SearchStats.allocatedByThread();
+		long start = System.nanoTime();
+		timed = true;
+		try {
+			search(source, targets);
+		}
+		finally {
+			timed = false;
+		}
+		long end = System.nanoTime();
+		stats.finish(start, searchStartNanos, end, allocated);
+		double[] result = new double[targets.length];
+		for (int i = 0; i < targets.length; i++) {
+			result[i] = getDistance(targets[i]);
+		}
+		return result;
+	}
+
+	/** Find the distances from a vertex to every vertex in the graph
+	 * @param source The start vertex
+	 * @return The distance to each vertex, indexed by vertex number, or
+	 *   Double.POSITIVE_INFINITY for vertices that cannot be reached
+	 */
+	public double[] distancesFrom(int source)
+	{
+		search(source, null);
+		double[] result = new double[dist.length];
+		for (int v = 0; v < result.length; v++) {
+			result[v] = getDistance(v);
+		}
+		return result;
+	}
+
+	/** Get the distance found to a vertex by the last search
+	 * @param v The vertex
+	 * @return The distance, or Double.POSITIVE_INFINITY if the last
+	 *   search did not reach v
+	 */
+	public double getDistance(int v)
+	{
+		return (stamp[v] == round && settled[v]) ? dist[v] : Double.POSITIVE_INFINITY;
+	}
+
+	/** @return The number of vertices taken off the queue and expanded
+	 *   by the last search */
+	public int getSettledCount()
+	{
+		return stats.settled;
+	}
+
+	/** @return What the last search did.  The timings are only filled in
+	 *   by route and oneToMany.  The result is a copy. */
+	public SearchStats getLastStats()
+	{
+		return new SearchStats(stats);
+	}
+
+	/** Get the path found to a vertex by the last search
+	 * @param v The vertex
+	 * @return The vertices on the path from the source of the last search
+	 *   to v, or null if the last search did not reach v
+	 */
+	public int[] getPath(int v)
+	{
+		if (stamp[v] != round || !settled[v]) {
+			return null;
+		}
+		int length = 1;
+		for (int u = v; parent[u] != -1; u = parent[u]) {
+			length++;
+		}
+		int[] path = new int[length];
+		for (int u = v, i = length - 1; i >= 0; u = parent[u], i--) {
+			path[i] = u;
+		}
+		return path;
+	}
+
+	// Dijkstra from source until all targets are settled, or over the
+	// whole graph if targets is null
+	private void search(int source, int[] targets)
+	{
+		startRound();
+		int remaining = 0;
+		if (targets != null) {
+			for (int t : targets) {
+				if (targetStamp[t] != round) {
+					targetStamp[t] = round;
+					remaining++;
+				}
+			}
+		}
+
+		touch(source);
+		dist[source] = 0;
+		toExplore.add(source, 0);
+		if (timed) {
+			searchStartNanos = System.nanoTime();
+		}
+
+		while (!toExplore.isEmpty()) {
+			double d = toExplore.peekKey();
+			int u = toExplore.remove();
+			if (settled[u] || d > dist[u]) {
+				// stale entry
+				stats.stalePops++;
+				continue;
+			}
+			settled[u] = true;
+			stats.settled++;
+			if (targets != null && targetStamp[u] == round && --remaining == 0) {
+				break;
+			}
+			int end = graph.firstEdge(u + 1);
+			stats.relaxations += end - graph.firstEdge(u);
+			for (int e = graph.firstEdge(u); e < end; e++) {
+				int v = graph.getEdgeTarget(e);
+				double nd = d + weight(e);
+				touch(v);
+				if (!settled[v] && nd < dist[v]) {
+					dist[v] = nd;
+					parent[v] = u;
+					toExplore.add(v, nd);
+				}
+			}
+		}
+		stats.queuePeak = toExplore.getPeak();
+		toExplore.clear();
+	}
+
+	private double weight(int e)
+	{
+		return (weights == null) ? graph.getEdgeLength(e) : weights[e];
+	}
+
+	private void startRound()
+	{
+		stats.reset();
+		toExplore.resetPeak();
+		round++;
+		if (round == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			Arrays.fill(targetStamp, 0);
+			round = 1;
+		}
+	}
+
+	// Reset the state of a vertex the first time it is seen in this round
+	private void touch(int v)
+	{
+		if (stamp[v] != round) {
+			stamp[v] = round;
+			dist[v] = Double.POSITIVE_INFINITY;
+			parent[v] = -1;
+			settled[v] = false;
+		}
+	}
+}
@@ -0,0 +1,393 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy over a CompactGraph.
+ *
+ * Vertices are removed (contracted) one at a time, least important
+ * first.  When a vertex is removed, a shortcut edge is added between
+ * each pair of its remaining neighbours unless a local "witness" search
+ * finds a path at least as short that avoids it.  The result is a rank
+ * for every vertex and, for every vertex, the edges to higher ranked
+ * vertices: the upward edges leaving it, and the downward edges coming
+ * into it (stored at the lower end, so a backward search can go up).
+ * Any shortest path is then an upward path followed by a downward one.
+ *
+ * Importance is the edge difference (shortcuts added minus edges
+ * removed) plus the number of neighbours already contracted, which
+ * spreads the contraction evenly over the map.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class ContractionHierarchy {
+	// a witness search gives up after settling this many vertices; a
+	// missed witness only costs an unneeded shortcut
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private final int n;
+	private final int[] rank;
+
+	private final int[] upFirst;
+	private final int[] upTarget;
+	private final double[] upWeight;
+	private final int[] downFirst;
+	private final int[] downSource;
+	private final double[] downWeight;
+	private int shortcuts;
+
+	// the remaining graph while contracting
+	private int[][] outTo;
+	private double[][] outWeight;
+	private int[] outSize;
+	private int[][] inFrom;
+	private double[][] inWeight;
+	private int[] inSize;
+	private boolean[] contracted;
+	private int[] contractedNeighbours;
+
+	// witness search state
+	private double[] witnessDist;
+	private int[] witnessStamp;
+	private int witnessRound;
+	private NodeHeap witnessHeap;
+
+	/** Contract a graph, using the edge lengths as weights
+	 * @param graph The graph to contract
+	 */
+	public ContractionHierarchy(CompactGraph graph)
+	{
+		this(graph, null);
+	}
+
+	/** Contract a graph
+	 * @param graph The graph to contract
+	 * @param edgeWeights The weight of each edge of the graph, or null to
+	 *   use the lengths
+	 */
+	public ContractionHierarchy(CompactGraph graph, double[] edgeWeights)
+	{
+		n = graph.getNumVertices();
+		rank = new int[n];
+		outTo = new int[n][];
+		outWeight = new double[n][];
+		outSize = new int[n];
+		inFrom = new int[n][];
+		inWeight = new double[n][];
+		inSize = new int[n];
+		for (int v = 0; v < n; v++) {
+			outTo[v] = new int[4];
+			outWeight[v] = new double[4];
+			inFrom[v] = new int[4];
+			inWeight[v] = new double[4];
+		}
+		for (int u = 0; u < n; u++) {
+			int end = graph.firstEdge(u + 1);
+			for (int e = graph.firstEdge(u); e < end; e++) {
+				int v = graph.getEdgeTarget(e);
+				if (v != u) {
+					double w = (edgeWeights == null) ? graph.getEdgeLength(e) : edgeWeights[e];
+					addArc(u, v, w);
+				}
+			}
+		}
+		contracted = new boolean[n];
+		contractedNeighbours = new int[n];
+		witnessDist = new double[n];
+		witnessStamp = new int[n];
+		witnessHeap = new NodeHeap();
+
+		// upward and downward edges, collected per vertex as it is contracted
+		int[][] upTo = new int[n][];
+		double[][] upW = new double[n][];
+		int[][] downFrom = new int[n][];
+		double[][] downW = new double[n][];
+
+		NodeHeap queue = new NodeHeap();
+		for (int v = 0; v < n; v++) {
+			queue.add(v, priority(v));
+		}
+		int next = 0;
+		while (!queue.isEmpty()) {
+			int v = queue.remove();
+			if (contracted[v]) {
+				continue;
+			}
+			// priorities go stale as neighbours are contracted; only
+			// contract v if it is still (at most) the cheapest
+			double p = priority(v);
+			if (!queue.isEmpty() && p > queue.peekKey()) {
+				queue.add(v, p);
+				continue;
+			}
+
+			upTo[v] = remainingNeighbours(outTo[v], outSize[v]);
+			upW[v] = remainingWeights(outTo[v], outWeight[v], outSize[v]);
+			downFrom[v] = remainingNeighbours(inFrom[v], inSize[v]);
+			downW[v] = remainingWeights(inFrom[v], inWeight[v], inSize[v]);
+
+			shortcuts += contract(v, false);
+			contracted[v] = true;
+			rank[v] = next++;
+			for (int w : upTo[v]) {
+				contractedNeighbours[w]++;
+			}
+			for (int u : downFrom[v]) {
+				contractedNeighbours[u]++;
+			}
+			// the arcs of v are no longer needed
+			outTo[v] = null;
+			outWeight[v] = null;
+			inFrom[v] = null;
+			inWeight[v] = null;
+		}
+
+		upFirst = new int[n + 1];
+		downFirst = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			upFirst[v + 1] = upFirst[v] + upTo[v].length;
+			downFirst[v + 1] = downFirst[v] + downFrom[v].length;
+		}
+		upTarget = new int[upFirst[n]];
+		upWeight = new double[upFirst[n]];
+		downSource = new int[downFirst[n]];
+		downWeight = new double[downFirst[n]];
+		for (int v = 0; v < n; v++) {
+			System.arraycopy(upTo[v], 0, upTarget, upFirst[v], upTo[v].length);
+			System.arraycopy(upW[v], 0, upWeight, upFirst[v], upW[v].length);
+			System.arraycopy(downFrom[v], 0, downSource, downFirst[v], downFrom[v].length);
+			System.arraycopy(downW[v], 0, downWeight, downFirst[v], downW[v].length);
+		}
+
+		outTo = null;
+		outWeight = null;
+		inFrom = null;
+		inWeight = null;
+		witnessDist = null;
+		witnessStamp = null;
+		witnessHeap = null;
+	}
+
+	/** @return The number of vertices */
+	public int getNumVertices()
+	{
+		return n;
+	}
+
+	/** @return The number of shortcut edges added */
+	public int getNumShortcuts()
+	{
+		return shortcuts;
+	}
+
+	/** Get the rank of a vertex: 0 was contracted first, n-1 last
+	 * @param v The vertex number
+	 * @return The rank of v
+	 */
+	public int getRank(int v)
+	{
+		return rank[v];
+	}
+
+	/** The upward edges leaving v are firstUp(v) .. firstUp(v+1)-1
+	 * @param v The vertex number, from 0 to getNumVertices() inclusive
+	 * @return The number of the first upward edge of v
+	 */
+	public int firstUp(int v)
+	{
+		return upFirst[v];
+	}
+
+	/** @param a The upward edge number
+	 * @return The (higher ranked) vertex the edge leads to */
+	public int getUpTarget(int a)
+	{
+		return upTarget[a];
+	}
+
+	/** @param a The upward edge number
+	 * @return The weight of the edge */
+	public double getUpWeight(int a)
+	{
+		return upWeight[a];
+	}
+
+	/** The downward edges into v are firstDown(v) .. firstDown(v+1)-1
+	 * @param v The vertex number, from 0 to getNumVertices() inclusive
+	 * @return The number of the first downward edge into v
+	 */
+	public int firstDown(int v)
+	{
+		return downFirst[v];
+	}
+
+	/** @param a The downward edge number
+	 * @return The (higher ranked) vertex the edge comes from */
+	public int getDownSource(int a)
+	{
+		return downSource[a];
+	}
+
+	/** @param a The downward edge number
+	 * @return The weight of the edge */
+	public double getDownWeight(int a)
+	{
+		return downWeight[a];
+	}
+
+	// How attractive v is to contract next; lower is contracted first
+	private double priority(int v)
+	{
+		int removed = 0;
+		for (int i = 0; i < outSize[v]; i++) {
+			if (!contracted[outTo[v][i]]) {
+				removed++;
+			}
+		}
+		for (int i = 0; i < inSize[v]; i++) {
+			if (!contracted[inFrom[v][i]]) {
+				removed++;
+			}
+		}
+		return contract(v, true) - removed + contractedNeighbours[v];
+	}
+
+	// Add the shortcuts needed to remove v (or only count them if
+	// simulate is true).  Returns the number of shortcuts.
+	private int contract(int v, boolean simulate)
+	{
+		double maxOut = 0;
+		for (int j = 0; j < outSize[v]; j++) {
+			if (!contracted[outTo[v][j]]) {
+				maxOut = Math.max(maxOut, outWeight[v][j]);
+			}
+		}
+		int added = 0;
+		for (int i = 0; i < inSize[v]; i++) {
+			int u = inFrom[v][i];
+			if (contracted[u]) {
+				continue;
+			}
+			double wu = inWeight[v][i];
+			witnessSearch(u, v, wu + maxOut);
+			for (int j = 0; j < outSize[v]; j++) {
+				int w = outTo[v][j];
+				if (contracted[w] || w == u) {
+					continue;
+				}
+				double via = wu + outWeight[v][j];
+				if (witness(w) > via) {
+					added++;
+					if (!simulate) {
+						addArc(u, w, via);
+					}
+				}
+			}
+		}
+		return added;
+	}
+
+	// Bounded Dijkstra from source over the remaining graph, avoiding
+	// the vertex being contracted
+	private void witnessSearch(int source, int avoid, double limit)
+	{
+		witnessRound++;
+		if (witnessRound == Integer.MAX_VALUE) {
+			Arrays.fill(witnessStamp, 0);
+			witnessRound = 1;
+		}
+		witnessStamp[source] = witnessRound;
+		witnessDist[source] = 0;
+		witnessHeap.add(source, 0);
+		int settledCount = 0;
+		while (!witnessHeap.isEmpty()) {
+			double d = witnessHeap.peekKey();
+			int x = witnessHeap.remove();
+			if (d > witnessDist[x]) {
+				continue;
+			}
+			if (d > limit || ++settledCount > WITNESS_SETTLE_LIMIT) {
+				break;
+			}
+			for (int j = 0; j < outSize[x]; j++) {
+				int y = outTo[x][j];
+				if (y == avoid || contracted[y]) {
+					continue;
+				}
+				double nd = d + outWeight[x][j];
+				if (nd < witness(y)) {
+					witnessStamp[y] = witnessRound;
+					witnessDist[y] = nd;
+					witnessHeap.add(y, nd);
+				}
+			}
+		}
+		witnessHeap.clear();
+	}
+
+	private double witness(int v)
+	{
+		return (witnessStamp[v] == witnessRound) ? witnessDist[v] : Double.POSITIVE_INFINITY;
+	}
+
+	// Add the arc u->v, or lower its weight if it already exists
+	private void addArc(int u, int v, double w)
+	{
+		for (int i = 0; i < outSize[u]; i++) {
+			if (outTo[u][i] == v) {
+				if (w < outWeight[u][i]) {
+					outWeight[u][i] = w;
+					for (int j = 0; j < inSize[v]; j++) {
+						if (inFrom[v][j] == u) {
+							inWeight[v][j] = w;
+						}
+					}
+				}
+				return;
+			}
+		}
+		if (outSize[u] == outTo[u].length) {
+			outTo[u] = Arrays.copyOf(outTo[u], outSize[u] * 2);
+			outWeight[u] = Arrays.copyOf(outWeight[u], outSize[u] * 2);
+		}
+		outTo[u][outSize[u]] = v;
+		outWeight[u][outSize[u]++] = w;
+		if (inSize[v] == inFrom[v].length) {
+			inFrom[v] = Arrays.copyOf(inFrom[v], inSize[v] * 2);
+			inWeight[v] = Arrays.copyOf(inWeight[v], inSize[v] * 2);
+		}
+		inFrom[v][inSize[v]] = u;
+		inWeight[v][inSize[v]++] = w;
+	}
+
+	private int[] remainingNeighbours(int[] to, int size)
+	{
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (!contracted[to[i]]) {
+				count++;
+			}
+		}
+		int[] result = new int[count];
+		count = 0;
+		for (int i = 0; i < size; i++) {
+			if (!contracted[to[i]]) {
+				result[count++] = to[i];
+			}
+		}
+		return result;
+	}
+
+	private double[] remainingWeights(int[] to, double[] weights, int size)
+	{
+		double[] result = new double[remainingNeighbours(to, size).length];
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (!contracted[to[i]]) {
+				result[count++] = weights[i];
+			}
+		}
+		return result;
+	}
+}
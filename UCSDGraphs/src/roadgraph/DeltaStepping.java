@@ -0,0 +1,340 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import util.GraphLoader;
+
+/**
+ * Parallel single-source shortest paths with delta-stepping
+ * (Meyer and Sanders).
+ *
+ * Vertices are kept in buckets of width delta by tentative distance.
+ * The lowest bucket is emptied in phases: all of its vertices relax
+ * their light edges (weight at most delta) in parallel, which can put
+ * vertices back into the same bucket, until it stays empty; then the
+ * heavy edges of every vertex that was in the bucket are relaxed once.
+ * Each phase is split into fork/join tasks, so idle threads steal work
+ * from busy ones.  Distances are updated with an atomic minimum.
+ *
+ * The distances found are exactly those of Dijkstra's algorithm: both
+ * end with each distance being the smallest dist(u) + weight(u, v) over
+ * the final distances of the in-neighbours.
+ *
+ * A small delta does little extra work but has many phases; a large
+ * delta has more parallelism but relaxes edges more than once.  The
+ * average edge weight is a reasonable start.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class DeltaStepping {
+	// below this many frontier vertices a task is not split further
+	private static final int SPLIT_THRESHOLD = 256;
+
+	private final CompactGraph graph;
+	private final double delta;
+	private final ForkJoinPool pool;
+
+	private AtomicLongArray dist;
+	// phase in which a vertex was last recorded as changed
+	private AtomicIntegerArray changedIn;
+	private int[] changed;
+	private AtomicInteger changedCount;
+
+	/** Create a delta-stepping search
+	 * @param graph The graph to search; edge lengths are the weights
+	 * @param delta The bucket width, in km
+	 * @param threads The number of worker threads
+	 */
+	public DeltaStepping(CompactGraph graph, double delta, int threads)
+	{
+		if (!(delta > 0)) {
+			throw new IllegalArgumentException("DeltaStepping: delta must be positive");
+		}
+		this.graph = graph;
+		this.delta = delta;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/** Get the average edge length, a reasonable bucket width
+	 * @param graph The graph
+	 * @return The average edge length in km
+	 */
+	public static double averageEdgeLength(CompactGraph graph)
+	{
+		double total = 0;
+		for (int e = 0; e < graph.getNumEdges(); e++) {
+			total += graph.getEdgeLength(e);
+		}
+		return graph.getNumEdges() == 0 ? 1 : total / graph.getNumEdges();
+	}
+
+	/** Stop the worker threads.  The search cannot be used afterwards. */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	/** Find the distances from a vertex to every vertex in the graph.
+	 * Not thread safe: one query at a time per DeltaStepping (the query
+	 * itself uses all of its threads).
+	 * @param source The start vertex
+	 * @return The distance to each vertex, indexed by vertex number, or
+	 *   Double.POSITIVE_INFINITY for vertices that cannot be reached
+	 */
+	public double[] distancesFrom(int source)
+	{
+		int n = graph.getNumVertices();
+		dist = new AtomicLongArray(n);
+		long infinity = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+		for (int v = 0; v < n; v++) {
+			dist.set(v, infinity);
+		}
+		changedIn = new AtomicIntegerArray(n);
+		changed = new int[n];
+		changedCount = new AtomicInteger();
+
+		// buckets by index; entries can be stale (the vertex has since
+		// moved to a lower bucket), so they are checked when taken out
+		TreeMap<Long, IntList> buckets = new TreeMap<Long, IntList>();
+		int[] inFrontier = new int[n];
+		int[] inSettled = new int[n];
+		int phase = 0;
+		int bucketNumber = 0;
+
+		dist.set(source, Double.doubleToLongBits(0));
+		buckets.put(0L, new IntList(source));
+
+		while (!buckets.isEmpty()) {
+			Map.Entry<Long, IntList> entry = buckets.pollFirstEntry();
+			long b = entry.getKey();
+			bucketNumber++;
+
+			IntList frontier = new IntList();
+			for (int i = 0; i < entry.getValue().size; i++) {
+				int v = entry.getValue().data[i];
+				if (bucketOf(v) == b && inFrontier[v] != bucketNumber) {
+					inFrontier[v] = bucketNumber;
+					frontier.add(v);
+				}
+			}
+			IntList settled = new IntList();
+
+			// light edges, until the bucket stays empty
+			while (frontier.size > 0) {
+				for (int i = 0; i < frontier.size; i++) {
+					int v = frontier.data[i];
+					if (inSettled[v] != bucketNumber) {
+						inSettled[v] = bucketNumber;
+						settled.add(v);
+					}
+				}
+				phase++;
+				changedCount.set(0);
+				pool.invoke(new Relax(frontier.data, 0, frontier.size, true, phase));
+
+				IntList next = new IntList();
+				int count = changedCount.get();
+				for (int i = 0; i < count; i++) {
+					int v = changed[i];
+					long vb = bucketOf(v);
+					if (vb == b) {
+						next.add(v);
+					}
+					else {
+						addToBucket(buckets, vb, v);
+					}
+				}
+				frontier = next;
+			}
+
+			// heavy edges of everything settled in this bucket
+			phase++;
+			changedCount.set(0);
+			pool.invoke(new Relax(settled.data, 0, settled.size, false, phase));
+			int count = changedCount.get();
+			for (int i = 0; i < count; i++) {
+				int v = changed[i];
+				addToBucket(buckets, bucketOf(v), v);
+			}
+		}
+
+		double[] result = new double[n];
+		for (int v = 0; v < n; v++) {
+			result[v] = Double.longBitsToDouble(dist.get(v));
+		}
+		return result;
+	}
+
+	private long bucketOf(int v)
+	{
+		return (long) (Double.longBitsToDouble(dist.get(v)) / delta);
+	}
+
+	private static void addToBucket(TreeMap<Long, IntList> buckets, long b, int v)
+	{
+		IntList list = buckets.get(b);
+		if (list == null) {
+			list = new IntList();
+			buckets.put(b, list);
+		}
+		list.add(v);
+	}
+
+	// Lower dist[v] to d if that is an improvement; returns true if it was
+	private boolean relax(int v, double d)
+	{
+		long bits = Double.doubleToLongBits(d);
+		while (true) {
+			long current = dist.get(v);
+			if (Double.longBitsToDouble(current) <= d) {
+				return false;
+			}
+			if (dist.compareAndSet(v, current, bits)) {
+				return true;
+			}
+		}
+	}
+
+	// Relax the light (or heavy) edges out of vertices[from..to)
+	private class Relax extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] vertices;
+		private final int from;
+		private final int to;
+		private final boolean light;
+		private final int phase;
+
+		Relax(int[] vertices, int from, int to, boolean light, int phase)
+		{
+			this.vertices = vertices;
+			this.from = from;
+			this.to = to;
+			this.light = light;
+			this.phase = phase;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from > SPLIT_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Relax(vertices, from, mid, light, phase),
+						new Relax(vertices, mid, to, light, phase));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				int u = vertices[i];
+				double du = Double.longBitsToDouble(dist.get(u));
+				int end = graph.firstEdge(u + 1);
+				for (int e = graph.firstEdge(u); e < end; e++) {
+					double w = graph.getEdgeLength(e);
+					if ((w <= delta) != light) {
+						continue;
+					}
+					int v = graph.getEdgeTarget(e);
+					if (relax(v, du + w)) {
+						// record each changed vertex once per phase
+						int last = changedIn.get(v);
+						if (last != phase && changedIn.compareAndSet(v, last, phase)) {
+							changed[changedCount.getAndIncrement()] = v;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// A growable list of ints
+	private static class IntList {
+		int[] data;
+		int size;
+
+		IntList()
+		{
+			data = new int[16];
+		}
+
+		IntList(int v)
+		{
+			this();
+			add(v);
+		}
+
+		void add(int v)
+		{
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = v;
+		}
+	}
+
+	/** Compare against sequential Dijkstra and report the speedup for
+	 * 1, 2, 4, 8 and 16 threads.
+	 * @param args Optional map file, default data/maps/hollywood_large.map
+	 */
+	public static void main(String[] args)
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/hollywood_large.map";
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		CompactGraph graph = new CompactGraph(map);
+		double delta = averageEdgeLength(graph);
+		System.out.println(file + ": " + graph.getNumVertices() + " vertices, "
+				+ graph.getNumEdges() + " edges, delta = " + delta + " km");
+
+		int sources = 20;
+		int warmup = 20;
+		int[] sourceList = new int[sources];
+		Random random = new Random(1);
+		for (int i = 0; i < sources; i++) {
+			sourceList[i] = random.nextInt(graph.getNumVertices());
+		}
+
+		// sequential reference, after a warm up
+		CompactSearch dijkstra = new CompactSearch(graph);
+		double[][] expected = new double[sources][];
+		for (int i = 0; i < warmup * sources; i++) {
+			dijkstra.distancesFrom(sourceList[i % sources]);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < sources; i++) {
+			expected[i] = dijkstra.distancesFrom(sourceList[i]);
+		}
+		double sequential = (System.nanoTime() - start) / 1e6 / sources;
+		System.out.printf("Dijkstra: %.3f ms per source%n", sequential);
+
+		double base = 0;
+		for (int threads = 1; threads <= 16; threads *= 2) {
+			DeltaStepping ds = new DeltaStepping(graph, delta, threads);
+			for (int i = 0; i < warmup * sources; i++) {
+				ds.distancesFrom(sourceList[i % sources]);
+			}
+			int mismatches = 0;
+			start = System.nanoTime();
+			for (int i = 0; i < sources; i++) {
+				double[] d = ds.distancesFrom(sourceList[i]);
+				if (!Arrays.equals(d, expected[i])) {
+					mismatches++;
+				}
+			}
+			double time = (System.nanoTime() - start) / 1e6 / sources;
+			if (threads == 1) {
+				base = time;
+			}
+			System.out.printf("%2d threads: %.3f ms per source, speedup %.2f (vs Dijkstra %.2f), %s%n",
+					threads, time, base / time, sequential / time,
+					mismatches == 0 ? "identical" : mismatches + " sources differ");
+			ds.shutdown();
+		}
+	}
+}
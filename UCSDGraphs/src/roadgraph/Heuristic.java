@@ -0,0 +1,22 @@
+package roadgraph;
+
+/**
+ * A lower bound on the cost of getting from one vertex to another, used
+ * by A* to search towards the goal first.
+ *
+ * The estimate must never be more than the real cost (admissible), or
+ * A* may return a path that is not the shortest.  Implementations for
+ * road distance are made by Heuristics.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public interface Heuristic {
+
+	/** Estimate the cost from one vertex to another
+	 * @param from The vertex number to start from
+	 * @param to The vertex number of the goal
+	 * @return A lower bound on the cost of any path from from to to
+	 */
+	double estimate(int from, int to);
+}
@@ -0,0 +1,126 @@
+package roadgraph;
+
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Compares the A* heuristics: the cost of one estimate, how close it is
+ * to the haversine distance, and the end-to-end time of A* queries
+ * against Dijkstra.  Every A* result is checked against Dijkstra.
+ *
+ * Run from the project directory:  java roadgraph.HeuristicBenchmark [map file]
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class HeuristicBenchmark {
+	private static final int CALLS = 2000000;
+	private static final int QUERIES = 2000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args)
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		CompactGraph graph = new CompactGraph(map);
+		int n = graph.getNumVertices();
+		System.out.println(file + ": " + n + " vertices");
+
+		String[] names = {"haversine", "planar", "cosine table"};
+		Heuristic[] heuristics = {Heuristics.haversine(graph), Heuristics.planar(graph),
+				Heuristics.cosineTable(graph)};
+
+		// per call cost
+		Random random = new Random(1);
+		int[] from = new int[CALLS];
+		int[] to = new int[CALLS];
+		for (int i = 0; i < CALLS; i++) {
+			from[i] = random.nextInt(n);
+			to[i] = random.nextInt(n);
+		}
+		double best = Double.POSITIVE_INFINITY;
+		double sum = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < CALLS; i++) {
+				sum += graph.getLocation(from[i]).distance(graph.getLocation(to[i]));
+			}
+			best = Math.min(best, (double) (System.nanoTime() - start) / CALLS);
+		}
+		System.out.printf("%-22s %6.1f ns per call%n", "GeographicPoint", best);
+		for (int h = 0; h < heuristics.length; h++) {
+			best = Double.POSITIVE_INFINITY;
+			double ratio = 0;
+			int pairs = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < CALLS; i++) {
+					sum += heuristics[h].estimate(from[i], to[i]);
+				}
+				best = Math.min(best, (double) (System.nanoTime() - start) / CALLS);
+			}
+			boolean admissible = true;
+			for (int i = 0; i < 100000; i++) {
+				double exact = graph.getLocation(from[i]).distance(graph.getLocation(to[i]));
+				double estimate = heuristics[h].estimate(from[i], to[i]);
+				admissible &= estimate <= exact;
+				if (exact > 0) {
+					ratio += estimate / exact;
+					pairs++;
+				}
+			}
+			System.out.printf("%-22s %6.1f ns per call, %.7f of haversine on average, %s%n",
+					names[h], best, ratio / pairs, admissible ? "admissible" : "NOT admissible");
+		}
+
+		// end to end
+		int[] s = new int[QUERIES];
+		int[] t = new int[QUERIES];
+		double[] expected = new double[QUERIES];
+		CompactSearch search = new CompactSearch(graph);
+		for (int i = 0; i < QUERIES; i++) {
+			s[i] = random.nextInt(n);
+			t[i] = random.nextInt(n);
+		}
+		long time = Long.MAX_VALUE;
+		long settled = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			settled = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < QUERIES; i++) {
+				search.shortestPath(s[i], t[i]);
+				expected[i] = search.getDistance(t[i]);
+				settled += search.getSettledCount();
+			}
+			time = Math.min(time, System.nanoTime() - start);
+		}
+		System.out.printf("%-22s %6.1f us per query, %6.1f vertices settled%n", "Dijkstra",
+				time / 1e3 / QUERIES, (double) settled / QUERIES);
+		for (int h = 0; h < heuristics.length; h++) {
+			time = Long.MAX_VALUE;
+			int wrong = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				settled = 0;
+				wrong = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < QUERIES; i++) {
+					search.shortestPath(s[i], t[i], heuristics[h]);
+					settled += search.getSettledCount();
+					double d = search.getDistance(t[i]);
+					if (d != expected[i] && Math.abs(d - expected[i]) > 1e-9 * expected[i]) {
+						wrong++;
+					}
+				}
+				time = Math.min(time, System.nanoTime() - start);
+			}
+			System.out.printf("%-22s %6.1f us per query, %6.1f vertices settled, %d wrong%n",
+					"A* " + names[h], time / 1e3 / QUERIES, (double) settled / QUERIES, wrong);
+		}
+		if (sum == 0) {
+			System.out.println();
+		}
+	}
+}
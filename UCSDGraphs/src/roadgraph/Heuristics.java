@@ -0,0 +1,170 @@
+package roadgraph;
+
+/**
+ * Heuristics for A* over the road distance of a CompactGraph.
+ *
+ * Edge lengths are sums of haversine distances along the road, so the
+ * haversine (great circle) distance between two vertices is a lower
+ * bound on the road distance.  The cheaper heuristics here are lower
+ * bounds on the haversine distance, with the factor that makes them so
+ * worked out once from the extent of the map:
+ *
+ * With a = sin^2(dLat/2) + cos(lat1) cos(lat2) sin^2(dLon/2), the
+ * haversine distance is 2R asin(sqrt(a)) &gt;= 2R sqrt(a).  For
+ * |x| &lt;= m &lt;= pi/2, sin(x) &gt;= x sin(m) / m, since sin is concave
+ * there.  Taking m as half the largest difference in latitude or
+ * longitude on the map and k = sin(m) / m gives
+ *
+ *   haversine &gt;= R k sqrt(dLat^2 + cos(lat1) cos(lat2) dLon^2)
+ *
+ * which is the cosine table heuristic (one cosine per vertex, looked up
+ * rather than computed).  Replacing both cosines by c = cos of the
+ * largest |latitude| on the map gives the planar heuristic, a plain
+ * Euclidean distance after scaling the longitudes by c.  On a city map
+ * k is within a millionth of 1, so the bounds are nearly exact.
+ *
+ * Maps that cross the 180th meridian are not supported.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class Heuristics {
+	// as in GeographicPoint.distance
+	private static final double EARTH_RADIUS = 6373;
+	// GeographicPoint converts coordinate differences to radians, these
+	// heuristics subtract radians; the results can differ in the last
+	// few digits, so every estimate is lowered by a billionth
+	private static final double ROUNDING = 1 - 1e-9;
+
+	private Heuristics() {}
+
+	/** Exact haversine distance, with the coordinates in radians and the
+	 * cosine of each latitude computed in advance
+	 * @param graph The graph
+	 * @return The heuristic, in km
+	 */
+	public static Heuristic haversine(CompactGraph graph)
+	{
+		int n = graph.getNumVertices();
+		final double[] lat = new double[n];
+		final double[] lon = new double[n];
+		final double[] cos = new double[n];
+		for (int v = 0; v < n; v++) {
+			lat[v] = graph.getLatitudeRadians(v);
+			lon[v] = graph.getLongitudeRadians(v);
+			cos[v] = Math.cos(lat[v]);
+		}
+		return new Heuristic() {
+			@Override
+			public double estimate(int from, int to)
+			{
+				double sinLat = Math.sin((lat[to] - lat[from]) / 2);
+				double sinLon = Math.sin((lon[to] - lon[from]) / 2);
+				double a = sinLat * sinLat + cos[from] * cos[to] * sinLon * sinLon;
+				return 2 * EARTH_RADIUS * ROUNDING * Math.asin(Math.min(1, Math.sqrt(a)));
+			}
+		};
+	}
+
+	/** Scaled equirectangular distance: one square root per call
+	 * @param graph The graph
+	 * @return The heuristic, in km
+	 */
+	public static Heuristic planar(CompactGraph graph)
+	{
+		int n = graph.getNumVertices();
+		double c = Math.cos(maxAbsLatitude(graph));
+		final double scale = EARTH_RADIUS * shrinkFactor(graph);
+		final double[] x = new double[n];
+		final double[] y = new double[n];
+		for (int v = 0; v < n; v++) {
+			x[v] = c * graph.getLongitudeRadians(v);
+			y[v] = graph.getLatitudeRadians(v);
+		}
+		return new Heuristic() {
+			@Override
+			public double estimate(int from, int to)
+			{
+				double dx = x[to] - x[from];
+				double dy = y[to] - y[from];
+				return scale * Math.sqrt(dx * dx + dy * dy);
+			}
+		};
+	}
+
+	/** Equirectangular distance using the cosine of both latitudes from a
+	 * table: tighter than planar for maps that span many latitudes
+	 * @param graph The graph
+	 * @return The heuristic, in km
+	 */
+	public static Heuristic cosineTable(CompactGraph graph)
+	{
+		int n = graph.getNumVertices();
+		final double scale = EARTH_RADIUS * shrinkFactor(graph);
+		final double[] lat = new double[n];
+		final double[] lon = new double[n];
+		final double[] cos = new double[n];
+		for (int v = 0; v < n; v++) {
+			lat[v] = graph.getLatitudeRadians(v);
+			lon[v] = graph.getLongitudeRadians(v);
+			cos[v] = Math.cos(lat[v]);
+		}
+		return new Heuristic() {
+			@Override
+			public double estimate(int from, int to)
+			{
+				double dLat = lat[to] - lat[from];
+				double dLon = lon[to] - lon[from];
+				return scale * Math.sqrt(dLat * dLat + cos[from] * cos[to] * dLon * dLon);
+			}
+		};
+	}
+
+	/** Scale a heuristic, for searches whose costs are not in km.  For
+	 * travel times in seconds, the factor is 3600 / (the top speed in km/h).
+	 * @param heuristic The heuristic in km
+	 * @param factor The cost per km, at least as small as on any road
+	 * @return The scaled heuristic
+	 */
+	public static Heuristic scaled(final Heuristic heuristic, final double factor)
+	{
+		return new Heuristic() {
+			@Override
+			public double estimate(int from, int to)
+			{
+				return factor * heuristic.estimate(from, to);
+			}
+		};
+	}
+
+	private static double maxAbsLatitude(CompactGraph graph)
+	{
+		double max = 0;
+		for (int v = 0; v < graph.getNumVertices(); v++) {
+			max = Math.max(max, Math.abs(graph.getLatitudeRadians(v)));
+		}
+		return max;
+	}
+
+	// k = sin(m) / m for m half the largest coordinate difference on the map
+	private static double shrinkFactor(CompactGraph graph)
+	{
+		int n = graph.getNumVertices();
+		if (n == 0) {
+			return 1;
+		}
+		double minLat = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY;
+		for (int v = 0; v < n; v++) {
+			minLat = Math.min(minLat, graph.getLatitudeRadians(v));
+			maxLat = Math.max(maxLat, graph.getLatitudeRadians(v));
+			minLon = Math.min(minLon, graph.getLongitudeRadians(v));
+			maxLon = Math.max(maxLon, graph.getLongitudeRadians(v));
+		}
+		double m = Math.min(Math.PI / 2, Math.max(maxLat - minLat, maxLon - minLon) / 2);
+		double k = (m > 0) ? Math.sin(m) / m : 1;
+		return k * ROUNDING;
+	}
+}
@@ -0,0 +1,645 @@
+package roadgraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * A hub-label distance oracle.
+ *
+ * Every vertex v has a forward label, a list of (hub, distance from v
+ * to the hub), and a backward label, a list of (hub, distance from the
+ * hub to v).  The labels are built from a contraction hierarchy (a
+ * vertex's hubs are the vertices its upward search reaches) so that
+ * for any s and t the shortest path passes through a hub in both the
+ * forward label of s and the backward label of t.  A distance query is
+ * then a single merge of two sorted lists, with no graph search.
+ *
+ * Labels are stored compressed: hubs are numbered by importance (the
+ * most important is 0, so common hubs have small numbers), sorted, and
+ * written as variable-length deltas, each followed by the distance as
+ * a float (accurate to a few millimetres at city scale).  The same
+ * layout is used in memory and on disk, so a saved index is just
+ * memory-mapped on load and queries read straight from the mapping.
+ *
+ * File layout (big-endian):
+ *   int magic, int version, int n,
+ *   n x (double latitude, double longitude),
+ *   (n+1) x int forward label offsets, (n+1) x int backward label offsets,
+ *   label bytes.
+ *
+ * An index is immutable and can be shared by any number of threads.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class HubLabels {
+	private static final int MAGIC = 0x4855424c; // "HUBL"
+	private static final int VERSION = 1;
+
+	private final ByteBuffer data;
+	private final int n;
+	private final int forwardBase;
+	private final int backwardBase;
+	private final HashMap<GeographicPoint, Integer> ids;
+
+	// for path retrieval, see enablePaths
+	private CompactGraph pathGraph;
+	private int[] pathIds;
+
+	private HubLabels(ByteBuffer data)
+	{
+		this.data = data;
+		if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+			throw new IllegalArgumentException("HubLabels: not a hub label index");
+		}
+		n = data.getInt(8);
+		ids = new HashMap<GeographicPoint, Integer>(n * 2);
+		for (int v = 0; v < n; v++) {
+			int pos = 12 + v * 16;
+			ids.put(new GeographicPoint(data.getDouble(pos), data.getDouble(pos + 8)), v);
+		}
+		forwardBase = 12 + n * 16;
+		backwardBase = forwardBase + (n + 1) * 4;
+	}
+
+	/** Build the labels for a graph, using the edge lengths
+	 * @param graph The road graph
+	 * @return The index, held in memory
+	 */
+	public static HubLabels build(CompactGraph graph)
+	{
+		return build(graph, new ContractionHierarchy(graph));
+	}
+
+	/** Build the labels from an existing contraction hierarchy
+	 * @param graph The road graph
+	 * @param ch A contraction hierarchy of the graph
+	 * @return The index, held in memory
+	 */
+	public static HubLabels build(CompactGraph graph, ContractionHierarchy ch)
+	{
+		int n = graph.getNumVertices();
+		// hub number: most important (last contracted) vertex is 0
+		int[] hubOf = new int[n];
+		int[] vertexOfHub = new int[n];
+		for (int v = 0; v < n; v++) {
+			hubOf[v] = n - 1 - ch.getRank(v);
+			vertexOfHub[hubOf[v]] = v;
+		}
+
+		int[][] forwardHubs = new int[n][];
+		double[][] forwardDist = new double[n][];
+		int[][] backwardHubs = new int[n][];
+		double[][] backwardDist = new double[n][];
+		LabelMerger merger = new LabelMerger(n);
+
+		// from the most important vertex down, so the labels of the
+		// upward neighbours are always ready
+		for (int h = 0; h < n; h++) {
+			int v = vertexOfHub[h];
+
+			merger.start(h);
+			for (int a = ch.firstUp(v); a < ch.firstUp(v + 1); a++) {
+				int w = ch.getUpTarget(a);
+				merger.addAll(forwardHubs[w], forwardDist[w], ch.getUpWeight(a));
+			}
+			merger.finish();
+			merger.prune(backwardHubs, backwardDist, vertexOfHub);
+			forwardHubs[v] = merger.hubs();
+			forwardDist[v] = merger.distances();
+
+			merger.start(h);
+			for (int a = ch.firstDown(v); a < ch.firstDown(v + 1); a++) {
+				int u = ch.getDownSource(a);
+				merger.addAll(backwardHubs[u], backwardDist[u], ch.getDownWeight(a));
+			}
+			merger.finish();
+			merger.prune(forwardHubs, forwardDist, vertexOfHub);
+			backwardHubs[v] = merger.hubs();
+			backwardDist[v] = merger.distances();
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(new DataOutputStream(bytes), graph, forwardHubs, forwardDist,
+					backwardHubs, backwardDist);
+		}
+		catch (IOException e) {
+			// cannot happen when writing to memory
+			throw new IllegalStateException(e);
+		}
+		return new HubLabels(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/** Load an index saved with save, memory-mapping the file
+	 * @param file The index file
+	 * @return The index
+	 * @throws IOException if the file cannot be read
+	 */
+	public static HubLabels load(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new HubLabels(buffer);
+		}
+		finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/** Save the index
+	 * @param file The file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			ByteBuffer copy = data.duplicate();
+			copy.clear();
+			out.getChannel().write(copy);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/** @return The size of the index in bytes */
+	public long getSizeInBytes()
+	{
+		return data.capacity();
+	}
+
+	/** @return The number of vertices */
+	public int getNumVertices()
+	{
+		return n;
+	}
+
+	/** Get the average number of hubs per label
+	 * @return The average label size over forward and backward labels
+	 */
+	public double getAverageLabelSize()
+	{
+		long total = 0;
+		for (int v = 0; v < n; v++) {
+			total += labelSize(forwardBase, v) + labelSize(backwardBase, v);
+		}
+		return n == 0 ? 0 : total / (2.0 * n);
+	}
+
+	/** Get the number of a vertex from its location
+	 * @param location The location of the intersection
+	 * @return The vertex number, or -1 if it is not in the index
+	 */
+	public int getId(GeographicPoint location)
+	{
+		Integer id = ids.get(location);
+		return (id == null) ? -1 : id;
+	}
+
+	/** Find the road distance between two intersections
+	 * @param from The start intersection
+	 * @param to The goal intersection
+	 * @return The length of the shortest route in km, or
+	 *   Double.POSITIVE_INFINITY if there is none
+	 * @throws IllegalArgumentException if either point is not an intersection
+	 */
+	public double distance(GeographicPoint from, GeographicPoint to)
+	{
+		int s = getId(from);
+		int t = getId(to);
+		if (s < 0 || t < 0) {
+			throw new IllegalArgumentException("HubLabels: point is not an intersection");
+		}
+		return distance(s, t);
+	}
+
+	/** Find the road distance between two vertices
+	 * @param s The start vertex
+	 * @param t The goal vertex
+	 * @return The length of the shortest route in km, or
+	 *   Double.POSITIVE_INFINITY if there is none
+	 */
+	public double distance(int s, int t)
+	{
+		int i = data.getInt(forwardBase + s * 4);
+		int iEnd = data.getInt(forwardBase + s * 4 + 4);
+		int j = data.getInt(backwardBase + t * 4);
+		int jEnd = data.getInt(backwardBase + t * 4 + 4);
+		double best = Double.POSITIVE_INFINITY;
+		if (i == iEnd || j == jEnd) {
+			return best;
+		}
+
+		// sorted merge of the two labels, decoding as we go
+		int b = data.get(i++);
+		int hubS = b & 0x7f;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = data.get(i++);
+			hubS |= (b & 0x7f) << shift;
+		}
+		b = data.get(j++);
+		int hubT = b & 0x7f;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = data.get(j++);
+			hubT |= (b & 0x7f) << shift;
+		}
+		while (true) {
+			if (hubS == hubT) {
+				double d = data.getFloat(i) + data.getFloat(j);
+				if (d < best) {
+					best = d;
+				}
+			}
+			if (hubS <= hubT) {
+				i += 4;
+				if (i == iEnd) {
+					break;
+				}
+				b = data.get(i++);
+				int delta = b & 0x7f;
+				for (int shift = 7; b < 0; shift += 7) {
+					b = data.get(i++);
+					delta |= (b & 0x7f) << shift;
+				}
+				hubS += delta;
+			}
+			else {
+				j += 4;
+				if (j == jEnd) {
+					break;
+				}
+				b = data.get(j++);
+				int delta = b & 0x7f;
+				for (int shift = 7; b < 0; shift += 7) {
+					b = data.get(j++);
+					delta |= (b & 0x7f) << shift;
+				}
+				hubT += delta;
+			}
+		}
+		return best;
+	}
+
+	/** Turn on path retrieval.  Paths are found by walking the graph,
+	 * at each step taking the edge that the labels say is on a shortest
+	 * route to the goal.  Call this once, before the index is shared
+	 * between threads.
+	 * @param graph The graph the index was built from
+	 * @throws IllegalArgumentException if the graph has intersections
+	 *   the index does not know
+	 */
+	public void enablePaths(CompactGraph graph)
+	{
+		int[] map = new int[graph.getNumVertices()];
+		for (int v = 0; v < map.length; v++) {
+			map[v] = getId(graph.getLocation(v));
+			if (map[v] < 0) {
+				throw new IllegalArgumentException("HubLabels: graph does not match the index");
+			}
+		}
+		pathIds = map;
+		pathGraph = graph;
+	}
+
+	/** Find a shortest route between two intersections.
+	 * enablePaths must have been called first.
+	 * @param from The start intersection
+	 * @param to The goal intersection
+	 * @return The intersections on the route, including both ends, or
+	 *   null if there is no route
+	 */
+	public List<GeographicPoint> path(GeographicPoint from, GeographicPoint to)
+	{
+		if (pathGraph == null) {
+			throw new IllegalStateException("HubLabels: call enablePaths first");
+		}
+		int s = pathGraph.getId(from);
+		int t = pathGraph.getId(to);
+		if (s < 0 || t < 0) {
+			throw new IllegalArgumentException("HubLabels: point is not an intersection");
+		}
+		int goal = pathIds[t];
+		if (distance(pathIds[s], goal) == Double.POSITIVE_INFINITY) {
+			return null;
+		}
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+		path.add(pathGraph.getLocation(s));
+		int u = s;
+		// with exact distances every step gets closer, so a shortest route
+		// has at most one step per vertex; the labels are floats, though,
+		// and around very short edges the walk can go back and forth
+		for (int steps = 0; u != t && steps < pathGraph.getNumVertices(); steps++) {
+			int best = -1;
+			double bestDist = Double.POSITIVE_INFINITY;
+			for (int e = pathGraph.firstEdge(u); e < pathGraph.firstEdge(u + 1); e++) {
+				int v = pathGraph.getEdgeTarget(e);
+				double d = pathGraph.getEdgeLength(e)
+						+ (v == t ? 0 : distance(pathIds[v], goal));
+				if (d < bestDist) {
+					bestDist = d;
+					best = v;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			u = best;
+			path.add(pathGraph.getLocation(u));
+		}
+		if (u != t) {
+			return searchPath(s, t);
+		}
+		return path;
+	}
+
+	// The route by a search of the graph, when the walk does not get there
+	private List<GeographicPoint> searchPath(int s, int t)
+	{
+		int[] path = new CompactSearch(pathGraph).shortestPath(s, t);
+		return (path == null) ? null : pathGraph.toLocations(path);
+	}
+
+	private int labelSize(int base, int v)
+	{
+		int count = 0;
+		int i = data.getInt(base + v * 4);
+		int end = data.getInt(base + v * 4 + 4);
+		while (i < end) {
+			while (data.get(i++) < 0) {
+				// continuation bytes of the hub delta
+			}
+			i += 4;
+			count++;
+		}
+		return count;
+	}
+
+	private static void write(DataOutputStream out, CompactGraph graph,
+			int[][] forwardHubs, double[][] forwardDist,
+			int[][] backwardHubs, double[][] backwardDist) throws IOException
+	{
+		int n = graph.getNumVertices();
+		byte[][] forward = new byte[n][];
+		byte[][] backward = new byte[n][];
+		for (int v = 0; v < n; v++) {
+			forward[v] = encode(forwardHubs[v], forwardDist[v]);
+			backward[v] = encode(backwardHubs[v], backwardDist[v]);
+		}
+		long size = 12L + n * 16L + (n + 1) * 8L;
+		for (int v = 0; v < n; v++) {
+			size += forward[v].length + backward[v].length;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("HubLabels: index larger than 2GB");
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(n);
+		for (int v = 0; v < n; v++) {
+			out.writeDouble(graph.getLatitude(v));
+			out.writeDouble(graph.getLongitude(v));
+		}
+		int offset = 12 + n * 16 + (n + 1) * 8;
+		for (int v = 0; v < n; v++) {
+			out.writeInt(offset);
+			offset += forward[v].length;
+		}
+		out.writeInt(offset);
+		for (int v = 0; v < n; v++) {
+			out.writeInt(offset);
+			offset += backward[v].length;
+		}
+		out.writeInt(offset);
+		for (int v = 0; v < n; v++) {
+			out.write(forward[v]);
+		}
+		for (int v = 0; v < n; v++) {
+			out.write(backward[v]);
+		}
+		out.flush();
+	}
+
+	// Hub deltas as unsigned LEB128 varints, each followed by a float
+	private static byte[] encode(int[] hubs, double[] dist)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(hubs.length * 9);
+		int previous = 0;
+		for (int k = 0; k < hubs.length; k++) {
+			int delta = hubs[k] - previous;
+			previous = hubs[k];
+			while ((delta & ~0x7f) != 0) {
+				buffer.put((byte) ((delta & 0x7f) | 0x80));
+				delta >>>= 7;
+			}
+			buffer.put((byte) delta);
+			buffer.putFloat((float) dist[k]);
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	// Collects the candidate entries of one label: the vertex itself at
+	// distance 0, plus the labels of its upward neighbours shifted by the
+	// edge weight, keeping the smallest distance for each hub
+	private static class LabelMerger {
+		private final double[] best;
+		private int[] touched;
+		private int count;
+		private int self;
+		private double[] dist;
+
+		LabelMerger(int n)
+		{
+			best = new double[n];
+			Arrays.fill(best, Double.POSITIVE_INFINITY);
+			touched = new int[16];
+			dist = new double[16];
+		}
+
+		void start(int self)
+		{
+			this.self = self;
+			count = 0;
+			add(self, 0);
+		}
+
+		void addAll(int[] hubs, double[] d, double weight)
+		{
+			for (int k = 0; k < hubs.length; k++) {
+				add(hubs[k], d[k] + weight);
+			}
+		}
+
+		private void add(int hub, double d)
+		{
+			if (best[hub] == Double.POSITIVE_INFINITY) {
+				if (count == touched.length) {
+					touched = Arrays.copyOf(touched, count * 2);
+				}
+				touched[count++] = hub;
+			}
+			if (d < best[hub]) {
+				best[hub] = d;
+			}
+		}
+
+		// sort the hubs and collect their distances
+		void finish()
+		{
+			Arrays.sort(touched, 0, count);
+			if (dist.length < count) {
+				dist = new double[touched.length];
+			}
+			for (int k = 0; k < count; k++) {
+				dist[k] = best[touched[k]];
+				best[touched[k]] = Double.POSITIVE_INFINITY;
+			}
+		}
+
+		// Drop entries whose distance is not a shortest distance, as shown
+		// by going through another hub.  The other labels (of the hubs,
+		// in the opposite direction) are complete since hubs come first.
+		void prune(int[][] otherHubs, double[][] otherDist, int[] vertexOfHub)
+		{
+			int kept = 0;
+			for (int k = 0; k < count; k++) {
+				int h = touched[k];
+				boolean needed = true;
+				if (h != self) {
+					// merge the candidate label with the hub's label
+					int[] oh = otherHubs[vertexOfHub[h]];
+					double[] od = otherDist[vertexOfHub[h]];
+					int a = 0;
+					int c = 0;
+					while (a < count && c < oh.length) {
+						if (touched[a] == oh[c]) {
+							if (dist[a] + od[c] < dist[k]) {
+								needed = false;
+								break;
+							}
+							a++;
+							c++;
+						}
+						else if (touched[a] < oh[c]) {
+							a++;
+						}
+						else {
+							c++;
+						}
+					}
+				}
+				if (needed) {
+					touched[kept] = h;
+					dist[kept] = dist[k];
+					kept++;
+				}
+			}
+			count = kept;
+		}
+
+		int[] hubs()
+		{
+			return Arrays.copyOf(touched, count);
+		}
+
+		double[] distances()
+		{
+			return Arrays.copyOf(dist, count);
+		}
+	}
+
+	/** Build an index for a map, save and reload it, check it against
+	 * Dijkstra and time the queries.
+	 * @param args Optional map file and index file
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String mapFile = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+		File indexFile = (args.length > 1) ? new File(args[1])
+				: File.createTempFile("hublabels", ".idx");
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(mapFile, map);
+		CompactGraph graph = new CompactGraph(map);
+
+		long start = System.nanoTime();
+		ContractionHierarchy ch = new ContractionHierarchy(graph);
+		HubLabels built = build(graph, ch);
+		System.out.printf("%s: %d vertices, %d shortcuts, built in %.1f ms%n", mapFile,
+				graph.getNumVertices(), ch.getNumShortcuts(), (System.nanoTime() - start) / 1e6);
+		built.save(indexFile);
+		HubLabels labels = load(indexFile);
+		System.out.printf("Index: %d bytes, %.1f hubs per label%n",
+				labels.getSizeInBytes(), labels.getAverageLabelSize());
+
+		// compare with Dijkstra
+		CompactSearch search = new CompactSearch(graph);
+		Random random = new Random(1);
+		int n = graph.getNumVertices();
+		int wrong = 0;
+		int checked = 0;
+		for (int i = 0; i < 50; i++) {
+			int s = random.nextInt(n);
+			double[] expected = search.distancesFrom(s);
+			for (int t = 0; t < n; t++) {
+				double d = labels.distance(graph.getLocation(s), graph.getLocation(t));
+				checked++;
+				if (expected[t] == Double.POSITIVE_INFINITY ? d != expected[t]
+						: Math.abs(d - expected[t]) > 1e-5 * Math.max(1, expected[t])) {
+					wrong++;
+				}
+			}
+		}
+		System.out.println("Checked " + checked + " distances against Dijkstra, " + wrong + " wrong");
+
+		// time vertex-to-vertex queries
+		int queries = 1000000;
+		int[] s = new int[queries];
+		int[] t = new int[queries];
+		for (int i = 0; i < queries; i++) {
+			s[i] = random.nextInt(n);
+			t[i] = random.nextInt(n);
+		}
+		double sum = 0;
+		for (int round = 0; round < 3; round++) {
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				double d = labels.distance(s[i], t[i]);
+				if (d < Double.POSITIVE_INFINITY) {
+					sum += d;
+				}
+			}
+			System.out.printf("%d queries: %.1f ns per query (checksum %.1f)%n", queries,
+					(double) (System.nanoTime() - start) / queries, sum);
+		}
+
+		labels.enablePaths(graph);
+		GeographicPoint from = graph.getLocation(s[0]);
+		GeographicPoint to = graph.getLocation(t[0]);
+		List<GeographicPoint> path = labels.path(from, to);
+		System.out.println("Path from " + from + " to " + to + ": "
+				+ (path == null ? "none" : path.size() + " intersections"));
+		if (args.length < 2) {
+			indexFile.delete();
+		}
+	}
+}
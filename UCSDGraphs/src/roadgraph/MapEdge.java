@@ -14,6 +14,12 @@ public class MapEdge {
 	/** The length of the road segment, in km */
 	private double length;
 	
+	/** The speed profile shared by all roads of this type */
+	private SpeedProfile profile;
+	
+	/** The number of the road's shape in the graph's GeometryStore, or -1 */
+	private int geometry = -1;
+	
 	static final double DEFAULT_LENGTH = 0.01;
 	
 	MapEdge(MapNode n1, MapNode n2, String roadName, String roadType, double length) {
@@ -24,6 +30,11 @@ public class MapEdge {
 		this.length = length;
 	}
 	
+	// return the MapNode for the start point
+	MapNode getStartNode() {
+	   return start;
+	}
+	
 	// return the MapNode for the end point
 	MapNode getEndNode() {
 	   return end;
@@ -41,6 +52,36 @@ public class MapEdge {
 		return roadName;
 	}
 	
+	// return road type
+	public String getRoadType()
+	{
+		return roadType;
+	}
+	
+	// set the (shared) speed profile for this edge
+	void setSpeedProfile(SpeedProfile profile)
+	{
+		this.profile = profile;
+	}
+	
+	// return the number of the road's shape, or -1 if it has none
+	int getGeometry()
+	{
+		return geometry;
+	}
+	
+	// set the number of the road's shape in the graph's GeometryStore
+	void setGeometry(int geometry)
+	{
+		this.geometry = geometry;
+	}
+	
+	// return the travel time in seconds when entering the edge at departureTime
+	double getTravelTime(double departureTime)
+	{
+		return profile.getTravelTime(length, departureTime);
+	}
+	
 	// given one node in an edge, return the other node
 	MapNode getOtherNode(MapNode node)
 	{
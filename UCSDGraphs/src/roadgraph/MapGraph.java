@@ -8,6 +8,8 @@
 package roadgraph;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -18,6 +20,7 @@ import java.util.Set;
 import java.util.function.Consumer;
 
 import geography.GeographicPoint;
+import geography.GeometryStore;
 import util.GraphLoader;
 
 /**
@@ -34,6 +37,19 @@ public class MapGraph {
 	// that contain those nodes.
 	HashMap<GeographicPoint, MapNode> pointNodeMap;
 	HashSet<MapEdge> edges;
+	// speed profiles by road type, used for time-dependent routing; only
+	// changed through setSpeedProfile(s), so the edges and maxSpeed agree
+	private SpeedProfiles speedProfiles;
+	// the highest speed in speedProfiles, for the A* heuristic
+	private double maxSpeed;
+	// what the last Dijkstra or A* search did
+	SearchStats lastStats;
+	// the nodes by number, in the order they were added
+	ArrayList<MapNode> nodesById;
+	// changes whenever a vertex, an edge or the speed profiles change
+	private volatile long version;
+	// the shapes of the roads, if the loader kept them
+	GeometryStore geometry;
 
 	
 	/** 
@@ -43,7 +59,10 @@ public class MapGraph {
 	{
 		// Implement in this constructor in WEEK 3
 		pointNodeMap = new HashMap<GeographicPoint, MapNode>();
+		nodesById = new ArrayList<MapNode>();
 		edges = new HashSet<MapEdge>();
+		speedProfiles = SpeedProfiles.defaultProfiles();
+		maxSpeed = speedProfiles.getMaxSpeed();
 	}
 	
 	/**
@@ -56,6 +75,18 @@ public class MapGraph {
 		return pointNodeMap.values().size();
 	}
 	
+	/**
+	 * Get what the last Dijkstra or A* search (plain or time-dependent) did:
+	 * the vertices it settled, edges relaxed, queue peak, stale queue 
+	 * entries and the time spent setting up, searching and building the path.
+	 * @return The stats, or null if no search has run or the last one was
+	 *   given a start or goal that is not in the graph
+	 */
+	public SearchStats getLastSearchStats()
+	{
+		return lastStats;
+	}
+	
 	/**
 	 * Return the intersections, which are the vertices in this graph.
 	 * @return The vertices in this graph as GeographicPoints
@@ -91,8 +122,10 @@ public class MapGraph {
 		}
 		MapNode n = pointNodeMap.get(location);
 		if (n == null) {
-			n = new MapNode(location);
+			n = new MapNode(location, nodesById.size());
 			pointNodeMap.put(location, n);
+			nodesById.add(n);
+			version++;
 			return true;
 		}
 		else {
@@ -129,15 +162,184 @@ public class MapGraph {
 		addEdge(n1, n2, roadName, roadType, length);
 	}
 	
+	/**
+	 * Adds a directed edge to the graph from pt1 to pt2, with the shape
+	 * of the road.
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 * @param roadName The name of the road
+	 * @param roadType The type of the road
+	 * @param length The length of the road, in km
+	 * @param shape The number of the road's shape, from "from" to "to",
+	 *   in the store given to setGeometryStore
+	 * @throws IllegalArgumentException If the points have not already been
+	 *   added as nodes to the graph, if any of the arguments is null,
+	 *   or if the length is less than 0.
+	 */
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, int shape) throws IllegalArgumentException {
+		MapNode n1 = pointNodeMap.get(from);
+		MapNode n2 = pointNodeMap.get(to);
+		if (n1 == null)
+			throw new NullPointerException("addEdge: from:" + from + "is not in graph");
+		if (n2 == null)
+			throw new NullPointerException("addEdge: to:" + to + "is not in graph");
+		addEdge(n1, n2, roadName, roadType, length).setGeometry(shape);
+	}
+	
 	// Add an edge when you already know the nodes involved in the edge
-	private void addEdge(MapNode n1, MapNode n2, String roadName,
+	private MapEdge addEdge(MapNode n1, MapNode n2, String roadName,
 			String roadType,  double length)
 	{
 		MapEdge edge = new MapEdge(n1, n2, roadName, roadType, length);
+		edge.setSpeedProfile(speedProfiles.getProfile(roadType));
 		edges.add(edge);
 		n1.addEdge(edge);
+		version++;
+		return edge;
+	}
+	
+	/** Set the store holding the shapes of the roads, as numbered in
+	 * addEdge.  The loader does this when it keeps road shapes.
+	 * @param store The shapes
+	 */
+	public void setGeometryStore(GeometryStore store)
+	{
+		geometry = store;
+	}
+	
+	/** Get the store holding the shapes of the roads
+	 * @return The shapes, or null if the roads have none
+	 */
+	public GeometryStore getGeometryStore()
+	{
+		return geometry;
+	}
+	
+	/** Get the full shape of a route, for drawing it: the points of each
+	 * road along the route, joined end to end.  Between two intersections
+	 * joined by more than one road the shortest is used, as the searches
+	 * do.  Roads without a shape are drawn straight.
+	 * @param route The intersections on the route, as returned by a search
+	 * @return The (latitude, longitude) pairs of every point on the route
+	 * @throws IllegalArgumentException If consecutive points on the route
+	 *   are not joined by an edge.
+	 */
+	public double[] getRouteCoordinates(List<GeographicPoint> route)
+	{
+		return getRouteCoordinates(route, GeometryStore.MAX_ZOOM);
+	}
+	
+	/** Get the shape of a route simplified for a map zoom: only the
+	 * points of each road that move the line by a pixel or more at that
+	 * zoom are kept, along with every intersection on the route.
+	 * @param route The intersections on the route, as returned by a search
+	 * @param zoom The map zoom, from 0 to GeometryStore.MAX_ZOOM
+	 * @return The (latitude, longitude) pairs of the points to draw
+	 * @throws IllegalArgumentException If consecutive points on the route
+	 *   are not joined by an edge.
+	 */
+	public double[] getRouteCoordinates(List<GeographicPoint> route, int zoom)
+	{
+		if (route.isEmpty()) {
+			return new double[0];
+		}
+		// find the roads first, to size the result
+		MapEdge[] roads = new MapEdge[route.size() - 1];
+		int points = 1;
+		MapNode node = pointNodeMap.get(route.get(0));
+		if (node == null)
+			throw new IllegalArgumentException("getRouteCoordinates: " + route.get(0) + " is not in graph");
+		int i = 0;
+		for (GeographicPoint next : route.subList(1, route.size())) {
+			MapEdge best = null;
+			for (MapEdge edge : node.getEdges()) {
+				if (edge.getEndNode().getLocation().equals(next)
+						&& (best == null || edge.getLength() < best.getLength())) {
+					best = edge;
+				}
+			}
+			if (best == null)
+				throw new IllegalArgumentException("getRouteCoordinates: no edge from " 
+						+ node.getLocation() + " to " + next);
+			roads[i++] = best;
+			points += (geometry != null && best.getGeometry() >= 0)
+					? geometry.getNumPoints(best.getGeometry()) - 1 : 1;
+			node = best.getEndNode();
+		}
+		
+		double[] coords = new double[2 * points];
+		coords[0] = route.get(0).getX();
+		coords[1] = route.get(0).getY();
+		int pos = 2;
+		for (MapEdge road : roads) {
+			if (geometry != null && road.getGeometry() >= 0) {
+				pos = geometry.copyTo(road.getGeometry(), zoom, true, coords, pos);
+			}
+			else {
+				coords[pos++] = road.getEndNode().getLocation().getX();
+				coords[pos++] = road.getEndNode().getLocation().getY();
+			}
+		}
+		return (pos == coords.length) ? coords : Arrays.copyOf(coords, pos);
+	}
+	
+	/** Set the speed profiles used by the time-dependent searches.
+	 * Every edge is given the (shared) profile for its road type.  The
+	 * graph keeps a copy, so changing profiles afterwards does not
+	 * change the graph.
+	 * @param profiles The speed profiles by road type
+	 */
+	public void setSpeedProfiles(SpeedProfiles profiles)
+	{
+		if (profiles == null)
+			throw new NullPointerException("setSpeedProfiles: profiles cannot be null");
+		speedProfiles = new SpeedProfiles(profiles);
+		profilesChanged();
+	}
+	
+	/** Set the speed profile of one road type, keeping the others.
+	 * @param roadType The road type, e.g. "residential"
+	 * @param profile The profile for all roads of that type
+	 */
+	public void setSpeedProfile(String roadType, SpeedProfile profile)
+	{
+		SpeedProfiles profiles = new SpeedProfiles(speedProfiles);
+		profiles.setProfile(roadType, profile);
+		speedProfiles = profiles;
+		profilesChanged();
+	}
+	
+	// Give every edge the profile of its road type and note the change
+	private void profilesChanged()
+	{
+		for (MapEdge edge : edges) {
+			edge.setSpeedProfile(speedProfiles.getProfile(edge.getRoadType()));
+		}
+		maxSpeed = speedProfiles.getMaxSpeed();
+		version++;
 	}
 	
+	/** Get the version of the graph.  It changes whenever a vertex or an
+	 * edge is added or the speed profiles change, so a route found at
+	 * one version may not be the best at another; caches use it to
+	 * throw away old routes.
+	 * @return The version, 0 for a new, empty graph
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+	
+	/** Get the speed profiles used by the time-dependent searches.
+	 * This is a copy: change the graph's profiles with setSpeedProfile
+	 * or setSpeedProfiles, so the edges and the A* heuristic follow.
+	 * @return The speed profiles by road type
+	 */
+	public SpeedProfiles getSpeedProfiles()
+	{
+		return new SpeedProfiles(speedProfiles);
+	}
 
 	/** Find the path from start to goal using breadth first search
 	 * 
@@ -267,6 +469,9 @@ public class MapGraph {
 		if (start == null || goal == null)
 			throw new NullPointerException("Cannot find route from or to null node");
 		
+		long allocated = SearchStats.allocatedByThread();
+		long startTime = System.nanoTime();
+		lastStats = null;
 		MapNode startNode = pointNodeMap.get(start);
 		MapNode endNode = pointNodeMap.get(goal);
 		if (startNode == null || endNode == null) {
@@ -274,6 +479,7 @@ public class MapGraph {
 			return null;
 		}
 		
+		SearchStats stats = new SearchStats();
 		PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
 		HashSet<MapNode> visited = new HashSet<MapNode>();
 		HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
@@ -282,20 +488,25 @@ public class MapGraph {
 			n.setDistance(Double.POSITIVE_INFINITY);
 		}	
 		
-		boolean found = dijkstraAlgorithm(startNode, endNode, toExplore, visited, parentMap, nodeSearched);
+		long searchStart = System.nanoTime();
+		boolean found = dijkstraAlgorithm(startNode, endNode, toExplore, visited, parentMap, nodeSearched, stats);
+		long pathStart = System.nanoTime();
 		if (!found) {
+			finishStats("MapGraph.dijkstra", stats, false, startTime, searchStart, pathStart, allocated);
 			System.out.println("No path found from " + start + " to " + goal);
 			return null;
 		}
 		
 		// Reconstruct the parent path
 		List<GeographicPoint> path = constructPath(startNode, endNode, parentMap);
+		finishStats("MapGraph.dijkstra", stats, true, startTime, searchStart, pathStart, allocated);
 
 		return path;
 	}
 	
 	private static boolean dijkstraAlgorithm(MapNode startNode, MapNode endNode, PriorityQueue<MapNode> toExplore, 
-		HashSet<MapNode> visited, HashMap<MapNode, MapNode> parentMap, Consumer<GeographicPoint> nodeSearched) {	
+		HashSet<MapNode> visited, HashMap<MapNode, MapNode> parentMap, Consumer<GeographicPoint> nodeSearched,
+		SearchStats stats) {	
 		startNode.setDistance(0);
 		toExplore.add(startNode);
 		int count = 0; // count visited
@@ -311,13 +522,16 @@ public class MapGraph {
 			System.out.println("DIJKSTRA visiting" + curr);
 			if (curr.equals(endNode)) {
 				found = true;
+				stats.settled++;
 				System.out.println("Nodes visited in search: " + count);
 				break;
 			}
 			
 			if(!visited.contains(curr)) {
 				visited.add(curr);
+				stats.settled++;
 				Set<MapEdge> edges = curr.getEdges();
+				stats.relaxations += edges.size();
 				for (MapEdge edge : edges) {
 					MapNode neighbor = edge.getEndNode();
 					if (!visited.contains(neighbor)) {
@@ -326,10 +540,14 @@ public class MapGraph {
 							parentMap.put(neighbor, curr);
 							neighbor.setDistance(currDist);
 							toExplore.add(neighbor);
+							stats.queuePeak = Math.max(stats.queuePeak, toExplore.size());
 						}
 					}
 				}
 			}
+			else {
+				stats.stalePops++;
+			}
 		}
 		return found;
 	}
@@ -362,6 +580,9 @@ public class MapGraph {
 		// set up
 		if (start == null || goal == null)
 			throw new NullPointerException("Cannot find route from or to null node");
+		long allocated = SearchStats.allocatedByThread();
+		long startTime = System.nanoTime();
+		lastStats = null;
 		MapNode startNode = pointNodeMap.get(start);
 		MapNode endNode = pointNodeMap.get(goal);
 		if (startNode == null || endNode == null) {
@@ -369,6 +590,7 @@ public class MapGraph {
 			return null;
 		}
 		
+		SearchStats stats = new SearchStats();
 		PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
 		HashSet<MapNode> visited = new HashSet<MapNode>();
 		HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
@@ -377,20 +599,25 @@ public class MapGraph {
 			n.setDistance(Double.POSITIVE_INFINITY);
 			n.setActualDistance(Double.POSITIVE_INFINITY);
 		}	
-		boolean found = aStarSearchHelper(startNode, endNode, toExplore, visited, parentMap, nodeSearched);
+		long searchStart = System.nanoTime();
+		boolean found = aStarSearchHelper(startNode, endNode, toExplore, visited, parentMap, nodeSearched, stats);
+		long pathStart = System.nanoTime();
 		if (!found) {
+			finishStats("MapGraph.aStar", stats, false, startTime, searchStart, pathStart, allocated);
 			System.out.println("No path found from " + start + " to " + goal);
 			return null;
 		}
 		
 		// Reconstruct the parent path
 		List<GeographicPoint> path = constructPath(startNode, endNode, parentMap);
+		finishStats("MapGraph.aStar", stats, true, startTime, searchStart, pathStart, allocated);
 
 		return path;
 	}
 	
 	private static boolean aStarSearchHelper(MapNode startNode, MapNode endNode, PriorityQueue<MapNode> toExplore, 
-			HashSet<MapNode> visited, HashMap<MapNode, MapNode> parentMap, Consumer<GeographicPoint> nodeSearched) {
+			HashSet<MapNode> visited, HashMap<MapNode, MapNode> parentMap, Consumer<GeographicPoint> nodeSearched,
+			SearchStats stats) {
 		startNode.setDistance(0);
 		startNode.setActualDistance(0);
 
@@ -410,12 +637,15 @@ public class MapGraph {
 			System.out.println("\nA* visiting" + next+"\nActual = "+next.getActualDistance()+", Pred: "+next.getDistance());
 			if (next.equals(endNode)) {
 				found = true;
+				stats.settled++;
 				System.out.println("Nodes visited in search: "+count);
 				break;
 			}
 			if(!visited.contains(next)) {
 				visited.add(next);
+				stats.settled++;
 				Set<MapEdge> edges = next.getEdges();
+				stats.relaxations += edges.size();
 				for (MapEdge edge : edges) {
 					MapNode neighbor = edge.getEndNode();
 					if (!visited.contains(neighbor)) {
@@ -433,10 +663,230 @@ public class MapGraph {
 							neighbor.setActualDistance(currDist);
 							neighbor.setDistance(predDist);
 							toExplore.add(neighbor);
+							stats.queuePeak = Math.max(stats.queuePeak, toExplore.size());
 						}
 					}
 				}
 			}
+			else {
+				stats.stalePops++;
+			}
+		}
+		return found;
+	}
+	
+	/** Find the fastest path from start to goal when leaving at the given
+	 * time, using time-dependent Dijkstra.  Edge costs are travel times
+	 * taken from the speed profile of each road type.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureTime The departure time in seconds since midnight
+	 * @return The list of intersections that form the fastest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, 
+										  double departureTime) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return dijkstra(start, goal, departureTime, temp);
+	}
+	
+	/** Find the fastest path from start to goal when leaving at the given
+	 * time, using time-dependent Dijkstra.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureTime The departure time in seconds since midnight
+	 * @param nodeSearched A hook for visualization.
+	 * @return The list of intersections that form the fastest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, 
+										  double departureTime, Consumer<GeographicPoint> nodeSearched)
+	{
+		return timeDependentSearch(start, goal, departureTime, false, nodeSearched);
+	}
+	
+	/** Find the fastest path from start to goal when leaving at the given
+	 * time, using time-dependent A*.  The heuristic is the straight line
+	 * distance driven at the highest speed in any profile, so it never 
+	 * overestimates the remaining travel time.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureTime The departure time in seconds since midnight
+	 * @return The list of intersections that form the fastest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, 
+											 double departureTime) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return aStarSearch(start, goal, departureTime, temp);
+	}
+	
+	/** Find the fastest path from start to goal when leaving at the given
+	 * time, using time-dependent A*.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureTime The departure time in seconds since midnight
+	 * @param nodeSearched A hook for visualization.
+	 * @return The list of intersections that form the fastest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, 
+											 double departureTime, Consumer<GeographicPoint> nodeSearched)
+	{
+		return timeDependentSearch(start, goal, departureTime, true, nodeSearched);
+	}
+	
+	/** Calculate the travel time along a route when leaving at the given time.
+	 * Where two intersections are joined by more than one road, the fastest
+	 * one is used.
+	 * 
+	 * @param route The intersections on the route, as returned by a search
+	 * @param departureTime The departure time in seconds since midnight
+	 * @return The travel time in seconds
+	 * @throws IllegalArgumentException If consecutive points on the route
+	 *   are not joined by an edge.
+	 */
+	public double getTravelTime(List<GeographicPoint> route, double departureTime)
+	{
+		double time = departureTime;
+		GeographicPoint prev = null;
+		for (GeographicPoint pt : route) {
+			if (prev != null) {
+				MapNode from = pointNodeMap.get(prev);
+				MapNode to = pointNodeMap.get(pt);
+				double best = Double.POSITIVE_INFINITY;
+				if (from != null) {
+					for (MapEdge edge : from.getEdges()) {
+						if (edge.getEndNode().equals(to)) {
+							best = Math.min(best, edge.getTravelTime(time));
+						}
+					}
+				}
+				if (best == Double.POSITIVE_INFINITY)
+					throw new IllegalArgumentException("getTravelTime: no edge from " + prev + " to " + pt);
+				time += best;
+			}
+			prev = pt;
+		}
+		return time - departureTime;
+	}
+	
+	// Shared set up for the time-dependent Dijkstra and A* searches
+	private List<GeographicPoint> timeDependentSearch(GeographicPoint start, GeographicPoint goal,
+			double departureTime, boolean useHeuristic, Consumer<GeographicPoint> nodeSearched)
+	{
+		if (start == null || goal == null)
+			throw new NullPointerException("Cannot find route from or to null node");
+		long allocated = SearchStats.allocatedByThread();
+		long startTime = System.nanoTime();
+		lastStats = null;
+		MapNode startNode = pointNodeMap.get(start);
+		MapNode endNode = pointNodeMap.get(goal);
+		if (startNode == null || endNode == null) {
+			System.out.println("Start or goal node is null! No path exists.");
+			return null;
+		}
+		
+		String engine = useHeuristic ? "MapGraph.timeDependentAStar" : "MapGraph.timeDependentDijkstra";
+		SearchStats stats = new SearchStats();
+		PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
+		HashSet<MapNode> visited = new HashSet<MapNode>();
+		HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
+		// initialize distance for all nodes
+		for (MapNode n : pointNodeMap.values()) {
+			n.setDistance(Double.POSITIVE_INFINITY);
+			n.setActualDistance(Double.POSITIVE_INFINITY);
+		}
+		// 0 turns the A* heuristic off, which makes the search Dijkstra
+		double heuristicSpeed = useHeuristic ? maxSpeed : 0;
+		long searchStart = System.nanoTime();
+		boolean found = timeDependentHelper(startNode, endNode, departureTime, heuristicSpeed,
+				toExplore, visited, parentMap, nodeSearched, stats);
+		long pathStart = System.nanoTime();
+		if (!found) {
+			finishStats(engine, stats, false, startTime, searchStart, pathStart, allocated);
+			System.out.println("No path found from " + start + " to " + goal);
+			return null;
+		}
+		
+		// Reconstruct the parent path
+		List<GeographicPoint> path = constructPath(startNode, endNode, parentMap);
+		finishStats(engine, stats, true, startTime, searchStart, pathStart, allocated);
+		return path;
+	}
+	
+	// Fill in the timings of a finished search, keep its stats for
+	// getLastSearchStats and send a Flight Recorder event if one is wanted
+	private void finishStats(String engine, SearchStats stats, boolean found, long startTime,
+			long searchStart, long pathStart, long allocated)
+	{
+		stats.finish(startTime, searchStart, pathStart, allocated);
+		lastStats = stats;
+		SearchEvents events = SearchEvents.get();
+		if (events.isEnabled()) {
+			events.commit(engine, -1, -1, found, stats);
+		}
+	}
+	
+	// Time-dependent Dijkstra/A*.  The actual distance of a node is the time
+	// in seconds since departure at which it is reached; because the edge
+	// travel times are FIFO, the first time a node is removed from the queue
+	// is its earliest arrival.
+	private static boolean timeDependentHelper(MapNode startNode, MapNode endNode, double departureTime,
+			double maxSpeed, PriorityQueue<MapNode> toExplore, HashSet<MapNode> visited, 
+			HashMap<MapNode, MapNode> parentMap, Consumer<GeographicPoint> nodeSearched,
+			SearchStats stats) {
+		startNode.setDistance(0);
+		startNode.setActualDistance(0);
+		toExplore.add(startNode);
+		
+		int count = 0;
+		boolean found = false;
+		
+		while (!toExplore.isEmpty()) {
+			MapNode next = toExplore.remove();
+			count++;
+			
+			// Hook for visualization.
+			nodeSearched.accept(next.getLocation());
+			
+			if (next.equals(endNode)) {
+				found = true;
+				stats.settled++;
+				System.out.println("Nodes visited in search: " + count);
+				break;
+			}
+			if (!visited.contains(next)) {
+				visited.add(next);
+				stats.settled++;
+				stats.relaxations += next.getEdges().size();
+				double now = departureTime + next.getActualDistance();
+				for (MapEdge edge : next.getEdges()) {
+					MapNode neighbor = edge.getEndNode();
+					if (!visited.contains(neighbor)) {
+						double arrival = next.getActualDistance() + edge.getTravelTime(now);
+						double predicted = arrival;
+						if (maxSpeed > 0) {
+							// remaining distance in km at the top speed, in seconds
+							predicted += neighbor.getLocation().distance(endNode.getLocation()) / maxSpeed * 3600;
+						}
+						if (predicted < neighbor.getDistance()) {
+							parentMap.put(neighbor, next);
+							neighbor.setActualDistance(arrival);
+							neighbor.setDistance(predicted);
+							toExplore.add(neighbor);
+							stats.queuePeak = Math.max(stats.queuePeak, toExplore.size());
+						}
+					}
+				}
+			}
+			else {
+				stats.stalePops++;
+			}
 		}
 		return found;
 	}
@@ -505,6 +955,14 @@ public class MapGraph {
 		List<GeographicPoint> route = theMap.dijkstra(start,end);
 		List<GeographicPoint> route2 = theMap.aStarSearch(start,end);
 
+		// Time-dependent routing: the fastest route can change with the
+		// time of day because roads slow down in the rush hours
+		double eightAm = 8 * 3600;
+		double midnight = 0;
+		List<GeographicPoint> rushRoute = theMap.dijkstra(start, end, eightAm);
+		List<GeographicPoint> nightRoute = theMap.aStarSearch(start, end, midnight);
+		System.out.println("Travel time leaving at 8am: " + theMap.getTravelTime(rushRoute, eightAm) + " s");
+		System.out.println("Travel time leaving at midnight: " + theMap.getTravelTime(nightRoute, midnight) + " s");
 		
 	}
 	
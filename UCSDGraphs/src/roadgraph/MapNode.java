@@ -18,8 +18,12 @@ public class MapNode implements Comparable{
 	/** the actual distance of this node from start (used in Week 4 algorithms) */
 	private double actualDistance;
 	
-	MapNode(GeographicPoint loc) {
+	/** the number of this node in its graph, in the order nodes were added */
+	private final int id;
+	
+	MapNode(GeographicPoint loc, int id) {
 		location = loc;
+		this.id = id;
 		edges = new HashSet<MapEdge>();
 		distance = 0.0;
 		actualDistance = 0.0;
@@ -46,6 +50,12 @@ public class MapNode implements Comparable{
 		return location;
 	}
 	
+	/** get the number of this node in its graph */
+	int getId()
+	{
+		return id;
+	}
+	
 	/** return the edges out of this node */
 	Set<MapEdge> getEdges()
 	{
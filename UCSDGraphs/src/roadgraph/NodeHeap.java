@@ -0,0 +1,112 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of (key, vertex) pairs kept in primitive arrays, so
+ * searches over a CompactGraph do not box a Double for every queue entry.
+ *
+ * Like the PriorityQueue used by MapGraph, there is no decrease-key: a
+ * vertex whose distance improves is simply added again, and the search
+ * skips the older (stale) entry when it comes off the heap.
+ */
+class NodeHeap {
+	private double[] keys;
+	private int[] nodes;
+	private int size;
+	// the largest size since the last resetPeak
+	private int peak;
+
+	NodeHeap()
+	{
+		keys = new double[64];
+		nodes = new int[64];
+		size = 0;
+	}
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	int getPeak()
+	{
+		return peak;
+	}
+
+	void resetPeak()
+	{
+		peak = size;
+	}
+
+	void add(int node, double key)
+	{
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			nodes = Arrays.copyOf(nodes, size * 2);
+		}
+		int i = size++;
+		if (size > peak) {
+			peak = size;
+		}
+		// sift up
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			keys[i] = keys[parent];
+			nodes[i] = nodes[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		nodes[i] = node;
+	}
+
+	/** @return the key of the smallest entry; the heap must not be empty */
+	double peekKey()
+	{
+		return keys[0];
+	}
+
+	/** Remove the smallest entry.  Read its key with peekKey() first.
+	 * @return the vertex of the smallest entry
+	 */
+	int remove()
+	{
+		int top = nodes[0];
+		size--;
+		if (size > 0) {
+			double key = keys[size];
+			int node = nodes[size];
+			// sift down
+			int i = 0;
+			int half = size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && keys[child + 1] < keys[child]) {
+					child++;
+				}
+				if (key <= keys[child]) {
+					break;
+				}
+				keys[i] = keys[child];
+				nodes[i] = nodes[child];
+				i = child;
+			}
+			keys[i] = key;
+			nodes[i] = node;
+		}
+		return top;
+	}
+}
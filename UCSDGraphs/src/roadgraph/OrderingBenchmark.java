@@ -0,0 +1,101 @@
+package roadgraph;
+
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Compares Dijkstra over a CompactGraph numbered in map (hash) order
+ * with one numbered along a Hilbert curve.
+ *
+ * For each order it prints how far apart the two ends of an edge are in
+ * the vertex arrays, the share of edges whose ends fall in the same
+ * 64-byte cache line or 4 KB page of a double[] indexed by vertex (a
+ * proxy for L1 and TLB/L2 misses), and the time per one-to-all search.
+ * For hardware counts, run each order on its own under
+ *   perf stat -e L1-dcache-load-misses,LLC-load-misses java roadgraph.OrderingBenchmark FILE map
+ *   perf stat -e L1-dcache-load-misses,LLC-load-misses java roadgraph.OrderingBenchmark FILE hilbert
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class OrderingBenchmark {
+	private static final int ROUNDS = 30;
+
+	/** @param args Optional map file (default data/maps/hollywood_large.map)
+	 *   and order ("map" or "hilbert"; default both)
+	 */
+	public static void main(String[] args)
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/hollywood_large.map";
+		String only = (args.length > 1) ? args[1] : null;
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		System.out.println(file + ": " + map.getNumVertices() + " vertices, "
+				+ map.getNumEdges() + " edges");
+
+		// the same start points for both orders
+		GeographicPoint[] vertices = map.getVertices().toArray(new GeographicPoint[0]);
+		Random random = new Random(1);
+		GeographicPoint[] sources = new GeographicPoint[Math.min(vertices.length, 200)];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = vertices[random.nextInt(vertices.length)];
+		}
+
+		for (String order : new String[] {"map", "hilbert"}) {
+			if (only != null && !only.equals(order)) {
+				continue;
+			}
+			CompactGraph graph = new CompactGraph(map, order.equals("hilbert"));
+			reportLocality(order, graph);
+			reportSearchTime(order, graph, sources);
+		}
+	}
+
+	private static void reportLocality(String order, CompactGraph graph)
+	{
+		long gap = 0;
+		int sameLine = 0;
+		int samePage = 0;
+		int m = graph.getNumEdges();
+		for (int u = 0; u < graph.getNumVertices(); u++) {
+			for (int e = graph.firstEdge(u); e < graph.firstEdge(u + 1); e++) {
+				int v = graph.getEdgeTarget(e);
+				gap += Math.abs(u - v);
+				// 8 doubles per cache line, 512 per page
+				if (u / 8 == v / 8) {
+					sameLine++;
+				}
+				if (u / 512 == v / 512) {
+					samePage++;
+				}
+			}
+		}
+		System.out.printf("%-8s mean id gap %.1f, same cache line %.1f%%, same page %.1f%%%n",
+				order, (double) gap / m, 100.0 * sameLine / m, 100.0 * samePage / m);
+	}
+
+	private static void reportSearchTime(String order, CompactGraph graph,
+			GeographicPoint[] points)
+	{
+		CompactSearch search = new CompactSearch(graph);
+		int[] sources = new int[points.length];
+		for (int i = 0; i < points.length; i++) {
+			sources[i] = graph.getId(points[i]);
+		}
+		for (int i = 0; i < sources.length; i++) {
+			search.distancesFrom(sources[i]);
+		}
+		double best = Double.POSITIVE_INFINITY;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int source : sources) {
+				search.distancesFrom(source);
+			}
+			best = Math.min(best, (System.nanoTime() - start) / 1e3 / sources.length);
+		}
+		System.out.printf("%-8s Dijkstra one-to-all: %.1f us per search (best of %d)%n",
+				order, best, ROUNDS);
+	}
+}
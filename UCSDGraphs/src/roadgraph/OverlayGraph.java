@@ -0,0 +1,265 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import util.GraphLoader;
+
+/**
+ * The metric-independent half of a multi-level overlay graph, in the
+ * style of customizable route planning (CRP).
+ *
+ * Given a nested Partition, a vertex is a boundary vertex of its cell
+ * on some level if it has a road edge to or from another cell on that
+ * level.  Preprocessing only finds the boundary vertices, so it does
+ * not depend on the edge weights.  customize then computes, for a given
+ * set of weights, the distances between the boundary vertices of every
+ * cell (the cell's clique), bottom level first; each cell only needs
+ * the cliques of its own subcells, so all cells of a level are done in
+ * parallel.  Queries are answered by OverlaySearch.
+ *
+ * New weights, such as travel times for a different time of day, only
+ * need a new customization, not a new partition.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class OverlayGraph {
+	private final CompactGraph graph;
+	private final Partition partition;
+	// [level][v]: position of v among its cell's boundary vertices, or -1
+	private final int[][] boundaryIndex;
+	// [level][cell]: the boundary vertices of the cell
+	private final int[][][] boundary;
+
+	/** Find the boundary vertices of every cell
+	 * @param graph The road graph
+	 * @param partition A partition of the graph
+	 */
+	public OverlayGraph(CompactGraph graph, Partition partition)
+	{
+		this.graph = graph;
+		this.partition = partition;
+		int n = graph.getNumVertices();
+		int levels = partition.getNumLevels();
+		boundaryIndex = new int[levels + 1][];
+		boundary = new int[levels + 1][][];
+		for (int l = 1; l <= levels; l++) {
+			boolean[] isBoundary = new boolean[n];
+			for (int u = 0; u < n; u++) {
+				for (int e = graph.firstEdge(u); e < graph.firstEdge(u + 1); e++) {
+					int v = graph.getEdgeTarget(e);
+					if (partition.getCell(l, u) != partition.getCell(l, v)) {
+						isBoundary[u] = true;
+						isBoundary[v] = true;
+					}
+				}
+			}
+			int[] count = new int[partition.getNumCells(l)];
+			boundaryIndex[l] = new int[n];
+			for (int v = 0; v < n; v++) {
+				boundaryIndex[l][v] = isBoundary[v] ? count[partition.getCell(l, v)]++ : -1;
+			}
+			boundary[l] = new int[count.length][];
+			for (int c = 0; c < count.length; c++) {
+				boundary[l][c] = new int[count[c]];
+			}
+			for (int v = 0; v < n; v++) {
+				if (isBoundary[v]) {
+					boundary[l][partition.getCell(l, v)][boundaryIndex[l][v]] = v;
+				}
+			}
+		}
+	}
+
+	/** @return The road graph */
+	public CompactGraph getGraph()
+	{
+		return graph;
+	}
+
+	/** @return The partition */
+	public Partition getPartition()
+	{
+		return partition;
+	}
+
+	/** Get the boundary vertices of a cell
+	 * @param level The level, from 1 to the number of levels
+	 * @param cell The cell number on that level
+	 * @return The boundary vertices (do not modify)
+	 */
+	int[] getBoundary(int level, int cell)
+	{
+		return boundary[level][cell];
+	}
+
+	// Position of v among the boundary vertices of its cell, or -1
+	int getBoundaryIndex(int level, int v)
+	{
+		return boundaryIndex[level][v];
+	}
+
+	/** Get the number of boundary vertices on a level
+	 * @param level The level, from 1 to the number of levels
+	 * @return The total over all cells of the level
+	 */
+	public int getNumBoundaryVertices(int level)
+	{
+		int total = 0;
+		for (int[] b : boundary[level]) {
+			total += b.length;
+		}
+		return total;
+	}
+
+	/** Customize for travel times at a time of day
+	 * @param profiles The speed profile of each road type
+	 * @param departureTime The time of day, in seconds since midnight
+	 * @param threads The number of worker threads
+	 * @return The customized metric, with weights in seconds
+	 */
+	public OverlayMetric customize(SpeedProfiles profiles, double departureTime, int threads)
+	{
+		return customize(graph.getTravelTimes(profiles, departureTime), threads);
+	}
+
+	/** Compute the cliques of every cell for a set of edge weights
+	 * @param edgeWeights The weight of each edge of the graph
+	 * @param threads The number of worker threads
+	 * @return The customized metric
+	 */
+	public OverlayMetric customize(double[] edgeWeights, int threads)
+	{
+		final OverlayMetric metric = new OverlayMetric(this, edgeWeights);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		ThreadLocal<OverlaySearch> searches =
+				ThreadLocal.withInitial(() -> new OverlaySearch(metric));
+		try {
+			for (int l = 1; l <= partition.getNumLevels(); l++) {
+				final int level = l;
+				List<Future<?>> cells = new ArrayList<Future<?>>();
+				for (int c = 0; c < boundary[level].length; c++) {
+					final int cell = c;
+					cells.add(pool.submit(() -> {
+						metric.setClique(level, cell, clique(searches.get(), level, cell));
+					}));
+				}
+				// a level must be finished before the next one starts
+				for (Future<?> f : cells) {
+					f.get();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Customization interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Customization failed", e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+		return metric;
+	}
+
+	private double[] clique(OverlaySearch search, int level, int cell)
+	{
+		int[] b = boundary[level][cell];
+		double[] clique = new double[b.length * b.length];
+		for (int i = 0; i < b.length; i++) {
+			search.cellSearch(b[i], level, cell);
+			for (int j = 0; j < b.length; j++) {
+				clique[i * b.length + j] = search.getDistance(b[j]);
+			}
+		}
+		return clique;
+	}
+
+	/** Partition a map, customize it for two times of day and compare
+	 * queries with Dijkstra.
+	 * @param args Optional map file, default data/maps/san_diego.map
+	 */
+	public static void main(String[] args)
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		CompactGraph graph = new CompactGraph(map);
+		int n = graph.getNumVertices();
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		long start = System.nanoTime();
+		Partition partition = new Partition(graph, new int[] {16, 64, 256});
+		OverlayGraph overlay = new OverlayGraph(graph, partition);
+		System.out.printf("%s: %d vertices, partitioned in %.1f ms%n", file, n,
+				(System.nanoTime() - start) / 1e6);
+		for (int l = 1; l <= partition.getNumLevels(); l++) {
+			System.out.println("  level " + l + ": " + partition.getNumCells(l) + " cells, "
+					+ overlay.getNumBoundaryVertices(l) + " boundary vertices");
+		}
+
+		SpeedProfiles profiles = SpeedProfiles.defaultProfiles();
+		Random random = new Random(1);
+		for (int hour : new int[] {3, 8}) {
+			start = System.nanoTime();
+			OverlayMetric metric = overlay.customize(profiles, hour * 3600, threads);
+			System.out.printf("Customized for %02d:00 in %.1f ms on %d threads%n", hour,
+					(System.nanoTime() - start) / 1e6, threads);
+
+			OverlaySearch search = new OverlaySearch(metric);
+			CompactSearch dijkstra = new CompactSearch(graph, graph.getTravelTimes(profiles, hour * 3600));
+			int queries = 2000;
+			int wrong = 0;
+			long overlayTime = 0;
+			long dijkstraTime = 0;
+			for (int i = 0; i < queries; i++) {
+				int s = random.nextInt(n);
+				int t = random.nextInt(n);
+				long t0 = System.nanoTime();
+				double d = search.distance(s, t);
+				long t1 = System.nanoTime();
+				int[] expectedPath = dijkstra.shortestPath(s, t);
+				long t2 = System.nanoTime();
+				overlayTime += t1 - t0;
+				dijkstraTime += t2 - t1;
+				double expected = (expectedPath == null) ? Double.POSITIVE_INFINITY
+						: dijkstra.getDistance(t);
+				int[] path = search.shortestPath(s, t);
+				if (!sameDistance(d, expected) || (path == null) != (expectedPath == null)
+						|| (path != null && !sameDistance(pathCost(graph, metric, path), expected))) {
+					wrong++;
+				}
+			}
+			System.out.printf("  %d queries: overlay %.1f us, Dijkstra %.1f us per query, %d wrong%n",
+					queries, overlayTime / 1e3 / queries, dijkstraTime / 1e3 / queries, wrong);
+		}
+	}
+
+	private static boolean sameDistance(double a, double b)
+	{
+		return a == b || Math.abs(a - b) <= 1e-9 * Math.max(1, Math.abs(b));
+	}
+
+	// Cost of a path of road vertices, or infinity if an edge is missing
+	private static double pathCost(CompactGraph graph, OverlayMetric metric, int[] path)
+	{
+		double cost = 0;
+		for (int i = 0; i + 1 < path.length; i++) {
+			double best = Double.POSITIVE_INFINITY;
+			for (int e = graph.firstEdge(path[i]); e < graph.firstEdge(path[i] + 1); e++) {
+				if (graph.getEdgeTarget(e) == path[i + 1]) {
+					best = Math.min(best, metric.getWeight(e));
+				}
+			}
+			cost += best;
+		}
+		return cost;
+	}
+}
@@ -0,0 +1,60 @@
+package roadgraph;
+
+/**
+ * The metric-dependent half of a multi-level overlay: the weight of
+ * every edge, and for every cell on every level the table of shortest
+ * distances between its boundary vertices (the cell's clique).
+ *
+ * Made by OverlayGraph.customize and not changed afterwards, so a
+ * metric can be shared by any number of threads, each doing its own
+ * queries with an OverlaySearch.  Customizing new weights makes a new
+ * metric; searches on the old one are unaffected.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class OverlayMetric {
+	private final OverlayGraph overlay;
+	private final double[] weights;
+	// [level][cell]: row-major table, boundary i to boundary j
+	private final double[][][] cliques;
+
+	OverlayMetric(OverlayGraph overlay, double[] weights)
+	{
+		if (weights.length != overlay.getGraph().getNumEdges()) {
+			throw new IllegalArgumentException("OverlayMetric: one weight per edge is needed");
+		}
+		this.overlay = overlay;
+		this.weights = weights;
+		Partition partition = overlay.getPartition();
+		cliques = new double[partition.getNumLevels() + 1][][];
+		for (int l = 1; l <= partition.getNumLevels(); l++) {
+			cliques[l] = new double[partition.getNumCells(l)][];
+		}
+	}
+
+	/** @return The overlay this metric belongs to */
+	public OverlayGraph getOverlay()
+	{
+		return overlay;
+	}
+
+	/** @param e The edge number
+	 * @return The weight of the edge */
+	public double getWeight(int e)
+	{
+		return weights[e];
+	}
+
+	// The clique of a cell: entry i * b + j is the distance from boundary
+	// vertex i to boundary vertex j, b being the number of boundary vertices
+	double[] getClique(int level, int cell)
+	{
+		return cliques[level][cell];
+	}
+
+	void setClique(int level, int cell, double[] clique)
+	{
+		cliques[level][cell] = clique;
+	}
+}
@@ -0,0 +1,249 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * Multi-level Dijkstra over an OverlayMetric.
+ *
+ * Near the start and the goal the search uses the road edges.  Further
+ * away it only visits the boundary vertices of the largest cells that
+ * contain neither end, jumping across each cell with one edge of the
+ * cell's clique.  Paths are found by expanding every clique edge with a
+ * search restricted to its cell on the level below, down to road edges.
+ *
+ * Like CompactSearch this is a per-thread workspace: one OverlaySearch
+ * must not be used by two threads at once, but any number can share a
+ * metric.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class OverlaySearch {
+	private final OverlayMetric metric;
+	private final OverlayGraph overlay;
+	private final Partition partition;
+	private final CompactGraph graph;
+
+	private final double[] dist;
+	private final int[] parent;
+	// level of the edge used to reach a vertex: 0 for a road edge,
+	// otherwise the level of the clique
+	private final int[] parentLevel;
+	private final int[] stamp;
+	private final boolean[] settled;
+	private int round;
+	private final NodeHeap toExplore;
+
+	// the ends of the current query
+	private int source;
+	private int target;
+
+	/** Create a search workspace
+	 * @param metric The customized metric to search
+	 */
+	public OverlaySearch(OverlayMetric metric)
+	{
+		this.metric = metric;
+		overlay = metric.getOverlay();
+		partition = overlay.getPartition();
+		graph = overlay.getGraph();
+		int n = graph.getNumVertices();
+		dist = new double[n];
+		parent = new int[n];
+		parentLevel = new int[n];
+		stamp = new int[n];
+		settled = new boolean[n];
+		toExplore = new NodeHeap();
+	}
+
+	/** Find the shortest distance between two vertices
+	 * @param s The start vertex
+	 * @param t The goal vertex
+	 * @return The distance, or Double.POSITIVE_INFINITY if there is no path
+	 */
+	public double distance(int s, int t)
+	{
+		search(s, t, -1, -1);
+		return (stamp[t] == round) ? dist[t] : Double.POSITIVE_INFINITY;
+	}
+
+	/** Find a shortest path between two vertices
+	 * @param s The start vertex
+	 * @param t The goal vertex
+	 * @return The vertices on the path, including both ends, or null if
+	 *   there is no path
+	 */
+	public int[] shortestPath(int s, int t)
+	{
+		if (distance(s, t) == Double.POSITIVE_INFINITY) {
+			return null;
+		}
+		IntList path = new IntList();
+		path.add(s);
+		int[][] hops = hops(s, t);
+		for (int i = 0; i < hops[0].length; i++) {
+			expand(hops[0][i], hops[1][i], hops[2][i], path);
+		}
+		return Arrays.copyOf(path.data, path.size);
+	}
+
+	// Shortest distances from a boundary vertex to the rest of its cell,
+	// using the level below; read them back with getDistance
+	void cellSearch(int from, int level, int cell)
+	{
+		search(from, -1, level, cell);
+	}
+
+	// Distance to v found by the last search
+	double getDistance(int v)
+	{
+		return (stamp[v] == round) ? dist[v] : Double.POSITIVE_INFINITY;
+	}
+
+	// Append the road vertices of the edge from..to (not including from)
+	private void expand(int from, int to, int level, IntList path)
+	{
+		if (level == 0) {
+			path.add(to);
+			return;
+		}
+		search(from, to, level, partition.getCell(level, from));
+		int[][] hops = hops(from, to);
+		for (int i = 0; i < hops[0].length; i++) {
+			expand(hops[0][i], hops[1][i], hops[2][i], path);
+		}
+	}
+
+	// The edges on the path found by the last search, as parallel arrays
+	// of start vertex, end vertex and level, in order
+	private int[][] hops(int from, int to)
+	{
+		int count = 0;
+		for (int v = to; v != from; v = parent[v]) {
+			count++;
+		}
+		int[][] hops = new int[3][count];
+		for (int v = to; v != from; v = parent[v]) {
+			count--;
+			hops[0][count] = parent[v];
+			hops[1][count] = v;
+			hops[2][count] = parentLevel[v];
+		}
+		return hops;
+	}
+
+	// Dijkstra from s until t is settled (or until done if t is -1).
+	// With restrictLevel > 0 the search stays inside one cell of that
+	// level and runs on the level below; otherwise each vertex is
+	// scanned on its query level.
+	private void search(int s, int t, int restrictLevel, int restrictCell)
+	{
+		startRound();
+		source = s;
+		target = t;
+		touch(s);
+		dist[s] = 0;
+		toExplore.add(s, 0);
+		while (!toExplore.isEmpty()) {
+			double d = toExplore.peekKey();
+			int u = toExplore.remove();
+			if (settled[u] || d > dist[u]) {
+				continue;
+			}
+			settled[u] = true;
+			if (u == t) {
+				break;
+			}
+			int level = (restrictLevel > 0) ? restrictLevel - 1 : queryLevel(u);
+			scan(u, d, level, restrictLevel, restrictCell);
+		}
+		toExplore.clear();
+	}
+
+	// The highest level on which u is in neither the start's cell nor the
+	// goal's; 0 if it shares a level 1 cell with one of them
+	private int queryLevel(int u)
+	{
+		for (int l = partition.getNumLevels(); l > 0; l--) {
+			int cell = partition.getCell(l, u);
+			if (cell != partition.getCell(l, source)
+					&& (target < 0 || cell != partition.getCell(l, target))) {
+				return l;
+			}
+		}
+		return 0;
+	}
+
+	private void scan(int u, double d, int level, int restrictLevel, int restrictCell)
+	{
+		if (level > 0) {
+			// across the cell, to its other boundary vertices
+			int cell = partition.getCell(level, u);
+			int[] boundary = overlay.getBoundary(level, cell);
+			double[] clique = metric.getClique(level, cell);
+			int b = boundary.length;
+			int i = overlay.getBoundaryIndex(level, u);
+			for (int j = 0; j < b; j++) {
+				if (j != i) {
+					relax(boundary[j], d + clique[i * b + j], u, level);
+				}
+			}
+		}
+		// road edges, but only those leaving the cell on this level
+		int end = graph.firstEdge(u + 1);
+		for (int e = graph.firstEdge(u); e < end; e++) {
+			int w = graph.getEdgeTarget(e);
+			if (level > 0 && partition.getCell(level, w) == partition.getCell(level, u)) {
+				continue;
+			}
+			if (restrictLevel > 0 && partition.getCell(restrictLevel, w) != restrictCell) {
+				continue;
+			}
+			relax(w, d + metric.getWeight(e), u, 0);
+		}
+	}
+
+	private void relax(int v, double nd, int from, int level)
+	{
+		touch(v);
+		if (!settled[v] && nd < dist[v]) {
+			dist[v] = nd;
+			parent[v] = from;
+			parentLevel[v] = level;
+			toExplore.add(v, nd);
+		}
+	}
+
+	private void startRound()
+	{
+		round++;
+		if (round == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			round = 1;
+		}
+	}
+
+	private void touch(int v)
+	{
+		if (stamp[v] != round) {
+			stamp[v] = round;
+			dist[v] = Double.POSITIVE_INFINITY;
+			parent[v] = -1;
+			settled[v] = false;
+		}
+	}
+
+	// A growable list of ints
+	private static class IntList {
+		int[] data = new int[16];
+		int size;
+
+		void add(int v)
+		{
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = v;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A nested, multi-level partition of a CompactGraph into cells.
+ *
+ * Level 1 has the smallest cells; each cell of level l+1 is a union of
+ * cells of level l.  Cells are made by recursive bisection on vertex
+ * coordinates: the vertices are sorted along a few directions (north,
+ * east and the two diagonals), each is split at the median, and the
+ * split that cuts the fewest edges is kept.  This is a cheap stand-in
+ * for inertial flow, which would refine the same sorted order with a
+ * max-flow computation; road maps are sparse enough that the best
+ * direction alone gives small cuts.
+ *
+ * By convention level 0 puts every vertex in a cell of its own.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class Partition {
+	// directions tried when bisecting, as (north, east) weights
+	private static final double[][] DIRECTIONS = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+	private final CompactGraph graph;
+	private final int levels;
+	private final int[][] cellOf;
+	private final int[] numCells;
+
+	// scratch for sorting and counting cut edges
+	private final double[] key;
+	private final int[] side;
+	private int round;
+	private final int[] stamp;
+
+	/** Partition a graph
+	 * @param graph The graph to partition
+	 * @param maxCellSizes The largest number of vertices in a cell, for
+	 *   levels 1, 2, ... in increasing order
+	 */
+	public Partition(CompactGraph graph, int[] maxCellSizes)
+	{
+		for (int l = 0; l < maxCellSizes.length; l++) {
+			if (maxCellSizes[l] < 1 || (l > 0 && maxCellSizes[l] <= maxCellSizes[l - 1])) {
+				throw new IllegalArgumentException("Partition: cell sizes must be positive and increasing");
+			}
+		}
+		this.graph = graph;
+		int n = graph.getNumVertices();
+		levels = maxCellSizes.length;
+		cellOf = new int[levels + 1][];
+		numCells = new int[levels + 1];
+		cellOf[0] = new int[n];
+		for (int v = 0; v < n; v++) {
+			cellOf[0][v] = v;
+		}
+		numCells[0] = n;
+		for (int l = 1; l <= levels; l++) {
+			cellOf[l] = new int[n];
+		}
+		key = new double[n];
+		side = new int[n];
+		stamp = new int[n];
+
+		int[] all = new int[n];
+		for (int v = 0; v < n; v++) {
+			all[v] = v;
+		}
+		if (levels > 0) {
+			assign(all, levels, maxCellSizes);
+		}
+	}
+
+	/** @return The number of levels, not counting level 0 */
+	public int getNumLevels()
+	{
+		return levels;
+	}
+
+	/** @param level The level, from 0 to getNumLevels()
+	 * @return The number of cells on that level */
+	public int getNumCells(int level)
+	{
+		return numCells[level];
+	}
+
+	/** Get the cell a vertex is in
+	 * @param level The level, from 0 to getNumLevels()
+	 * @param v The vertex number
+	 * @return The cell number on that level
+	 */
+	public int getCell(int level, int v)
+	{
+		return cellOf[level][v];
+	}
+
+	// Split vertices into cells for this level, then split each cell
+	// for the levels below
+	private void assign(int[] vertices, int level, int[] maxCellSizes)
+	{
+		List<int[]> pieces = new ArrayList<int[]>();
+		bisect(vertices, maxCellSizes[level - 1], pieces);
+		for (int[] piece : pieces) {
+			int cell = numCells[level]++;
+			for (int v : piece) {
+				cellOf[level][v] = cell;
+			}
+			if (level > 1) {
+				assign(piece, level - 1, maxCellSizes);
+			}
+		}
+	}
+
+	private void bisect(int[] vertices, int maxSize, List<int[]> pieces)
+	{
+		if (vertices.length <= maxSize) {
+			pieces.add(vertices);
+			return;
+		}
+		Integer[] best = null;
+		int bestCut = Integer.MAX_VALUE;
+		for (double[] dir : DIRECTIONS) {
+			Integer[] order = sortAlong(vertices, dir[0], dir[1]);
+			int cut = cutSize(order);
+			if (cut < bestCut) {
+				bestCut = cut;
+				best = order;
+			}
+		}
+		int half = best.length / 2;
+		int[] first = new int[half];
+		int[] second = new int[best.length - half];
+		for (int i = 0; i < best.length; i++) {
+			if (i < half) {
+				first[i] = best[i];
+			}
+			else {
+				second[i - half] = best[i];
+			}
+		}
+		bisect(first, maxSize, pieces);
+		bisect(second, maxSize, pieces);
+	}
+
+	private Integer[] sortAlong(int[] vertices, double north, double east)
+	{
+		// scale longitude so both axes are in the same units
+		double cos = Math.cos(Math.toRadians(graph.getLatitude(vertices[0])));
+		Integer[] order = new Integer[vertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			int v = vertices[i];
+			key[v] = north * graph.getLatitude(v) + east * cos * graph.getLongitude(v);
+			order[i] = v;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(key[a], key[b]);
+			}
+		});
+		return order;
+	}
+
+	// Number of edges between the two halves of the order
+	private int cutSize(Integer[] order)
+	{
+		round++;
+		int half = order.length / 2;
+		for (int i = 0; i < order.length; i++) {
+			stamp[order[i]] = round;
+			side[order[i]] = (i < half) ? 0 : 1;
+		}
+		int cut = 0;
+		for (int u : order) {
+			for (int e = graph.firstEdge(u); e < graph.firstEdge(u + 1); e++) {
+				int v = graph.getEdgeTarget(e);
+				if (stamp[v] == round && side[v] != side[u]) {
+					cut++;
+				}
+			}
+		}
+		return cut;
+	}
+}
@@ -0,0 +1,459 @@
+package roadgraph;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import geography.BatchDistance;
+import geography.GeographicPoint;
+import geography.PointBuffer;
+import util.GraphLoader;
+
+/**
+ * A cache of routes in a MapGraph, for traffic that asks for the same
+ * routes over and over.
+ *
+ * Start and goal points are first snapped to the nearest intersection,
+ * so nearby requests share an entry.  A route is cached under its start
+ * and goal intersections, the algorithm, the cost profile (distance, or
+ * travel time at a departure time) and the version of the graph; adding
+ * intersections or edges or changing the speed profiles changes the
+ * version, and the first request after that empties the cache and the
+ * index used for snapping.  Paths are kept as arrays
+ * of node numbers, about 4 bytes a point, and turned back into points
+ * only when read.
+ *
+ * The cache holds at most a given number of bytes, and evicts by
+ * segmented LRU: a new route goes into a probation segment and moves to
+ * a protected segment (80% of the space) when it is asked for again,
+ * so a burst of one-off routes cannot push out the routes that are used
+ * all day.  The cache is split into stripes by key, each with its own
+ * lock, so threads looking up different routes rarely wait for each
+ * other.  Searches on a miss still run one at a time, since MapGraph
+ * searches are not thread safe.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class RouteCache {
+	/** The searches the cache can run */
+	public enum Algorithm { DIJKSTRA, ASTAR }
+
+	private static final int STRIPES = 16;
+	// bytes charged for each entry besides its path
+	private static final int ENTRY_OVERHEAD = 96;
+	private static final double PROTECTED_SHARE = 0.8;
+	// stands for "no route" in the cache
+	private static final int[] NO_ROUTE = new int[0];
+
+	private final MapGraph map;
+	private final Stripe[] stripes;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	// the graph version the entries and the snapping index belong to
+	private long version;
+	private PointBuffer points;
+
+	/** Create an empty cache
+	 * @param map The map to route on
+	 * @param maxBytes The most memory the cached paths may take, roughly
+	 */
+	public RouteCache(MapGraph map, long maxBytes)
+	{
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("RouteCache: size must be positive");
+		}
+		this.map = map;
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(maxBytes / STRIPES);
+		}
+		version = map.getVersion();
+	}
+
+	/** Find the shortest path by distance
+	 * @param start The start point, snapped to the nearest intersection
+	 * @param goal The goal point, snapped to the nearest intersection
+	 * @param algorithm The search to run on a miss
+	 * @return The intersections on the route, or null if there is none
+	 */
+	public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal, Algorithm algorithm)
+	{
+		return route(start, goal, algorithm, Double.NaN);
+	}
+
+	/** Find the fastest path when leaving at a given time.  Every distinct
+	 * departure time is a separate cost profile; round the times (to the
+	 * quarter hour, say) to share routes between them.
+	 * @param start The start point, snapped to the nearest intersection
+	 * @param goal The goal point, snapped to the nearest intersection
+	 * @param algorithm The search to run on a miss
+	 * @param departureTime The departure time in seconds since midnight,
+	 *   or NaN to route by distance
+	 * @return The intersections on the route, or null if there is none
+	 */
+	public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal, Algorithm algorithm,
+			double departureTime)
+	{
+		long current = checkVersion();
+		MapNode from = snap(start);
+		MapNode to = snap(goal);
+		if (from == null || to == null) {
+			return null;
+		}
+		Key key = new Key(from.getId(), to.getId(), algorithm, departureTime, current);
+		Stripe stripe = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+		int[] path = stripe.get(key);
+		if (path != null) {
+			hits.increment();
+		}
+		else {
+			misses.increment();
+			path = search(from.getLocation(), to.getLocation(), algorithm, departureTime);
+			evictions.add(stripe.put(key, path));
+		}
+		return (path == NO_ROUTE) ? null : new PathView(path);
+	}
+
+	// Run the search on a miss, one at a time, and pack the path
+	private int[] search(GeographicPoint start, GeographicPoint goal, Algorithm algorithm,
+			double departureTime)
+	{
+		List<GeographicPoint> path;
+		synchronized (map) {
+			boolean byTime = !Double.isNaN(departureTime);
+			if (algorithm == Algorithm.ASTAR) {
+				path = byTime ? map.aStarSearch(start, goal, departureTime) : map.aStarSearch(start, goal);
+			}
+			else {
+				path = byTime ? map.dijkstra(start, goal, departureTime) : map.dijkstra(start, goal);
+			}
+		}
+		if (path == null) {
+			return NO_ROUTE;
+		}
+		int[] ids = new int[path.size()];
+		int i = 0;
+		for (GeographicPoint p : path) {
+			ids[i++] = map.pointNodeMap.get(p).getId();
+		}
+		return ids;
+	}
+
+	// Empty the cache if the graph has changed since it was filled
+	private synchronized long checkVersion()
+	{
+		long current = map.getVersion();
+		if (current != version) {
+			for (Stripe s : stripes) {
+				s.clear();
+			}
+			points = null;
+			version = current;
+			invalidations.increment();
+		}
+		return current;
+	}
+
+	// The node at a point, or the nearest one
+	private MapNode snap(GeographicPoint location)
+	{
+		MapNode node = map.pointNodeMap.get(location);
+		if (node != null) {
+			return node;
+		}
+		PointBuffer index;
+		synchronized (this) {
+			if (points == null) {
+				points = new PointBuffer(map.nodesById.size());
+				for (MapNode n : map.nodesById) {
+					points.add(n.getLocation().getX(), n.getLocation().getY());
+				}
+				points.computeUnitVectors();
+			}
+			index = points;
+		}
+		int id = BatchDistance.nearest(location.getX(), location.getY(), index);
+		return (id < 0) ? null : map.nodesById.get(id);
+	}
+
+	/** Empty the cache.  Not needed after changes made through MapGraph,
+	 * which the cache notices by itself. */
+	public void invalidateAll()
+	{
+		for (Stripe s : stripes) {
+			s.clear();
+		}
+		invalidations.increment();
+	}
+
+	/** @return The number of requests answered from the cache */
+	public long getHits() { return hits.sum(); }
+
+	/** @return The number of requests that needed a search */
+	public long getMisses() { return misses.sum(); }
+
+	/** @return The number of routes evicted to make space */
+	public long getEvictions() { return evictions.sum(); }
+
+	/** @return The number of times the cache was emptied */
+	public long getInvalidations() { return invalidations.sum(); }
+
+	/** @return The share of requests answered from the cache, from 0 to 1 */
+	public double getHitRatio()
+	{
+		long h = getHits();
+		long total = h + getMisses();
+		return (total == 0) ? 0 : (double) h / total;
+	}
+
+	/** @return The number of routes in the cache */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe s : stripes) {
+			size += s.size();
+		}
+		return size;
+	}
+
+	/** @return The bytes charged for the routes in the cache */
+	public long getWeight()
+	{
+		long weight = 0;
+		for (Stripe s : stripes) {
+			weight += s.weight();
+		}
+		return weight;
+	}
+
+	/** Print the hit ratio and the other counts
+	 * @param out Where to print
+	 */
+	public void printStats(PrintStream out)
+	{
+		out.printf(Locale.ROOT, "hits %d, misses %d, hit ratio %.1f%%, evictions %d, invalidations %d, "
+				+ "%d routes in %d bytes%n", getHits(), getMisses(), 100 * getHitRatio(),
+				getEvictions(), getInvalidations(), size(), getWeight());
+	}
+
+	private static long weightOf(int[] path)
+	{
+		return ENTRY_OVERHEAD + 4L * path.length;
+	}
+
+	/**
+	 * One lock's share of the cache: a probation and a protected segment,
+	 * each in least recently used order.
+	 */
+	private static class Stripe {
+		private final long maxWeight;
+		private final long maxProtected;
+		private final LinkedHashMap<Key, int[]> probation = new LinkedHashMap<Key, int[]>(16, 0.75f, true);
+		private final LinkedHashMap<Key, int[]> protectedSegment = new LinkedHashMap<Key, int[]>(16, 0.75f, true);
+		private long probationWeight;
+		private long protectedWeight;
+
+		Stripe(long maxWeight)
+		{
+			this.maxWeight = maxWeight;
+			this.maxProtected = (long) (maxWeight * PROTECTED_SHARE);
+		}
+
+		synchronized int[] get(Key key)
+		{
+			int[] path = protectedSegment.get(key);
+			if (path != null) {
+				return path;
+			}
+			path = probation.remove(key);
+			if (path == null) {
+				return null;
+			}
+			// asked for twice: promote, demoting the oldest protected
+			// routes to probation if the protected segment is full
+			probationWeight -= weightOf(path);
+			protectedSegment.put(key, path);
+			protectedWeight += weightOf(path);
+			Iterator<Map.Entry<Key, int[]>> oldest = protectedSegment.entrySet().iterator();
+			while (protectedWeight > maxProtected && oldest.hasNext()) {
+				Map.Entry<Key, int[]> e = oldest.next();
+				if (e.getKey().equals(key)) {
+					break;
+				}
+				oldest.remove();
+				protectedWeight -= weightOf(e.getValue());
+				probation.put(e.getKey(), e.getValue());
+				probationWeight += weightOf(e.getValue());
+			}
+			return path;
+		}
+
+		// Add a route; returns the number of routes evicted
+		synchronized int put(Key key, int[] path)
+		{
+			long weight = weightOf(path);
+			if (weight > maxWeight || protectedSegment.containsKey(key) || probation.containsKey(key)) {
+				return 0;
+			}
+			probation.put(key, path);
+			probationWeight += weight;
+			int evicted = 0;
+			while (probationWeight + protectedWeight > maxWeight) {
+				LinkedHashMap<Key, int[]> victims = probation.isEmpty() ? protectedSegment : probation;
+				Iterator<Map.Entry<Key, int[]>> oldest = victims.entrySet().iterator();
+				Map.Entry<Key, int[]> e = oldest.next();
+				oldest.remove();
+				if (victims == probation) {
+					probationWeight -= weightOf(e.getValue());
+				}
+				else {
+					protectedWeight -= weightOf(e.getValue());
+				}
+				evicted++;
+			}
+			return evicted;
+		}
+
+		synchronized void clear()
+		{
+			probation.clear();
+			protectedSegment.clear();
+			probationWeight = 0;
+			protectedWeight = 0;
+		}
+
+		synchronized int size()
+		{
+			return probation.size() + protectedSegment.size();
+		}
+
+		synchronized long weight()
+		{
+			return probationWeight + protectedWeight;
+		}
+	}
+
+	private static class Key {
+		private final int from;
+		private final int to;
+		private final Algorithm algorithm;
+		// NaN for distance
+		private final double departureTime;
+		private final long version;
+		private final int hash;
+
+		Key(int from, int to, Algorithm algorithm, double departureTime, long version)
+		{
+			this.from = from;
+			this.to = to;
+			this.algorithm = algorithm;
+			this.departureTime = departureTime;
+			this.version = version;
+			int h = from * 31 + to;
+			h = h * 31 + algorithm.hashCode();
+			h = h * 31 + Double.hashCode(departureTime);
+			h = h * 31 + Long.hashCode(version);
+			// spread the bits, since the stripe is chosen from the low ones
+			hash = h ^ (h >>> 16);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return from == k.from && to == k.to && algorithm == k.algorithm
+					&& Double.compare(departureTime, k.departureTime) == 0 && version == k.version;
+		}
+	}
+
+	/**
+	 * A cached path read as points, without copying it.
+	 */
+	private class PathView extends AbstractList<GeographicPoint> {
+		private final int[] ids;
+
+		PathView(int[] ids)
+		{
+			this.ids = ids;
+		}
+
+		@Override
+		public GeographicPoint get(int i)
+		{
+			return map.nodesById.get(ids[i]).getLocation();
+		}
+
+		@Override
+		public int size()
+		{
+			return ids.length;
+		}
+	}
+
+	/** Replay skewed traffic (a few depots to many places, mostly the
+	 * same few hundred routes) through a cache and print its stats.
+	 * @param args Optional map file, default data/maps/san_diego.map
+	 */
+	public static void main(String[] args)
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		GeographicPoint[] vertices = map.getVertices().toArray(new GeographicPoint[0]);
+		RouteCache cache = new RouteCache(map, 256 * 1024);
+		Random random = new Random(1);
+		PrintStream console = System.out;
+		long start = System.nanoTime();
+		long elapsed;
+		try {
+			// searches print every node they visit
+			System.setOut(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {}
+
+				@Override
+				public void write(byte[] b, int off, int len) {}
+			}));
+			for (int i = 0; i < 20000; i++) {
+				// 80% of requests are among 200 popular routes
+				int pair = (random.nextDouble() < 0.8) ? random.nextInt(200) : 200 + random.nextInt(100000);
+				Random r = new Random(pair);
+				cache.route(vertices[r.nextInt(vertices.length)], vertices[r.nextInt(vertices.length)],
+						Algorithm.ASTAR);
+			}
+			elapsed = System.nanoTime() - start;
+			console.printf(Locale.ROOT, "%s: 20000 requests in %.0f ms%n", file, elapsed / 1e6);
+			cache.printStats(console);
+
+			// a new road changes the version, so the next request starts afresh
+			map.addEdge(vertices[0], vertices[1], "new road", "residential",
+					vertices[0].distance(vertices[1]));
+			cache.route(vertices[2], vertices[3], Algorithm.DIJKSTRA);
+		}
+		finally {
+			System.setOut(console);
+		}
+		System.out.print("After adding a road: ");
+		cache.printStats(System.out);
+	}
+}
@@ -0,0 +1,50 @@
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Checks that a RouteCache notices changes to the speed profiles of its
+ * graph: a travel time route asked for again is a hit, but after
+ * MapGraph.setSpeedProfile it is a miss and the new route is the
+ * fastest one.  Changing the copy from getSpeedProfiles must change
+ * nothing.  An intersection added later must be snapped to.
+ */
+public class RouteCacheTester {
+	public static void main (String[] args) {
+		MapGraph theMap = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", theMap);
+		RouteCache cache = new RouteCache(theMap, 64 * 1024);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		double eight = 8 * 3600;
+
+		cache.route(start, goal, RouteCache.Algorithm.ASTAR, eight);
+		cache.route(start, goal, RouteCache.Algorithm.ASTAR, eight);
+		System.out.println("Misses, hits: " + cache.getMisses() + ", " + cache.getHits()); // should be 1, 1
+
+		// a copy: the graph and the cache must not notice
+		theMap.getSpeedProfiles().setProfile("connector", SpeedProfile.constant(1000));
+		cache.route(start, goal, RouteCache.Algorithm.ASTAR, eight);
+		System.out.println("After changing a copy: " + cache.getMisses() + ", " + cache.getHits()); // should be 1, 2
+
+		// faster than any other road, so A* must raise its speed bound
+		theMap.setSpeedProfile("connector", SpeedProfile.constant(1000));
+		List<GeographicPoint> route = cache.route(start, goal, RouteCache.Algorithm.ASTAR, eight);
+		System.out.println("After setSpeedProfile: " + cache.getMisses() + ", " + cache.getHits()); // should be 2, 2
+
+		List<GeographicPoint> fastest = theMap.dijkstra(start, goal, eight);
+		System.out.println("A* route: " + route);
+		System.out.println(route.equals(fastest) ? "Same as Dijkstra." : "Dijkstra found " + fastest);
+
+		// a point off the intersections builds the snapping index
+		cache.route(new GeographicPoint(1.1, 1.1), goal, RouteCache.Algorithm.DIJKSTRA);
+		GeographicPoint added = new GeographicPoint(20.0, 20.0);
+		theMap.addVertex(added);
+		List<GeographicPoint> here = cache.route(new GeographicPoint(20.1, 20.1),
+				new GeographicPoint(19.9, 19.9), RouteCache.Algorithm.DIJKSTRA);
+		System.out.println("Snapped to: " + here); // should be [Lat: 20.0, Lon: 20.0]
+	}
+}
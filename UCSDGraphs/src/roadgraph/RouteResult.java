@@ -0,0 +1,56 @@
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * A route together with what it cost to find it.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class RouteResult {
+	private final List<GeographicPoint> path;
+	private final double cost;
+	private final SearchStats stats;
+
+	/** Create a result
+	 * @param path The intersections on the route, or null if there is none
+	 * @param cost The cost of the route in the search's units, or
+	 *   Double.POSITIVE_INFINITY if there is none
+	 * @param stats What the search did; kept, not copied
+	 */
+	public RouteResult(List<GeographicPoint> path, double cost, SearchStats stats)
+	{
+		this.path = path;
+		this.cost = cost;
+		this.stats = stats;
+	}
+
+	/** @return true if a route was found */
+	public boolean isFound()
+	{
+		return path != null;
+	}
+
+	/** @return The intersections on the route, including both ends, or
+	 *   null if there is none */
+	public List<GeographicPoint> getPath()
+	{
+		return path;
+	}
+
+	/** @return The cost of the route (km, or seconds for travel times),
+	 *   or Double.POSITIVE_INFINITY if there is none */
+	public double getCost()
+	{
+		return cost;
+	}
+
+	/** @return What the search did */
+	public SearchStats getStats()
+	{
+		return stats;
+	}
+}
@@ -0,0 +1,21 @@
+package roadgraph;
+
+/**
+ * Thrown by a search's nodeSearched hook to stop the search, e.g. when
+ * the user has asked for another route.  The hook is called for every
+ * node a search takes, so checking a flag in it makes any of the
+ * MapGraph searches cancellable; the exception comes out of the search
+ * method and no path is returned.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class SearchCancelledException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/** Create the exception */
+	public SearchCancelledException()
+	{
+		super("Search cancelled");
+	}
+}
@@ -0,0 +1,57 @@
+package roadgraph;
+
+/**
+ * Sends a Java Flight Recorder event for each query, when the JVM has
+ * JFR (Java 11 and later).
+ *
+ * The event class, JfrSearchEvents, needs the jdk.jfr module, so it
+ * lives in its own source folder, src-jfr, which is only compiled with
+ * Java 11 or later (see the README).  It is loaded by name; when it was
+ * not built, or the JVM has no JFR, the events are dropped.
+ * When JFR is present but not recording the event type, isEnabled is
+ * a field read and nothing else is done, so it costs nothing to leave
+ * the calls in.  Record with, for example,
+ *   java -XX:StartFlightRecording=filename=routes.jfr,settings=profile ...
+ * and look for the "Route Query" events under "Routing".
+ */
+abstract class SearchEvents {
+	private static final SearchEvents INSTANCE = load();
+
+	/** @return The event sender for this JVM */
+	static SearchEvents get()
+	{
+		return INSTANCE;
+	}
+
+	/** @return true if a recording wants the events */
+	abstract boolean isEnabled();
+
+	/** Send an event for a finished query
+	 * @param engine What answered the query, e.g. "CompactSearch.dijkstra"
+	 * @param source The start vertex, or -1 if not numbered
+	 * @param target The goal vertex, or -1 if not numbered
+	 * @param found Whether a route was found
+	 * @param stats What the search did
+	 */
+	abstract void commit(String engine, int source, int target, boolean found, SearchStats stats);
+
+	private static SearchEvents load()
+	{
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (SearchEvents) Class.forName("roadgraph.JfrSearchEvents").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			return new SearchEvents() {
+				@Override
+				boolean isEnabled()
+				{
+					return false;
+				}
+
+				@Override
+				void commit(String engine, int source, int target, boolean found, SearchStats stats) {}
+			};
+		}
+	}
+}
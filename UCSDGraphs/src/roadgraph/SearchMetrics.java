@@ -0,0 +1,183 @@
+package roadgraph;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import util.GraphLoader;
+import util.Histogram;
+
+/**
+ * Running totals and distributions of the SearchStats of many queries,
+ * for a server or batch job to report.
+ *
+ * Totals are LongAdders and distributions are Histograms, so any number
+ * of threads can record at once without locking, and recording costs a
+ * few atomic adds on memory the threads rarely share.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class SearchMetrics {
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder pairs = new LongAdder();
+	private final LongAdder unreachable = new LongAdder();
+	private final LongAdder settled = new LongAdder();
+	private final LongAdder relaxations = new LongAdder();
+	private final LongAdder stalePops = new LongAdder();
+	private final LongAdder allocatedBytes = new LongAdder();
+	private final Histogram latency = new Histogram();
+	private final Histogram settledPerQuery = new Histogram();
+	private final Histogram queuePeak = new Histogram();
+
+	/** Add one query
+	 * @param result The result of the query
+	 */
+	public void record(RouteResult result)
+	{
+		record(result.getStats(), result.isFound());
+	}
+
+	/** Add one query
+	 * @param stats What the search did
+	 * @param found Whether a route was found
+	 */
+	public void record(SearchStats stats, boolean found)
+	{
+		pairs.increment();
+		if (!found) {
+			unreachable.increment();
+		}
+		recordSearch(stats);
+	}
+
+	/** Add one search that answered several pairs, e.g. a oneToMany
+	 * search for a row of a distance matrix.  It counts as one query;
+	 * each pair it found no route for counts as unreachable.
+	 * @param stats What the search did
+	 * @param distances The distance found for each pair, or
+	 *   Double.POSITIVE_INFINITY where there is no route
+	 */
+	public void record(SearchStats stats, double[] distances)
+	{
+		pairs.add(distances.length);
+		for (double d : distances) {
+			if (d == Double.POSITIVE_INFINITY) {
+				unreachable.increment();
+			}
+		}
+		recordSearch(stats);
+	}
+
+	private void recordSearch(SearchStats stats)
+	{
+		queries.increment();
+		settled.add(stats.settled);
+		relaxations.add(stats.relaxations);
+		stalePops.add(stats.stalePops);
+		if (stats.allocatedBytes > 0) {
+			allocatedBytes.add(stats.allocatedBytes);
+		}
+		latency.record(stats.getTotalNanos());
+		settledPerQuery.record(stats.settled);
+		queuePeak.record(stats.queuePeak);
+	}
+
+	/** @return The number of queries (searches) recorded */
+	public long getQueries() { return queries.sum(); }
+
+	/** @return The number of start and goal pairs the queries answered */
+	public long getPairs() { return pairs.sum(); }
+
+	/** @return The number of pairs with no route */
+	public long getUnreachable() { return unreachable.sum(); }
+
+	/** @return The total vertices settled */
+	public long getSettled() { return settled.sum(); }
+
+	/** @return The total edges relaxed */
+	public long getRelaxations() { return relaxations.sum(); }
+
+	/** @return The total stale queue entries skipped */
+	public long getStalePops() { return stalePops.sum(); }
+
+	/** @return The total bytes allocated by queries that measured it */
+	public long getAllocatedBytes() { return allocatedBytes.sum(); }
+
+	/** @return The query times, in nanoseconds */
+	public Histogram getLatency() { return latency; }
+
+	/** @return The vertices settled per query */
+	public Histogram getSettledPerQuery() { return settledPerQuery; }
+
+	/** @return The largest queue size of each query */
+	public Histogram getQueuePeak() { return queuePeak; }
+
+	/** Forget everything recorded */
+	public void reset()
+	{
+		queries.reset();
+		pairs.reset();
+		unreachable.reset();
+		settled.reset();
+		relaxations.reset();
+		stalePops.reset();
+		allocatedBytes.reset();
+		latency.reset();
+		settledPerQuery.reset();
+		queuePeak.reset();
+	}
+
+	/** Print the totals and the percentiles of each distribution
+	 * @param out Where to print
+	 */
+	public void print(PrintStream out)
+	{
+		long n = Math.max(1, getQueries());
+		out.printf(Locale.ROOT, "%d queries, %d pairs (%d unreachable): %.1f settled, %.1f relaxations, "
+				+ "%.1f stale pops per query%n", getQueries(), getPairs(), getUnreachable(),
+				(double) getSettled() / n, (double) getRelaxations() / n, (double) getStalePops() / n);
+		latency.printSummary(out, "  latency", "us", 1e3);
+		settledPerQuery.printSummary(out, "  settled", "vertices", 1);
+		queuePeak.printSummary(out, "  queue peak", "entries", 1);
+		if (getAllocatedBytes() > 0) {
+			out.printf(Locale.ROOT, "  allocated: %.0f bytes per query%n", (double) getAllocatedBytes() / n);
+		}
+	}
+
+	/** Run random queries with Dijkstra and A* on a map and print their
+	 * metrics.
+	 * @param args Optional map file, default data/maps/san_diego.map
+	 */
+	public static void main(String[] args)
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		CompactGraph graph = new CompactGraph(map);
+		CompactSearch search = new CompactSearch(graph);
+		Heuristic heuristic = Heuristics.planar(graph);
+		int n = graph.getNumVertices();
+		SearchStats.setAllocationTracking(true);
+
+		for (int pass = 0; pass < 2; pass++) {
+			// the first pass warms up the JIT
+			SearchMetrics dijkstra = new SearchMetrics();
+			SearchMetrics aStar = new SearchMetrics();
+			Random random = new Random(1);
+			for (int i = 0; i < 5000; i++) {
+				int s = random.nextInt(n);
+				int t = random.nextInt(n);
+				dijkstra.record(search.route(s, t));
+				aStar.record(search.route(s, t, heuristic));
+			}
+			if (pass == 1) {
+				System.out.print("Dijkstra on " + file + ": ");
+				dijkstra.print(System.out);
+				System.out.print("A* on " + file + ": ");
+				aStar.print(System.out);
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package roadgraph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * What one search did: how many vertices it settled, how many edges it
+ * relaxed, how large its queue grew, how many outdated queue entries it
+ * skipped, and how long it spent setting up, searching and building the
+ * path.
+ *
+ * The counts are kept by every search in CompactSearch and MapGraph;
+ * they are plain int increments.  The timings are filled in by the
+ * methods that return a RouteResult and by MapGraph's searches.  The
+ * bytes allocated are only measured when allocation tracking is turned
+ * on, because asking the JVM costs about as much as a short search.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class SearchStats {
+	private static volatile boolean trackAllocation;
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	int settled;
+	int relaxations;
+	int queuePeak;
+	int stalePops;
+	long setupNanos;
+	long searchNanos;
+	long pathNanos;
+	long allocatedBytes = -1;
+
+	/** Start with all counts zero and no allocation measured */
+	public SearchStats() {}
+
+	/** Copy another search's stats
+	 * @param other The stats to copy
+	 */
+	public SearchStats(SearchStats other)
+	{
+		settled = other.settled;
+		relaxations = other.relaxations;
+		queuePeak = other.queuePeak;
+		stalePops = other.stalePops;
+		setupNanos = other.setupNanos;
+		searchNanos = other.searchNanos;
+		pathNanos = other.pathNanos;
+		allocatedBytes = other.allocatedBytes;
+	}
+
+	/** Turn measuring the bytes allocated by each search on or off, for
+	 * every search in the program.  It is off to start with.
+	 * @param on true to measure
+	 */
+	public static void setAllocationTracking(boolean on)
+	{
+		trackAllocation = on;
+	}
+
+	/** @return true if searches measure the bytes they allocate */
+	public static boolean isAllocationTracking()
+	{
+		return trackAllocation;
+	}
+
+	// Bytes this thread has allocated so far, or -1 when not tracking or
+	// the JVM cannot tell
+	static long allocatedByThread()
+	{
+		if (trackAllocation && THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	void reset()
+	{
+		settled = 0;
+		relaxations = 0;
+		queuePeak = 0;
+		stalePops = 0;
+		setupNanos = 0;
+		searchNanos = 0;
+		pathNanos = 0;
+		allocatedBytes = -1;
+	}
+
+	// Record the time and allocation since the start of the search
+	void finish(long startNanos, long searchStartNanos, long pathStartNanos, long startAllocated)
+	{
+		long end = System.nanoTime();
+		setupNanos = searchStartNanos - startNanos;
+		searchNanos = pathStartNanos - searchStartNanos;
+		pathNanos = end - pathStartNanos;
+		long allocated = allocatedByThread();
+		allocatedBytes = (startAllocated < 0 || allocated < 0) ? -1 : allocated - startAllocated;
+	}
+
+	/** @return The number of vertices taken off the queue and expanded */
+	public int getSettled() { return settled; }
+
+	/** @return The number of edges looked at from settled vertices */
+	public int getRelaxations() { return relaxations; }
+
+	/** @return The largest number of entries in the queue at once */
+	public int getQueuePeak() { return queuePeak; }
+
+	/** @return The number of queue entries skipped because their vertex
+	 *   had already been settled or reached more cheaply */
+	public int getStalePops() { return stalePops; }
+
+	/** @return Nanoseconds spent before the first vertex was settled */
+	public long getSetupNanos() { return setupNanos; }
+
+	/** @return Nanoseconds spent searching */
+	public long getSearchNanos() { return searchNanos; }
+
+	/** @return Nanoseconds spent building the path */
+	public long getPathNanos() { return pathNanos; }
+
+	/** @return Total nanoseconds for the query */
+	public long getTotalNanos() { return setupNanos + searchNanos + pathNanos; }
+
+	/** @return Bytes allocated by the query, or -1 if not measured */
+	public long getAllocatedBytes() { return allocatedBytes; }
+
+	@Override
+	public String toString()
+	{
+		return "settled " + settled + ", relaxations " + relaxations + ", queue peak " + queuePeak
+				+ ", stale pops " + stalePops + ", setup " + setupNanos + " ns, search "
+				+ searchNanos + " ns, path " + pathNanos + " ns"
+				+ ((allocatedBytes < 0) ? "" : ", allocated " + allocatedBytes + " bytes");
+	}
+}
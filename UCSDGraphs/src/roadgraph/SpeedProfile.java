@@ -0,0 +1,162 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A time-of-day speed profile for one class of road.
+ *
+ * The day is split into intervals and each interval has a constant
+ * speed.  The travel time over an edge is found by "driving" the edge
+ * through those intervals, so the travel time as a function of the
+ * departure time is piecewise linear, and leaving later never gets
+ * you there earlier (the FIFO property time-dependent Dijkstra and
+ * A* depend on).
+ *
+ * Profiles are immutable, so every edge of the same road type can
+ * share one instance.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class SpeedProfile {
+	/** Number of seconds in a day; times are taken modulo this value */
+	public static final double SECONDS_PER_DAY = 24 * 60 * 60;
+
+	/** Start of each interval in seconds since midnight, ascending, first is 0 */
+	private final double[] startTimes;
+
+	/** Speed during each interval, in km/h */
+	private final double[] speeds;
+
+	private final double maxSpeed;
+
+	/** Create a new profile from interval start times and speeds.
+	 *
+	 * @param startTimes The start of each interval in seconds since
+	 *   midnight.  Must be strictly ascending and start at 0.
+	 * @param speeds The speed during each interval, in km/h.
+	 * @throws IllegalArgumentException If the arrays are empty or of
+	 *   different lengths, the times are not ascending from 0, or a
+	 *   speed is not positive.
+	 */
+	public SpeedProfile(double[] startTimes, double[] speeds)
+	{
+		if (startTimes.length == 0 || startTimes.length != speeds.length) {
+			throw new IllegalArgumentException("SpeedProfile: need one speed per interval");
+		}
+		if (startTimes[0] != 0) {
+			throw new IllegalArgumentException("SpeedProfile: first interval must start at 0");
+		}
+		double max = 0;
+		for (int i = 0; i < speeds.length; i++) {
+			if (i > 0 && startTimes[i] <= startTimes[i-1]) {
+				throw new IllegalArgumentException("SpeedProfile: start times must be ascending");
+			}
+			if (startTimes[i] >= SECONDS_PER_DAY) {
+				throw new IllegalArgumentException("SpeedProfile: start times must be within one day");
+			}
+			if (!(speeds[i] > 0)) {
+				throw new IllegalArgumentException("SpeedProfile: speeds must be positive");
+			}
+			max = Math.max(max, speeds[i]);
+		}
+		this.startTimes = startTimes.clone();
+		this.speeds = speeds.clone();
+		this.maxSpeed = max;
+	}
+
+	/** Create a profile with the same speed all day.
+	 * @param speed The speed in km/h
+	 * @return The new profile
+	 */
+	public static SpeedProfile constant(double speed)
+	{
+		return new SpeedProfile(new double[] {0}, new double[] {speed});
+	}
+
+	/** Create a profile from a free flow speed scaled by one factor
+	 * for each hour of the day.
+	 * @param freeFlowSpeed The uncongested speed in km/h
+	 * @param hourlyFactors 24 multipliers, one per hour starting at midnight
+	 * @return The new profile
+	 */
+	public static SpeedProfile hourly(double freeFlowSpeed, double[] hourlyFactors)
+	{
+		if (hourlyFactors.length != 24) {
+			throw new IllegalArgumentException("SpeedProfile: need 24 hourly factors");
+		}
+		double[] starts = new double[24];
+		double[] speeds = new double[24];
+		for (int h = 0; h < 24; h++) {
+			starts[h] = h * 3600.0;
+			speeds[h] = freeFlowSpeed * hourlyFactors[h];
+		}
+		return new SpeedProfile(starts, speeds);
+	}
+
+	/** Get the speed in km/h at the given time of day
+	 * @param time Seconds since midnight (any value, taken modulo a day)
+	 * @return The speed at that time
+	 */
+	public double getSpeed(double time)
+	{
+		return speeds[intervalOf(timeOfDay(time))];
+	}
+
+	/** Get the highest speed anywhere in this profile
+	 * @return The maximum speed in km/h
+	 */
+	public double getMaxSpeed()
+	{
+		return maxSpeed;
+	}
+
+	/** Calculate how long it takes to travel a distance when setting off
+	 * at the given time, following the speed changes along the way.
+	 * @param length The distance to travel, in km
+	 * @param departureTime The departure time in seconds since midnight
+	 * @return The travel time in seconds
+	 */
+	public double getTravelTime(double length, double departureTime)
+	{
+		double t = timeOfDay(departureTime);
+		int i = intervalOf(t);
+		double remaining = length;
+		double elapsed = 0;
+
+		while (true) {
+			double end = (i + 1 < startTimes.length) ? startTimes[i+1] : SECONDS_PER_DAY;
+			double kmPerSecond = speeds[i] / 3600.0;
+			double reachable = (end - t) * kmPerSecond;
+			if (reachable >= remaining) {
+				return elapsed + remaining / kmPerSecond;
+			}
+			remaining -= reachable;
+			elapsed += end - t;
+			t = end;
+			i++;
+			if (i == startTimes.length) {
+				i = 0;
+				t = 0;
+			}
+		}
+	}
+
+	// Find the interval containing a time of day
+	private int intervalOf(double t)
+	{
+		int i = Arrays.binarySearch(startTimes, t);
+		return (i >= 0) ? i : -i - 2;
+	}
+
+	private static double timeOfDay(double time)
+	{
+		double t = time % SECONDS_PER_DAY;
+		return (t < 0) ? t + SECONDS_PER_DAY : t;
+	}
+
+	public String toString()
+	{
+		return "SpeedProfile" + Arrays.toString(speeds);
+	}
+}
@@ -0,0 +1,113 @@
+package roadgraph;
+
+import java.util.HashMap;
+
+/**
+ * The set of speed profiles for a map, one per road type (the OSM
+ * "highway" tag stored in the .map files), plus a default profile
+ * for any road type that has no profile of its own.
+ *
+ * Edges share the profile of their road class, so the memory needed
+ * for time-dependent costs depends on the number of road types and
+ * not on the number of edges.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class SpeedProfiles {
+	private HashMap<String, SpeedProfile> profiles;
+	private SpeedProfile defaultProfile;
+
+	/** Create a new set of profiles with only a default profile
+	 * @param defaultProfile The profile used for unknown road types
+	 */
+	public SpeedProfiles(SpeedProfile defaultProfile)
+	{
+		if (defaultProfile == null) {
+			throw new NullPointerException("SpeedProfiles: default profile cannot be null");
+		}
+		this.profiles = new HashMap<String, SpeedProfile>();
+		this.defaultProfile = defaultProfile;
+	}
+
+	/** Create a copy of a set of profiles.  The profiles themselves
+	 * cannot change, so they are shared.
+	 * @param other The profiles to copy
+	 */
+	public SpeedProfiles(SpeedProfiles other)
+	{
+		this.profiles = new HashMap<String, SpeedProfile>(other.profiles);
+		this.defaultProfile = other.defaultProfile;
+	}
+
+	/** Set the profile for a road type
+	 * @param roadType The road type, e.g. "residential"
+	 * @param profile The profile shared by all roads of that type
+	 */
+	public void setProfile(String roadType, SpeedProfile profile)
+	{
+		if (roadType == null || profile == null) {
+			throw new NullPointerException("SpeedProfiles: road type and profile cannot be null");
+		}
+		profiles.put(roadType, profile);
+	}
+
+	/** Get the profile for a road type, or the default profile if the
+	 * road type has none.
+	 * @param roadType The road type
+	 * @return The profile to use for roads of that type
+	 */
+	public SpeedProfile getProfile(String roadType)
+	{
+		SpeedProfile p = profiles.get(roadType);
+		return (p == null) ? defaultProfile : p;
+	}
+
+	/** Get the highest speed in any profile.  Dividing a distance by
+	 * this speed never overestimates the travel time, so it is used
+	 * to build the A* heuristic.
+	 * @return The maximum speed in km/h
+	 */
+	public double getMaxSpeed()
+	{
+		double max = defaultProfile.getMaxSpeed();
+		for (SpeedProfile p : profiles.values()) {
+			max = Math.max(max, p.getMaxSpeed());
+		}
+		return max;
+	}
+
+	/** Build a set of profiles with typical urban free flow speeds for
+	 * the OSM road types, slowed down in the morning and evening rush
+	 * hours.
+	 * @return The default profiles
+	 */
+	public static SpeedProfiles defaultProfiles()
+	{
+		// Fraction of free flow speed for each hour of the day
+		double[] arterial = {
+			1.0, 1.0, 1.0, 1.0, 1.0, 0.95, 0.8, 0.55, 0.5, 0.7, 0.85, 0.85,
+			0.8, 0.85, 0.85, 0.75, 0.6, 0.5, 0.55, 0.75, 0.9, 0.95, 1.0, 1.0
+		};
+		double[] local = {
+			1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 0.95, 0.8, 0.75, 0.9, 0.95, 0.95,
+			0.9, 0.95, 0.95, 0.9, 0.8, 0.75, 0.8, 0.9, 1.0, 1.0, 1.0, 1.0
+		};
+
+		SpeedProfiles sp = new SpeedProfiles(SpeedProfile.hourly(30, local));
+		sp.setProfile("motorway", SpeedProfile.hourly(100, arterial));
+		sp.setProfile("trunk", SpeedProfile.hourly(80, arterial));
+		sp.setProfile("primary", SpeedProfile.hourly(60, arterial));
+		sp.setProfile("secondary", SpeedProfile.hourly(50, arterial));
+		sp.setProfile("tertiary", SpeedProfile.hourly(45, local));
+		sp.setProfile("motorway_link", SpeedProfile.hourly(60, arterial));
+		sp.setProfile("trunk_link", SpeedProfile.hourly(50, arterial));
+		sp.setProfile("primary_link", SpeedProfile.hourly(40, arterial));
+		sp.setProfile("secondary_link", SpeedProfile.hourly(40, local));
+		sp.setProfile("tertiary_link", SpeedProfile.hourly(35, local));
+		sp.setProfile("unclassified", SpeedProfile.hourly(30, local));
+		sp.setProfile("residential", SpeedProfile.hourly(30, local));
+		sp.setProfile("living_street", SpeedProfile.constant(10));
+		return sp;
+	}
+}
@@ -0,0 +1,195 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import benchmark.QueryWorkload;
+import geography.GeographicPoint;
+import roadgraph.CompactGraph;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import util.Histogram;
+
+/**
+ * Starts a RoutingServer on localhost and loads it from a number of
+ * client threads, first with one /route request per query and then with
+ * the same queries sent to /batch, and prints the throughput and
+ * request latencies of each.
+ *
+ * Each run is done twice and only the second is reported, so both the
+ * server and the clients have been compiled by the JIT.  The clients run
+ * in the same JVM as the server, so on a small machine they compete
+ * with it for the cores; the numbers are for comparing the endpoints,
+ * not for sizing a deployment.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class LoadTest {
+	private final String base;
+	private final QueryWorkload workload;
+	private final int clients;
+
+	private LoadTest(int port, QueryWorkload workload, int clients)
+	{
+		this.base = "http://localhost:" + port;
+		this.workload = workload;
+		this.clients = clients;
+	}
+
+	/** @param args Optional map file (default data/maps/san_diego.map),
+	 *   number of client threads (default 4), number of queries (default
+	 *   2000) and queries per batch (default 200)
+	 * @throws Exception if the server cannot be started or a request fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+		int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		int queries = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+		int batchSize = (args.length > 3) ? Integer.parseInt(args[3]) : 200;
+
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		int threads = Runtime.getRuntime().availableProcessors();
+		RoutingServer server = new RoutingServer(new CompactGraph(map), 0, threads);
+		server.start();
+		try {
+			QueryWorkload workload = QueryWorkload.generate(map, QueryWorkload.Mode.UNIFORM, queries, 42);
+			System.out.println(file + ": " + queries + " queries from " + clients
+					+ " clients against " + threads + " server threads");
+			LoadTest test = new LoadTest(server.getPort(), workload, clients);
+			for (int pass = 0; pass < 2; pass++) {
+				boolean report = (pass == 1);
+				test.run("route", 1, report);
+				test.run("batch of " + batchSize, batchSize, report);
+			}
+			System.out.println("Server stats: " + get(test.base + "/stats"));
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+	// Send every query, batchSize to a request, and print the results
+	private void run(String label, final int batchSize, boolean report) throws Exception
+	{
+		final Histogram latency = new Histogram();
+		final LongAdder failures = new LongAdder();
+		final AtomicInteger next = new AtomicInteger();
+		final int requests = (workload.size() + batchSize - 1) / batchSize;
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		long start = System.nanoTime();
+		try {
+			Callable<Void> client = () -> {
+				int r;
+				while ((r = next.getAndIncrement()) < requests) {
+					long t0 = System.nanoTime();
+					try {
+						if (batchSize == 1) {
+							get(routeUrl(r));
+						}
+						else {
+							post(base + "/batch", batchBody(r * batchSize,
+									Math.min(workload.size(), (r + 1) * batchSize)));
+						}
+						latency.record(System.nanoTime() - t0);
+					}
+					catch (IOException e) {
+						failures.increment();
+					}
+				}
+				return null;
+			};
+			for (int c = 0; c < clients; c++) {
+				futures.add(pool.submit(client));
+			}
+			for (Future<Void> f : futures) {
+				f.get();
+			}
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Client failed", e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (report) {
+			System.out.printf(Locale.ROOT, "%-14s %6d requests, %.0f queries/s, %d failed%n", label,
+					latency.getCount(), workload.size() / seconds, failures.sum());
+			latency.printSummary(System.out, "  request latency", "ms", 1e6);
+		}
+	}
+
+	private String routeUrl(int i)
+	{
+		GeographicPoint from = workload.getOrigin(i);
+		GeographicPoint to = workload.getDestination(i);
+		return base + "/route?from=" + from.getX() + "," + from.getY() + "&to=" + to.getX()
+				+ "," + to.getY() + "&path=false";
+	}
+
+	private String batchBody(int from, int to)
+	{
+		StringBuilder body = new StringBuilder("{\"queries\":[");
+		for (int i = from; i < to; i++) {
+			GeographicPoint a = workload.getOrigin(i);
+			GeographicPoint b = workload.getDestination(i);
+			body.append((i == from) ? "[" : ",[").append(a.getX()).append(',').append(a.getY())
+					.append(',').append(b.getX()).append(',').append(b.getY()).append(']');
+		}
+		return body.append("]}").toString();
+	}
+
+	private static String get(String url) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		return read(connection);
+	}
+
+	private static String post(String url, String body) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+		OutputStream out = connection.getOutputStream();
+		out.write(body.getBytes(StandardCharsets.UTF_8));
+		out.close();
+		return read(connection);
+	}
+
+	// Read the whole response, so the connection can be kept alive
+	private static String read(HttpURLConnection connection) throws IOException
+	{
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("HTTP " + connection.getResponseCode() + " from " + connection.getURL());
+		}
+		InputStream in = connection.getInputStream();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+		in.close();
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,518 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import geography.GeographicPoint;
+import roadgraph.CompactGraph;
+import roadgraph.CompactSearch;
+import roadgraph.Heuristic;
+import roadgraph.Heuristics;
+import roadgraph.MapGraph;
+import roadgraph.RouteResult;
+import roadgraph.SearchMetrics;
+import util.GraphLoader;
+import util.Histogram;
+
+/**
+ * A small HTTP server that answers routing queries on one map, for
+ * routing without the MapApp.
+ *
+ * The map is loaded once into a CompactGraph, which is never changed
+ * and so is shared by all requests; each worker thread has its own
+ * CompactSearch.  Points do not need to be exact intersections: they
+ * are snapped to the nearest one.  All answers are JSON; distances are
+ * in km, and null where there is no route.
+ *
+ *   GET  /route?from=LAT,LON&amp;to=LAT,LON[&amp;algorithm=dijkstra|astar][&amp;path=false]
+ *        the shortest route, its length and the vertices settled
+ *   GET  /nearest?lat=LAT&amp;lon=LON
+ *        the nearest intersection
+ *   POST /matrix   {"sources": [[lat, lon], ...], "targets": [[lat, lon], ...]}
+ *        the distance from every source to every target
+ *   POST /batch    {"queries": [[fromLat, fromLon, toLat, toLon], ...], "paths": false}
+ *        many routes in one request
+ *   GET  /stats
+ *        counts (searches, start and goal pairs, pairs with no route) and
+ *        latency percentiles of the queries answered so far
+ *
+ * The batch endpoint pays for parsing, snapping and dispatch once per
+ * request instead of once per query, and queries that share an origin
+ * are answered by one search that stops when all of their destinations
+ * are settled.
+ *
+ * Requests run on a fixed pool of worker threads, one per core by
+ * default: the work is all computation, so more threads than cores only
+ * adds switching.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class RoutingServer {
+	private final CompactGraph graph;
+	private final Heuristic heuristic;
+	private final ThreadLocal<CompactSearch> searches;
+	private final SearchMetrics metrics = new SearchMetrics();
+	private final Histogram requestLatency = new Histogram();
+	private final HttpServer server;
+	private final ExecutorService workers;
+
+	/** Create a server; call start to begin answering requests
+	 * @param graph The road graph to route on
+	 * @param port The port to listen on, or 0 for any free port
+	 * @param threads The number of worker threads
+	 * @throws IOException if the port cannot be opened
+	 */
+	public RoutingServer(final CompactGraph graph, int port, int threads) throws IOException
+	{
+		this.graph = graph;
+		heuristic = Heuristics.planar(graph);
+		searches = ThreadLocal.withInitial(() -> new CompactSearch(graph));
+		// without TCP_NODELAY small responses on kept-alive connections
+		// wait for the client's delayed ACK, about 40 ms each; the JDK
+		// server reads this property when the first server is created
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		workers = Executors.newFixedThreadPool(Math.max(1, threads));
+		server.setExecutor(workers);
+		server.createContext("/route", new Endpoint("GET") {
+			@Override
+			void answer(HttpExchange exchange, JsonGenerator json)
+			{
+				route(query(exchange), json);
+			}
+		});
+		server.createContext("/nearest", new Endpoint("GET") {
+			@Override
+			void answer(HttpExchange exchange, JsonGenerator json)
+			{
+				nearest(query(exchange), json);
+			}
+		});
+		server.createContext("/matrix", new Endpoint("POST") {
+			@Override
+			void answer(HttpExchange exchange, JsonGenerator json) throws IOException
+			{
+				matrix(body(exchange), json);
+			}
+		});
+		server.createContext("/batch", new Endpoint("POST") {
+			@Override
+			void answer(HttpExchange exchange, JsonGenerator json) throws IOException
+			{
+				batch(body(exchange), json);
+			}
+		});
+		server.createContext("/stats", new Endpoint("GET") {
+			@Override
+			void answer(HttpExchange exchange, JsonGenerator json)
+			{
+				stats(json);
+			}
+		});
+	}
+
+	/** Start answering requests */
+	public void start()
+	{
+		server.start();
+	}
+
+	/** Stop the server, letting requests in progress finish for up to a
+	 * second */
+	public void stop()
+	{
+		server.stop(1);
+		workers.shutdown();
+		try {
+			workers.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** @return The port the server listens on */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/** @return The stats of every query answered so far */
+	public SearchMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	private void route(Map<String, String> query, JsonGenerator json)
+	{
+		int from = snap(point(required(query, "from")));
+		int to = snap(point(required(query, "to")));
+		String algorithm = query.containsKey("algorithm") ? query.get("algorithm") : "astar";
+		boolean withPath = !"false".equals(query.get("path"));
+		RouteResult result;
+		if (algorithm.equalsIgnoreCase("astar")) {
+			result = searches.get().route(from, to, heuristic);
+		}
+		else if (algorithm.equalsIgnoreCase("dijkstra")) {
+			result = searches.get().route(from, to);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+		}
+		metrics.record(result);
+
+		json.writeStartObject();
+		writeDistance(json, "distance", result.getCost());
+		json.write("settled", result.getStats().getSettled());
+		if (withPath && result.isFound()) {
+			json.writeStartArray("path");
+			for (GeographicPoint p : result.getPath()) {
+				json.writeStartArray().write(p.getX()).write(p.getY()).writeEnd();
+			}
+			json.writeEnd();
+		}
+		json.writeEnd();
+	}
+
+	private void nearest(Map<String, String> query, JsonGenerator json)
+	{
+		GeographicPoint location = new GeographicPoint(number(required(query, "lat")),
+				number(required(query, "lon")));
+		int v = snap(location);
+		json.writeStartObject()
+				.write("vertex", v)
+				.write("lat", graph.getLatitude(v))
+				.write("lon", graph.getLongitude(v))
+				.write("distance", location.distance(graph.getLocation(v)))
+				.writeEnd();
+	}
+
+	private void matrix(JsonObject body, JsonGenerator json)
+	{
+		int[] sources = snapAll(array(body, "sources"));
+		int[] targets = snapAll(array(body, "targets"));
+		CompactSearch search = searches.get();
+		json.writeStartObject();
+		json.writeStartArray("distances");
+		for (int s : sources) {
+			double[] row = search.oneToMany(s, targets);
+			metrics.record(search.getLastStats(), row);
+			json.writeStartArray();
+			for (double d : row) {
+				writeDistance(json, d);
+			}
+			json.writeEnd();
+		}
+		json.writeEnd();
+		json.writeEnd();
+	}
+
+	private void batch(JsonObject body, JsonGenerator json)
+	{
+		JsonArray queries = array(body, "queries");
+		boolean withPaths = body.getBoolean("paths", false);
+		int n = queries.size();
+		int[] from = new int[n];
+		int[] to = new int[n];
+		for (int i = 0; i < n; i++) {
+			JsonArray q = queries.getJsonArray(i);
+			if (q.size() != 4) {
+				throw new IllegalArgumentException("Query " + i + " must be [fromLat, fromLon, toLat, toLon]");
+			}
+			from[i] = snap(new GeographicPoint(q.getJsonNumber(0).doubleValue(), q.getJsonNumber(1).doubleValue()));
+			to[i] = snap(new GeographicPoint(q.getJsonNumber(2).doubleValue(), q.getJsonNumber(3).doubleValue()));
+		}
+
+		// answer the queries grouped by origin, one search per origin:
+		// sort the query numbers by origin, packed as (origin, query)
+		long[] order = new long[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = ((long) from[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		double[] distances = new double[n];
+		int[][] paths = withPaths ? new int[n][] : null;
+		CompactSearch search = searches.get();
+		for (int start = 0; start < n; ) {
+			int source = (int) (order[start] >>> 32);
+			int end = start;
+			while (end < n && (int) (order[end] >>> 32) == source) {
+				end++;
+			}
+			int[] targets = new int[end - start];
+			for (int k = start; k < end; k++) {
+				targets[k - start] = to[(int) order[k]];
+			}
+			double[] d = search.oneToMany(source, targets);
+			metrics.record(search.getLastStats(), d);
+			for (int k = start; k < end; k++) {
+				int q = (int) order[k];
+				distances[q] = d[k - start];
+				if (withPaths) {
+					paths[q] = search.getPath(to[q]);
+				}
+			}
+			start = end;
+		}
+
+		json.writeStartObject();
+		json.writeStartArray("results");
+		for (int i = 0; i < n; i++) {
+			json.writeStartObject();
+			writeDistance(json, "distance", distances[i]);
+			if (withPaths && paths[i] != null) {
+				json.writeStartArray("path");
+				for (int v : paths[i]) {
+					json.writeStartArray().write(graph.getLatitude(v)).write(graph.getLongitude(v)).writeEnd();
+				}
+				json.writeEnd();
+			}
+			json.writeEnd();
+		}
+		json.writeEnd();
+		json.writeEnd();
+	}
+
+	private void stats(JsonGenerator json)
+	{
+		Histogram latency = metrics.getLatency();
+		json.writeStartObject()
+				.write("queries", metrics.getQueries())
+				.write("pairs", metrics.getPairs())
+				.write("unreachable", metrics.getUnreachable())
+				.write("settled", metrics.getSettled())
+				.write("relaxations", metrics.getRelaxations())
+				.write("searchP50Micros", latency.getValueAtPercentile(50) / 1e3)
+				.write("searchP99Micros", latency.getValueAtPercentile(99) / 1e3)
+				.write("requests", requestLatency.getCount())
+				.write("requestP50Micros", requestLatency.getValueAtPercentile(50) / 1e3)
+				.write("requestP99Micros", requestLatency.getValueAtPercentile(99) / 1e3)
+				.write("requestP999Micros", requestLatency.getValueAtPercentile(99.9) / 1e3)
+				.writeEnd();
+	}
+
+	// The nearest vertex to a location
+	private int snap(GeographicPoint location)
+	{
+		int v = graph.nearestVertex(location);
+		if (v < 0) {
+			throw new IllegalArgumentException("The map is empty");
+		}
+		return v;
+	}
+
+	private int[] snapAll(JsonArray points)
+	{
+		int[] vertices = new int[points.size()];
+		for (int i = 0; i < vertices.length; i++) {
+			JsonArray p = points.getJsonArray(i);
+			if (p.size() != 2) {
+				throw new IllegalArgumentException("Point " + i + " must be [lat, lon]");
+			}
+			vertices[i] = snap(new GeographicPoint(p.getJsonNumber(0).doubleValue(),
+					p.getJsonNumber(1).doubleValue()));
+		}
+		return vertices;
+	}
+
+	// JSON has no infinity, so "no route" is written as null
+	private static void writeDistance(JsonGenerator json, String name, double d)
+	{
+		if (d == Double.POSITIVE_INFINITY) {
+			json.writeNull(name);
+		}
+		else {
+			json.write(name, d);
+		}
+	}
+
+	private static void writeDistance(JsonGenerator json, double d)
+	{
+		if (d == Double.POSITIVE_INFINITY) {
+			json.writeNull();
+		}
+		else {
+			json.write(d);
+		}
+	}
+
+	private static GeographicPoint point(String text)
+	{
+		String[] parts = text.split(",");
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Expected LAT,LON but got " + text);
+		}
+		return new GeographicPoint(number(parts[0]), number(parts[1]));
+	}
+
+	private static double number(String text)
+	{
+		try {
+			return Double.parseDouble(text.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + text);
+		}
+	}
+
+	private static String required(Map<String, String> query, String name)
+	{
+		String value = query.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing parameter " + name);
+		}
+		return value;
+	}
+
+	private static JsonArray array(JsonObject body, String name)
+	{
+		JsonArray array = body.getJsonArray(name);
+		if (array == null) {
+			throw new IllegalArgumentException("Missing array " + name);
+		}
+		return array;
+	}
+
+	private static Map<String, String> query(HttpExchange exchange)
+	{
+		Map<String, String> params = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return params;
+		}
+		try {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+							URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			}
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return params;
+	}
+
+	private static JsonObject body(HttpExchange exchange) throws IOException
+	{
+		InputStream in = exchange.getRequestBody();
+		JsonReader reader = Json.createReader(in);
+		try {
+			return reader.readObject();
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Checks the method, times the request, and turns the answer (or the
+	 * error) into a JSON response.
+	 */
+	private abstract class Endpoint implements HttpHandler {
+		private final String method;
+
+		Endpoint(String method)
+		{
+			this.method = method;
+		}
+
+		abstract void answer(HttpExchange exchange, JsonGenerator json) throws IOException;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			long start = System.nanoTime();
+			try {
+				if (!exchange.getRequestMethod().equals(method)) {
+					error(exchange, 405, "Use " + method);
+					return;
+				}
+				// build the answer first, so an error can still set the status
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				JsonGenerator json = Json.createGenerator(buffer);
+				try {
+					answer(exchange, json);
+					json.close();
+				}
+				catch (IllegalArgumentException | JsonException | ClassCastException
+						| IndexOutOfBoundsException e) {
+					error(exchange, 400, e.getMessage());
+					return;
+				}
+				send(exchange, 200, buffer.toByteArray());
+			}
+			catch (RuntimeException e) {
+				error(exchange, 500, e.toString());
+			}
+			finally {
+				exchange.close();
+				requestLatency.record(System.nanoTime() - start);
+			}
+		}
+
+		private void error(HttpExchange exchange, int status, String message) throws IOException
+		{
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			JsonGenerator json = Json.createGenerator(buffer);
+			json.writeStartObject().write("error", String.valueOf(message)).writeEnd();
+			json.close();
+			send(exchange, status, buffer.toByteArray());
+		}
+
+		private void send(HttpExchange exchange, int status, byte[] body) throws IOException
+		{
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+
+	/** Serve a map
+	 * @param args Optional map file (default data/maps/san_diego.map),
+	 *   port (default 8080) and number of threads (default one per core)
+	 * @throws IOException if the port cannot be opened
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String file = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : 8080;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2])
+				: Runtime.getRuntime().availableProcessors();
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file, map);
+		RoutingServer server = new RoutingServer(new CompactGraph(map), port, threads);
+		server.start();
+		System.out.println("Routing on " + file + " at http://localhost:" + server.getPort()
+				+ "/ with " + threads + " threads");
+	}
+}
@@ -0,0 +1,300 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes a fast stream of items (e.g. the nodes a search takes) to a
+ * slower consumer (e.g. the map) in frames: the items offered during a
+ * frame time, at most one frame per request from the subscriber.  A frame
+ * goes out no sooner than a frame time after the last one; items still
+ * pending then are sent by a timer, so they do not wait for the next
+ * offer.
+ *
+ * It works like a java.util.concurrent.Flow publisher, which Java 8
+ * does not have: the subscriber gets a Subscription and asks for frames
+ * with request(n), so it is never sent more than it can draw.  While it
+ * has not asked, items collect in the next frame, which holds at most
+ * the capacity given.  When that fills up, every other item is dropped
+ * and only every second item offered after is kept, then every fourth
+ * and so on, so a late frame is an even sample of everything offered
+ * since the last one, and the memory used stays bounded however fast
+ * items come.
+ *
+ * Items may be offered from one thread; frames are delivered through the
+ * executor given, e.g. Platform::runLater to draw on the JavaFX thread.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ * @param <T> The type of the items
+ */
+public class FramePublisher<T> {
+	/** A frame's worth of items */
+	public static class Frame<T> {
+		private final List<T> items;
+		private final int dropped;
+		private final long sequence;
+
+		Frame(List<T> items, int dropped, long sequence)
+		{
+			this.items = items;
+			this.dropped = dropped;
+			this.sequence = sequence;
+		}
+
+		/** @return The items kept, in the order they were offered */
+		public List<T> getItems() { return items; }
+
+		/** @return The number of items offered during the frame but dropped */
+		public int getDropped() { return dropped; }
+
+		/** @return The number of the frame, from 0 */
+		public long getSequence() { return sequence; }
+	}
+
+	/** Receives the frames, through the publisher's executor */
+	public interface Subscriber<T> {
+		/** Called first, with the means to ask for frames
+		 * @param subscription The subscription */
+		void onSubscribe(Subscription subscription);
+
+		/** Called with each frame, once per frame requested
+		 * @param frame The frame */
+		void onNext(Frame<T> frame);
+
+		/** Called after the last frame, once the publisher is closed */
+		void onComplete();
+	}
+
+	/** A subscriber's link to the publisher */
+	public interface Subscription {
+		/** Ask for more frames
+		 * @param n The number of frames the subscriber can take */
+		void request(long n);
+
+		/** Stop: no more frames are sent, and offers are ignored */
+		void cancel();
+	}
+
+	// sends frames that fall due between offers; one for all publishers
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "frame-timer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final long frameNanos;
+	private final int capacity;
+	private final Executor executor;
+
+	private Subscriber<T> subscriber;
+	private long demand;
+	private boolean closed;
+	private boolean completed;
+	private boolean cancelled;
+
+	// the next frame: one item in every 'stride' offered is kept
+	private List<T> pending = new ArrayList<T>();
+	private int stride = 1;
+	private long skipped;
+	private int dropped;
+	private long lastFrame;
+	// whether the timer will look for a frame
+	private boolean scheduled;
+	private long sequence;
+	private long offered;
+
+	/** Create a publisher
+	 * @param frameMillis The shortest time between frames
+	 * @param capacity The most items a frame holds
+	 * @param executor What to deliver frames with
+	 * @throws IllegalArgumentException if capacity is less than 2
+	 */
+	public FramePublisher(long frameMillis, int capacity, Executor executor)
+	{
+		if (capacity < 2) {
+			throw new IllegalArgumentException("FramePublisher: capacity " + capacity + " is less than 2");
+		}
+		this.frameNanos = frameMillis * 1000000L;
+		this.capacity = capacity;
+		this.executor = executor;
+		lastFrame = System.nanoTime();
+	}
+
+	/** Set the one subscriber
+	 * @param s The subscriber
+	 * @throws IllegalStateException if there already is one
+	 */
+	public void subscribe(Subscriber<T> s)
+	{
+		synchronized (this) {
+			if (subscriber != null) {
+				throw new IllegalStateException("FramePublisher: already subscribed");
+			}
+			subscriber = s;
+		}
+		executor.execute(() -> s.onSubscribe(new Subscription() {
+			@Override
+			public void request(long n)
+			{
+				FramePublisher.this.request(n);
+			}
+
+			@Override
+			public void cancel()
+			{
+				FramePublisher.this.cancel();
+			}
+		}));
+	}
+
+	/** Add an item to the stream
+	 * @param item The item
+	 */
+	public void offer(T item)
+	{
+		Runnable delivery;
+		synchronized (this) {
+			if (cancelled || closed) {
+				return;
+			}
+			offered++;
+			if (skipped++ % stride != 0) {
+				dropped++;
+				return;
+			}
+			pending.add(item);
+			if (pending.size() >= capacity) {
+				thin();
+			}
+			delivery = nextFrame(false);
+		}
+		if (delivery != null) {
+			executor.execute(delivery);
+		}
+	}
+
+	// Drop every other item pending and keep half as many from now on
+	private void thin()
+	{
+		List<T> kept = new ArrayList<T>(capacity);
+		for (int i = 0; i < pending.size(); i += 2) {
+			kept.add(pending.get(i));
+		}
+		dropped += pending.size() - kept.size();
+		pending = kept;
+		stride *= 2;
+		skipped = 1;
+	}
+
+	/** Say there are no more items: what is pending is sent as the last
+	 * frame, then the subscriber is told the stream is complete */
+	public void close()
+	{
+		Runnable delivery;
+		synchronized (this) {
+			closed = true;
+			delivery = nextFrame(true);
+		}
+		if (delivery != null) {
+			executor.execute(delivery);
+		}
+	}
+
+	/** @return true once the subscriber has cancelled */
+	public synchronized boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/** @return The number of items offered so far, kept or not */
+	public synchronized long getOffered()
+	{
+		return offered;
+	}
+
+	private void request(long n)
+	{
+		if (n <= 0) {
+			throw new IllegalArgumentException("FramePublisher: request of " + n);
+		}
+		Runnable delivery;
+		synchronized (this) {
+			demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+			// items held back while the subscriber was busy go now if a
+			// frame time has passed, otherwise when it has
+			delivery = nextFrame(false);
+		}
+		if (delivery != null) {
+			executor.execute(delivery);
+		}
+	}
+
+	// Called by the timer when a frame falls due
+	private void sendDue()
+	{
+		Runnable delivery;
+		synchronized (this) {
+			scheduled = false;
+			delivery = nextFrame(false);
+		}
+		if (delivery != null) {
+			executor.execute(delivery);
+		}
+	}
+
+	private synchronized void cancel()
+	{
+		cancelled = true;
+		pending = Collections.emptyList();
+	}
+
+	// Take the next frame, if it is due and wanted, or the completion
+	// signal; if a frame is wanted but not yet due, have the timer send
+	// it.  Called holding the lock, delivered outside it
+	private Runnable nextFrame(boolean ignoreTime)
+	{
+		if (cancelled || subscriber == null || demand == 0 || completed) {
+			return null;
+		}
+		long now = System.nanoTime();
+		Subscriber<T> s = subscriber;
+		long wait = frameNanos - (now - lastFrame);
+		if (!pending.isEmpty() && !ignoreTime && wait > 0) {
+			if (!scheduled) {
+				scheduled = true;
+				TIMER.schedule(this::sendDue, wait, TimeUnit.NANOSECONDS);
+			}
+			return null;
+		}
+		if (!pending.isEmpty()) {
+			Frame<T> frame = new Frame<T>(pending, dropped, sequence++);
+			pending = new ArrayList<T>();
+			stride = 1;
+			skipped = 0;
+			dropped = 0;
+			lastFrame = now;
+			demand--;
+			boolean last = closed;
+			if (last) {
+				completed = true;
+			}
+			return () -> {
+				s.onNext(frame);
+				if (last) {
+					s.onComplete();
+				}
+			};
+		}
+		if (closed && pending.isEmpty()) {
+			completed = true;
+			return s::onComplete;
+		}
+		return null;
+	}
+}
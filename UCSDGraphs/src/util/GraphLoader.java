@@ -7,6 +7,7 @@
 package util;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -17,17 +18,25 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.DoubleConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import basicgraph.Graph;
+import geography.BatchDistance;
 import geography.GeographicPoint;
+import geography.GeometryStore;
+import geography.PointBuffer;
 import geography.RoadSegment;
 import roadgraph.MapGraph;
 
 
 public class GraphLoader 
 {
+	// the part of loading a road map that is reading the file, and how
+	// often to say how far it has got
+	private static final double READ_SHARE = 0.8;
+	private static final int PROGRESS_LINES = 1000;
 	
 	/** 
 	 * 	 * The file contains data lines as follows:
@@ -129,14 +138,36 @@ public class GraphLoader
 	 *   described.
 	 * @param map The graph to load the map into.  The graph is
 	 *   assumed to be directed.
+	 * @param segments The collection of RoadSegments that define the 
+	 *   shape of a road, or null.  When it is given, the shapes are also
+	 *   kept in a GeometryStore in the graph, indexed by edge.
+	 * @param intersectionsToLoad Filled with the intersections, or null
 	 */
 	public static void loadRoadMap(String filename, roadgraph.MapGraph map,  
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
 			Set<GeographicPoint> intersectionsToLoad)
+	{
+		loadRoadMap(filename, map, segments, intersectionsToLoad, done -> {});
+	}
+
+	/**
+	 * Read in a file specifying a map, as above, telling how far it has
+	 * got as it goes.
+	 * 
+	 * @param filename The file containing the road data
+	 * @param map The graph to load the map into
+	 * @param segments The shapes of the roads, or null
+	 * @param intersectionsToLoad Filled with the intersections, or null
+	 * @param progress Called on the loading thread with the fraction of
+	 *   the work done, from 0 to 1; reading the file is most of it
+	 */
+	public static void loadRoadMap(String filename, roadgraph.MapGraph map,  
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			Set<GeographicPoint> intersectionsToLoad, DoubleConsumer progress)
 	{
 		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
         HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
+        		buildPointMapOneWay(filename, progress);
 		
         // Add the nodes to the graph
 		List<GeographicPoint> intersections = findIntersections(pointMap);
@@ -149,7 +180,52 @@ public class GraphLoader
 		}
 		
 		
+		progress.accept(READ_SHARE);
 		addEdgesAndSegments(nodes, pointMap, map, segments);
+		progress.accept(1);
+	}
+
+	/**
+	 * Builds a road map from segments given one at a time rather than
+	 * read from a file, with the same rules as loadRoadMap: each segment
+	 * is one way, and points are collapsed so only intersections become
+	 * nodes of the graph.  Used to compile a graph straight from other
+	 * road data without writing a .map file first.
+	 */
+	public static class RoadMapBuilder
+	{
+		private final HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
+				new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
+
+		/**
+		 * Add a one way segment, as on a line of a .map file
+		 * @param lat1 The latitude of the start
+		 * @param lon1 The longitude of the start
+		 * @param lat2 The latitude of the end
+		 * @param lon2 The longitude of the end
+		 * @param roadName The name of the road
+		 * @param roadType The type of the road
+		 */
+		public void addSegment(double lat1, double lon1, double lat2, double lon2,
+				String roadName, String roadType)
+		{
+			addToPointsMapOneWay(new RoadLineInfo(new GeographicPoint(lat1, lon1),
+					new GeographicPoint(lat2, lon2), roadName, roadType), pointMap);
+		}
+
+		/**
+		 * Add the intersections and roads to a graph
+		 * @param map The graph, assumed to be directed
+		 */
+		public void build(roadgraph.MapGraph map)
+		{
+			Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
+			for (GeographicPoint pt : findIntersections(pointMap)) {
+				map.addVertex(pt);
+				nodes.add(pt);
+			}
+			addEdgesAndSegments(nodes, pointMap, map, null);
+		}
 	}
 
 	
@@ -328,6 +404,13 @@ public class GraphLoader
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
 	{
 	
+		// the shapes of the roads, indexed by edge, for drawing routes
+		GeometryStore geometry = null;
+		if (segments != null) {
+			geometry = new GeometryStore();
+			map.setGeometryStore(geometry);
+		}
+		
 		// Now we need to add the edges
 		// This is the tricky part
 		for (GeographicPoint pt : nodes) {
@@ -343,18 +426,28 @@ public class GraphLoader
 						findPointsOnEdge(pointMap, info, nodes);
 				GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
 				double length = getRoadLength(pt, end, pointsOnEdge);
-				map.addEdge(pt, end, info.roadName, info.roadType, length);
+				if (geometry == null) {
+					map.addEdge(pt, end, info.roadName, info.roadType, length);
+				}
 
 				// If the segments variable is not null, then we 
 				// save the road geometry
 				if (segments != null) {
+					// the other direction of a two-way road shares its shape
+					int shape = reverseShape(segments.get(end), geometry, end, pt, 
+							pointsOnEdge, info.roadName);
+					if (shape < 0) {
+						shape = geometry.add(pt, pointsOnEdge, end);
+					}
+					map.addEdge(pt, end, info.roadName, info.roadType, length, shape);
+					
 					// Now create road Segments for each edge
 					HashSet<RoadSegment> segs = segments.get(pt);
 					if (segs == null) {
 						segs = new HashSet<RoadSegment>();
 						segments.put(pt,segs);
 					}
-					RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
+					RoadSegment seg = new RoadSegment(pt, end, geometry, shape, 
 							info.roadName, info.roadType, length);
 					segs.add(seg);
 					segs = segments.get(end);
@@ -369,19 +462,41 @@ public class GraphLoader
 	}
 			
 	
+	// Find the shape already stored for the road from "from" to "to" 
+	// among the segments at "from", and return it marked as reversed
+	// if it has the same points backwards; otherwise return -1.
+	private static int reverseShape(HashSet<RoadSegment> segs, GeometryStore geometry,
+			GeographicPoint from, GeographicPoint to, List<GeographicPoint> pointsOnEdge,
+			String roadName)
+	{
+		if (segs == null) {
+			return -1;
+		}
+		for (RoadSegment seg : segs) {
+			int shape = seg.getShape();
+			if (seg.getRoadName().equals(roadName) && seg.getStart().equals(from)
+					&& seg.getEnd().equals(to) && (shape & GeometryStore.REVERSED) == 0
+					&& geometry.isReverseOf(shape, to, pointsOnEdge, from)) {
+				return shape | GeometryStore.REVERSED;
+			}
+		}
+		return -1;
+	}
+	
 	// Calculate the length of this road segment taking into account all of the 
 	// intermediate geographic points.
 	private static double getRoadLength(GeographicPoint start, GeographicPoint end,
 			List<GeographicPoint> path)
 	{
-		double dist = 0.0;
-		GeographicPoint curr = start;
+		// same result as summing GeographicPoint.distance, but each
+		// point's cosine is only computed once
+		PointBuffer points = new PointBuffer(path.size() + 2);
+		points.add(start);
 		for (GeographicPoint next : path) {
-			dist += curr.distance(next);
-			curr = next;
+			points.add(next);
 		}
-		dist += curr.distance(end);
-		return dist;
+		points.add(end);
+		return BatchDistance.pathLength(points);
 	}
 	
 	private static List<GeographicPoint>
@@ -521,6 +636,13 @@ public class GraphLoader
 	// stores the outgoing roads.
 	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
 	buildPointMapOneWay(String filename)
+	{
+		return buildPointMapOneWay(filename, done -> {});
+	}
+
+	// As above, with progress up to READ_SHARE as the file is read
+	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
+	buildPointMapOneWay(String filename, DoubleConsumer progress)
 	{
 		BufferedReader reader = null;
         HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
@@ -528,10 +650,17 @@ public class GraphLoader
 		try {
             String nextLine;
             reader = new BufferedReader(new FileReader(filename));
+            double length = Math.max(1, new File(filename).length());
+            long read = 0;
+            int lines = 0;
             // Read the lines out of the file and put them in a HashMap by points
             while ((nextLine = reader.readLine()) != null) {
             	RoadLineInfo line = splitInputString(nextLine);
             	addToPointsMapOneWay(line, pointMap);
+            	read += nextLine.length() + 1;
+            	if (++lines % PROGRESS_LINES == 0) {
+            		progress.accept(READ_SHARE * Math.min(1, read / length));
+            	}
             }
             reader.close();
         } catch (IOException e) {
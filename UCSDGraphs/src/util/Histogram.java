@@ -0,0 +1,222 @@
+package util;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values (latencies, counts) in the
+ * style of HdrHistogram: every value is recorded, in constant time and
+ * memory, to within about 1.6% of its true value.
+ *
+ * Values below 128 get a bucket each.  Above that, each power of two is
+ * split into 64 equal buckets, so a bucket is never wider than 1/64 of
+ * the values in it.  All of the buckets fit in one array of 3712 longs.
+ *
+ * Recording is lock-free (atomic adds on the bucket counts), so any
+ * number of threads can record into the same histogram.  Reading while
+ * others record gives a consistent-enough snapshot for monitoring.
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class Histogram {
+	// 2^7 exact values, then 2^6 buckets per power of two
+	private static final int SUB_BITS = 7;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF = SUB_COUNT / 2;
+	private static final int BUCKETS = SUB_COUNT + (63 - SUB_BITS) * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+	private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+	/** Record a value
+	 * @param value The value, at least 0
+	 * @throws IllegalArgumentException if the value is negative
+	 */
+	public void record(long value)
+	{
+		if (value < 0) {
+			throw new IllegalArgumentException("Histogram: negative value " + value);
+		}
+		counts.incrementAndGet(bucketOf(value));
+		total.increment();
+		sum.add(value);
+		max.accumulate(value);
+		min.accumulate(value);
+	}
+
+	/** Add all the values recorded in another histogram to this one
+	 * @param other The histogram to add
+	 */
+	public void add(Histogram other)
+	{
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		total.add(other.getCount());
+		sum.add(other.sum.sum());
+		if (other.getCount() > 0) {
+			max.accumulate(other.getMax());
+			min.accumulate(other.getMin());
+		}
+	}
+
+	/** Forget every value recorded.  Not atomic with respect to threads
+	 * that are recording at the same time. */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+		max.reset();
+		min.reset();
+	}
+
+	/** @return The number of values recorded */
+	public long getCount()
+	{
+		return total.sum();
+	}
+
+	/** @return The largest value recorded, or 0 if there are none */
+	public long getMax()
+	{
+		return (getCount() == 0) ? 0 : max.get();
+	}
+
+	/** @return The smallest value recorded, or 0 if there are none */
+	public long getMin()
+	{
+		return (getCount() == 0) ? 0 : min.get();
+	}
+
+	/** @return The mean of the values recorded (exact), or 0 if none */
+	public double getMean()
+	{
+		long n = getCount();
+		return (n == 0) ? 0 : (double) sum.sum() / n;
+	}
+
+	/** Get the value at a percentile
+	 * @param percentile From 0 to 100, e.g. 99.9
+	 * @return The largest value that falls in the same bucket as the
+	 *   value at that percentile (never more than the maximum recorded),
+	 *   or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long n = getCount();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestInBucket(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/** Count the values recorded in a range.  The ends are rounded to
+	 * bucket boundaries, so counts are exact for values below 128 and
+	 * for ranges between powers of two.
+	 * @param low The smallest value to count
+	 * @param high The value to stop at (not counted)
+	 * @return The number of values recorded from low up to high
+	 */
+	public long countBetween(long low, long high)
+	{
+		if (high <= low) {
+			return 0;
+		}
+		long count = 0;
+		int last = bucketOf(high - 1);
+		for (int i = bucketOf(low); i <= last; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/** Print a summary: count, mean, percentiles and maximum
+	 * @param out Where to print
+	 * @param label What the values are, e.g. "latency"
+	 * @param unit The unit to print, e.g. "us"
+	 * @param scale What to divide the values by for printing
+	 */
+	public void printSummary(PrintStream out, String label, String unit, double scale)
+	{
+		out.printf(Locale.ROOT,
+				"%s (%s): count %d, mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+				label, unit, getCount(), getMean() / scale,
+				getValueAtPercentile(50) / scale, getValueAtPercentile(90) / scale,
+				getValueAtPercentile(99) / scale, getValueAtPercentile(99.9) / scale,
+				getMax() / scale);
+	}
+
+	/** Print the counts in power-of-two ranges, with a bar for each
+	 * @param out Where to print
+	 * @param label What the values are, e.g. "settled nodes"
+	 */
+	public void printDistribution(PrintStream out, String label)
+	{
+		out.println(label + ":");
+		long n = getCount();
+		if (n == 0) {
+			return;
+		}
+		long low = 0;
+		long high = 1;
+		while (low <= getMax()) {
+			long c = countBetween(low, high);
+			if (c > 0) {
+				StringBuilder bar = new StringBuilder();
+				for (int i = 0; i < Math.round(50.0 * c / n); i++) {
+					bar.append('#');
+				}
+				out.printf(Locale.ROOT, "  %10d - %-10d %8d %s%n", low, high - 1, c, bar);
+			}
+			low = high;
+			high = (high > Long.MAX_VALUE / 2) ? Long.MAX_VALUE : high * 2;
+		}
+	}
+
+	// The bucket a value falls in
+	static int bucketOf(long value)
+	{
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = msb - (SUB_BITS - 1);
+		int mantissa = (int) (value >>> shift);
+		return SUB_COUNT + (shift - 1) * HALF + (mantissa - HALF);
+	}
+
+	// The largest value that falls in a bucket
+	static long highestInBucket(int bucket)
+	{
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_COUNT) / HALF + 1;
+		long mantissa = (bucket - SUB_COUNT) % HALF + HALF;
+		if (shift + SUB_BITS - 1 >= 63 && mantissa == SUB_COUNT - 1) {
+			return Long.MAX_VALUE;
+		}
+		return ((mantissa + 1) << shift) - 1;
+	}
+}